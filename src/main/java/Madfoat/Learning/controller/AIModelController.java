@@ -10,6 +10,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.Map;
 
 @Controller
 public class AIModelController {
@@ -39,36 +40,70 @@ public class AIModelController {
 
     @PostMapping("/ai/ingest-file")
     public String ingestFile(@RequestParam("file") MultipartFile file, Model model) {
-        kb.ingestFile(file);
+        Map<String, Object> result = kb.ingestFile(file);
         model.addAttribute("docs", kb.listDocuments());
-        model.addAttribute("message", "File ingested successfully");
+        if (!"ok".equals(result.get("status"))) {
+            model.addAttribute("message", "File ingest failed: " + result.get("message"));
+        } else if (result.get("sheets") instanceof List<?> sheets) {
+            model.addAttribute("message", "File ingested successfully: " + sheets.size() + " sheet(s), "
+                    + result.get("rows") + " row(s) in " + result.get("documents") + " document(s)" + duplicatesNote(result));
+        } else if (Integer.valueOf(1).equals(result.get("duplicates"))) {
+            model.addAttribute("message", "File already ingested; duplicate skipped");
+        } else {
+            model.addAttribute("message", "File ingested successfully" + duplicatesNote(result));
+        }
         return "ai-model";
     }
 
+    private static String duplicatesNote(Map<String, Object> result) {
+        Object updated = result.get("updated");
+        Object duplicates = result.get("duplicates");
+        String note = "";
+        if (updated instanceof Integer u && u > 0) note += ", " + u + " updated from an earlier upload";
+        if (duplicates instanceof Integer d && d > 0) note += ", " + d + " duplicate(s) skipped";
+        return note;
+    }
+
     @PostMapping("/ai/connect-jira")
     public String connectJira(@RequestParam("baseUrl") String baseUrl,
                               @RequestParam("email") String email,
                               @RequestParam("token") String token,
                               @RequestParam("projectKey") String projectKey,
-                              @RequestParam(value = "maxIssues", required = false, defaultValue = "25") int maxIssues,
+                              @RequestParam(value = "maxIssues", required = false, defaultValue = "0") int maxIssues,
                               Model model) {
-        kb.ingestJiraProject(baseUrl, email, token, projectKey, maxIssues);
+        Map<String, Object> result = kb.ingestJiraProject(baseUrl, email, token, projectKey, maxIssues);
         model.addAttribute("docs", kb.listDocuments());
-        model.addAttribute("message", "Jira project content fetched");
+        if ("ok".equals(result.get("status"))) {
+            model.addAttribute("message", "Jira project synced: " + result.get("added") + " added, " + result.get("updated")
+                    + " updated, " + result.get("unchanged") + " unchanged in " + result.get("elapsedMs") + " ms");
+        } else {
+            model.addAttribute("message", "Jira sync failed: " + result.get("message"));
+        }
         return "ai-model";
     }
 
     @PostMapping("/ai/connect-slack")
     public String connectSlack(@RequestParam("token") String token,
                                @RequestParam("channel") String channel,
-                               @RequestParam(value = "limit", required = false, defaultValue = "50") int limit,
+                               @RequestParam(value = "limit", required = false, defaultValue = "0") int limit,
                                Model model) {
-        kb.ingestSlackChannel(token, channel, limit);
+        Map<String, Object> result = kb.ingestSlackChannel(token, channel, limit);
         model.addAttribute("docs", kb.listDocuments());
-        model.addAttribute("message", "Slack channel content fetched");
+        if ("ok".equals(result.get("status"))) {
+            model.addAttribute("message", "Slack channel synced: " + result.get("added") + " added, " + result.get("updated")
+                    + " updated, " + result.get("unchanged") + " unchanged in " + result.get("elapsedMs") + " ms");
+        } else {
+            model.addAttribute("message", "Slack sync failed: " + result.get("message"));
+        }
         return "ai-model";
     }
 
+    @GetMapping("/ai/knowledge/stats")
+    @ResponseBody
+    public Map<String, Object> knowledgeStats(@RequestParam(value = "limit", required = false, defaultValue = "20") int limit) {
+        return kb.stats(limit);
+    }
+
     @PostMapping("/ai/ask")
     public String ask(@RequestParam("question") String question, Model model) {
         String context = kb.buildContextForQuestion(question, 12000);
@@ -0,0 +1,45 @@
+package Madfoat.Learning.controller;
+
+import Madfoat.Learning.service.ScenarioBenchmarkService;
+import Madfoat.Learning.util.RequestParams;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/benchmark")
+public class BenchmarkController {
+
+    @Autowired
+    private ScenarioBenchmarkService benchmarkService;
+
+    @PostMapping("/start")
+    public Map<String, Object> start(@RequestBody Map<String, Object> payload) {
+        String id = String.valueOf(payload.getOrDefault("id", ""));
+        return benchmarkService.start(id,
+                RequestParams.toInteger(payload.get("warmupIterations")),
+                RequestParams.toInteger(payload.get("iterations")));
+    }
+
+    @GetMapping("/status")
+    public Map<String, Object> status(@RequestParam("runId") String runId) {
+        return benchmarkService.status(runId);
+    }
+
+    @PostMapping("/stop")
+    public Map<String, Object> stop(@RequestParam("runId") String runId) {
+        return benchmarkService.stop(runId);
+    }
+
+    @GetMapping("/history")
+    public Map<String, Object> history(@RequestParam("id") String scenarioId) {
+        return benchmarkService.history(scenarioId);
+    }
+
+    @GetMapping("/compare")
+    public Map<String, Object> compare(@RequestParam("baselineRunId") String baselineRunId,
+                                       @RequestParam("candidateRunId") String candidateRunId) {
+        return benchmarkService.compare(baselineRunId, candidateRunId);
+    }
+}
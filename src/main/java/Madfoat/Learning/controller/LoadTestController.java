@@ -0,0 +1,42 @@
+package Madfoat.Learning.controller;
+
+import Madfoat.Learning.service.ScenarioLoadTestService;
+import Madfoat.Learning.util.RequestParams;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/load-test")
+public class LoadTestController {
+
+    @Autowired
+    private ScenarioLoadTestService loadTestService;
+
+    @PostMapping("/start")
+    public Map<String, Object> start(@RequestBody Map<String, Object> payload) {
+        String id = String.valueOf(payload.getOrDefault("id", ""));
+        return loadTestService.start(id,
+                RequestParams.toInteger(payload.get("targetRps")),
+                RequestParams.toInteger(payload.get("virtualUsers")),
+                RequestParams.toInteger(payload.get("durationSeconds")),
+                RequestParams.toInteger(payload.get("rampSeconds")));
+    }
+
+    @GetMapping("/status")
+    public Map<String, Object> status(@RequestParam("runId") String runId) {
+        return loadTestService.status(runId);
+    }
+
+    @PostMapping("/stop")
+    public Map<String, Object> stop(@RequestParam("runId") String runId) {
+        return loadTestService.stop(runId);
+    }
+
+    @GetMapping("/runs")
+    public List<Map<String, Object>> runs() {
+        return loadTestService.listRuns();
+    }
+}
@@ -0,0 +1,51 @@
+package Madfoat.Learning.controller;
+
+import Madfoat.Learning.service.ScenarioMockServer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/mock")
+public class MockServerController {
+
+    @Autowired
+    private ScenarioMockServer mockServer;
+
+    @GetMapping
+    public Map<String, Object> status() {
+        return mockServer.status();
+    }
+
+    @PostMapping("/start")
+    public Map<String, Object> start(@RequestParam(value = "port", required = false) Integer port) {
+        return mockServer.start(port);
+    }
+
+    @PostMapping("/stop")
+    public Map<String, Object> stop() {
+        return mockServer.stop();
+    }
+
+    @PostMapping("/record")
+    public Map<String, Object> record(@RequestParam("enabled") boolean enabled) {
+        return mockServer.setRecording(enabled);
+    }
+
+    @PostMapping("/faults")
+    public Map<String, Object> faults(@RequestBody(required = false) Map<String, Object> payload) {
+        return mockServer.setFaults(payload);
+    }
+
+    @GetMapping("/recordings")
+    public List<Map<String, Object>> recordings() {
+        return mockServer.listRecordings();
+    }
+
+    @PostMapping("/recordings/clear")
+    public Map<String, Object> clear() {
+        return mockServer.clearRecordings();
+    }
+}
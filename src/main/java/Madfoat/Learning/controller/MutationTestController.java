@@ -0,0 +1,38 @@
+package Madfoat.Learning.controller;
+
+import Madfoat.Learning.service.ScenarioMutationService;
+import Madfoat.Learning.util.RequestParams;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/mutation-test")
+public class MutationTestController {
+
+    @Autowired
+    private ScenarioMutationService mutationService;
+
+    @PostMapping("/start")
+    public Map<String, Object> start(@RequestBody Map<String, Object> payload) {
+        String id = String.valueOf(payload.getOrDefault("id", ""));
+        return mutationService.start(id, RequestParams.toInteger(payload.get("limit")), RequestParams.toInteger(payload.get("concurrency")));
+    }
+
+    @GetMapping("/status")
+    public Map<String, Object> status(@RequestParam("runId") String runId) {
+        return mutationService.status(runId);
+    }
+
+    @PostMapping("/stop")
+    public Map<String, Object> stop(@RequestParam("runId") String runId) {
+        return mutationService.stop(runId);
+    }
+
+    @GetMapping("/runs")
+    public List<Map<String, Object>> runs() {
+        return mutationService.listRuns();
+    }
+}
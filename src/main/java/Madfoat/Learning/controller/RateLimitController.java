@@ -0,0 +1,32 @@
+package Madfoat.Learning.controller;
+
+import Madfoat.Learning.service.HostRateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/ratelimits")
+public class RateLimitController {
+
+    @Autowired
+    private HostRateLimiter rateLimiter;
+
+    @GetMapping
+    public Map<String, Object> list() {
+        return rateLimiter.snapshot();
+    }
+
+    @PostMapping
+    public Map<String, Object> set(@RequestParam("host") String host,
+                                   @RequestParam(value = "rps", defaultValue = "0") double rps,
+                                   @RequestParam(value = "maxInFlight", defaultValue = "0") int maxInFlight) {
+        return rateLimiter.setLimit(host, rps, maxInFlight);
+    }
+
+    @PostMapping("/clear")
+    public Map<String, Object> clear(@RequestParam("host") String host) {
+        return rateLimiter.clearLimit(host);
+    }
+}
@@ -0,0 +1,36 @@
+package Madfoat.Learning.controller;
+
+import Madfoat.Learning.service.ScenarioChainService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/chains")
+public class ScenarioChainController {
+
+    @Autowired
+    private ScenarioChainService chainService;
+
+    @PostMapping
+    public Map<String, Object> create(@RequestBody Map<String, Object> payload) {
+        return chainService.createChain(payload);
+    }
+
+    @GetMapping
+    public List<Map<String, Object>> list() {
+        return chainService.listChains();
+    }
+
+    @PostMapping("/run")
+    public Map<String, Object> run(@RequestParam("id") String id) {
+        return chainService.runChain(id);
+    }
+
+    @PostMapping("/delete")
+    public Map<String, Object> delete(@RequestParam("id") String id) {
+        return chainService.deleteChain(id);
+    }
+}
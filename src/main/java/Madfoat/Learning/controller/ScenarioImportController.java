@@ -0,0 +1,65 @@
+package Madfoat.Learning.controller;
+
+import Madfoat.Learning.service.ScenarioImportService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Bulk scenario import. Each endpoint takes either a multipart upload ({@code file}) or the raw
+ * document as the request body; the raw form is streamed and is not bound by the multipart size
+ * limit, so use it for large HAR captures.
+ */
+@RestController
+@RequestMapping("/api/scenarios/import")
+public class ScenarioImportController {
+
+    @Autowired
+    private ScenarioImportService importService;
+
+    @PostMapping(value = "/har", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Map<String, Object> importHarFile(@RequestParam("file") MultipartFile file,
+                                             @RequestParam(value = "includeStatic", defaultValue = "false") boolean includeStatic) {
+        try (InputStream in = file.getInputStream()) {
+            return importService.importHar(in, includeStatic);
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read upload: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/har")
+    public Map<String, Object> importHarStream(HttpServletRequest request,
+                                               @RequestParam(value = "includeStatic", defaultValue = "false") boolean includeStatic) {
+        try (InputStream in = request.getInputStream()) {
+            return importService.importHar(in, includeStatic);
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read request body: " + e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "/openapi", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Map<String, Object> importOpenApiFile(@RequestParam("file") MultipartFile file,
+                                                 @RequestParam(value = "baseUrl", required = false) String baseUrl) {
+        try (InputStream in = file.getInputStream()) {
+            return importService.importOpenApi(in, baseUrl);
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read upload: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/openapi")
+    public Map<String, Object> importOpenApiStream(HttpServletRequest request,
+                                                   @RequestParam(value = "baseUrl", required = false) String baseUrl) {
+        try (InputStream in = request.getInputStream()) {
+            return importService.importOpenApi(in, baseUrl);
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read request body: " + e.getMessage());
+        }
+    }
+}
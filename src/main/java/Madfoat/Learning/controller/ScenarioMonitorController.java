@@ -0,0 +1,54 @@
+package Madfoat.Learning.controller;
+
+import Madfoat.Learning.service.ScenarioMonitorService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/monitors")
+public class ScenarioMonitorController {
+
+    @Autowired
+    private ScenarioMonitorService monitorService;
+
+    @PostMapping
+    public Map<String, Object> create(@RequestBody Map<String, Object> payload) {
+        return monitorService.createMonitor(payload);
+    }
+
+    @GetMapping
+    public List<Map<String, Object>> list() {
+        return monitorService.listMonitors();
+    }
+
+    @PostMapping("/delete")
+    public Map<String, Object> delete(@RequestParam("id") String id) {
+        return monitorService.deleteMonitor(id);
+    }
+
+    @PostMapping("/pause")
+    public Map<String, Object> pause(@RequestParam("id") String id) {
+        return monitorService.setEnabled(id, false);
+    }
+
+    @PostMapping("/resume")
+    public Map<String, Object> resume(@RequestParam("id") String id) {
+        return monitorService.setEnabled(id, true);
+    }
+
+    @GetMapping("/stats")
+    public Map<String, Object> stats(@RequestParam("id") String id,
+                                     @RequestParam(value = "windowMinutes", required = false) Integer windowMinutes) {
+        return monitorService.stats(id, windowMinutes);
+    }
+
+    @GetMapping("/series")
+    public Map<String, Object> series(@RequestParam("id") String id,
+                                      @RequestParam(value = "windowMinutes", required = false) Integer windowMinutes,
+                                      @RequestParam(value = "bucketSeconds", required = false) Integer bucketSeconds) {
+        return monitorService.series(id, windowMinutes, bucketSeconds);
+    }
+}
@@ -4,12 +4,24 @@ import Madfoat.Learning.service.AIService;
 import Madfoat.Learning.service.ImageProcessingService;
 import Madfoat.Learning.service.ApiScenarioService;
 import Madfoat.Learning.service.KnowledgeBaseService;
+import Madfoat.Learning.service.ResponseCaptureService;
+import Madfoat.Learning.service.ScenarioSuiteExportService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
@@ -29,6 +41,12 @@ public class TestConditionController {
     @Autowired
     private KnowledgeBaseService knowledgeBaseService;
 
+    @Autowired
+    private ResponseCaptureService responseCaptureService;
+
+    @Autowired
+    private ScenarioSuiteExportService scenarioSuiteExportService;
+
     @GetMapping("/")
     public String index() {
         return "index";
@@ -150,14 +168,53 @@ public class TestConditionController {
 
     @PostMapping("/api/run-scenario")
     @ResponseBody
-    public Map<String, Object> runScenario(@RequestParam("id") String id) {
-        return apiScenarioService.runScenario(id);
+    public Map<String, Object> runScenario(@RequestParam("id") String id,
+                                           @RequestParam(value = "headBytes", required = false) Integer headBytes,
+                                           @RequestParam(value = "tailBytes", required = false) Integer tailBytes,
+                                           @RequestParam(value = "spill", required = false) Boolean spill) {
+        return apiScenarioService.runScenario(id, headBytes, tailBytes, spill);
+    }
+
+    @PostMapping("/api/run-scenarios")
+    @ResponseBody
+    public Map<String, Object> runScenarios(@RequestBody Map<String, Object> payload) {
+        @SuppressWarnings("unchecked")
+        List<String> ids = (List<String>) payload.get("ids");
+        return apiScenarioService.runScenarios(ids);
+    }
+
+    // Full response body of a spilled run; Range requests are served as 206 partial content
+    @GetMapping("/api/run-body")
+    public ResponseEntity<Resource> getRunBody(@RequestParam("captureId") String captureId) {
+        ResponseCaptureService.SpilledBody spilled = responseCaptureService.getSpilled(captureId);
+        if (spilled == null || !Files.exists(spilled.path)) {
+            return ResponseEntity.notFound().build();
+        }
+        MediaType type;
+        try {
+            type = spilled.contentType == null || spilled.contentType.isBlank()
+                    ? MediaType.APPLICATION_OCTET_STREAM : MediaType.parseMediaType(spilled.contentType);
+        } catch (Exception e) {
+            type = MediaType.APPLICATION_OCTET_STREAM;
+        }
+        return ResponseEntity.ok().contentType(type).body(new FileSystemResource(spilled.path));
     }
 
     @GetMapping("/api/scenario-code")
     @ResponseBody
-    public Map<String, String> getScenarioCode(@RequestParam("id") String id) {
-        return apiScenarioService.getScenarioCode(id);
+    public ResponseEntity<Map<String, String>> getScenarioCode(@RequestParam("id") String id, WebRequest request) {
+        ApiScenarioService.GeneratedCode generated = apiScenarioService.getGeneratedCode(id);
+        if (generated == null) {
+            return ResponseEntity.ok(Map.of("status", "error", "message", "Scenario not found"));
+        }
+        // The ETag tracks the scenario version, so unchanged code revalidates with a 304 and no body
+        if (request.checkNotModified(generated.etag)) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .eTag(generated.etag)
+                .body(Map.of("status", "ok", "code", generated.code));
     }
 
     @GetMapping("/api/scenario-detail")
@@ -279,6 +336,15 @@ public class TestConditionController {
         return knowledgeBaseService.getApiDocumentationGrouped(groupId);
     }
 
+    @GetMapping("/api/documentation/export")
+    public ResponseEntity<StreamingResponseBody> exportDocumentationSuite(@RequestParam(value = "groupId", required = false) String groupId) {
+        StreamingResponseBody body = out -> scenarioSuiteExportService.writeProject(groupId, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("api-tests.zip").build().toString())
+                .body(body);
+    }
+
     @GetMapping("/api/health")
     @ResponseBody
     public String health() {
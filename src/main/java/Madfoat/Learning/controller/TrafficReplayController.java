@@ -0,0 +1,106 @@
+package Madfoat.Learning.controller;
+
+import Madfoat.Learning.service.TrafficReplayService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Traffic replay. Traces are uploaded either as multipart ({@code file}) or as the raw request
+ * body, which is streamed and not bound by the multipart size limit.
+ */
+@RestController
+@RequestMapping("/api/replay")
+public class TrafficReplayController {
+
+    @Autowired
+    private TrafficReplayService replayService;
+
+    @PostMapping(value = "/traces/har", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Map<String, Object> loadHarFile(@RequestParam("file") MultipartFile file,
+                                           @RequestParam(value = "name", required = false) String name,
+                                           @RequestParam(value = "includeStatic", defaultValue = "false") boolean includeStatic) {
+        try (InputStream in = file.getInputStream()) {
+            return replayService.loadHar(in, name != null ? name : file.getOriginalFilename(), includeStatic);
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read upload: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/traces/har")
+    public Map<String, Object> loadHarStream(HttpServletRequest request,
+                                             @RequestParam(value = "name", required = false) String name,
+                                             @RequestParam(value = "includeStatic", defaultValue = "false") boolean includeStatic) {
+        try (InputStream in = request.getInputStream()) {
+            return replayService.loadHar(in, name, includeStatic);
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read request body: " + e.getMessage());
+        }
+    }
+
+    @PostMapping(value = "/traces/log", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Map<String, Object> loadLogFile(@RequestParam("file") MultipartFile file,
+                                           @RequestParam(value = "name", required = false) String name) {
+        try (InputStream in = file.getInputStream()) {
+            return replayService.loadRunLog(in, name != null ? name : file.getOriginalFilename());
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read upload: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/traces/log")
+    public Map<String, Object> loadLogStream(HttpServletRequest request,
+                                             @RequestParam(value = "name", required = false) String name) {
+        try (InputStream in = request.getInputStream()) {
+            return replayService.loadRunLog(in, name);
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read request body: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/traces")
+    public List<Map<String, Object>> traces() {
+        return replayService.listTraces();
+    }
+
+    @PostMapping("/traces/delete")
+    public Map<String, Object> deleteTrace(@RequestParam("traceId") String traceId) {
+        return replayService.deleteTrace(traceId);
+    }
+
+    @PostMapping("/start")
+    public Map<String, Object> start(@RequestBody Map<String, Object> payload) {
+        Object speed = payload.get("speed");
+        Double factor = null;
+        if (speed instanceof Number n) {
+            factor = n.doubleValue();
+        } else if (speed != null && !String.valueOf(speed).isBlank()) {
+            try { factor = Double.parseDouble(String.valueOf(speed).trim().replaceFirst("[xX]$", "")); } catch (Exception ignored) { factor = -1.0; }
+        }
+        Object target = payload.get("targetBaseUrl");
+        return replayService.start(String.valueOf(payload.getOrDefault("traceId", "")), factor,
+                target == null ? null : String.valueOf(target));
+    }
+
+    @GetMapping("/status")
+    public Map<String, Object> status(@RequestParam("runId") String runId) {
+        return replayService.status(runId);
+    }
+
+    @PostMapping("/stop")
+    public Map<String, Object> stop(@RequestParam("runId") String runId) {
+        return replayService.stop(runId);
+    }
+
+    @GetMapping("/runs")
+    public List<Map<String, Object>> runs() {
+        return replayService.listRuns();
+    }
+}
@@ -1,27 +1,55 @@
 package Madfoat.Learning.service;
 
-import io.restassured.RestAssured;
-import io.restassured.response.Response;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import Madfoat.Learning.model.User;
 import Madfoat.Learning.service.UserService;
+import Madfoat.Learning.util.CurlParser;
+import Madfoat.Learning.util.JsonMutationEngine;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 @Service
 public class ApiScenarioService {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonMutationEngine MUTATIONS = new JsonMutationEngine();
+
     private final Map<String, Map<String, Object>> idToScenario = new ConcurrentHashMap<>();
+    // Bumped whenever a scenario's assertions change; generated code and compiled assertions are keyed on it
+    private final Map<String, Long> scenarioVersions = new ConcurrentHashMap<>();
+    private final Map<String, GeneratedCode> codeCache = new ConcurrentHashMap<>();
+    // Dedup keys (method, path template, body shape) of every imported scenario
+    private final Set<String> importKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicLong versionCounter = new AtomicLong();
     private final UserService userService;
+    private final TimedHttpClient httpClient;
+    private final ResponseCaptureService captureService;
+    private final ScenarioAssertionEngine assertionEngine;
+    private final HostRateLimiter rateLimiter;
+    private final ScenarioMockServer mockServer;
 
     @Autowired
-    public ApiScenarioService(UserService userService) {
+    public ApiScenarioService(UserService userService, TimedHttpClient httpClient, ResponseCaptureService captureService,
+                              ScenarioAssertionEngine assertionEngine, HostRateLimiter rateLimiter,
+                              ScenarioMockServer mockServer) {
         this.userService = userService;
+        this.httpClient = httpClient;
+        this.captureService = captureService;
+        this.assertionEngine = assertionEngine;
+        this.rateLimiter = rateLimiter;
+        this.mockServer = mockServer;
     }
 
     public List<Map<String, Object>> generateScenarios(String curl, Integer limit, List<String> caseTypes) {
@@ -93,19 +121,17 @@ public class ApiScenarioService {
             return scenarios.subList(0, max);
         }
 
-        // Fill up to desired max with simple, labeled variants of existing scenarios
+        // Fill up to desired max with payload mutations of the original request (body, then query).
+        // Structural mutations of every field come first so a small limit still covers the whole payload.
         try {
-            while (scenarios.size() < max && !scenarios.isEmpty()) {
-                int idx = scenarios.size() % scenarios.size();
-                Map<String, Object> baseSc = scenarios.get(idx);
-                String baseTitle = String.valueOf(baseSc.getOrDefault("title", "Variant"));
-                String baseCurl = String.valueOf(baseSc.get("curl"));
-                Integer baseExpected = (Integer) baseSc.getOrDefault("expectedStatus", 200);
-                RequestParts p = parseCurl(baseCurl);
-                // mark variant in URL for uniqueness
-                p.url = ensureQueryParam(p.url, Map.of("variant", String.valueOf(scenarios.size() + 1)));
-                String title = baseTitle + " (variant " + (scenarios.size() + 1) + ")";
-                scenarios.add(createScenario(title, buildCurl(p), null, Map.of("expectedStatus", baseExpected)));
+            RequestParts base = parseCurl(curl);
+            Set<String> structural = Set.of("removeField", "null", "typeSwap");
+            Iterator<ScenarioMutations.MutatedRequest> mutations = Stream.concat(
+                    ScenarioMutations.of(base, MUTATIONS).filter(m -> structural.contains(m.mutation.kind)),
+                    ScenarioMutations.of(base, MUTATIONS).filter(m -> !structural.contains(m.mutation.kind))).iterator();
+            while (scenarios.size() < max && mutations.hasNext()) {
+                ScenarioMutations.MutatedRequest m = mutations.next();
+                scenarios.add(createScenario("Mutation: " + m.label(), buildCurl(m.parts), null, Map.of("expectedStatus", 400)));
             }
         } catch (Exception ignored) {}
 
@@ -113,42 +139,187 @@ public class ApiScenarioService {
     }
 
     public Map<String, Object> runScenario(String id) {
+        return runScenario(id, null, null, null);
+    }
+
+    /**
+     * Runs a scenario once. The capture arguments override the configured response capture
+     * policy for this run (null keeps the default): bytes kept from the start and end of the
+     * body, and whether the full body is spilled to disk for range retrieval. The request waits for
+     * a permit from the per-host rate limiter, and the time spent waiting is reported as throttleMs.
+     */
+    public Map<String, Object> runScenario(String id, Integer headBytes, Integer tailBytes, Boolean spillToDisk) {
+        Map<String, Object> scenario = idToScenario.get(id);
+        if (scenario == null) {
+            return Map.of("id", id, "status", "error", "message", "Scenario not found");
+        }
+        HostRateLimiter.Permit permit;
+        try {
+            permit = rateLimiter.await(resolveRequest(scenario).url);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Map.of("id", id, "status", "error", "message", "Interrupted while waiting for the rate limit");
+        } catch (Exception ex) {
+            return Map.of("id", id, "status", "error", "message", String.valueOf(ex.getMessage()));
+        }
+        return runScenario(id, scenario, headBytes, tailBytes, spillToDisk, permit);
+    }
+
+    /**
+     * Runs a scenario with a rate-limit permit the caller already holds, for callers that wait for
+     * the permit asynchronously. The permit is released when the request completes.
+     */
+    Map<String, Object> runScenario(String id, HostRateLimiter.Permit permit) {
         Map<String, Object> scenario = idToScenario.get(id);
         if (scenario == null) {
+            permit.release();
             return Map.of("id", id, "status", "error", "message", "Scenario not found");
         }
+        return runScenario(id, scenario, null, null, null, permit);
+    }
+
+    private Map<String, Object> runScenario(String id, Map<String, Object> scenario, Integer headBytes, Integer tailBytes,
+                                            Boolean spillToDisk, HostRateLimiter.Permit permit) {
         try {
-            String curl = (String) scenario.get("curl");
-            RequestParts parts = parseCurl(curl);
-            if (Boolean.TRUE.equals(scenario.get("mutateBody")) && parts.body != null) {
-                parts.body = parts.body.replaceAll("\\d+", "-1");
+            RequestParts parts;
+            ResponseCapture capture;
+            TimedHttpClient.TimedResponse resp;
+            try {
+                parts = resolveRequest(scenario);
+                capture = captureService.newCapture(headBytes, tailBytes, spillToDisk);
+                try {
+                    resp = httpClient.execute(parts, capture);
+                } catch (IOException | RuntimeException e) {
+                    // Closes the spill file and deletes it; only a complete response keeps one
+                    capture.abort();
+                    throw e;
+                }
+            } finally {
+                permit.release();
             }
-            long start = System.currentTimeMillis();
-            Response resp = execute(parts);
-            long timeMs = System.currentTimeMillis() - start;
-            int status = resp.statusCode();
-            String body = resp.asString();
+            Boolean recorded = mockServer.isRecording() ? mockServer.record(parts, resp, capture) : null;
+            String contentType = resp.contentType() == null ? "" : resp.contentType();
             Map<String, Object> result = new LinkedHashMap<>();
             result.put("id", id);
             result.put("status", "done");
-            result.put("httpStatus", status);
-            result.put("body", body);
-            try { result.put("contentType", resp.getContentType()); } catch (Exception ignored) {}
-            try {
-                result.put(
-                        "headers",
-                        resp.getHeaders() == null ? Map.of() : resp.getHeaders().asList().stream().collect(
-                                java.util.stream.Collectors.toMap(h -> h.getName(), h -> h.getValue(), (a, b) -> b, LinkedHashMap::new)
-                        )
-                );
-            } catch (Exception ignored) {}
-            result.put("timeMs", timeMs);
+            result.put("httpStatus", resp.status);
+            result.putAll(captureService.describe(capture, contentType));
+            result.put("contentType", contentType);
+            result.putAll(captureService.describeHeaders(resp.headers));
+            result.put("timeMs", TimedHttpClient.Timing.ms(resp.timing.totalNanos));
+            result.put("throttleMs", TimedHttpClient.Timing.ms(permit.waitNanos));
+            result.put("timing", resp.timing.toMap());
+            result.put("connectionReused", resp.connectionReused);
+            if (resp.redirects > 0) result.put("redirects", resp.redirects);
+            if (recorded != null) result.put("recordedForMock", recorded);
+            result.put("assertionResults", evaluateAssertions(id, scenario, resp, capture));
             return result;
         } catch (Exception ex) {
-            return Map.of("id", id, "status", "error", "message", ex.getMessage());
+            return Map.of("id", id, "status", "error", "message", String.valueOf(ex.getMessage()));
         }
     }
 
+    /**
+     * Runs several scenarios one after another and reports status, time, rate-limit delay and
+     * assertion outcome for each, without the response bodies.
+     */
+    public Map<String, Object> runScenarios(List<String> ids) {
+        List<Map<String, Object>> runs = new ArrayList<>();
+        int passed = 0;
+        double throttleMs = 0;
+        for (String id : ids == null ? List.<String>of() : ids) {
+            Map<String, Object> r = runScenario(id);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("id", id);
+            summary.put("status", r.get("status"));
+            if (r.containsKey("message")) summary.put("message", r.get("message"));
+            summary.put("httpStatus", r.get("httpStatus"));
+            summary.put("timeMs", r.get("timeMs"));
+            if (r.get("throttleMs") instanceof Number t) {
+                summary.put("throttleMs", t);
+                throttleMs += t.doubleValue();
+            }
+            Object assertionResults = r.get("assertionResults");
+            summary.put("assertionResults", assertionResults);
+            if (assertionResults instanceof Map<?, ?> ar && Boolean.TRUE.equals(ar.get("passed"))) passed++;
+            runs.add(summary);
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("total", runs.size());
+        out.put("passed", passed);
+        out.put("failed", runs.size() - passed);
+        out.put("throttleMs", RunStats.round(throttleMs));
+        out.put("runs", runs);
+        return out;
+    }
+
+    /** The scenario's compiled assertions; null when the scenario does not exist. */
+    ScenarioAssertionEngine.CompiledAssertions compiledAssertions(String id) {
+        Map<String, Object> scenario = idToScenario.get(id);
+        return scenario == null ? null : compiledAssertions(id, scenario);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ScenarioAssertionEngine.CompiledAssertions compiledAssertions(String id, Map<String, Object> scenario) {
+        Map<String, Object> assertions = (Map<String, Object>) scenario.get("assertions");
+        int expected = extractInt(scenario.getOrDefault("expectedStatus", 200));
+        String assertContains = (String) scenario.get("assertContains");
+        return assertionEngine.compile(id, scenarioVersion(id), assertions, expected, assertContains);
+    }
+
+    /** Evaluates a stored scenario's assertions against a response; returns null when the scenario does not exist. */
+    Map<String, Object> evaluateAssertions(String id, TimedHttpClient.TimedResponse resp, ResponseCapture capture) {
+        Map<String, Object> scenario = idToScenario.get(id);
+        return scenario == null ? null : evaluateAssertions(id, scenario, resp, capture);
+    }
+
+    private Map<String, Object> evaluateAssertions(String id, Map<String, Object> scenario,
+                                                   TimedHttpClient.TimedResponse resp, ResponseCapture capture) {
+        ScenarioAssertionEngine.CompiledAssertions compiled = compiledAssertions(id, scenario);
+
+        String unavailable = captureService.assertionBodyUnavailable(capture);
+        Supplier<byte[]> body = () -> {
+            try {
+                return captureService.assertionBody(capture);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        return compiled.evaluate(new ScenarioAssertionEngine.ResponseView(resp.status, resp.headers, resp.contentType(),
+                TimedHttpClient.Timing.ms(resp.timing.totalNanos), body, unavailable));
+    }
+
+    /**
+     * Resolves the request a scenario would send, including the invalid-payload body mutation.
+     * Returns null when the scenario does not exist.
+     */
+    RequestParts resolveRequest(String id) {
+        Map<String, Object> scenario = idToScenario.get(id);
+        return scenario == null ? null : resolveRequest(scenario);
+    }
+
+    int expectedStatus(String id) {
+        Map<String, Object> scenario = idToScenario.get(id);
+        if (scenario == null) return 200;
+        return extractInt(scenario.getOrDefault("expectedStatus", 200));
+    }
+
+    /** The scenario's {@code timeLessThanMs} assertion, or null when it has none. */
+    Long timeLimitMs(String id) {
+        Map<String, Object> scenario = idToScenario.get(id);
+        if (scenario == null || !(scenario.get("assertions") instanceof Map<?, ?> assertions)) return null;
+        return assertions.get("timeLessThanMs") instanceof Number n ? n.longValue() : null;
+    }
+
+    private RequestParts resolveRequest(Map<String, Object> scenario) {
+        RequestParts parts = parseCurl((String) scenario.get("curl"));
+        if (Boolean.TRUE.equals(scenario.get("mutateBody")) && parts.body != null) {
+            parts.body = parts.body.replaceAll("\\d+", "-1");
+        }
+        return parts;
+    }
+
     private Map<String, Object> createScenario(String title, String curl, String description, Map<String, Object> extra) {
         String id = UUID.randomUUID().toString();
         Map<String, Object> sc = new LinkedHashMap<>();
@@ -158,9 +329,19 @@ public class ApiScenarioService {
         if (description != null && !description.isBlank()) sc.put("desc", description);
         if (extra != null) sc.putAll(extra);
         idToScenario.put(id, sc);
+        bumpVersion(id);
         return sc;
     }
 
+    /**
+     * Registers an imported request as a scenario. Returns null when a scenario with the same
+     * dedup key was imported before.
+     */
+    Map<String, Object> importScenario(String title, RequestParts parts, int expectedStatus, String source, String dedupKey) {
+        if (!importKeys.add(dedupKey)) return null;
+        return createScenario(title, buildCurl(parts), null, Map.of("expectedStatus", expectedStatus, "source", source));
+    }
+
     static class RequestParts {
         String method;
         String url;
@@ -168,88 +349,66 @@ public class ApiScenarioService {
         String body;
     }
 
-    private RequestParts parseCurl(String curl) {
-        // Very simple cURL parser (supports: -X, -H, --header, -d/--data/--data-raw)
+    RequestParts parseCurl(String curl) {
+        CurlParser.ParsedCurl parsed = CurlParser.parse(curl);
         RequestParts p = new RequestParts();
-        List<String> tokens = tokenize(curl);
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String t = it.next();
-            if (t.equalsIgnoreCase("curl")) continue;
-            if (t.equals("-X") && it.hasNext()) { p.method = it.next(); continue; }
-            if ((t.equals("-H") || t.equals("--header")) && it.hasNext()) {
-                String hv = stripQuotes(it.next());
-                int idx = hv.indexOf(':');
-                if (idx > 0) p.headers.put(hv.substring(0, idx).trim(), hv.substring(idx + 1).trim());
-                continue;
-            }
-            if (t.equals("-d") || t.equals("--data") || t.equals("--data-raw")) {
-                if (it.hasNext()) p.body = stripQuotes(it.next());
-                continue;
-            }
-            if (t.startsWith("http://") || t.startsWith("https://")) {
-                p.url = stripQuotes(t);
-            }
-        }
-        if (p.method == null) p.method = p.body != null ? "POST" : "GET";
+        p.method = parsed.method;
+        p.url = parsed.url;
+        p.headers.putAll(parsed.headers);
+        p.body = parsed.body;
         return p;
     }
 
-    private List<String> tokenize(String s) {
-        List<String> out = new ArrayList<>();
-        boolean inQuote = false; char quoteChar = 0; StringBuilder cur = new StringBuilder();
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (inQuote) {
-                if (c == quoteChar) { inQuote = false; out.add(cur.toString()); cur.setLength(0); }
-                else cur.append(c);
-            } else {
-                if (c == '\'' || c == '"') { inQuote = true; quoteChar = c; }
-                else if (Character.isWhitespace(c)) { if (cur.length() > 0) { out.add(cur.toString()); cur.setLength(0); } }
-                else cur.append(c);
-            }
-        }
-        if (cur.length() > 0) out.add(cur.toString());
-        return out;
-    }
+    /** Generated RestAssured code for a scenario together with the version it was built from. */
+    public static class GeneratedCode {
+        public final long version;
+        public final String code;
+        public final String etag;
 
-    private String stripQuotes(String s) {
-        if (s == null) return null;
-        if ((s.startsWith("\"") && s.endsWith("\"")) || (s.startsWith("'") && s.endsWith("'"))) {
-            return s.substring(1, s.length() - 1);
+        GeneratedCode(String id, long version, String code) {
+            this.version = version;
+            this.code = code;
+            this.etag = "\"" + id + "-" + version + "\"";
         }
-        return s;
-    }
-
-    private Response execute(RequestParts p) {
-        io.restassured.specification.RequestSpecification req = RestAssured.given();
-        if (p.headers != null) p.headers.forEach(req::header);
-        if (p.body != null) req.body(p.body);
-        String method = p.method == null ? "GET" : p.method.toUpperCase(Locale.ROOT);
-        return switch (method) {
-            case "POST" -> req.post(URI.create(p.url));
-            case "PUT" -> req.put(URI.create(p.url));
-            case "PATCH" -> req.patch(URI.create(p.url));
-            case "DELETE" -> req.delete(URI.create(p.url));
-            case "HEAD" -> req.head(URI.create(p.url));
-            case "OPTIONS" -> req.options(URI.create(p.url));
-            default -> req.get(URI.create(p.url));
-        };
     }
 
     public Map<String, String> getScenarioCode(String id) {
-        Map<String, Object> scenario = idToScenario.get(id);
-        if (scenario == null) {
+        GeneratedCode generated = getGeneratedCode(id);
+        if (generated == null) {
             return Map.of("status", "error", "message", "Scenario not found");
         }
+        return Map.of("status", "ok", "code", generated.code);
+    }
+
+    /**
+     * Returns the memoized code for a scenario, rebuilding it only when the scenario's version
+     * has moved on since it was cached. Returns null when the scenario does not exist.
+     */
+    public GeneratedCode getGeneratedCode(String id) {
+        // Read the version before the scenario fields so a concurrent edit can only make the cache older, never wrong
+        long version = scenarioVersion(id);
+        Map<String, Object> scenario = idToScenario.get(id);
+        if (scenario == null) return null;
+        GeneratedCode cached = codeCache.get(id);
+        if (cached != null && cached.version == version) return cached;
+
         String curl = (String) scenario.get("curl");
-        Integer expected = (Integer) scenario.getOrDefault("expectedStatus", 200);
+        int expected = extractInt(scenario.getOrDefault("expectedStatus", 200));
         String assertContains = (String) scenario.getOrDefault("assertContains", null);
         @SuppressWarnings("unchecked")
         Map<String, Object> assertions = (Map<String, Object>) scenario.get("assertions");
         RequestParts parts = parseCurl(curl);
-        String code = buildRestAssuredCode(parts, expected == null ? 200 : expected, assertContains, assertions);
-        return Map.of("status", "ok", "code", code);
+        GeneratedCode generated = new GeneratedCode(id, version, buildRestAssuredCode(parts, expected, assertContains, assertions));
+        codeCache.put(id, generated);
+        return generated;
+    }
+
+    long scenarioVersion(String id) {
+        return scenarioVersions.getOrDefault(id, 0L);
+    }
+
+    private void bumpVersion(String id) {
+        scenarioVersions.put(id, versionCounter.incrementAndGet());
     }
 
     public Map<String, Object> getScenarioDetail(String id) {
@@ -273,7 +432,7 @@ public class ApiScenarioService {
         return detail;
     }
 
-    private String buildRestAssuredCode(RequestParts p, int expectedStatus, String assertContains) {
+    private String buildRestAssuredCode(RequestParts p, int expectedStatus, String assertContains, Map<String, Object> assertions) {
         StringBuilder b = new StringBuilder();
         b.append("import io.restassured.RestAssured;\n");
         b.append("import io.restassured.http.ContentType;\n");
@@ -281,67 +440,36 @@ public class ApiScenarioService {
         b.append("import static org.hamcrest.Matchers.*;\n\n");
         b.append("public class ApiScenarioTest {\n");
         b.append("    public void run() {\n");
-        b.append("        given()\n");
-        if (p.headers != null && !p.headers.isEmpty()) {
-            for (Map.Entry<String, String> e : p.headers.entrySet()) {
-                b.append("            .header(\"").append(escapeJava(e.getKey())).append("\", \"")
-                        .append(escapeJava(e.getValue())).append("\")\n");
-            }
-        }
-        if (p.body != null && !p.body.isBlank()) {
-            boolean hasCt = p.headers.keySet().stream().map(String::toLowerCase).anyMatch(h -> h.equals("content-type"));
-            if (!hasCt) {
-                String ct = looksLikeXml(p.body) ? "application/xml" : "application/json";
-                b.append("            .contentType(\"").append(ct).append("\")\n");
-            }
-            // pretty body section
-            b.append("            .body(\n");
-            String prettyBody = p.body;
-            if (!looksLikeXml(p.body)) {
-                try {
-                    prettyBody = new com.fasterxml.jackson.databind.ObjectMapper().readTree(p.body).toPrettyString();
-                } catch (Exception ignored) {}
-            }
-            String[] bodyLines = prettyBody.split("\n", -1);
-            for (int i = 0; i < bodyLines.length; i++) {
-                String line = bodyLines[i];
-                b.append("                \"").append(escapeJava(line)).append("\"");
-                if (i < bodyLines.length - 1) {
-                    b.append(" +");
-                }
-                b.append("\n");
-            }
-            b.append("            )\n");
-        }
-        b.append("        .when()\n");
-        String method = p.method == null ? "GET" : p.method.toUpperCase(Locale.ROOT);
-        b.append("            .").append(method.toLowerCase(Locale.ROOT)).append("(\"")
-                .append(escapeJava(p.url)).append("\")\n");
-        b.append("        .then()\n");
-        b.append("            .statusCode(").append(expectedStatus).append(")\n");
-        if (assertContains != null && !assertContains.isBlank()) {
-            b.append("            .body(containsString(\"").append(escapeJava(assertContains)).append("\"))\n");
-        }
-        b.append("        ;\n");
+        appendRequestChain(b, "given()", p, expectedStatus, assertContains, assertions);
         b.append("    }\n");
         b.append("}\n");
         return b.toString();
     }
 
-    private String buildRestAssuredCode(RequestParts p, int expectedStatus, String assertContains, Map<String, Object> assertions) {
-        // Fallback to legacy single contains assertion if no structured assertions provided
-        if (assertions == null || assertions.isEmpty()) {
-            return buildRestAssuredCode(p, expectedStatus, assertContains);
-        }
+    /** Appends the request chain for a stored scenario; returns false when the scenario no longer exists. */
+    boolean appendScenarioChain(StringBuilder b, String id, String givenExpr) {
+        Map<String, Object> scenario = idToScenario.get(id);
+        if (scenario == null) return false;
+        int expected = extractInt(scenario.getOrDefault("expectedStatus", 200));
+        String assertContains = (String) scenario.get("assertContains");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> assertions = (Map<String, Object>) scenario.get("assertions");
+        appendRequestChain(b, givenExpr, parseCurl((String) scenario.get("curl")), expected, assertContains, assertions);
+        return true;
+    }
 
-        StringBuilder b = new StringBuilder();
-        b.append("import io.restassured.RestAssured;\n");
-        b.append("import io.restassured.http.ContentType;\n");
-        b.append("import static io.restassured.RestAssured.*;\n");
-        b.append("import static org.hamcrest.Matchers.*;\n\n");
-        b.append("public class ApiScenarioTest {\n");
-        b.append("    public void run() {\n");
-        b.append("        given()\n");
+    /** Appends the request chain for a raw cURL command, e.g. one recorded in documentation metadata. */
+    void appendCurlChain(StringBuilder b, String curl, int expectedStatus, String givenExpr) {
+        appendRequestChain(b, givenExpr, parseCurl(curl), expectedStatus, null, null);
+    }
+
+    /**
+     * Emits the {@code given()...when()...then()} statement for a request at method-body indentation,
+     * starting from {@code givenExpr}. Shared by the single-scenario code view and the suite export.
+     */
+    void appendRequestChain(StringBuilder b, String givenExpr, RequestParts p, int expectedStatus,
+                            String assertContains, Map<String, Object> assertions) {
+        b.append("        ").append(givenExpr).append("\n");
         if (p.headers != null && !p.headers.isEmpty()) {
             for (Map.Entry<String, String> e : p.headers.entrySet()) {
                 b.append("            .header(\"").append(escapeJava(e.getKey())).append("\", \"")
@@ -354,11 +482,12 @@ public class ApiScenarioService {
                 String ct = looksLikeXml(p.body) ? "application/xml" : "application/json";
                 b.append("            .contentType(\"").append(ct).append("\")\n");
             }
+            // pretty body section
             b.append("            .body(\n");
             String prettyBody = p.body;
             if (!looksLikeXml(p.body)) {
                 try {
-                    prettyBody = new com.fasterxml.jackson.databind.ObjectMapper().readTree(p.body).toPrettyString();
+                    prettyBody = MAPPER.readTree(p.body).toPrettyString();
                 } catch (Exception ignored) {}
             }
             String[] bodyLines = prettyBody.split("\n", -1);
@@ -377,6 +506,16 @@ public class ApiScenarioService {
         b.append("            .").append(method.toLowerCase(Locale.ROOT)).append("(\"")
                 .append(escapeJava(p.url)).append("\")\n");
         b.append("        .then()\n");
+        // Fallback to legacy single contains assertion if no structured assertions provided
+        if (assertions == null || assertions.isEmpty()) {
+            b.append("            .statusCode(").append(expectedStatus).append(")\n");
+            if (assertContains != null && !assertContains.isBlank()) {
+                b.append("            .body(containsString(\"").append(escapeJava(assertContains)).append("\"))\n");
+            }
+            b.append("        ;\n");
+            return;
+        }
+
         // Status code
         b.append("            .statusCode(").append(extractInt(assertions.getOrDefault("expectedStatus", expectedStatus))).append(")\n");
 
@@ -549,9 +688,6 @@ public class ApiScenarioService {
         }
 
         b.append("        ;\n");
-        b.append("    }\n");
-        b.append("}\n");
-        return b.toString();
     }
 
     private int extractInt(Object val) {
@@ -566,6 +702,7 @@ public class ApiScenarioService {
         }
         if (expectedContains == null) expectedContains = "";
         scenario.put("assertContains", expectedContains);
+        bumpVersion(id);
         return Map.of("status", "ok");
     }
 
@@ -583,6 +720,7 @@ public class ApiScenarioService {
         }
         scenario.put("assertions", assertions);
         if (expectedStatus != null) scenario.put("expectedStatus", expectedStatus);
+        bumpVersion(id);
         return Map.of("status", "ok");
     }
 
@@ -596,14 +734,7 @@ public class ApiScenarioService {
     }
 
     private String buildCurl(RequestParts p) {
-        StringBuilder curl = new StringBuilder("curl");
-        if (p.method != null) curl.append(" -X ").append(p.method);
-        for (Map.Entry<String, String> e : p.headers.entrySet()) {
-            curl.append(" -H '").append(e.getKey()).append(": ").append(e.getValue()).append("'");
-        }
-        if (p.body != null) curl.append(" -d '").append(p.body.replace("'", "'\\''")).append("'");
-        curl.append(" ").append(p.url);
-        return curl.toString();
+        return CurlParser.format(p.method, p.url, p.headers, p.body);
     }
 
     private String ensureQueryParam(String url, Map<String, String> params) {
@@ -635,18 +766,10 @@ public class ApiScenarioService {
     }
 
     private String mutateBodyRemoveFirstField(String body) {
-        // Very naive removal of the first JSON key-value if body looks like JSON
-        String trimmed = body == null ? null : body.trim();
-        if (trimmed == null || trimmed.isEmpty()) return body;
-        if (trimmed.startsWith("{") && trimmed.endsWith("}")) {
-            // remove content between first key and following comma
-            String inner = trimmed.substring(1, trimmed.length() - 1);
-            int comma = inner.indexOf(',');
-            String newInner = comma > 0 ? inner.substring(comma + 1).trim() : "";
-            if (newInner.startsWith(",")) newInner = newInner.substring(1).trim();
-            return "{" + newInner + "}";
-        }
-        return ""; // otherwise produce empty to trigger 400
+        if (body == null || body.trim().isEmpty()) return body;
+        String removed = JsonMutationEngine.removeFirstField(body);
+        if (removed != null) return removed;
+        return body.trim().startsWith("{") ? "{}" : ""; // otherwise produce empty to trigger 400
     }
 
     private boolean looksLikeXml(String s) {
@@ -654,7 +777,7 @@ public class ApiScenarioService {
         return t.startsWith("<") && t.endsWith(">");
     }
 
-    private String escapeJava(String s) {
+    static String escapeJava(String s) {
         if (s == null) return "";
         StringBuilder out = new StringBuilder();
         for (char c : s.toCharArray()) {
@@ -675,7 +798,7 @@ public class ApiScenarioService {
         return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
     }
 
-    private boolean deductRequest() {
+    boolean deductRequest() {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         if (authentication == null || !authentication.isAuthenticated() || "anonymousUser".equals(authentication.getPrincipal())) {
             // If not authenticated, assume it's a demo or public access which might not require deduction, or handle as error
@@ -0,0 +1,197 @@
+package Madfoat.Learning.service;
+
+import java.util.*;
+
+/**
+ * Descriptive statistics for benchmark samples and a two-run comparison.
+ *
+ * Percentiles interpolate linearly between the closest ranks. The 95% confidence interval of the
+ * mean uses Student's t, so it stays honest for the small sample counts a sequential benchmark
+ * produces. Outliers are flagged with Tukey's fences: beyond 1.5 interquartile ranges of the
+ * quartiles is mild, beyond 3 is severe. Two runs are compared with Welch's t-test, which does not
+ * assume the runs have the same variance.
+ */
+final class BenchmarkStatistics {
+
+    // Two-sided 97.5% quantiles of Student's t for 1..10 degrees of freedom
+    private static final double[] T_975 = {
+            12.7062, 4.3027, 3.1824, 2.7764, 2.5706, 2.4469, 2.3646, 2.3060, 2.2622, 2.2281 };
+    private static final double Z_975 = 1.959964;
+
+    private BenchmarkStatistics() {
+    }
+
+    static final class Summary {
+        final int n;
+        final double mean;
+        final double stddev;
+        final double min;
+        final double max;
+        final double q1;
+        final double median;
+        final double q3;
+        final double p90;
+        final double p95;
+        final double p99;
+        final double ciLow;
+        final double ciHigh;
+
+        private Summary(double[] samples) {
+            n = samples.length;
+            double[] sorted = samples.clone();
+            Arrays.sort(sorted);
+            // Welford's update avoids the cancellation of sum-of-squares on tightly clustered samples
+            double m = 0;
+            double m2 = 0;
+            for (int i = 0; i < n; i++) {
+                double delta = samples[i] - m;
+                m += delta / (i + 1);
+                m2 += delta * (samples[i] - m);
+            }
+            mean = m;
+            stddev = n > 1 ? Math.sqrt(m2 / (n - 1)) : 0;
+            min = n == 0 ? 0 : sorted[0];
+            max = n == 0 ? 0 : sorted[n - 1];
+            q1 = percentile(sorted, 25);
+            median = percentile(sorted, 50);
+            q3 = percentile(sorted, 75);
+            p90 = percentile(sorted, 90);
+            p95 = percentile(sorted, 95);
+            p99 = percentile(sorted, 99);
+            double margin = n > 1 ? tCritical95(n - 1) * stddev / Math.sqrt(n) : 0;
+            ciLow = mean - margin;
+            ciHigh = mean + margin;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("samples", n);
+            if (n == 0) return out;
+            out.put("mean", RunStats.round(mean));
+            out.put("stddev", RunStats.round(stddev));
+            out.put("cv", mean == 0 ? 0.0 : RunStats.ratio(stddev / mean));
+            out.put("min", RunStats.round(min));
+            out.put("max", RunStats.round(max));
+            out.put("p50", RunStats.round(median));
+            out.put("p90", RunStats.round(p90));
+            out.put("p95", RunStats.round(p95));
+            out.put("p99", RunStats.round(p99));
+            Map<String, Object> ci = new LinkedHashMap<>();
+            ci.put("low", RunStats.round(ciLow));
+            ci.put("high", RunStats.round(ciHigh));
+            ci.put("marginPercent", mean == 0 ? 0.0 : RunStats.round((ciHigh - mean) / mean * 100));
+            out.put("ci95", ci);
+            return out;
+        }
+    }
+
+    static Summary summarize(double[] samples) {
+        return new Summary(samples);
+    }
+
+    /**
+     * Lists the samples outside Tukey's fences, in iteration order, keeping at most
+     * {@code maxListed} of them; {@code iterations} maps a sample back to its iteration number.
+     */
+    static Map<String, Object> outliers(double[] samples, int[] iterations, Summary s, int maxListed) {
+        double iqr = s.q3 - s.q1;
+        double mildLow = s.q1 - 1.5 * iqr;
+        double mildHigh = s.q3 + 1.5 * iqr;
+        double severeLow = s.q1 - 3 * iqr;
+        double severeHigh = s.q3 + 3 * iqr;
+        int mild = 0;
+        int severe = 0;
+        List<Map<String, Object>> listed = new ArrayList<>();
+        for (int i = 0; i < samples.length; i++) {
+            double v = samples[i];
+            if (v >= mildLow && v <= mildHigh) continue;
+            boolean isSevere = v < severeLow || v > severeHigh;
+            if (isSevere) severe++;
+            else mild++;
+            if (listed.size() < maxListed) {
+                Map<String, Object> o = new LinkedHashMap<>();
+                o.put("iteration", iterations[i]);
+                o.put("ms", RunStats.round(v));
+                o.put("severity", isSevere ? "severe" : "mild");
+                listed.add(o);
+            }
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("mild", mild);
+        out.put("severe", severe);
+        out.put("fraction", samples.length == 0 ? 0.0 : RunStats.ratio((double) (mild + severe) / samples.length));
+        out.put("lowFenceMs", RunStats.round(mildLow));
+        out.put("highFenceMs", RunStats.round(mildHigh));
+        out.put("samples", listed);
+        return out;
+    }
+
+    /**
+     * Compares a candidate run against a baseline. The change is significant when Welch's t
+     * exceeds the 95% critical value, and it is a regression or improvement only when it is also
+     * larger than {@code thresholdPercent} of the baseline mean, so tiny but consistent shifts on a
+     * quiet server are not flagged.
+     */
+    static Map<String, Object> compare(Summary baseline, Summary candidate, double thresholdPercent) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        if (baseline.n < 2 || candidate.n < 2) {
+            out.put("verdict", "insufficient-data");
+            return out;
+        }
+        double vb = baseline.stddev * baseline.stddev / baseline.n;
+        double vc = candidate.stddev * candidate.stddev / candidate.n;
+        double se = Math.sqrt(vb + vc);
+        double diff = candidate.mean - baseline.mean;
+        double df = se == 0 ? baseline.n + candidate.n - 2
+                : (vb + vc) * (vb + vc) / (vb * vb / (baseline.n - 1) + vc * vc / (candidate.n - 1));
+        double crit = tCritical95(df);
+        double t = se == 0 ? (diff == 0 ? 0 : Math.copySign(Double.POSITIVE_INFINITY, diff)) : diff / se;
+        boolean significant = Math.abs(t) > crit;
+        double changePercent = baseline.mean == 0 ? 0 : diff / baseline.mean * 100;
+
+        String verdict = "unchanged";
+        if (significant && changePercent > thresholdPercent) verdict = "regression";
+        else if (significant && changePercent < -thresholdPercent) verdict = "improvement";
+
+        out.put("verdict", verdict);
+        out.put("baselineMeanMs", RunStats.round(baseline.mean));
+        out.put("candidateMeanMs", RunStats.round(candidate.mean));
+        out.put("diffMs", RunStats.round(diff));
+        out.put("changePercent", RunStats.round(changePercent));
+        Map<String, Object> ci = new LinkedHashMap<>();
+        ci.put("low", RunStats.round(diff - crit * se));
+        ci.put("high", RunStats.round(diff + crit * se));
+        out.put("diffCi95Ms", ci);
+        out.put("t", Double.isInfinite(t) ? null : RunStats.round(t));
+        out.put("degreesOfFreedom", RunStats.round(df));
+        out.put("significant", significant);
+        out.put("thresholdPercent", thresholdPercent);
+        return out;
+    }
+
+    /**
+     * Two-sided 95% critical value of Student's t. Small degrees of freedom come from the table
+     * (rounded down, which errs wide); larger ones from the Cornish-Fisher expansion around the
+     * normal quantile, which is within 0.01% from 10 degrees of freedom on.
+     */
+    static double tCritical95(double df) {
+        if (!(df >= 1)) return T_975[0];
+        if (df < T_975.length + 1) return T_975[(int) df - 1];
+        double z = Z_975;
+        double z2 = z * z;
+        double g1 = (z2 + 1) * z / 4;
+        double g2 = ((5 * z2 + 16) * z2 + 3) * z / 96;
+        double g3 = (((3 * z2 + 19) * z2 + 17) * z2 - 15) * z / 384;
+        double g4 = ((((79 * z2 + 776) * z2 + 1482) * z2 - 1920) * z2 - 945) * z / 92160;
+        return z + g1 / df + g2 / (df * df) + g3 / (df * df * df) + g4 / (df * df * df * df);
+    }
+
+    /** Percentile {@code p} (0-100) of sorted values, interpolating between the closest ranks. */
+    static double percentile(double[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        double h = (sorted.length - 1) * p / 100.0;
+        int lo = (int) Math.floor(h);
+        int hi = Math.min(sorted.length - 1, lo + 1);
+        return sorted[lo] + (h - lo) * (sorted[hi] - sorted[lo]);
+    }
+}
@@ -0,0 +1,221 @@
+package Madfoat.Learning.service;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * In-memory inverted index ranked with Okapi BM25.
+ *
+ * Each term keeps a postings list of (document number, term frequency) in parallel int arrays, and
+ * each document its token count for length normalization. Adding a document touches only its own
+ * terms; a query walks the postings of the query terms and keeps the best {@code k} in a bounded
+ * heap, so its cost follows the matched postings rather than the corpus size. Removed documents are
+ * skipped at query time and their postings are compacted away once they make up half the index.
+ */
+final class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int MIN_TOKEN_LENGTH = 2;
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<String, Integer> numbers = new HashMap<>();
+    // Indexed by document number; a null key marks a removed document
+    private String[] keys = new String[64];
+    private String[][] docTerms = new String[64][];
+    private int[] lengths = new int[64];
+    private int nextNumber;
+    private int liveDocs;
+    private long totalLength;
+    // Per-query score accumulator, reset through the touched list after each query
+    private double[] scores = new double[64];
+    private int[] touched = new int[64];
+
+    private static final class Postings {
+        int[] docs = new int[4];
+        int[] freqs = new int[4];
+        int size;
+        int docFreq;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+            docFreq++;
+        }
+    }
+
+    static final class Hit {
+        final String key;
+        final double score;
+
+        Hit(String key, double score) {
+            this.key = key;
+            this.score = score;
+        }
+    }
+
+    /** Indexes {@code text} under {@code key}, replacing any earlier text for the same key. */
+    synchronized void put(String key, String text) {
+        remove(key);
+        Map<String, int[]> freqs = new HashMap<>();
+        int[] length = new int[1];
+        tokenize(text, t -> {
+            freqs.computeIfAbsent(t, k -> new int[1])[0]++;
+            length[0]++;
+        });
+        int doc = nextNumber++;
+        ensureCapacity(doc + 1);
+        keys[doc] = key;
+        lengths[doc] = length[0];
+        String[] terms = new String[freqs.size()];
+        int i = 0;
+        for (Map.Entry<String, int[]> e : freqs.entrySet()) {
+            postings.computeIfAbsent(e.getKey(), k -> new Postings()).add(doc, e.getValue()[0]);
+            terms[i++] = e.getKey();
+        }
+        docTerms[doc] = terms;
+        numbers.put(key, doc);
+        liveDocs++;
+        totalLength += length[0];
+    }
+
+    synchronized boolean remove(String key) {
+        Integer doc = numbers.remove(key);
+        if (doc == null) return false;
+        for (String t : docTerms[doc]) {
+            Postings p = postings.get(t);
+            if (p != null && --p.docFreq == 0) postings.remove(t);
+        }
+        keys[doc] = null;
+        docTerms[doc] = null;
+        liveDocs--;
+        totalLength -= lengths[doc];
+        if (nextNumber - liveDocs > Math.max(64, liveDocs)) compact();
+        return true;
+    }
+
+    synchronized int size() {
+        return liveDocs;
+    }
+
+    /** The {@code k} best-scoring documents for the query, best first; documents matching no term are left out. */
+    synchronized List<Hit> search(String query, int k) {
+        if (k <= 0 || liveDocs == 0) return List.of();
+        Set<String> terms = new LinkedHashSet<>();
+        tokenize(query, terms::add);
+        double avgLength = Math.max(1.0, (double) totalLength / liveDocs);
+        int touchedCount = 0;
+        for (String t : terms) {
+            Postings p = postings.get(t);
+            if (p == null) continue;
+            double idf = Math.log(1 + (liveDocs - p.docFreq + 0.5) / (p.docFreq + 0.5));
+            for (int i = 0; i < p.size; i++) {
+                int doc = p.docs[i];
+                if (keys[doc] == null) continue;
+                double tf = p.freqs[i];
+                double norm = K1 * (1 - B + B * lengths[doc] / avgLength);
+                if (scores[doc] == 0) touched[touchedCount++] = doc;
+                scores[doc] += idf * tf * (K1 + 1) / (tf + norm);
+            }
+        }
+
+        // Min-heap holding the best k so far, worst on top; ties go to the earlier document
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Math.max(1, Math.min(k, touchedCount)),
+                (a, b) -> better(a, b) ? 1 : better(b, a) ? -1 : 0);
+        for (int i = 0; i < touchedCount; i++) {
+            int doc = touched[i];
+            if (heap.size() < k) {
+                heap.add(doc);
+            } else if (better(doc, heap.peek())) {
+                heap.poll();
+                heap.add(doc);
+            }
+        }
+        Hit[] out = new Hit[heap.size()];
+        for (int i = out.length - 1; i >= 0; i--) {
+            int doc = heap.poll();
+            out[i] = new Hit(keys[doc], scores[doc]);
+        }
+        for (int i = 0; i < touchedCount; i++) scores[touched[i]] = 0;
+        return Arrays.asList(out);
+    }
+
+    private boolean better(int a, int b) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+    }
+
+    /**
+     * Splits text into lowercase terms of letters and digits, also breaking at lower-to-upper case
+     * changes so {@code loginButton} yields {@code login} and {@code button}. Terms shorter than two or
+     * longer than 64 characters are dropped.
+     */
+    static void tokenize(String text, Consumer<String> sink) {
+        if (text == null) return;
+        StringBuilder term = new StringBuilder();
+        int prev = 0;
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            boolean word = Character.isLetterOrDigit(cp);
+            if (!word || (Character.isUpperCase(cp) && Character.isLowerCase(prev))) {
+                emit(term, sink);
+            }
+            if (word) term.appendCodePoint(Character.toLowerCase(cp));
+            prev = cp;
+        }
+        emit(term, sink);
+    }
+
+    private static void emit(StringBuilder term, Consumer<String> sink) {
+        if (term.length() >= MIN_TOKEN_LENGTH && term.length() <= MAX_TOKEN_LENGTH) sink.accept(term.toString());
+        term.setLength(0);
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= keys.length) return;
+        int cap = Math.max(n, keys.length * 2);
+        keys = Arrays.copyOf(keys, cap);
+        docTerms = Arrays.copyOf(docTerms, cap);
+        lengths = Arrays.copyOf(lengths, cap);
+        scores = Arrays.copyOf(scores, cap);
+        touched = Arrays.copyOf(touched, cap);
+    }
+
+    /** Renumbers live documents densely and drops the postings of removed ones. */
+    private void compact() {
+        int[] remap = new int[nextNumber];
+        int n = 0;
+        for (int doc = 0; doc < nextNumber; doc++) {
+            if (keys[doc] == null) {
+                remap[doc] = -1;
+                continue;
+            }
+            remap[doc] = n;
+            keys[n] = keys[doc];
+            docTerms[n] = docTerms[doc];
+            lengths[n] = lengths[doc];
+            numbers.put(keys[n], n);
+            n++;
+        }
+        Arrays.fill(keys, n, nextNumber, null);
+        Arrays.fill(docTerms, n, nextNumber, null);
+        nextNumber = n;
+        for (Postings p : postings.values()) {
+            int w = 0;
+            for (int i = 0; i < p.size; i++) {
+                int doc = remap[p.docs[i]];
+                if (doc < 0) continue;
+                p.docs[w] = doc;
+                p.freqs[w] = p.freqs[i];
+                w++;
+            }
+            p.size = w;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package Madfoat.Learning.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Text stored as independently deflated blocks of about {@code BLOCK_CHARS} characters, so a range
+ * of it can be read by inflating only the blocks it overlaps.
+ *
+ * Layout: character count, whether every character fits in Latin-1 (what a {@code String} of it
+ * would cost on the heap), block count, then per block its first character, the end of its
+ * compressed bytes and its UTF-8 length, followed by the compressed blocks. Blocks never split a
+ * surrogate pair. The bytes are read in place, from a memory-mapped segment or a direct buffer.
+ */
+final class CompressedText {
+
+    static final int BLOCK_CHARS = 16 * 1024;
+    private static final int HEADER_BYTES = 9;
+    private static final int BLOCK_ENTRY_BYTES = 12;
+
+    private CompressedText() {
+    }
+
+    static byte[] encode(String text, int level) {
+        String t = text == null ? "" : text;
+        int blocks = (t.length() + BLOCK_CHARS - 1) / BLOCK_CHARS;
+        int[] starts = new int[blocks + 1];
+        int n = 0;
+        for (int at = 0; at < t.length(); n++) {
+            starts[n] = at;
+            at = Math.min(t.length(), at + BLOCK_CHARS);
+            if (at < t.length() && Character.isHighSurrogate(t.charAt(at - 1))) at++;
+        }
+        blocks = n;
+        starts[blocks] = t.length();
+        boolean latin1 = true;
+        for (int i = 0; i < t.length() && latin1; i++) latin1 = t.charAt(i) <= 0xFF;
+
+        int tableBytes = HEADER_BYTES + blocks * BLOCK_ENTRY_BYTES;
+        byte[] out = new byte[tableBytes + Math.max(64, t.length() / 2)];
+        ByteBuffer table = ByteBuffer.wrap(out);
+        table.putInt(t.length()).put((byte) (latin1 ? 1 : 0)).putInt(blocks);
+        int pos = tableBytes;
+        Deflater deflater = new Deflater(level, true);
+        try {
+            for (int b = 0; b < blocks; b++) {
+                byte[] raw = t.substring(starts[b], starts[b + 1]).getBytes(StandardCharsets.UTF_8);
+                deflater.reset();
+                deflater.setInput(raw);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (pos == out.length) out = Arrays.copyOf(out, out.length * 2);
+                    pos += deflater.deflate(out, pos, out.length - pos);
+                }
+                ByteBuffer.wrap(out).position(HEADER_BYTES + b * BLOCK_ENTRY_BYTES)
+                        .putInt(starts[b]).putInt(pos - tableBytes).putInt(raw.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    static int length(ByteBuffer text) {
+        return text.getInt(0);
+    }
+
+    /** Heap bytes a {@code String} of this text takes: the object, the array header and one or two bytes a character. */
+    static long stringBytes(ByteBuffer text) {
+        long chars = text.getInt(0);
+        return 40 + (text.get(4) == 1 ? chars : 2 * chars);
+    }
+
+    static String read(ByteBuffer text) {
+        return read(text, 0, length(text));
+    }
+
+    /** Characters {@code [start, end)}, clamped to the text. */
+    static String read(ByteBuffer text, int start, int end) {
+        int length = length(text);
+        start = Math.max(0, Math.min(start, length));
+        end = Math.max(start, Math.min(end, length));
+        if (start == end) return "";
+        int blocks = text.getInt(5);
+        int dataStart = HEADER_BYTES + blocks * BLOCK_ENTRY_BYTES;
+        int first = blockOf(text, blocks, start);
+        StringBuilder out = new StringBuilder(end - start);
+        Inflater inflater = new Inflater(true);
+        try {
+            for (int b = first; b < blocks; b++) {
+                int entry = HEADER_BYTES + b * BLOCK_ENTRY_BYTES;
+                int blockStart = text.getInt(entry);
+                if (blockStart >= end) break;
+                int from = dataStart + (b == 0 ? 0 : text.getInt(entry - BLOCK_ENTRY_BYTES + 4));
+                int to = dataStart + text.getInt(entry + 4);
+                byte[] raw = new byte[text.getInt(entry + 8)];
+                inflater.reset();
+                inflater.setInput(text.duplicate().limit(to).position(from));
+                int got = 0;
+                while (got < raw.length && !inflater.finished()) {
+                    int n = inflater.inflate(raw, got, raw.length - got);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    got += n;
+                }
+                if (got != raw.length) throw new IllegalStateException("Truncated text block " + b);
+                String block = new String(raw, StandardCharsets.UTF_8);
+                out.append(block, Math.max(0, start - blockStart), Math.min(block.length(), end - blockStart));
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt text block: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+        return out.toString();
+    }
+
+    /** The last block starting at or before {@code at}. */
+    private static int blockOf(ByteBuffer text, int blocks, int at) {
+        int lo = 0;
+        int hi = blocks - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (text.getInt(HEADER_BYTES + mid * BLOCK_ENTRY_BYTES) <= at) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+}
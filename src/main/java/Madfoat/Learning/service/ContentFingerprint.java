@@ -0,0 +1,73 @@
+package Madfoat.Learning.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Fingerprints of a text for duplicate detection: a SHA-256 digest for exact copies and a 64-bit
+ * SimHash for near copies.
+ *
+ * The SimHash is built from overlapping three-term shingles (terms as tokenized by
+ * {@link Bm25Index#tokenize}), each hashed to 64 bits and voting on every bit, so texts that share
+ * most of their shingles differ in only a few bits. A text with fewer than {@code MIN_SHINGLES}
+ * shingles gets a plain hash of its term sequence instead, because a handful of votes does not
+ * make a stable SimHash; such texts only match when their terms are identical.
+ */
+final class ContentFingerprint {
+
+    private static final int MIN_SHINGLES = 8;
+
+    final String digest;
+    final long simhash;
+
+    private ContentFingerprint(String digest, long simhash) {
+        this.digest = digest;
+        this.simhash = simhash;
+    }
+
+    static ContentFingerprint of(String text) {
+        String t = text == null ? "" : text;
+        try {
+            byte[] sha = MessageDigest.getInstance("SHA-256").digest(t.getBytes(StandardCharsets.UTF_8));
+            return new ContentFingerprint(HexFormat.of().formatHex(sha), simhash(t));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long simhash(String text) {
+        int[] votes = new int[64];
+        // previous two term hashes, shingles seen, and a hash of the whole term sequence
+        long[] state = new long[4];
+        Bm25Index.tokenize(text, term -> {
+            long h = mix(term.hashCode());
+            state[3] = mix(state[3] * 31 + h);
+            if (state[2]++ >= 2) {
+                long shingle = mix(Long.rotateLeft(state[0], 42) ^ Long.rotateLeft(state[1], 21) ^ h);
+                for (int b = 0; b < 64; b++) votes[b] += ((shingle >>> b) & 1) == 0 ? -1 : 1;
+            }
+            state[0] = state[1];
+            state[1] = h;
+        });
+        if (state[2] - 2 < MIN_SHINGLES) return state[3];
+        long bits = 0;
+        for (int b = 0; b < 64; b++) {
+            if (votes[b] > 0) bits |= 1L << b;
+        }
+        return bits;
+    }
+
+    /** Number of differing bits between two SimHashes. */
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /** SplitMix64 finalizer. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,26 @@
+package Madfoat.Learning.service;
+
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+/** Retry policy of the knowledge-base sync fetchers: back off on rate limits, server errors and timeouts only. */
+final class FetchRetry {
+
+    private FetchRetry() {
+    }
+
+    /** Up to four retries with exponential backoff from one second. */
+    static Retry transientFailures() {
+        return Retry.backoff(4, Duration.ofSeconds(1)).filter(FetchRetry::retryable);
+    }
+
+    static boolean retryable(Throwable t) {
+        if (t instanceof WebClientResponseException w) {
+            return w.getStatusCode().value() == 429 || w.getStatusCode().is5xxServerError();
+        }
+        return t instanceof TimeoutException;
+    }
+}
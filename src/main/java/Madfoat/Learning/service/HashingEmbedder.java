@@ -0,0 +1,76 @@
+package Madfoat.Learning.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CPU-only text embeddings built with signed feature hashing.
+ *
+ * Each term (as tokenized by {@link Bm25Index#tokenize}) adds a sublinear term-frequency weight to
+ * one of {@code dimensions} buckets, with a sign taken from another hash bit so collisions cancel
+ * instead of piling up. Character trigrams of each term add a smaller weight, which puts
+ * {@code refund}, {@code refunds} and {@code refundable} close together even though they are
+ * different terms. Vectors are L2-normalized, so a dot product is the cosine similarity. Common
+ * English function words are ignored.
+ */
+final class HashingEmbedder {
+
+    private static final float TRIGRAM_WEIGHT = 0.35f;
+    private static final Set<String> STOPWORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "can", "do", "does", "for", "from", "has", "have",
+            "how", "in", "is", "it", "its", "of", "on", "or", "that", "the", "this", "to", "was", "what", "when",
+            "where", "which", "who", "why", "will", "with", "you", "your");
+
+    private final int dimensions;
+
+    HashingEmbedder(int dimensions) {
+        this.dimensions = Math.max(16, dimensions);
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    /** The normalized embedding of {@code text}; all zeros when it has no usable terms. */
+    float[] embed(String text) {
+        Map<String, int[]> counts = new HashMap<>();
+        Bm25Index.tokenize(text, t -> {
+            if (!STOPWORDS.contains(t)) counts.computeIfAbsent(t, k -> new int[1])[0]++;
+        });
+        float[] v = new float[dimensions];
+        for (Map.Entry<String, int[]> e : counts.entrySet()) {
+            String term = e.getKey();
+            float weight = 1f + (float) Math.log(e.getValue()[0]);
+            add(v, mix(term.hashCode()), weight);
+            if (term.length() > 3) {
+                String padded = "^" + term + "$";
+                for (int i = 0; i + 3 <= padded.length(); i++) {
+                    add(v, mix(padded.substring(i, i + 3).hashCode() * 31 + 7), weight * TRIGRAM_WEIGHT);
+                }
+            }
+        }
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        if (norm > 0) {
+            float inv = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < v.length; i++) v[i] *= inv;
+        }
+        return v;
+    }
+
+    private void add(float[] v, int hash, float weight) {
+        int bucket = Math.floorMod(hash, dimensions);
+        v[bucket] += (hash & 0x8000_0000) == 0 ? weight : -weight;
+    }
+
+    /** Murmur3 finalizer; spreads String.hashCode so neighbouring codes land in unrelated buckets. */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85eb_ca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2_ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,518 @@
+package Madfoat.Learning.service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest-neighbour index over normalized vectors (Hierarchical Navigable Small World).
+ *
+ * Vectors are quantized to one signed byte per dimension and stored in fixed-size chunks of a
+ * primitive arena, as are the level-0 neighbour lists, so a node costs {@code dimensions + 4*(2M+1)}
+ * bytes and growing the index never copies what is already there. Similarity is the integer dot
+ * product of the quantized vectors. Neighbours are chosen with the HNSW heuristic, which prefers
+ * candidates that are not already reachable through a closer neighbour. Removed nodes stay in the
+ * graph as waypoints but are never returned. Once they outnumber the live ones a new graph is built
+ * on a background thread and swapped in. Searches share a read lock; inserts, removals and the swap
+ * take the write lock.
+ */
+final class HnswIndex {
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MAX_LEVEL = 16;
+    private static final float SCALE = 127f;
+
+    private final int dimensions;
+    private final int m;
+    private final int m0;
+    private final int efConstruction;
+    private final int maxNodes;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    // The graph searches run against; replaced wholesale when a rebuild finishes
+    private Graph graph = new Graph();
+    // Keys put or removed while a background rebuild runs, replayed into its graph; null when none runs
+    private Set<String> changedDuringRebuild;
+
+    HnswIndex(int dimensions, int m, int efConstruction, int maxNodes) {
+        this.dimensions = dimensions;
+        this.m = Math.max(4, m);
+        this.m0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.maxNodes = Math.max(1, maxNodes);
+        this.levelMultiplier = 1 / Math.log(this.m);
+    }
+
+    /**
+     * Adds or replaces the vector for {@code key}. Returns false, leaving the key unindexed, when the
+     * index already holds its maximum number of vectors.
+     */
+    boolean put(String key, float[] vector) {
+        byte[] q = quantize(vector);
+        lock.writeLock().lock();
+        try {
+            removeLocked(key);
+            if (graph.nodes.size() >= maxNodes) return false;
+            // Bound the arena to twice the live limit even when a background rebuild has not caught up
+            if (graph.deleted > 0 && graph.size >= 2L * maxNodes) {
+                int[] live = graph.liveNodes();
+                graph = rebuilt(graph.vectors, live, graph.keysOf(live));
+                changedDuringRebuild = null;
+            }
+            graph.insert(key, q);
+            if (changedDuringRebuild != null) changedDuringRebuild.add(key);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    boolean remove(String key) {
+        lock.writeLock().lock();
+        try {
+            return removeLocked(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** The {@code k} nearest live vectors by cosine similarity, best first, exploring {@code ef} candidates. */
+    List<Bm25Index.Hit> search(float[] query, int k, int ef) {
+        byte[] q = quantize(query);
+        boolean any = false;
+        for (byte b : q) any |= b != 0;
+        if (!any || k <= 0) return List.of();
+        lock.readLock().lock();
+        try {
+            Graph g = graph;
+            if (g.entry < 0 || g.nodes.isEmpty()) return List.of();
+            int ep = g.entry;
+            for (int level = g.maxLevel; level > 0; level--) ep = g.greedy(q, ep, level);
+            // Removed nodes can fill result slots, so widen the beam by the share they take up
+            int width = Math.max(ef, k) + (int) Math.min(Integer.MAX_VALUE / 2, (long) Math.max(ef, k) * g.deleted / Math.max(1, g.size));
+            long[] found = g.searchLayer(q, ep, width, 0);
+            List<Bm25Index.Hit> out = new ArrayList<>(Math.min(k, found.length));
+            for (long f : found) {
+                String key = g.keys[node(f)];
+                if (key == null) continue;
+                out.add(new Bm25Index.Hit(key, sim(f) / (SCALE * SCALE)));
+                if (out.size() == k) break;
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return graph.nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Node counts, graph height and the bytes held by the vector and link arenas. */
+    Map<String, Object> stats() {
+        lock.readLock().lock();
+        try {
+            Graph g = graph;
+            long bytes = (long) g.vectors.length * CHUNK * dimensions + (long) g.links0.length * CHUNK * (m0 + 1) * 4;
+            for (int i = 0; i < g.size; i++) {
+                if (g.upper[i] != null) bytes += (long) g.upper[i].length * (m + 1) * 4;
+            }
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("vectors", g.nodes.size());
+            out.put("removed", g.deleted);
+            out.put("maxVectors", maxNodes);
+            out.put("dimensions", dimensions);
+            out.put("levels", g.maxLevel + 1);
+            out.put("arenaBytes", bytes);
+            out.put("rebuilding", changedDuringRebuild != null);
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean removeLocked(String key) {
+        if (!graph.remove(key)) return false;
+        if (changedDuringRebuild != null) {
+            changedDuringRebuild.add(key);
+        } else if (graph.deleted > Math.max(1024, graph.nodes.size())) {
+            startRebuild();
+        }
+        return true;
+    }
+
+    /**
+     * Rebuilds the graph from its live nodes on a background thread while searches and updates carry
+     * on against the current one. Vectors never change once written to the arena, so the new graph
+     * reads them without the lock; keys changed in the meantime are replayed before it is swapped in.
+     */
+    private void startRebuild() {
+        Set<String> changes = new HashSet<>();
+        changedDuringRebuild = changes;
+        int[] live = graph.liveNodes();
+        String[] keys = graph.keysOf(live);
+        byte[][] arena = graph.vectors;
+        Thread rebuild = new Thread(() -> {
+            Graph fresh = null;
+            try {
+                fresh = rebuilt(arena, live, keys);
+            } finally {
+                lock.writeLock().lock();
+                try {
+                    // Otherwise a synchronous rebuild in put() has already replaced the graph
+                    if (changedDuringRebuild == changes) {
+                        if (fresh != null) {
+                            for (String key : changes) {
+                                fresh.remove(key);
+                                Integer node = graph.nodes.get(key);
+                                if (node != null) fresh.insert(key, graph.vector(node));
+                            }
+                            graph = fresh;
+                        }
+                        changedDuringRebuild = null;
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }, "hnsw-rebuild");
+        rebuild.setDaemon(true);
+        rebuild.start();
+    }
+
+    /** A new graph holding the {@code live} nodes of a vector arena under the given keys. */
+    private Graph rebuilt(byte[][] arena, int[] live, String[] keys) {
+        Graph fresh = new Graph();
+        for (int i = 0; i < live.length; i++) {
+            int n = live[i];
+            fresh.insert(keys[i], Arrays.copyOfRange(arena[n >>> CHUNK_BITS], (n & (CHUNK - 1)) * dimensions,
+                    (n & (CHUNK - 1)) * dimensions + dimensions));
+        }
+        return fresh;
+    }
+
+    private byte[] quantize(float[] v) {
+        byte[] q = new byte[dimensions];
+        for (int i = 0; i < dimensions && i < v.length; i++) {
+            q[i] = (byte) Math.round(Math.max(-1f, Math.min(1f, v[i])) * SCALE);
+        }
+        return q;
+    }
+
+    /** Nodes, their links and the arenas that hold them. Removed nodes keep their slot until a rebuild. */
+    private final class Graph {
+        private byte[][] vectors = new byte[0][];
+        // Level-0 links per node: a count followed by up to m0 neighbours
+        private int[][] links0 = new int[0][];
+        // Links above level 0, [node][level - 1] -> count followed by up to m neighbours; null for level-0 nodes
+        private int[][][] upper = new int[0][][];
+        private String[] keys = new String[0];
+        private final Map<String, Integer> nodes = new HashMap<>();
+        private int size;
+        private int deleted;
+        private int entry = -1;
+        private int maxLevel = -1;
+
+        boolean remove(String key) {
+            Integer node = nodes.remove(key);
+            if (node == null) return false;
+            keys[node] = null;
+            deleted++;
+            return true;
+        }
+
+        int[] liveNodes() {
+            int[] live = new int[nodes.size()];
+            int count = 0;
+            for (int n = 0; n < size; n++) {
+                if (keys[n] != null) live[count++] = n;
+            }
+            return live;
+        }
+
+        String[] keysOf(int[] nodeIds) {
+            String[] out = new String[nodeIds.length];
+            for (int i = 0; i < nodeIds.length; i++) out[i] = keys[nodeIds[i]];
+            return out;
+        }
+
+        byte[] vector(int node) {
+            int off = (node & (CHUNK - 1)) * dimensions;
+            return Arrays.copyOfRange(vectors[node >>> CHUNK_BITS], off, off + dimensions);
+        }
+
+        private void insert(String key, byte[] vector) {
+            int node = allocate(vector);
+            keys[node] = key;
+            nodes.put(key, node);
+            int level = Math.min(MAX_LEVEL, (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier));
+            if (level > 0) {
+                upper[node] = new int[level][];
+                for (int l = 0; l < level; l++) upper[node][l] = new int[m + 1];
+            }
+            if (entry < 0) {
+                entry = node;
+                maxLevel = level;
+                return;
+            }
+            int ep = entry;
+            for (int l = maxLevel; l > level; l--) ep = greedy(vector, ep, l);
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                long[] candidates = searchLayer(vector, ep, efConstruction, l);
+                int cap = l == 0 ? m0 : m;
+                int[] chosen = selectNeighbours(candidates, cap);
+                int[] list = linkArray(node, l);
+                int off = linkOffset(node, l);
+                list[off] = chosen.length;
+                System.arraycopy(chosen, 0, list, off + 1, chosen.length);
+                for (int n : chosen) link(n, node, l);
+                ep = node(candidates[0]);
+            }
+            if (level > maxLevel) {
+                entry = node;
+                maxLevel = level;
+            }
+        }
+
+        /**
+         * Adds {@code node} to {@code target}'s neighbours. A full list is re-selected with the heuristic,
+         * but only when the new node is closer than the least similar current neighbour; otherwise the
+         * heuristic would keep the list as it is, and skipping it avoids M^2 dot products per backlink.
+         */
+        private void link(int target, int node, int level) {
+            int[] list = linkArray(target, level);
+            int off = linkOffset(target, level);
+            int cap = level == 0 ? m0 : m;
+            int count = list[off];
+            if (count < cap) {
+                list[off + 1 + count] = node;
+                list[off] = count + 1;
+                return;
+            }
+            long[] candidates = new long[cap + 1];
+            int newSim = dot(target, node);
+            int worstSim = Integer.MAX_VALUE;
+            for (int i = 0; i < cap; i++) {
+                int s = dot(target, list[off + 1 + i]);
+                worstSim = Math.min(worstSim, s);
+                // Stored negated so an ascending sort puts the most similar first
+                candidates[i] = ~pack(s, list[off + 1 + i]);
+            }
+            if (newSim <= worstSim) return;
+            candidates[cap] = ~pack(newSim, node);
+            Arrays.sort(candidates);
+            for (int i = 0; i < candidates.length; i++) candidates[i] = ~candidates[i];
+            int[] chosen = selectNeighbours(candidates, cap);
+            list[off] = chosen.length;
+            System.arraycopy(chosen, 0, list, off + 1, chosen.length);
+        }
+
+        /**
+         * HNSW neighbour heuristic: walk candidates from most to least similar and keep one only if it
+         * is closer to the base than to every neighbour kept so far; top up with the skipped ones.
+         */
+        private int[] selectNeighbours(long[] candidatesBestFirst, int max) {
+            int[] out = new int[Math.min(max, candidatesBestFirst.length)];
+            int count = 0;
+            int[] skipped = new int[candidatesBestFirst.length];
+            int skippedCount = 0;
+            for (long c : candidatesBestFirst) {
+                if (count == out.length) break;
+                int n = node(c);
+                int toBase = sim(c);
+                boolean keep = true;
+                for (int i = 0; i < count && keep; i++) {
+                    if (dot(n, out[i]) > toBase) keep = false;
+                }
+                if (keep) out[count++] = n;
+                else skipped[skippedCount++] = n;
+            }
+            for (int i = 0; i < skippedCount && count < out.length; i++) out[count++] = skipped[i];
+            return count == out.length ? out : Arrays.copyOf(out, count);
+        }
+
+        private int greedy(byte[] q, int ep, int level) {
+            int best = ep;
+            int bestSim = dot(q, ep);
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                int[] list = linkArray(best, level);
+                int off = linkOffset(best, level);
+                for (int i = off + 1, end = off + 1 + list[off]; i < end; i++) {
+                    int s = dot(q, list[i]);
+                    if (s > bestSim) {
+                        bestSim = s;
+                        best = list[i];
+                        improved = true;
+                    }
+                }
+            }
+            return best;
+        }
+
+        /** Beam search of one level; returns up to {@code ef} packed (similarity, node) entries, best first. */
+        private long[] searchLayer(byte[] q, int ep, int ef, int level) {
+            Visited seen = visited.get();
+            seen.reset(size);
+            LongHeap candidates = new LongHeap(ef * 2);
+            LongHeap results = new LongHeap(ef + 1);
+            long start = pack(dot(q, ep), ep);
+            seen.mark(ep);
+            candidates.push(~start);
+            results.push(start);
+            while (candidates.size() > 0) {
+                long c = ~candidates.pop();
+                if (results.size() >= ef && sim(c) < sim(results.peek())) break;
+                int[] list = linkArray(node(c), level);
+                int off = linkOffset(node(c), level);
+                for (int i = off + 1, end = off + 1 + list[off]; i < end; i++) {
+                    int n = list[i];
+                    if (!seen.mark(n)) continue;
+                    int s = dot(q, n);
+                    if (results.size() < ef || s > sim(results.peek())) {
+                        long e = pack(s, n);
+                        candidates.push(~e);
+                        results.push(e);
+                        if (results.size() > ef) results.pop();
+                    }
+                }
+            }
+            long[] out = new long[results.size()];
+            for (int i = out.length - 1; i >= 0; i--) out[i] = results.pop();
+            return out;
+        }
+
+        private int allocate(byte[] vector) {
+            int node = size++;
+            int chunk = node >>> CHUNK_BITS;
+            if (chunk == vectors.length) {
+                vectors = Arrays.copyOf(vectors, chunk + 1);
+                vectors[chunk] = new byte[CHUNK * dimensions];
+                links0 = Arrays.copyOf(links0, chunk + 1);
+                links0[chunk] = new int[CHUNK * (m0 + 1)];
+                upper = Arrays.copyOf(upper, (chunk + 1) * CHUNK);
+                keys = Arrays.copyOf(keys, (chunk + 1) * CHUNK);
+            }
+            System.arraycopy(vector, 0, vectors[chunk], (node & (CHUNK - 1)) * dimensions, dimensions);
+            return node;
+        }
+
+        /** The array holding a node's links at a level; the list starts at {@link #linkOffset} with its count. */
+        private int[] linkArray(int node, int level) {
+            return level > 0 ? upper[node][level - 1] : links0[node >>> CHUNK_BITS];
+        }
+
+        private int linkOffset(int node, int level) {
+            return level > 0 ? 0 : (node & (CHUNK - 1)) * (m0 + 1);
+        }
+
+        private int dot(byte[] q, int node) {
+            byte[] chunk = vectors[node >>> CHUNK_BITS];
+            int off = (node & (CHUNK - 1)) * dimensions;
+            int sum = 0;
+            for (int i = 0; i < dimensions; i++) sum += q[i] * chunk[off + i];
+            return sum;
+        }
+
+        private int dot(int a, int b) {
+            byte[] ca = vectors[a >>> CHUNK_BITS];
+            byte[] cb = vectors[b >>> CHUNK_BITS];
+            int oa = (a & (CHUNK - 1)) * dimensions;
+            int ob = (b & (CHUNK - 1)) * dimensions;
+            int sum = 0;
+            for (int i = 0; i < dimensions; i++) sum += ca[oa + i] * cb[ob + i];
+            return sum;
+        }
+    }
+
+    private static long pack(int sim, int node) {
+        return ((long) sim << 32) | (node & 0xffff_ffffL);
+    }
+
+    private static int sim(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    private static int node(long packed) {
+        return (int) packed;
+    }
+
+
+    /** Per-thread visited marks, cleared in O(1) by bumping a generation number. */
+    private static final class Visited {
+        int[] marks = new int[0];
+        int generation;
+
+        void reset(int n) {
+            if (marks.length < n) {
+                marks = new int[Math.max(n, marks.length * 2)];
+                generation = 0;
+            }
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean mark(int n) {
+            if (marks[n] == generation) return false;
+            marks[n] = generation;
+            return true;
+        }
+    }
+
+    /** Binary min-heap of longs. */
+    private static final class LongHeap {
+        long[] a;
+        int n;
+
+        LongHeap(int capacity) {
+            a = new long[Math.max(4, capacity)];
+        }
+
+        int size() {
+            return n;
+        }
+
+        long peek() {
+            return a[0];
+        }
+
+        void push(long v) {
+            if (n == a.length) a = Arrays.copyOf(a, n * 2);
+            int i = n++;
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (a[p] <= v) break;
+                a[i] = a[p];
+                i = p;
+            }
+            a[i] = v;
+        }
+
+        long pop() {
+            long top = a[0];
+            long last = a[--n];
+            int i = 0;
+            while (true) {
+                int c = 2 * i + 1;
+                if (c >= n) break;
+                if (c + 1 < n && a[c + 1] < a[c]) c++;
+                if (a[c] >= last) break;
+                a[i] = a[c];
+                i = c;
+            }
+            a[i] = last;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package Madfoat.Learning.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per-host request limiter shared by every path that sends scenario traffic.
+ *
+ * Each target host has a token bucket (requests per second, with a burst of one second's worth)
+ * and a cap on requests in flight. {@link #acquire} returns a future permit: when the host has a
+ * token and a free slot it completes immediately, otherwise the caller is queued and the future
+ * completes later from the limiter's timer thread, so asynchronous senders never hold a thread while
+ * they wait. A permit must be released once its request finishes. A rate or in-flight cap of 0 means
+ * unlimited.
+ */
+@Service
+public class HostRateLimiter {
+
+    @Value("${scenario.ratelimit.max-wait-seconds:60}")
+    private int maxWaitSeconds = 60;
+
+    private final double defaultRps;
+    private final int defaultMaxInFlight;
+    private final int maxQueue;
+    private final Map<String, Limit> overrides = new ConcurrentHashMap<>();
+    private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+
+    @Autowired
+    public HostRateLimiter(@Value("${scenario.ratelimit.default-rps:0}") double defaultRps,
+                           @Value("${scenario.ratelimit.default-max-in-flight:0}") int defaultMaxInFlight,
+                           @Value("${scenario.ratelimit.max-queue:10000}") int maxQueue,
+                           @Value("${scenario.ratelimit.hosts:}") String hostLimits) {
+        this.defaultRps = Math.max(0, defaultRps);
+        this.defaultMaxInFlight = Math.max(0, defaultMaxInFlight);
+        this.maxQueue = Math.max(1, maxQueue);
+        parseOverrides(hostLimits);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "host-rate-limiter");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Stops the timer and fails every queued request, whose permit could no longer be granted. */
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+        for (HostState s : hosts.values()) s.failWaiting();
+    }
+
+    /** A granted slot for one request to {@link #host}; release it when the request is done. */
+    public static final class Permit {
+        public final String host;
+        public final long waitNanos;
+        private final HostState state;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(HostState state, long waitNanos) {
+            this.host = state.host;
+            this.waitNanos = waitNanos;
+            this.state = state;
+        }
+
+        /** Frees the in-flight slot; safe to call more than once. */
+        public void release() {
+            if (released.compareAndSet(false, true)) state.release();
+        }
+    }
+
+    private static final class Limit {
+        final double rps;
+        final int maxInFlight;
+
+        Limit(double rps, int maxInFlight) {
+            this.rps = Math.max(0, rps);
+            this.maxInFlight = Math.max(0, maxInFlight);
+        }
+    }
+
+    private static final class Waiter {
+        final CompletableFuture<Permit> future = new CompletableFuture<>();
+        final long enqueuedNanos = System.nanoTime();
+    }
+
+    /**
+     * Requests a permit for the host of {@code url}. The future fails with a
+     * {@link RejectedExecutionException} when the host's wait queue is full.
+     */
+    public CompletableFuture<Permit> acquire(String url) {
+        return state(hostOf(url)).acquire();
+    }
+
+    /**
+     * Blocking form of {@link #acquire} for callers that are about to block on the request anyway.
+     * Gives up after the configured maximum wait; a caller that gives up leaves the queue without
+     * consuming a slot.
+     */
+    public Permit await(String url) throws InterruptedException, TimeoutException {
+        CompletableFuture<Permit> f = acquire(url);
+        try {
+            return f.get(maxWaitSeconds, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(cause);
+        } catch (TimeoutException | InterruptedException e) {
+            // The permit may have been granted between the timeout and the cancel
+            if (!f.cancel(false) && !f.isCompletedExceptionally()) f.join().release();
+            if (e instanceof TimeoutException) {
+                throw new TimeoutException("Waited more than " + maxWaitSeconds + " s for the rate limit of " + hostOf(url));
+            }
+            throw (InterruptedException) e;
+        }
+    }
+
+    /** Sets the limit for one host at runtime; both values 0 makes it unlimited. */
+    public Map<String, Object> setLimit(String host, double rps, int maxInFlight) {
+        if (host == null || host.isBlank()) {
+            return Map.of("status", "error", "message", "host is required");
+        }
+        String key = host.trim().toLowerCase(Locale.ROOT);
+        Limit limit = new Limit(rps, maxInFlight);
+        overrides.put(key, limit);
+        state(key).configure(limit);
+        return withStatus(describe(key));
+    }
+
+    /** Drops a host's override so it falls back to the default limit. */
+    public Map<String, Object> clearLimit(String host) {
+        String key = host == null ? "" : host.trim().toLowerCase(Locale.ROOT);
+        if (overrides.remove(key) == null) {
+            return Map.of("status", "error", "message", "No limit configured for " + key);
+        }
+        HostState s = hosts.get(key);
+        if (s != null) s.configure(new Limit(defaultRps, defaultMaxInFlight));
+        return withStatus(describe(key));
+    }
+
+    /** Defaults, overrides and per-host counters for every host seen so far. */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("defaultRps", defaultRps);
+        out.put("defaultMaxInFlight", defaultMaxInFlight);
+        out.put("maxQueue", maxQueue);
+        Set<String> names = new TreeSet<>(hosts.keySet());
+        names.addAll(overrides.keySet());
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (String h : names) list.add(describe(h));
+        out.put("hosts", list);
+        return out;
+    }
+
+    private Map<String, Object> describe(String host) {
+        HostState s = hosts.get(host);
+        Map<String, Object> m = s != null ? s.toMap() : new LinkedHashMap<>();
+        if (s == null) {
+            Limit limit = limitFor(host);
+            m.put("host", host);
+            m.put("rps", limit.rps);
+            m.put("maxInFlight", limit.maxInFlight);
+        }
+        m.put("override", overrides.containsKey(host));
+        return m;
+    }
+
+    private static Map<String, Object> withStatus(Map<String, Object> m) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.putAll(m);
+        return out;
+    }
+
+    static String hostOf(String url) {
+        if (url == null) return "";
+        try {
+            String host = URI.create(url.trim()).getHost();
+            return host == null ? "" : host.toLowerCase(Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    private HostState state(String host) {
+        return hosts.computeIfAbsent(host, h -> new HostState(h, limitFor(h)));
+    }
+
+    private Limit limitFor(String host) {
+        Limit l = overrides.get(host);
+        return l != null ? l : new Limit(defaultRps, defaultMaxInFlight);
+    }
+
+    /** Reads {@code host=rps[:maxInFlight]} entries separated by commas. */
+    private void parseOverrides(String text) {
+        if (text == null || text.isBlank()) return;
+        for (String entry : text.split(",")) {
+            int eq = entry.indexOf('=');
+            if (eq <= 0) continue;
+            String host = entry.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+            String[] values = entry.substring(eq + 1).trim().split(":");
+            try {
+                double rps = Double.parseDouble(values[0].trim());
+                int inFlight = values.length > 1 ? Integer.parseInt(values[1].trim()) : 0;
+                overrides.put(host, new Limit(rps, inFlight));
+            } catch (NumberFormatException ignored) {
+                // Skip malformed entries rather than failing startup
+            }
+        }
+    }
+
+    private final class HostState {
+        final String host;
+        private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+        private long intervalNanos;
+        private long burstNanos;
+        private double rps;
+        private int maxInFlight;
+        // Theoretical arrival time of the next request on the token schedule
+        private long nextFreeNanos = Long.MIN_VALUE;
+        private int inFlight;
+        private boolean wakeupScheduled;
+
+        private long granted;
+        private long throttled;
+        private long rejected;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+
+        HostState(String host, Limit limit) {
+            this.host = host;
+            configure(limit);
+        }
+
+        synchronized void configure(Limit limit) {
+            rps = limit.rps;
+            maxInFlight = limit.maxInFlight;
+            intervalNanos = rps <= 0 ? 0 : (long) (1_000_000_000L / rps);
+            burstNanos = intervalNanos * Math.max(0, (long) Math.ceil(rps) - 1);
+            nextFreeNanos = Long.MIN_VALUE;
+            pumpLater();
+        }
+
+        CompletableFuture<Permit> acquire() {
+            synchronized (this) {
+                if (queue.isEmpty() && hasSlot() && takeToken(System.nanoTime()) == 0) {
+                    inFlight++;
+                    granted++;
+                    return CompletableFuture.completedFuture(new Permit(this, 0));
+                }
+                // Callers that gave up stay queued until the next pump; drop them before counting
+                if (queue.size() >= maxQueue) queue.removeIf(w -> w.future.isDone());
+                if (queue.size() >= maxQueue) {
+                    rejected++;
+                    return CompletableFuture.failedFuture(new RejectedExecutionException(
+                            "Rate limit queue for " + (host.isEmpty() ? "unknown host" : host) + " is full (" + maxQueue + " waiting)"));
+                }
+                Waiter w = new Waiter();
+                queue.addLast(w);
+                pump();
+                return w.future;
+            }
+        }
+
+        void release() {
+            synchronized (this) {
+                inFlight--;
+                pump();
+            }
+        }
+
+        private boolean hasSlot() {
+            return maxInFlight <= 0 || inFlight < maxInFlight;
+        }
+
+        /** Books a token when one is available and returns 0, otherwise returns the wait until the next one. */
+        private long takeToken(long now) {
+            if (intervalNanos == 0) return 0;
+            long start = nextFreeNanos == Long.MIN_VALUE ? now - burstNanos : Math.max(nextFreeNanos, now - burstNanos);
+            if (start > now) return start - now;
+            nextFreeNanos = start + intervalNanos;
+            return 0;
+        }
+
+        /** Grants permits to queued waiters in order; completions run on the timer thread, outside this lock. */
+        private void pump() {
+            while (!queue.isEmpty()) {
+                Waiter w = queue.peekFirst();
+                if (w.future.isDone()) {
+                    queue.pollFirst();
+                    continue;
+                }
+                if (!hasSlot()) return;
+                long now = System.nanoTime();
+                long wait = takeToken(now);
+                if (wait > 0) {
+                    if (!wakeupScheduled) {
+                        wakeupScheduled = true;
+                        timer.schedule(this::wakeup, wait, TimeUnit.NANOSECONDS);
+                    }
+                    return;
+                }
+                queue.pollFirst();
+                inFlight++;
+                granted++;
+                long waited = now - w.enqueuedNanos;
+                throttled++;
+                totalWaitNanos += waited;
+                maxWaitNanos = Math.max(maxWaitNanos, waited);
+                Permit permit = new Permit(this, waited);
+                timer.execute(() -> {
+                    if (!w.future.complete(permit)) permit.release();
+                });
+            }
+        }
+
+        private void pumpLater() {
+            if (!queue.isEmpty()) timer.execute(() -> {
+                synchronized (this) {
+                    pump();
+                }
+            });
+        }
+
+        synchronized void failWaiting() {
+            for (Waiter w : queue) {
+                w.future.completeExceptionally(new RejectedExecutionException("Rate limiter is shut down"));
+            }
+            queue.clear();
+        }
+
+        private synchronized void wakeup() {
+            wakeupScheduled = false;
+            pump();
+        }
+
+        synchronized Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("host", host);
+            m.put("rps", rps);
+            m.put("maxInFlight", maxInFlight);
+            m.put("inFlight", inFlight);
+            m.put("queued", queue.stream().filter(w -> !w.future.isDone()).count());
+            m.put("granted", granted);
+            m.put("throttled", throttled);
+            m.put("rejected", rejected);
+            m.put("avgWaitMs", throttled == 0 ? 0.0 : TimedHttpClient.Timing.ms(totalWaitNanos / throttled));
+            m.put("maxWaitMs", TimedHttpClient.Timing.ms(maxWaitNanos));
+            return m;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package Madfoat.Learning.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Pages through Jira's {@code /rest/api/3/search} and turns each issue into plain text.
+ *
+ * The first page tells how many issues match and how many Jira returns per page; the remaining
+ * pages are then requested by offset with up to {@code parallelPages} in flight. Pages are handed to
+ * the sink on the calling thread as they arrive, in any order, while later pages are still loading.
+ * Throttled (429) and failed (5xx) requests are retried with backoff.
+ */
+final class JiraIssueFetcher {
+
+    static final String FIELDS = "summary,description,status,priority,issuetype,assignee,reporter,labels,components,created,updated,comment";
+    private static final DateTimeFormatter JIRA_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+
+    private final WebClient http;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int pageSize;
+    private final int parallelPages;
+
+    JiraIssueFetcher(WebClient http, int pageSize, int parallelPages) {
+        this.http = http;
+        this.pageSize = Math.max(1, Math.min(100, pageSize));
+        this.parallelPages = Math.max(1, parallelPages);
+    }
+
+    static final class Issue {
+        final String key;
+        final String summary;
+        final String updatedText;
+        final String status;
+        final String content;
+
+        Issue(String key, String summary, String updatedText, String status, String content) {
+            this.key = key;
+            this.summary = summary;
+            this.updatedText = updatedText;
+            this.status = status;
+            this.content = content;
+        }
+    }
+
+    /** Totals of one fetch: issues matching the query, issues delivered and requests made. */
+    static final class Result {
+        int total;
+        int fetched;
+        int pages;
+    }
+
+    Result fetch(String baseUrl, String authorization, String jql, int maxIssues, Consumer<List<Issue>> sink) {
+        Result result = new Result();
+        JsonNode first = page(baseUrl, authorization, jql, 0, pageSize).block();
+        result.pages++;
+        result.total = first == null ? 0 : first.path("total").asInt(0);
+        int limit = maxIssues > 0 ? Math.min(maxIssues, result.total) : result.total;
+        List<Issue> issues = issues(first, baseUrl, limit);
+        result.fetched += issues.size();
+        sink.accept(issues);
+        // Jira may return fewer issues per page than asked for; later offsets follow what it actually returns
+        int perPage = Math.max(1, first == null ? pageSize : first.path("maxResults").asInt(pageSize));
+        int remainingPages = limit > perPage ? (limit - 1) / perPage : 0;
+        if (remainingPages == 0) return result;
+        Iterable<JsonNode> pages = Flux.range(1, remainingPages)
+                .flatMap(p -> page(baseUrl, authorization, jql, p * perPage, Math.min(perPage, limit - p * perPage)), parallelPages, 1)
+                .toIterable(parallelPages);
+        for (JsonNode page : pages) {
+            result.pages++;
+            List<Issue> batch = issues(page, baseUrl, perPage);
+            result.fetched += batch.size();
+            sink.accept(batch);
+        }
+        return result;
+    }
+
+    private Mono<JsonNode> page(String baseUrl, String authorization, String jql, int startAt, int maxResults) {
+        String url = baseUrl + "/rest/api/3/search?jql=" + URLEncoder.encode(jql, StandardCharsets.UTF_8)
+                + "&startAt=" + startAt + "&maxResults=" + maxResults + "&fields=" + FIELDS;
+        // Already encoded; a String would be treated as a URI template and encoded a second time
+        return http.get().uri(URI.create(url))
+                .header("Authorization", authorization)
+                .header("Accept", "application/json")
+                .retrieve()
+                .bodyToMono(String.class)
+                .timeout(Duration.ofSeconds(60))
+                .retryWhen(FetchRetry.transientFailures())
+                .map(body -> {
+                    try {
+                        return mapper.readTree(body);
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Unreadable Jira response: " + e.getMessage(), e);
+                    }
+                });
+    }
+
+    private static List<Issue> issues(JsonNode page, String baseUrl, int limit) {
+        List<Issue> out = new ArrayList<>();
+        if (page == null) return out;
+        for (JsonNode issue : page.path("issues")) {
+            if (out.size() >= limit) break;
+            out.add(toIssue(issue, baseUrl));
+        }
+        return out;
+    }
+
+    static Issue toIssue(JsonNode issue, String baseUrl) {
+        JsonNode f = issue.path("fields");
+        String key = issue.path("key").asText("");
+        String summary = f.path("summary").asText("");
+        String updatedText = f.path("updated").asText("");
+        StringBuilder b = new StringBuilder();
+        b.append(key).append(": ").append(summary).append('\n');
+        b.append("Type: ").append(f.path("issuetype").path("name").asText("-"))
+                .append(" | Status: ").append(f.path("status").path("name").asText("-"))
+                .append(" | Priority: ").append(f.path("priority").path("name").asText("-")).append('\n');
+        b.append("Assignee: ").append(f.path("assignee").path("displayName").asText("Unassigned"))
+                .append(" | Reporter: ").append(f.path("reporter").path("displayName").asText("-")).append('\n');
+        List<String> labels = new ArrayList<>();
+        for (JsonNode l : f.path("labels")) labels.add(l.asText());
+        if (!labels.isEmpty()) b.append("Labels: ").append(String.join(", ", labels)).append('\n');
+        List<String> components = new ArrayList<>();
+        for (JsonNode c : f.path("components")) components.add(c.path("name").asText());
+        if (!components.isEmpty()) b.append("Components: ").append(String.join(", ", components)).append('\n');
+        b.append("Created: ").append(f.path("created").asText("-")).append(" | Updated: ").append(updatedText).append('\n');
+        b.append("Link: ").append(baseUrl).append("/browse/").append(key).append('\n');
+        String description = text(f.path("description")).strip();
+        if (!description.isEmpty()) b.append("\nDescription:\n").append(description).append('\n');
+        JsonNode comments = f.path("comment").path("comments");
+        if (comments.size() > 0) {
+            b.append("\nComments:\n");
+            for (JsonNode c : comments) {
+                b.append("- ").append(c.path("author").path("displayName").asText("Unknown")).append(": ")
+                        .append(text(c.path("body")).strip()).append('\n');
+            }
+        }
+        return new Issue(key, summary, updatedText, f.path("status").path("name").asText(""), b.toString());
+    }
+
+    static Instant parseTime(String jiraTime) {
+        if (jiraTime == null || jiraTime.isBlank()) return null;
+        try {
+            return OffsetDateTime.parse(jiraTime, JIRA_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /** Plain text of a field that is either a string (API v2, Jira Server) or an Atlassian Document Format tree. */
+    static String text(JsonNode node) {
+        if (node == null || node.isMissingNode() || node.isNull()) return "";
+        if (node.isTextual()) return node.asText();
+        StringBuilder b = new StringBuilder();
+        appendAdf(b, node);
+        return b.toString();
+    }
+
+    private static void appendAdf(StringBuilder b, JsonNode node) {
+        String type = node.path("type").asText("");
+        switch (type) {
+            case "text" -> b.append(node.path("text").asText(""));
+            case "hardBreak" -> b.append('\n');
+            case "mention" -> b.append(node.path("attrs").path("text").asText(""));
+            case "emoji" -> b.append(node.path("attrs").path("shortName").asText(""));
+            case "inlineCard", "blockCard" -> b.append(node.path("attrs").path("url").asText(""));
+            default -> {
+                if ("listItem".equals(type)) b.append("- ");
+                for (JsonNode child : node.path("content")) appendAdf(b, child);
+                if (type.equals("paragraph") || type.equals("heading") || type.equals("codeBlock")
+                        || type.equals("listItem") || type.equals("tableRow")) {
+                    b.append('\n');
+                } else if (type.equals("tableCell") || type.equals("tableHeader")) {
+                    b.append(" | ");
+                }
+            }
+        }
+    }
+
+    /** The stored metadata of an issue document. */
+    static Map<String, String> metadata(Issue issue, String baseUrl, String projectKey) {
+        Map<String, String> meta = new LinkedHashMap<>();
+        meta.put("baseUrl", baseUrl);
+        meta.put("projectKey", projectKey);
+        meta.put("issueKey", issue.key);
+        meta.put("status", issue.status);
+        meta.put("updated", issue.updatedText);
+        return meta;
+    }
+}
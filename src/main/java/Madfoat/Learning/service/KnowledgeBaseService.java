@@ -1,31 +1,82 @@
 package Madfoat.Learning.service;
 
-import org.dhatim.fastexcel.reader.ReadableWorkbook;
-import org.dhatim.fastexcel.reader.Sheet;
-import org.dhatim.fastexcel.reader.Row;
-import org.dhatim.fastexcel.reader.Cell;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
 
-import java.io.InputStream;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class KnowledgeBaseService {
 
     public static class Document {
         public String id;
-        public String title;
+        public volatile String title;
         public String source; // text, file, jira, slack
-        public String content;
-        public String description; // new field for editable description
-        public Map<String, String> metadata;
+        public volatile String description; // new field for editable description
+        // Replaced as a whole on edit, never changed in place, so readers always see a complete map
+        public volatile Map<String, String> metadata;
         public Instant createdAt;
+        // Ingest order, which listings and context assembly follow
+        long sequence;
+        // Set at ingest, or when a stored document is re-indexed after a restart
+        volatile ContentFingerprint fingerprint;
+        // Where a table's header row ends, so passages deep in a sheet can repeat it without reading it first
+        volatile int tableHeaderEnd;
+        // Held until the document is persisted; afterwards the text is read from the store on demand
+        private volatile String content;
+        private volatile KnowledgeStore.StoredContent storedContent;
+
+        public String getContent() {
+            String c = content;
+            if (c != null) return c;
+            KnowledgeStore.StoredContent stored = storedContent;
+            return stored == null ? null : stored.read();
+        }
+
+        /** Characters {@code [start, end)} of the content, reading only that part of a stored copy. */
+        String readContent(int start, int end) {
+            String c = content;
+            if (c != null) {
+                int from = Math.max(0, Math.min(start, c.length()));
+                return c.substring(from, Math.max(from, Math.min(end, c.length())));
+            }
+            KnowledgeStore.StoredContent stored = storedContent;
+            return stored == null ? "" : stored.read(start, end);
+        }
+
+        int contentLength() {
+            String c = content;
+            if (c != null) return c.length();
+            KnowledgeStore.StoredContent stored = storedContent;
+            return stored == null ? 0 : stored.length();
+        }
+
+        public void setContent(String content) {
+            this.content = content;
+            this.storedContent = null;
+        }
+
+        void storedAt(KnowledgeStore.StoredContent stored) {
+            this.storedContent = stored;
+            this.content = null;
+        }
     }
 
     public static class DocumentationGroup {
@@ -33,12 +84,138 @@ public class KnowledgeBaseService {
         public String name;
         public DocumentationGroup(String id, String name) { this.id = id; this.name = name; }
     }
-    private final List<Document> documents = new CopyOnWriteArrayList<>();
+
+    /** A slice {@code [start, end)} of a document's content, indexed on its own. */
+    private static final class Passage {
+        final String docId;
+        final int start;
+        final int end;
+        final long simhash;
+
+        Passage(String docId, int start, int end, long simhash) {
+            this.docId = docId;
+            this.start = start;
+            this.end = end;
+            this.simhash = simhash;
+        }
+    }
+
+    @Value("${knowledge.excel.parallel-sheets:2}")
+    private int excelParallelSheets = 2;
+
+    @Value("${knowledge.excel.max-document-chars:2000000}")
+    private int excelMaxDocumentChars = 2_000_000;
+
+    @Value("${knowledge.jira.page-size:100}")
+    private int jiraPageSize = 100;
+
+    @Value("${knowledge.jira.parallel-pages:4}")
+    private int jiraParallelPages = 4;
+
+    @Value("${knowledge.jira.resync-overlap-minutes:900}")
+    private int jiraResyncOverlapMinutes = 900;
+
+    @Value("${knowledge.slack.api-base-url:https://slack.com/api}")
+    private String slackApiBaseUrl = "https://slack.com/api";
+
+    @Value("${knowledge.slack.page-size:200}")
+    private int slackPageSize = 200;
+
+    @Value("${knowledge.slack.parallel-threads:4}")
+    private int slackParallelThreads = 4;
+
+    @Value("${knowledge.dedup.enabled:true}")
+    private boolean dedupEnabled = true;
+
+    @Value("${knowledge.dedup.max-distance:6}")
+    private int dedupMaxDistance = 6;
+
+    @Value("${knowledge.dedup.passage-max-distance:3}")
+    private int passageMaxDistance = 3;
+
+    @Value("${knowledge.vector.ef-search:100}")
+    private int efSearch = 100;
+
+    @Value("${knowledge.hybrid.keyword-weight:1.0}")
+    private double keywordWeight = 1.0;
+
+    @Value("${knowledge.hybrid.vector-weight:1.0}")
+    private double vectorWeight = 1.0;
+
+    // Reciprocal rank fusion constant; damps the gap between the first few ranks of each list
+    private static final int RRF_K = 60;
+    // Fewest characters a passage of a new document adds: its header and the separators around it
+    private static final int MIN_SELECTION_CHARS = 32;
+    // Documents the fallback may try without taking one before it gives up on filling the budget
+    private static final int FALLBACK_MAX_MISSES = 8;
+    // JQL date literals; minute precision
+    private static final DateTimeFormatter JQL_TIME = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm").withZone(ZoneOffset.UTC);
+
     private final List<DocumentationGroup> docGroups = new CopyOnWriteArrayList<>();
-    private final WebClient http = WebClient.builder().build();
+    // Jira search pages and Slack histories can exceed WebClient's default 256 KB buffer
+    private final WebClient http = WebClient.builder()
+            .codecs(c -> c.defaultCodecs().maxInMemorySize(16 * 1024 * 1024))
+            .build();
+    private final Map<String, Object> jiraSyncLocks = new ConcurrentHashMap<>();
+    private final Map<String, Object> slackSyncLocks = new ConcurrentHashMap<>();
+    // Ranked retrieval over passages of title and content, maintained on every ingest, edit and delete
+    private final Bm25Index index = new Bm25Index();
+    // Documents by id and in ingest order, plus secondary indexes by source, group and api-doc
+    // operation ("METHOD\nendpoint"), all maintained on every ingest, edit and delete
+    private final Map<String, Document> documentsById = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Document> documentsInOrder = new ConcurrentSkipListMap<>();
+    private final Map<String, ConcurrentSkipListMap<Long, Document>> documentsBySource = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<Long, Document>> documentsByGroup = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<Long, Document>> apiDocsByOperation = new ConcurrentHashMap<>();
+    // Duplicate detection within a source: by content digest, and by title for near-duplicate versions
+    private final Map<String, ConcurrentSkipListMap<Long, Document>> documentsByDigest = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<Long, Document>> documentsByTitle = new ConcurrentHashMap<>();
+    private final Object dedupLock = new Object();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final Map<String, List<Passage>> passagesByDoc = new ConcurrentHashMap<>();
+    // Dense retrieval over the same passages, for questions that paraphrase the documents
+    private final HashingEmbedder embedder;
+    private final HnswIndex vectors;
+    // Serializes (re)indexing of a document against its removal, including the startup reindex
+    private final Object indexLock = new Object();
+    private final KnowledgeStore store;
+    private final int passageChars;
+    private final int passageOverlapChars;
+    private final boolean vectorSearchEnabled;
+
+    @Autowired
+    public KnowledgeBaseService(KnowledgeStore store,
+                                @Value("${knowledge.passage-chars:1000}") int passageChars,
+                                @Value("${knowledge.passage-overlap-chars:200}") int passageOverlapChars,
+                                @Value("${knowledge.vector.enabled:true}") boolean vectorSearchEnabled,
+                                @Value("${knowledge.vector.dimensions:256}") int vectorDimensions,
+                                @Value("${knowledge.vector.m:16}") int hnswM,
+                                @Value("${knowledge.vector.ef-construction:64}") int efConstruction,
+                                @Value("${knowledge.vector.max-passages:200000}") int maxVectors) {
+        this.store = store;
+        this.passageChars = passageChars;
+        this.passageOverlapChars = passageOverlapChars;
+        this.vectorSearchEnabled = vectorSearchEnabled;
+        this.embedder = new HashingEmbedder(vectorDimensions);
+        this.vectors = new HnswIndex(embedder.dimensions(), hnswM, efConstruction, maxVectors);
+        KnowledgeStore.Loaded loaded = store.load();
+        docGroups.addAll(loaded.groups);
+        for (Document d : loaded.documents) register(d);
+        if (!loaded.documents.isEmpty()) {
+            // Stored documents are listed and readable at once; retrieval covers them as this catches up
+            Thread reindex = new Thread(() -> reindex(loaded.documents), "knowledge-reindex");
+            reindex.setDaemon(true);
+            reindex.start();
+        }
+    }
 
     public List<Document> listDocuments() {
-        return new ArrayList<>(documents);
+        return new ArrayList<>(documentsInOrder.values());
+    }
+
+    public List<Document> listDocuments(String source) {
+        Map<Long, Document> docs = documentsBySource.get(source);
+        return docs == null ? new ArrayList<>() : new ArrayList<>(docs.values());
     }
 
     public void ingestText(String title, String text) {
@@ -47,21 +224,33 @@ public class KnowledgeBaseService {
         d.id = UUID.randomUUID().toString();
         d.title = (title == null || title.isBlank()) ? ("Text-" + d.id.substring(0, 6)) : title.trim();
         d.source = "text";
-        d.content = text;
+        d.setContent(text);
         d.metadata = Map.of();
         d.createdAt = Instant.now();
-        documents.add(d);
+        addDeduplicated(d);
     }
 
-    public void ingestFile(MultipartFile file) {
-        if (file == null || file.isEmpty()) return;
+    /**
+     * Ingests an uploaded file. Spreadsheets become one document per sheet, split into parts of at
+     * most {@code knowledge.excel.max-document-chars}; the result reports the sheets and rows read.
+     * Documents are deduplicated as in {@link #addDeduplicated}, and the result counts the documents
+     * added, the ones that updated an earlier upload and the duplicates dropped.
+     */
+    public Map<String, Object> ingestFile(MultipartFile file) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (file == null || file.isEmpty()) {
+            result.put("status", "error");
+            result.put("message", "File is empty");
+            return result;
+        }
         String name = file.getOriginalFilename();
         String lower = name == null ? "" : name.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".xlsx") || lower.endsWith(".xlsm") || lower.endsWith(".xls")) {
+            return ingestWorkbook(file, name);
+        }
         String content;
         try {
-            if (lower.endsWith(".xlsx") || lower.endsWith(".xlsm") || lower.endsWith(".xls")) {
-                content = extractExcel(file.getInputStream());
-            } else if (lower.endsWith(".csv")) {
+            if (lower.endsWith(".csv")) {
                 content = new String(file.getBytes(), StandardCharsets.UTF_8);
             } else if (lower.endsWith(".txt") || lower.endsWith(".md")) {
                 content = new String(file.getBytes(), StandardCharsets.UTF_8);
@@ -71,106 +260,425 @@ public class KnowledgeBaseService {
         } catch (Exception e) {
             content = "[Error reading file: " + e.getMessage() + "]";
         }
+        int outcome = addFileDocument(name, content, Map.of("filename", name == null ? "" : name));
+        result.put("status", "ok");
+        result.put("documents", outcome == 2 ? 0 : 1);
+        result.put("added", outcome == 0 ? 1 : 0);
+        result.put("updated", outcome == 1 ? 1 : 0);
+        result.put("duplicates", outcome == 2 ? 1 : 0);
+        return result;
+    }
+
+    /**
+     * Streams every sheet into documents as it is read, so only one part per sheet is held in memory
+     * at a time; with the knowledge store enabled each part is written to disk and released as soon
+     * as it is indexed. The upload is copied to a temporary file, which lets sheets be read in parallel.
+     */
+    private Map<String, Object> ingestWorkbook(MultipartFile file, String name) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        String base = (name == null || name.isBlank()) ? null : name;
+        AtomicIntegerArray counts = new AtomicIntegerArray(3); // added, updated, duplicates
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile("kb-upload-", ".xlsx");
+            file.transferTo(tmp);
+            List<SpreadsheetExtractor.SheetSummary> sheets = SpreadsheetExtractor.extract(tmp.toFile(),
+                    excelParallelSheets, excelMaxDocumentChars, part -> {
+                        Document d = new Document();
+                        d.id = UUID.randomUUID().toString();
+                        String title = base == null ? ("File-" + d.id.substring(0, 6)) : base;
+                        if (part.sheets > 1) title += " / " + part.sheet;
+                        if (part.split) title += " (rows " + part.firstRow + "-" + (part.firstRow + part.rows - 1) + ")";
+                        d.title = title;
+                        d.source = "file";
+                        d.setContent(part.markdown);
+                        d.metadata = Map.of("filename", name == null ? "" : name, "sheet", part.sheet,
+                                "part", String.valueOf(part.number), "rows", String.valueOf(part.rows));
+                        d.createdAt = Instant.now();
+                        counts.incrementAndGet(addDeduplicated(d));
+                    });
+            int rows = 0;
+            List<Map<String, Object>> perSheet = new ArrayList<>();
+            for (SpreadsheetExtractor.SheetSummary s : sheets) {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("name", s.name);
+                m.put("rows", s.rows);
+                m.put("documents", s.parts);
+                perSheet.add(m);
+                rows += s.rows;
+            }
+            if (counts.get(0) + counts.get(1) + counts.get(2) == 0) {
+                counts.incrementAndGet(addFileDocument(name, "[Empty Excel workbook]", Map.of("filename", name == null ? "" : name)));
+            }
+            result.put("status", "ok");
+            result.put("documents", counts.get(0) + counts.get(1));
+            result.put("added", counts.get(0));
+            result.put("updated", counts.get(1));
+            result.put("duplicates", counts.get(2));
+            result.put("sheets", perSheet);
+            result.put("rows", rows);
+        } catch (Exception e) {
+            addFileDocument(name, "[Error parsing Excel: " + e.getMessage() + "]", Map.of("filename", name == null ? "" : name));
+            result.put("status", "error");
+            result.put("message", "Error parsing Excel: " + e.getMessage());
+            result.put("documents", counts.get(0) + counts.get(1) + 1);
+        } finally {
+            if (tmp != null) {
+                try { Files.deleteIfExists(tmp); } catch (Exception ignored) { }
+            }
+        }
+        return result;
+    }
+
+    private int addFileDocument(String name, String content, Map<String, String> metadata) {
         Document d = new Document();
         d.id = UUID.randomUUID().toString();
         d.title = (name == null || name.isBlank()) ? ("File-" + d.id.substring(0, 6)) : name;
         d.source = "file";
-        d.content = content;
-        d.metadata = Map.of("filename", name == null ? "" : name);
+        d.setContent(content);
+        d.metadata = metadata;
         d.createdAt = Instant.now();
-        documents.add(d);
-    }
-
-    private String extractExcel(InputStream in) {
-        try (ReadableWorkbook wb = new ReadableWorkbook(in)) {
-            Sheet sheet = wb.getFirstSheet();
-            if (sheet == null) return "[Empty Excel workbook]";
-            java.util.List<java.util.List<String>> rowsData = new ArrayList<>();
-            try (java.util.stream.Stream<Row> rows = sheet.openStream()) {
-                rows.forEach(r -> {
-                    java.util.List<String> vals = new ArrayList<>();
-                    for (Cell c : r) {
-                        String t = c == null ? "" : c.getText();
-                        vals.add(t == null ? "" : t);
-                    }
-                    rowsData.add(vals);
+        return addDeduplicated(d);
+    }
+
+    /**
+     * Syncs a Jira project into the knowledge base with one document per issue. The first sync pages
+     * through every issue (up to {@code maxIssues} when positive); later ones ask only for issues
+     * updated since the last complete sync started, less {@code knowledge.jira.resync-overlap-minutes}
+     * because JQL dates are minute-precise and in the Jira user's time zone. That watermark is kept in
+     * the store and only moves once every matching issue has been fetched, because pages arrive in
+     * any order: a failed or capped sync leaves it where it was, and the next one fetches those issues
+     * again. Issues are upserted by key, and ones whose {@code updated} is unchanged are skipped
+     * without re-indexing.
+     */
+    public Map<String, Object> ingestJiraProject(String baseUrl, String email, String apiToken, String projectKey, int maxIssues) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (baseUrl == null || baseUrl.isBlank() || projectKey == null || projectKey.isBlank()) {
+            result.put("status", "error");
+            result.put("message", "Jira base URL and project key are required");
+            return result;
+        }
+        String base = baseUrl.trim().replaceAll("/+$", "");
+        String project = projectKey.trim();
+        long started = System.nanoTime();
+        String watermarkKey = "jira|" + base + "|" + project;
+        synchronized (jiraSyncLocks.computeIfAbsent(watermarkKey, k -> new Object())) {
+            Instant watermark = null;
+            try {
+                String stored = store.watermark(watermarkKey);
+                if (stored != null) watermark = Instant.parse(stored);
+            } catch (DateTimeParseException ignored) {
+                // Treated as never synced
+            }
+            // Issues updated while this sync runs may be missed by it; the next one starts from here
+            Instant syncStarted = Instant.now();
+            String jql = "project = \"" + project.replace("\"", "\\\"") + "\"";
+            if (watermark != null) {
+                String since = JQL_TIME.format(watermark.minus(Duration.ofMinutes(Math.max(0, jiraResyncOverlapMinutes))));
+                jql += " AND updated >= \"" + since + "\"";
+                result.put("since", since);
+            }
+            // A stable order, so an issue updated during the sync cannot shift between pages
+            jql += " ORDER BY key ASC";
+            String basic = Base64.getEncoder().encodeToString((email + ":" + apiToken).getBytes(StandardCharsets.UTF_8));
+            int[] counts = new int[3]; // added, updated, unchanged
+            JiraIssueFetcher fetcher = new JiraIssueFetcher(http, jiraPageSize, jiraParallelPages);
+            try {
+                JiraIssueFetcher.Result fetched = fetcher.fetch(base, "Basic " + basic, jql, maxIssues, issues -> {
+                    for (JiraIssueFetcher.Issue issue : issues) counts[upsertJiraIssue(issue, base, project)]++;
                 });
+                result.put("status", "ok");
+                result.put("total", fetched.total);
+                result.put("fetched", fetched.fetched);
+                result.put("pages", fetched.pages);
+                boolean complete = fetched.fetched >= fetched.total;
+                if (complete) store.putWatermark(watermarkKey, syncStarted.toString());
+                result.put("complete", complete);
+            } catch (Exception e) {
+                result.put("status", "error");
+                result.put("message", "Jira error: " + e.getMessage());
+                result.put("complete", false);
             }
-            if (rowsData.isEmpty()) return "[Empty Excel workbook]";
-            // Build Markdown table using first row as headers
-            java.util.List<String> headers = new ArrayList<>();
-            for (String h : rowsData.get(0)) headers.add(h == null || h.isBlank() ? "Col" + (headers.size() + 1) : h.trim());
-            int numCols = headers.size();
-            StringBuilder md = new StringBuilder();
-            md.append("| ").append(String.join(" | ", headers)).append(" |\n");
-            md.append("| ");
-            for (int i = 0; i < numCols; i++) { md.append("---"); if (i < numCols - 1) md.append(" | "); }
-            md.append(" |\n");
-            for (int i = 1; i < rowsData.size(); i++) {
-                java.util.List<String> rowVals = rowsData.get(i);
-                // pad row to numCols
-                java.util.List<String> padded = new ArrayList<>();
-                for (int c = 0; c < numCols; c++) padded.add(c < rowVals.size() ? rowVals.get(c) : "");
-                md.append("| ").append(String.join(" | ", padded)).append(" |\n");
+            result.put("incremental", watermark != null);
+            result.put("added", counts[0]);
+            result.put("updated", counts[1]);
+            result.put("unchanged", counts[2]);
+            result.put("elapsedMs", (System.nanoTime() - started) / 1_000_000);
+        }
+        return result;
+    }
+
+    /** Stores the issue under an id derived from its key; returns 0 when added, 1 when replaced, 2 when unchanged. */
+    private int upsertJiraIssue(JiraIssueFetcher.Issue issue, String base, String project) {
+        Document d = new Document();
+        d.id = UUID.nameUUIDFromBytes(("jira|" + base + "|" + issue.key).getBytes(StandardCharsets.UTF_8)).toString();
+        d.title = issue.key + ": " + issue.summary;
+        d.source = "jira";
+        d.setContent(issue.content);
+        d.metadata = JiraIssueFetcher.metadata(issue, base, project);
+        d.createdAt = Instant.now();
+        return upsert(d, "updated");
+    }
+
+    /**
+     * Adds the document, or replaces the one stored under its id unless both carry the same
+     * {@code versionKey} metadata; returns 0 when added, 1 when replaced, 2 when unchanged.
+     */
+    private int upsert(Document d, String versionKey) {
+        Document old = documentsById.get(d.id);
+        if (old != null && old.metadata != null && Objects.equals(d.metadata.get(versionKey), old.metadata.get(versionKey))) return 2;
+        if (old == null) addDocument(d);
+        else replace(old, d);
+        return old == null ? 0 : 1;
+    }
+
+    /**
+     * Adds the document unless one from the same source already has exactly the same content. A
+     * document whose SimHash is within {@code knowledge.dedup.max-distance} bits of one from the same
+     * source with the same title replaces it as its next version, keeping its id and counting up its
+     * {@code version} metadata. Returns 0 when added, 1 when it replaced a near-duplicate, 2 when it
+     * was dropped as a duplicate. Stored documents take part once re-indexed after a restart.
+     *
+     * Only the duplicate check and the registration that makes the document visible to the next
+     * check hold {@code dedupLock}; its passages are indexed and it is persisted afterwards, under the
+     * document's own lock.
+     */
+    private int addDeduplicated(Document d) {
+        if (!dedupEnabled) {
+            addDocument(d);
+            return 0;
+        }
+        d.fingerprint = ContentFingerprint.of(contentOf(d));
+        synchronized (d) {
+            int outcome = registerUnlessDuplicate(d);
+            if (outcome != 2) {
+                indexPassages(d);
+                store.putDocument(d);
             }
-            return md.toString();
-        } catch (Exception e) { return "[Error parsing Excel: " + e.getMessage() + "]"; }
+            return outcome;
+        }
     }
 
-    public int ingestJiraProject(String baseUrl, String email, String apiToken, String projectKey, int maxIssues) {
-        try {
-            String jql = "project=" + projectKey + " ORDER BY updated DESC";
-            String url = baseUrl.replaceAll("/+$", "") + "/rest/api/3/search?maxResults=" + Math.max(1, Math.min(100, maxIssues)) + "&jql=" + java.net.URLEncoder.encode(jql, StandardCharsets.UTF_8);
-            String basic = Base64.getEncoder().encodeToString((email + ":" + apiToken).getBytes(StandardCharsets.UTF_8));
-            String resp = http.get().uri(url)
-                    .header("Authorization", "Basic " + basic)
-                    .header("Accept", "application/json")
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .onErrorResume(ex -> Mono.just("[Jira error: " + ex.getMessage() + "]"))
-                    .block();
-            Document d = new Document();
-            d.id = UUID.randomUUID().toString();
-            d.title = "Jira Project " + projectKey;
-            d.source = "jira";
-            d.content = resp == null ? "" : resp;
-            d.metadata = Map.of("projectKey", projectKey);
-            d.createdAt = Instant.now();
-            documents.add(d);
+    /** The locked part of {@link #addDeduplicated}: registers {@code d}, retiring the version it replaces, unless it is a duplicate. */
+    private int registerUnlessDuplicate(Document d) {
+        synchronized (dedupLock) {
+            Map<Long, Document> same = documentsByDigest.get(digestKey(d));
+            if (same != null) {
+                for (Document o : same.values()) {
+                    if (documentsById.get(o.id) == o) return 2;
+                }
+            }
+            Document old = null;
+            int nearest = Integer.MAX_VALUE;
+            Map<Long, Document> titled = documentsByTitle.get(titleKey(d));
+            if (titled != null) {
+                for (Document o : titled.values()) {
+                    ContentFingerprint f = o.fingerprint;
+                    if (f == null || documentsById.get(o.id) != o) continue;
+                    int distance = ContentFingerprint.distance(f.simhash, d.fingerprint.simhash);
+                    // Later documents win ties, so the newest version is the one replaced
+                    if (distance <= dedupMaxDistance && distance <= nearest) {
+                        old = o;
+                        nearest = distance;
+                    }
+                }
+            }
+            if (old == null) {
+                register(d);
+                return 0;
+            }
+            Map<String, String> meta = d.metadata == null ? new HashMap<>() : new HashMap<>(d.metadata);
+            int version = 1;
+            try {
+                if (old.metadata != null && old.metadata.get("version") != null) version = Integer.parseInt(old.metadata.get("version"));
+            } catch (NumberFormatException ignored) {
+            }
+            meta.put("version", String.valueOf(version + 1));
+            d.metadata = meta;
+            d.id = old.id;
+            retire(old);
+            register(d);
             return 1;
-        } catch (Exception e) { return 0; }
+        }
     }
 
-    public int ingestSlackChannel(String botToken, String channelId, int limit) {
-        try {
-            String url = "https://slack.com/api/conversations.history?limit=" + Math.max(1, Math.min(100, limit)) + "&channel=" + java.net.URLEncoder.encode(channelId, StandardCharsets.UTF_8);
-            String resp = http.get().uri(url)
-                    .header("Authorization", "Bearer " + botToken)
-                    .retrieve()
-                    .bodyToMono(String.class)
-                    .onErrorResume(ex -> Mono.just("[Slack error: " + ex.getMessage() + "]"))
-                    .block();
-            Document d = new Document();
-            d.id = UUID.randomUUID().toString();
-            d.title = "Slack Channel " + channelId;
-            d.source = "slack";
-            d.content = resp == null ? "" : resp;
-            d.metadata = Map.of("channel", channelId);
-            d.createdAt = Instant.now();
-            documents.add(d);
-            return 1;
-        } catch (Exception e) { return 0; }
+    /** Swaps {@code d} in for {@code old}, which has the same id. */
+    private void replace(Document old, Document d) {
+        retire(old);
+        addDocument(d);
+    }
+
+    /** Unregisters {@code old} ahead of a new version under its id, which re-indexes its passages. */
+    private void retire(Document old) {
+        synchronized (old) {
+            if (documentsById.remove(old.id, old)) {
+                documentsInOrder.remove(old.sequence);
+                removeFromIndexes(old);
+            }
+        }
+    }
+
+    /**
+     * Syncs a Slack channel into the knowledge base with one document per top-level message, holding
+     * its whole thread when it has replies. History is followed page by page through Slack's cursor;
+     * later syncs ask only for messages newer than the newest {@code ts} already stored for the
+     * channel. Replies posted later to a thread older than that are not picked up. A positive
+     * {@code limit} keeps the newest messages on the first sync and the oldest ones after the stored
+     * messages on later syncs, so repeated limited syncs catch up without leaving a gap.
+     */
+    public Map<String, Object> ingestSlackChannel(String botToken, String channelId, int limit) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (channelId == null || channelId.isBlank()) {
+            result.put("status", "error");
+            result.put("message", "Slack channel ID is required");
+            return result;
+        }
+        String channel = channelId.trim();
+        long started = System.nanoTime();
+        synchronized (slackSyncLocks.computeIfAbsent(channel, k -> new Object())) {
+            String oldest = null;
+            BigDecimal newest = null;
+            for (Document d : listDocuments("slack")) {
+                Map<String, String> meta = d.metadata;
+                if (meta == null || !channel.equals(meta.get("channel")) || meta.get("ts") == null) continue;
+                try {
+                    BigDecimal ts = new BigDecimal(meta.get("ts"));
+                    if (newest == null || ts.compareTo(newest) > 0) {
+                        newest = ts;
+                        oldest = meta.get("ts");
+                    }
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            if (oldest != null) result.put("oldest", oldest);
+            int[] counts = new int[3]; // added, updated, unchanged
+            SlackMessageFetcher fetcher = new SlackMessageFetcher(http, slackApiBaseUrl, botToken, slackPageSize, slackParallelThreads);
+            try {
+                SlackMessageFetcher.Result fetched = fetcher.fetch(channel, oldest, limit, c -> {
+                    Document d = new Document();
+                    d.id = UUID.nameUUIDFromBytes(("slack|" + channel + "|" + c.parent.ts).getBytes(StandardCharsets.UTF_8)).toString();
+                    d.title = SlackMessageFetcher.title(c, channel);
+                    d.source = "slack";
+                    d.setContent(SlackMessageFetcher.content(c, channel));
+                    d.metadata = SlackMessageFetcher.metadata(c, channel);
+                    d.createdAt = Instant.now();
+                    counts[upsert(d, "latest")]++;
+                });
+                result.put("status", "ok");
+                result.put("messages", fetched.messages);
+                result.put("threads", fetched.threads);
+                result.put("replies", fetched.replies);
+                result.put("pages", fetched.pages);
+            } catch (Exception e) {
+                result.put("status", "error");
+                result.put("message", "Slack error: " + e.getMessage());
+            }
+            result.put("incremental", oldest != null);
+            result.put("added", counts[0]);
+            result.put("updated", counts[1]);
+            result.put("unchanged", counts[2]);
+            result.put("elapsedMs", (System.nanoTime() - started) / 1_000_000);
+        }
+        return result;
     }
 
     public DocumentationGroup createDocumentationGroup(String name) {
         String id = UUID.randomUUID().toString();
         DocumentationGroup group = new DocumentationGroup(id, name);
         docGroups.add(group);
+        store.putGroup(group);
         return group;
     }
     public boolean deleteDocumentationGroup(String id) {
-        return docGroups.removeIf(g -> g.id.equals(id));
+        boolean removed = docGroups.removeIf(g -> g.id.equals(id));
+        if (removed) store.deleteGroup(id);
+        return removed;
+    }
+    /**
+     * Storage figures for the knowledge base. For each document, the heap its content would take as a
+     * {@code String} is set against what its compressed, stored copy holds on the heap; totals are
+     * reported with the {@code limit} documents that save the most. Also reports the store, the
+     * passage indexes and how many of the metadata strings are shared instances.
+     */
+    public Map<String, Object> stats(int limit) {
+        long chars = 0, stringBytes = 0, storedBytes = 0, heapBytes = 0;
+        int documents = 0, inMemory = 0;
+        PriorityQueue<Map<String, Object>> largest = new PriorityQueue<>(
+                Comparator.comparingLong(m -> (Long) m.get("heapSavedBytes")));
+        Map<String, Boolean> distinct = new IdentityHashMap<>();
+        long metadataStrings = 0;
+        for (Document d : documentsInOrder.values()) {
+            documents++;
+            String content = d.content;
+            KnowledgeStore.StoredContent stored = d.storedContent;
+            long asString, held, bytes;
+            int length;
+            if (content != null || stored == null) {
+                // Not yet persisted, or the store could not take it
+                inMemory++;
+                length = content == null ? 0 : content.length();
+                asString = 40 + 2L * length;
+                held = asString;
+                bytes = 0;
+            } else {
+                length = stored.length();
+                asString = stored.stringBytes();
+                held = stored.heapBytes();
+                bytes = stored.storedBytes();
+            }
+            chars += length;
+            stringBytes += asString;
+            heapBytes += held;
+            storedBytes += bytes;
+            if (limit > 0) {
+                Map<String, Object> m = new LinkedHashMap<>();
+                m.put("id", d.id);
+                m.put("title", d.title);
+                m.put("source", d.source);
+                m.put("chars", length);
+                m.put("storedBytes", bytes);
+                m.put("heapSavedBytes", asString - held);
+                largest.add(m);
+                if (largest.size() > limit) largest.poll();
+            }
+            Map<String, String> meta = d.metadata;
+            if (meta != null) {
+                for (Map.Entry<String, String> e : meta.entrySet()) {
+                    metadataStrings += 2;
+                    if (e.getKey() != null) distinct.put(e.getKey(), Boolean.TRUE);
+                    if (e.getValue() != null) distinct.put(e.getValue(), Boolean.TRUE);
+                }
+            }
+        }
+        List<Map<String, Object>> top = new ArrayList<>(largest);
+        top.sort((a, b) -> Long.compare((Long) b.get("heapSavedBytes"), (Long) a.get("heapSavedBytes")));
+        int passages = 0;
+        for (List<Passage> ps : passagesByDoc.values()) passages += ps.size();
+
+        Map<String, Object> content = new LinkedHashMap<>();
+        content.put("documents", documents);
+        content.put("notYetStored", inMemory);
+        content.put("chars", chars);
+        content.put("stringBytes", stringBytes);
+        content.put("storedBytes", storedBytes);
+        content.put("heapBytes", heapBytes);
+        content.put("heapSavedBytes", stringBytes - heapBytes);
+        content.put("heapSavedBytesPerDocument", documents == 0 ? 0 : (stringBytes - heapBytes) / documents);
+        Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("strings", metadataStrings);
+        metadata.put("distinctInstances", distinct.size());
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("content", content);
+        out.put("largestSavings", top);
+        out.put("metadata", metadata);
+        out.put("passages", passages);
+        out.put("keywordIndex", index.size());
+        if (vectorSearchEnabled) out.put("vectorIndex", vectors.stats());
+        out.put("store", store.stats());
+        return out;
     }
+
     public List<DocumentationGroup> listDocumentationGroups() {
         return new ArrayList<>(docGroups);
     }
@@ -181,7 +689,7 @@ public class KnowledgeBaseService {
         d.id = UUID.randomUUID().toString();
         d.title = (title == null || title.isBlank()) ? (method + " " + endpoint) : title.trim();
         d.source = "api-doc";
-        d.content = content;
+        d.setContent(content);
         d.description = description;
         Map<String, String> meta = new HashMap<>();
         meta.put("endpoint", endpoint);
@@ -204,91 +712,385 @@ public class KnowledgeBaseService {
         }
         d.metadata = meta;
         d.createdAt = Instant.now();
-        documents.add(d);
+        addDocument(d);
     }
     public Map<String, Map<String, List<Document>>> getApiDocumentationGrouped(String groupId) {
         Map<String, Map<String, List<Document>>> grouped = new HashMap<>();
-        for (Document d : documents) {
-            if (!"api-doc".equals(d.source)) continue;
-            if (groupId != null && d.metadata != null && !groupId.equals(d.metadata.get("groupId"))) continue;
-            String endpoint = d.metadata != null ? d.metadata.getOrDefault("endpoint", "") : "";
-            String method = d.metadata != null ? d.metadata.getOrDefault("method", "") : "";
-            if (endpoint.isEmpty() || method.isEmpty()) continue;
-            grouped.computeIfAbsent(endpoint, k -> new HashMap<>())
-                   .computeIfAbsent(method, k -> new ArrayList<>())
+        if (groupId == null) {
+            for (Map.Entry<String, ConcurrentSkipListMap<Long, Document>> e : apiDocsByOperation.entrySet()) {
+                int sep = e.getKey().indexOf('\n');
+                List<Document> docs = new ArrayList<>(e.getValue().values());
+                if (docs.isEmpty()) continue;
+                grouped.computeIfAbsent(e.getKey().substring(sep + 1), k -> new HashMap<>())
+                       .put(e.getKey().substring(0, sep), docs);
+            }
+            return grouped;
+        }
+        Map<Long, Document> inGroup = documentsByGroup.get(groupId);
+        if (inGroup == null) return grouped;
+        for (Document d : inGroup.values()) {
+            String operation = operationKey(d);
+            if (operation == null) continue;
+            int sep = operation.indexOf('\n');
+            grouped.computeIfAbsent(operation.substring(sep + 1), k -> new HashMap<>())
+                   .computeIfAbsent(operation.substring(0, sep), k -> new ArrayList<>())
                    .add(d);
         }
         return grouped;
     }
 
     public boolean deleteApiDocumentation(String docId) {
-        return documents.removeIf(d -> Objects.equals(d.id, docId) && "api-doc".equals(d.source));
+        Document d = apiDoc(docId);
+        if (d == null) return false;
+        synchronized (d) {
+            if (!documentsById.remove(docId, d)) return false;
+            documentsInOrder.remove(d.sequence);
+            removeFromIndexes(d);
+            store.deleteDocument(docId);
+        }
+        unindex(docId);
+        return true;
     }
     public boolean updateApiDocumentation(String docId, String newTitle, String newDescription, String notes, String tags, String status, String lastTested) {
-        for (Document d : documents) {
-            if (Objects.equals(d.id, docId) && "api-doc".equals(d.source)) {
-                if (newTitle != null && !newTitle.isBlank()) d.title = newTitle;
-                if (newDescription != null) d.description = newDescription;
-                if (notes != null) {
-                    if (d.metadata == null) d.metadata = new HashMap<>();
-                    d.metadata.put("notes", notes);
-                }
-                if (tags != null) {
-                    if (d.metadata == null) d.metadata = new HashMap<>();
-                    d.metadata.put("tags", tags);
-                }
-                if (status != null) {
-                    if (d.metadata == null) d.metadata = new HashMap<>();
-                    d.metadata.put("status", status);
-                }
-                if (lastTested != null) {
-                    if (d.metadata == null) d.metadata = new HashMap<>();
-                    d.metadata.put("lastTested", lastTested);
-                }
-                return true;
+        Document d = apiDoc(docId);
+        if (d == null) return false;
+        boolean retitled = newTitle != null && !newTitle.isBlank();
+        synchronized (d) {
+            if (documentsById.get(docId) != d) return false;
+            if (retitled) d.title = newTitle;
+            if (newDescription != null) d.description = newDescription;
+            if (notes != null || tags != null || status != null || lastTested != null) {
+                Map<String, String> meta = d.metadata == null ? new HashMap<>() : new HashMap<>(d.metadata);
+                if (notes != null) meta.put("notes", notes);
+                if (tags != null) meta.put("tags", tags);
+                if (status != null) meta.put("status", status);
+                if (lastTested != null) meta.put("lastTested", lastTested);
+                d.metadata = intern(meta);
             }
+            store.updateDocument(d);
         }
-        return false;
+        if (retitled) indexPassages(d);
+        return true;
     }
     public boolean moveApiDocumentation(String docId, String newGroupId) {
-        for (Document d : documents) {
-            if (Objects.equals(d.id, docId) && "api-doc".equals(d.source)) {
-                if (d.metadata == null) d.metadata = new HashMap<>();
-                d.metadata.put("groupId", newGroupId);
-                return true;
-            }
+        Document d = apiDoc(docId);
+        if (d == null) return false;
+        synchronized (d) {
+            if (documentsById.get(docId) != d) return false;
+            removeFromIndexes(d);
+            Map<String, String> meta = d.metadata == null ? new HashMap<>() : new HashMap<>(d.metadata);
+            meta.put("groupId", newGroupId);
+            d.metadata = intern(meta);
+            addToIndexes(d);
+            store.updateDocument(d);
         }
-        return false;
+        return true;
     }
 
+    /**
+     * Builds LLM context from the passages that best match the question under BM25. Passages are
+     * taken best first while they fit in {@code maxChars}; a passage that nearly repeats one already
+     * taken, or that lies inside one taken from the same document, is skipped. Passages of one document are
+     * merged in document order under a single header, with the table header repeated for
+     * spreadsheet rows. When the matches do not fill the budget, the opening passages of other
+     * documents fill the rest in ingest order, until too little room is left for another document
+     * or {@code FALLBACK_MAX_MISSES} documents in a row do not fit, so a question never walks the
+     * whole corpus.
+     */
     public String buildContextForQuestion(String question, int maxChars) {
-        if (documents.isEmpty()) return "";
-        String[] terms = Arrays.stream(question.toLowerCase(Locale.ROOT).split("[^a-z0-9]+"))
-                .filter(s -> s.length() > 2).toArray(String[]::new);
-        List<Document> ranked = new ArrayList<>(documents);
-        ranked.sort((a, b) -> score(b, terms) - score(a, terms));
+        if (documentsInOrder.isEmpty()) return "";
+        // Every passage costs at least a few characters of header, so this many hits can always fill the budget
+        int k = maxChars / MIN_SELECTION_CHARS + 1;
+        Map<String, List<Passage>> selected = new LinkedHashMap<>();
+        List<Passage> taken = new ArrayList<>();
+        int used = 0;
+        for (String key : rankPassages(question, k)) {
+            if (used >= maxChars) break;
+            Passage p = passageFor(key);
+            Document d = p == null ? null : documentsById.get(p.docId);
+            if (d == null) continue;
+            used += select(selected, taken, d, p, maxChars - used);
+        }
+        int misses = 0;
+        for (Document d : documentsInOrder.values()) {
+            if (maxChars - used < MIN_SELECTION_CHARS || misses >= FALLBACK_MAX_MISSES) break;
+            if (selected.containsKey(d.id)) continue;
+            List<Passage> ps = passagesByDoc.get(d.id);
+            Passage first = ps == null || ps.isEmpty() ? new Passage(d.id, 0, 0, 0) : ps.get(0);
+            int added = select(selected, taken, d, first, maxChars - used);
+            misses = added == 0 ? misses + 1 : 0;
+            used += added;
+        }
+
         StringBuilder ctx = new StringBuilder();
-        for (Document d : ranked) {
-            if (ctx.length() > maxChars) break;
-            ctx.append("Source: ").append(d.source).append(" | Title: ").append(d.title).append("\n");
-            String c = d.content == null ? "" : d.content;
-            if (c.length() > 2000) c = c.substring(0, 2000) + "...";
-            ctx.append(c).append("\n\n");
+        for (Map.Entry<String, List<Passage>> e : selected.entrySet()) {
+            Document d = documentsById.get(e.getKey());
+            if (d != null) appendContext(ctx, d, e.getValue());
         }
         if (ctx.length() > maxChars) return ctx.substring(0, maxChars);
         return ctx.toString();
     }
 
-    private int score(Document d, String[] terms) {
-        if (terms.length == 0) return 0;
-        String c = (d.content == null ? "" : d.content.toLowerCase(Locale.ROOT)) + " " +
-                (d.title == null ? "" : d.title.toLowerCase(Locale.ROOT));
-        int s = 0;
-        for (String t : terms) {
-            if (t.isBlank()) continue;
-            if (c.contains(t)) s += 2;
+    /**
+     * Passage keys ranked by reciprocal rank fusion of the keyword and vector results, so a passage
+     * found by both ranks above one found by either alone, without comparing BM25 scores to cosines.
+     */
+    private List<String> rankPassages(String question, int k) {
+        List<Bm25Index.Hit> keyword = index.search(question, k);
+        if (!vectorSearchEnabled) {
+            List<String> keys = new ArrayList<>(keyword.size());
+            for (Bm25Index.Hit h : keyword) keys.add(h.key);
+            return keys;
         }
-        return s;
+        List<Bm25Index.Hit> dense = vectors.search(embedder.embed(question), Math.min(k, efSearch), efSearch);
+        Map<String, Double> fused = new HashMap<>();
+        for (int r = 0; r < keyword.size(); r++) fused.merge(keyword.get(r).key, keywordWeight / (RRF_K + r + 1), Double::sum);
+        for (int r = 0; r < dense.size(); r++) fused.merge(dense.get(r).key, vectorWeight / (RRF_K + r + 1), Double::sum);
+        List<String> keys = new ArrayList<>(fused.keySet());
+        keys.sort((a, b) -> Double.compare(fused.get(b), fused.get(a)));
+        return keys;
+    }
+
+    /**
+     * Adds the passage when it brings new text that fits; returns the characters it adds to the
+     * context. A passage within {@code knowledge.dedup.passage-max-distance} SimHash bits of one
+     * already taken is a near copy of it and is skipped.
+     */
+    private int select(Map<String, List<Passage>> selected, List<Passage> taken, Document d, Passage p, int remaining) {
+        List<Passage> chosen = selected.get(d.id);
+        int fresh = (p.end - p.start) - covered(chosen, p);
+        if (chosen != null && fresh <= 0) return 0;
+        if (p.end > p.start) {
+            for (Passage t : taken) {
+                if (ContentFingerprint.distance(t.simhash, p.simhash) <= passageMaxDistance) return 0;
+            }
+        }
+        int headerEnd = d.tableHeaderEnd;
+        int cost = fresh + (p.start >= headerEnd && headerEnd > 0 ? headerEnd : 0) + 8
+                + (chosen == null ? header(d).length() : 0);
+        // The first selection is always taken so a single huge passage cannot leave the context empty
+        if (cost > remaining && !selected.isEmpty()) return 0;
+        selected.computeIfAbsent(d.id, id -> new ArrayList<>()).add(p);
+        if (p.end > p.start) taken.add(p);
+        return cost;
+    }
+
+    private static int covered(List<Passage> chosen, Passage p) {
+        if (chosen == null) return 0;
+        int covered = 0;
+        for (int[] r : merge(chosen)) {
+            covered += Math.max(0, Math.min(r[1], p.end) - Math.max(r[0], p.start));
+        }
+        return covered;
+    }
+
+    private static List<int[]> merge(List<Passage> passages) {
+        List<Passage> sorted = new ArrayList<>(passages);
+        sorted.sort(Comparator.comparingInt(p -> p.start));
+        List<int[]> ranges = new ArrayList<>();
+        for (Passage p : sorted) {
+            int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && p.start <= last[1]) last[1] = Math.max(last[1], p.end);
+            else ranges.add(new int[] { p.start, p.end });
+        }
+        return ranges;
+    }
+
+    private static String header(Document d) {
+        return "Source: " + d.source + " | Title: " + d.title + "\n";
     }
-}
 
+    /** Appends the passages of one document, reading only their ranges (and the table header) of stored content. */
+    private static void appendContext(StringBuilder ctx, Document d, List<Passage> passages) {
+        int headerEnd = d.tableHeaderEnd;
+        int length = d.contentLength();
+        String tableHeader = null;
+        ctx.append(header(d));
+        for (int[] r : merge(passages)) {
+            if (headerEnd > 0 && r[0] >= headerEnd) {
+                if (tableHeader == null) tableHeader = d.readContent(0, headerEnd);
+                ctx.append(tableHeader);
+            }
+            if (r[0] > headerEnd) ctx.append("...");
+            ctx.append(d.readContent(r[0], r[1]));
+            if (r[1] < length) ctx.append("...");
+            ctx.append("\n");
+        }
+        ctx.append("\n");
+    }
+
+    /** Indexes the document while its text is still in memory, then persists it, which lets the text go. */
+    private void addDocument(Document d) {
+        synchronized (d) {
+            register(d);
+            indexPassages(d);
+            store.putDocument(d);
+        }
+    }
+
+    private void register(Document d) {
+        if (d.source != null) d.source = d.source.intern();
+        d.metadata = intern(d.metadata);
+        d.sequence = nextSequence.getAndIncrement();
+        documentsById.put(d.id, d);
+        documentsInOrder.put(d.sequence, d);
+        addToIndexes(d);
+    }
+
+    /**
+     * A compact copy of the metadata with keys and values interned, so the names every document
+     * repeats, and values such as file names, sheets, channels and projects, are held once.
+     */
+    private static Map<String, String> intern(Map<String, String> meta) {
+        if (meta == null || meta.isEmpty()) return meta;
+        Map<String, String> out = new HashMap<>(meta.size() * 2);
+        boolean nulls = false;
+        for (Map.Entry<String, String> e : meta.entrySet()) {
+            String value = e.getValue();
+            nulls |= value == null || e.getKey() == null;
+            out.put(e.getKey() == null ? null : e.getKey().intern(), value == null ? null : value.intern());
+        }
+        // Map.copyOf packs the entries into one array but rejects nulls
+        return nulls ? out : Map.copyOf(out);
+    }
+
+    private Document apiDoc(String docId) {
+        Document d = docId == null ? null : documentsById.get(docId);
+        return d != null && "api-doc".equals(d.source) ? d : null;
+    }
+
+    private void addToIndexes(Document d) {
+        Map<String, String> meta = d.metadata;
+        addTo(documentsBySource, d.source, d);
+        addTo(documentsByGroup, meta == null ? null : meta.get("groupId"), d);
+        addTo(apiDocsByOperation, operationKey(d), d);
+        if (d.fingerprint != null) {
+            addTo(documentsByDigest, digestKey(d), d);
+            addTo(documentsByTitle, titleKey(d), d);
+        }
+    }
+
+    private void removeFromIndexes(Document d) {
+        Map<String, String> meta = d.metadata;
+        removeFrom(documentsBySource, d.source, d);
+        removeFrom(documentsByGroup, meta == null ? null : meta.get("groupId"), d);
+        removeFrom(apiDocsByOperation, operationKey(d), d);
+        if (d.fingerprint != null) {
+            removeFrom(documentsByDigest, digestKey(d), d);
+            removeFrom(documentsByTitle, titleKey(d), d);
+        }
+    }
+
+    private static void addTo(Map<String, ConcurrentSkipListMap<Long, Document>> index, String key, Document d) {
+        if (key == null) return;
+        index.compute(key, (k, docs) -> {
+            if (docs == null) docs = new ConcurrentSkipListMap<>();
+            docs.put(d.sequence, d);
+            return docs;
+        });
+    }
+
+    private static void removeFrom(Map<String, ConcurrentSkipListMap<Long, Document>> index, String key, Document d) {
+        if (key == null) return;
+        index.computeIfPresent(key, (k, docs) -> {
+            docs.remove(d.sequence, d);
+            return docs.isEmpty() ? null : docs;
+        });
+    }
+
+    /** Pasted text and uploaded files; the other sources are keyed by what they came from and upserted. */
+    private static boolean deduplicated(Document d) {
+        return "text".equals(d.source) || "file".equals(d.source);
+    }
+
+    private static String digestKey(Document d) {
+        ContentFingerprint f = d.fingerprint;
+        return f == null || !deduplicated(d) ? null : d.source + "\n" + f.digest;
+    }
+
+    private static String titleKey(Document d) {
+        return d.fingerprint == null || !deduplicated(d) ? null : d.source + "\n" + d.title;
+    }
+
+    /** {@code METHOD\nendpoint} for api-docs that have both, else null. */
+    private static String operationKey(Document d) {
+        Map<String, String> meta = d.metadata;
+        if (!"api-doc".equals(d.source) || meta == null) return null;
+        String endpoint = meta.getOrDefault("endpoint", "");
+        String method = meta.getOrDefault("method", "");
+        if (endpoint == null || method == null || endpoint.isEmpty() || method.isEmpty()) return null;
+        return method + "\n" + endpoint;
+    }
+
+    private void reindex(List<Document> stored) {
+        for (Document d : stored) {
+            // A document an edit or ingest has indexed meanwhile is skipped; indexing it again would only repeat the work
+            if (documentsById.get(d.id) == d && !passagesByDoc.containsKey(d.id)) indexPassages(d);
+        }
+    }
+
+    /**
+     * Splits the document into overlapping passages and indexes each with the title, replacing earlier
+     * passages. The splitting and embedding happen before {@code indexLock} is taken, so documents
+     * ingested in parallel only queue to publish; nothing is published for a document that has been
+     * removed or replaced meanwhile, and a removal after publishing unindexes what was published.
+     */
+    private void indexPassages(Document d) {
+        String content = contentOf(d);
+        String title = d.title == null ? "" : d.title;
+        int tableHeaderEnd = PassageSplitter.tableHeaderEnd(content);
+        List<Passage> passages = new ArrayList<>();
+        for (int[] r : PassageSplitter.split(content, passageChars, passageOverlapChars)) {
+            passages.add(new Passage(d.id, r[0], r[1], ContentFingerprint.simhash(content.substring(r[0], r[1]))));
+        }
+        if (passages.isEmpty()) passages.add(new Passage(d.id, 0, 0, 0));
+        String[] texts = new String[passages.size()];
+        float[][] embeddings = vectorSearchEnabled ? new float[passages.size()][] : null;
+        for (int i = 0; i < texts.length; i++) {
+            Passage p = passages.get(i);
+            texts[i] = title + "\n" + content.substring(p.start, p.end);
+            if (embeddings != null) embeddings[i] = embedder.embed(texts[i]);
+        }
+        // Stored before this restart; joins duplicate detection now that its content has been read
+        ContentFingerprint fingerprint = d.fingerprint == null && deduplicated(d) ? ContentFingerprint.of(content) : null;
+
+        synchronized (indexLock) {
+            if (documentsById.get(d.id) != d) return;
+            unindex(d.id);
+            d.tableHeaderEnd = tableHeaderEnd;
+            for (int i = 0; i < texts.length; i++) {
+                index.put(d.id + "#" + i, texts[i]);
+                if (embeddings != null) vectors.put(d.id + "#" + i, embeddings[i]);
+            }
+            passagesByDoc.put(d.id, passages);
+            if (fingerprint != null && d.fingerprint == null) {
+                d.fingerprint = fingerprint;
+                addToIndexes(d);
+            }
+        }
+    }
+
+    private void unindex(String docId) {
+        synchronized (indexLock) {
+            List<Passage> old = passagesByDoc.remove(docId);
+            if (old == null) return;
+            for (int i = 0; i < old.size(); i++) {
+                index.remove(docId + "#" + i);
+                vectors.remove(docId + "#" + i);
+            }
+        }
+    }
+
+    private static String contentOf(Document d) {
+        String content = d.getContent();
+        return content == null ? "" : content;
+    }
+
+    private Passage passageFor(String key) {
+        int hash = key.lastIndexOf('#');
+        if (hash < 0) return null;
+        List<Passage> passages = passagesByDoc.get(key.substring(0, hash));
+        int i = Integer.parseInt(key.substring(hash + 1));
+        return passages == null || i >= passages.size() ? null : passages.get(i);
+    }
+}
@@ -0,0 +1,896 @@
+package Madfoat.Learning.service;
+
+import Madfoat.Learning.service.KnowledgeBaseService.Document;
+import Madfoat.Learning.service.KnowledgeBaseService.DocumentationGroup;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Durable storage for knowledge base documents and documentation groups, and for the watermarks
+ * that incremental syncs resume from.
+ *
+ * Every change is appended to the active segment file as a length-prefixed, CRC-checked record;
+ * segments roll over at {@code knowledge.store.segment-bytes} and are memory-mapped read-only once
+ * sealed. Content is written as {@link CompressedText} and a document keeps only a reference to
+ * where it lies, so it is paged in by the OS and inflated a block at a time when read instead of
+ * being held on the heap. With the store disabled, content is kept compressed in memory instead,
+ * off the heap once it is large enough to be worth a direct buffer.
+ *
+ * {@code index.dat} holds the metadata of every live document with the offset of its content and a
+ * checkpoint; startup maps it and replays only the records written after the checkpoint, so its cost
+ * follows the number of documents rather than the bytes stored. A torn record at the end of the
+ * last segment, left by a crash mid-write, is truncated away. A background task rewrites the index
+ * when it falls behind and compacts the live records into fresh segments once superseded records
+ * make up {@code knowledge.store.compaction-garbage-ratio} of the stored bytes.
+ */
+@Service
+public class KnowledgeStore {
+
+    private static final byte PUT_DOCUMENT = 1;
+    private static final byte UPDATE_DOCUMENT = 2;
+    private static final byte DELETE_DOCUMENT = 3;
+    private static final byte PUT_GROUP = 4;
+    private static final byte DELETE_GROUP = 5;
+    // Like PUT_DOCUMENT, with the content as CompressedText; PUT_DOCUMENT records of older stores still load
+    private static final byte PUT_COMPRESSED_DOCUMENT = 6;
+    private static final byte PUT_WATERMARK = 7;
+    private static final int INDEX_MAGIC = 0x4B42_4958; // "KBIX"
+    private static final int INDEX_VERSION = 3;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final long MIN_COMPACTION_GARBAGE_BYTES = 1 << 20;
+    // Below this a direct buffer's own bookkeeping costs about as much heap as the bytes it holds
+    private static final int MIN_DIRECT_BYTES = 512;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final long segmentBytes;
+    private final boolean fsync;
+    private final double compactionGarbageRatio;
+    private final int compressionLevel;
+    private final ScheduledExecutorService maintenance;
+
+    // Live documents and groups in ingest order, with the size of the record that holds each
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, GroupEntry> groups = new LinkedHashMap<>();
+    // Kept in memory even when the store is disabled, so syncs stay incremental until a restart
+    private final Map<String, WatermarkEntry> watermarks = new LinkedHashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private long totalBytes;
+    private long liveBytes;
+    private boolean indexDirty;
+    private boolean loaded;
+    private boolean closed;
+
+    @Autowired
+    public KnowledgeStore(@Value("${knowledge.store.enabled:true}") boolean enabled,
+                          @Value("${knowledge.store.dir:data/knowledge}") String dir,
+                          @Value("${knowledge.store.segment-bytes:67108864}") long segmentBytes,
+                          @Value("${knowledge.store.fsync:true}") boolean fsync,
+                          @Value("${knowledge.store.maintenance-interval-seconds:60}") int maintenanceIntervalSeconds,
+                          @Value("${knowledge.store.compaction-garbage-ratio:0.5}") double compactionGarbageRatio,
+                          @Value("${knowledge.store.compression-level:1}") int compressionLevel) {
+        this.enabled = enabled && dir != null && !dir.isBlank();
+        this.dir = this.enabled ? Paths.get(dir) : null;
+        this.segmentBytes = Math.max(1 << 16, Math.min(1L << 30, segmentBytes));
+        this.fsync = fsync;
+        this.compactionGarbageRatio = Math.max(0.05, Math.min(0.95, compactionGarbageRatio));
+        this.compressionLevel = Math.max(0, Math.min(9, compressionLevel));
+        if (this.enabled) {
+            maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "knowledge-store");
+                t.setDaemon(true);
+                return t;
+            });
+            long interval = Math.max(1, maintenanceIntervalSeconds);
+            maintenance.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.SECONDS);
+        } else {
+            maintenance = null;
+        }
+    }
+
+    /**
+     * Stops the maintenance task, checkpoints the index and seals the active segment, after which
+     * nothing more is written. A context restart opens a new store over the same directory, so the
+     * old one must not compact, rewrite the index or delete segments behind it. Content already
+     * handed out stays readable from the segment mappings.
+     */
+    @PreDestroy
+    void close() {
+        if (maintenance != null) maintenance.shutdownNow();
+        synchronized (this) {
+            if (!writable()) {
+                closed = true;
+                return;
+            }
+            try {
+                if (indexDirty) writeIndex();
+            } catch (IOException ignored) {
+                // The next start replays from the previous checkpoint instead
+            }
+            try {
+                active.seal();
+            } catch (IOException ignored) {
+                // Closed with the JVM at the latest
+            }
+            closed = true;
+        }
+    }
+
+    /**
+     * Where a document's content lies: in a segment, or in memory when the store is disabled.
+     * Reading decodes the bytes on demand; a range of compressed content inflates only its blocks.
+     */
+    static final class StoredContent {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        private final boolean compressed;
+        private final ByteBuffer memory;
+
+        private StoredContent(Segment segment, long offset, int length, boolean compressed) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.compressed = compressed;
+            this.memory = null;
+        }
+
+        private StoredContent(ByteBuffer memory) {
+            this.segment = null;
+            this.offset = 0;
+            this.length = memory.capacity();
+            this.compressed = true;
+            this.memory = memory;
+        }
+
+        String read() {
+            try {
+                return compressed ? CompressedText.read(bytes()) : new String(segment.read(offset, length), StandardCharsets.UTF_8);
+            } catch (IOException | RuntimeException e) {
+                return "[Error reading stored content: " + e.getMessage() + "]";
+            }
+        }
+
+        /** Characters {@code [start, end)}, clamped to the content. */
+        String read(int start, int end) {
+            if (!compressed) {
+                String all = read();
+                int from = Math.max(0, Math.min(start, all.length()));
+                return all.substring(from, Math.max(from, Math.min(end, all.length())));
+            }
+            try {
+                return CompressedText.read(bytes(), start, end);
+            } catch (IOException | RuntimeException e) {
+                return "[Error reading stored content: " + e.getMessage() + "]";
+            }
+        }
+
+        /** Length in characters. */
+        int length() {
+            if (!compressed) return read().length();
+            try {
+                return CompressedText.length(bytes());
+            } catch (IOException | RuntimeException e) {
+                return 0;
+            }
+        }
+
+        /** Bytes the content takes where it is stored. */
+        int storedBytes() {
+            return length;
+        }
+
+        /** What the content would take on the heap as a {@code String}. */
+        long stringBytes() {
+            if (!compressed) return 40 + 2L * read().length();
+            try {
+                return CompressedText.stringBytes(bytes());
+            } catch (IOException | RuntimeException e) {
+                return 0;
+            }
+        }
+
+        /**
+         * Heap this reference holds: itself, plus a direct buffer's bookkeeping objects or a heap
+         * buffer with its array; estimated from their usual 64-bit layouts.
+         */
+        long heapBytes() {
+            if (memory == null) return 40;
+            return memory.isDirect() ? 40 + 160 : 40 + 48 + 16 + length;
+        }
+
+        private ByteBuffer bytes() throws IOException {
+            return memory != null ? memory.duplicate() : segment.view(offset, length);
+        }
+    }
+
+    /** What {@link #load()} found on disk, in the order it was first stored. */
+    static final class Loaded {
+        final List<Document> documents;
+        final List<DocumentationGroup> groups;
+
+        Loaded(List<Document> documents, List<DocumentationGroup> groups) {
+            this.documents = documents;
+            this.groups = groups;
+        }
+    }
+
+    private static final class Entry {
+        final Document document;
+        StoredContent content;
+        int recordBytes;
+
+        Entry(Document document, StoredContent content, int recordBytes) {
+            this.document = document;
+            this.content = content;
+            this.recordBytes = recordBytes;
+        }
+    }
+
+    private static final class GroupEntry {
+        final DocumentationGroup group;
+        final int recordBytes;
+
+        GroupEntry(DocumentationGroup group, int recordBytes) {
+            this.group = group;
+            this.recordBytes = recordBytes;
+        }
+    }
+
+    private static final class WatermarkEntry {
+        final String value;
+        final int recordBytes;
+
+        WatermarkEntry(String value, int recordBytes) {
+            this.value = value;
+            this.recordBytes = recordBytes;
+        }
+    }
+
+    private static final class Segment {
+        final int number;
+        final Path path;
+        // Written only by the store, under its lock
+        volatile FileChannel channel;
+        // Reads of the active segment go through their own channel: an interrupted reader closes the
+        // channel it was reading, and that must never be the one appends go through
+        private FileChannel reader;
+        volatile MappedByteBuffer mapped;
+        long size;
+
+        Segment(int number, Path path) {
+            this.number = number;
+            this.path = path;
+        }
+
+        byte[] read(long offset, int length) throws IOException {
+            byte[] out = new byte[length];
+            MappedByteBuffer m = mapped;
+            if (m == null) {
+                try {
+                    readFromChannel(reader(), out, offset);
+                    return out;
+                } catch (IOException e) {
+                    // The segment may have been sealed and its reader closed while this read was in flight
+                    m = mapped;
+                    if (m == null) throw e;
+                }
+            }
+            m.get((int) offset, out);
+            return out;
+        }
+
+        /** The bytes in place when the segment is mapped, else a copy. */
+        ByteBuffer view(long offset, int length) throws IOException {
+            MappedByteBuffer m = mapped;
+            return m != null ? m.slice((int) offset, length) : ByteBuffer.wrap(read(offset, length));
+        }
+
+        /** The read-only channel, reopened when a previous reader was interrupted; null once sealed. */
+        private synchronized FileChannel reader() throws IOException {
+            if (mapped != null) return null;
+            if (reader == null || !reader.isOpen()) reader = FileChannel.open(path, StandardOpenOption.READ);
+            return reader;
+        }
+
+        /**
+         * The channel appends go through, reopened when a thread interrupted mid-write closed it; the
+         * torn bytes it may have left lie past {@link #size} and are overwritten by the next record.
+         */
+        FileChannel writer() throws IOException {
+            FileChannel ch = channel;
+            if (ch != null && !ch.isOpen()) {
+                ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel = ch;
+            }
+            return ch;
+        }
+
+        /** Maps the segment read-only and closes its channels; the mapping stays valid until collected. */
+        void seal() throws IOException {
+            FileChannel ch = writer();
+            if (ch == null) return;
+            ch.force(false);
+            if (size <= Integer.MAX_VALUE) {
+                mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                channel = null;
+                ch.close();
+                synchronized (this) {
+                    if (reader != null) reader.close();
+                    reader = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the store and returns what it holds. Documents come back with their content still on
+     * disk; callers read it through {@link Document#getContent()}.
+     */
+    synchronized Loaded load() {
+        if (!enabled || loaded) return new Loaded(List.of(), List.of());
+        loaded = true;
+        try {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "segment-*.dat")) {
+                for (Path p : files) {
+                    String name = p.getFileName().toString();
+                    try {
+                        int number = Integer.parseInt(name.substring("segment-".length(), name.length() - ".dat".length()));
+                        Segment s = new Segment(number, p);
+                        s.size = Files.size(p);
+                        segments.put(number, s);
+                        totalBytes += s.size;
+                    } catch (NumberFormatException ignored) {
+                        // Not one of ours
+                    }
+                }
+            }
+            for (Segment s : segments.values()) {
+                s.channel = FileChannel.open(s.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if (s != segments.lastEntry().getValue()) s.seal();
+            }
+            long[] checkpoint = readIndex();
+            if (checkpoint == null) {
+                entries.clear();
+                groups.clear();
+                watermarks.clear();
+                liveBytes = 0;
+                checkpoint = new long[] { 0, 0 };
+            }
+            int replayed = 0;
+            for (Segment s : segments.values()) {
+                if (s.number < checkpoint[0]) continue;
+                replayed += replay(s, s.number == checkpoint[0] ? checkpoint[1] : 0);
+            }
+            active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            if (active == null || active.channel == null || active.size >= segmentBytes) roll();
+            if (replayed > 0) writeIndex();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open knowledge store in " + dir.toAbsolutePath() + ": " + e.getMessage(), e);
+        }
+        List<Document> docs = new ArrayList<>(entries.size());
+        for (Entry e : entries.values()) docs.add(e.document);
+        List<DocumentationGroup> gs = new ArrayList<>(groups.size());
+        for (GroupEntry g : groups.values()) gs.add(g.group);
+        return new Loaded(docs, gs);
+    }
+
+    /**
+     * Appends the document with its content compressed and points it at the stored copy; false if
+     * it could not be written. With the store disabled the compressed content is kept in memory.
+     */
+    boolean putDocument(Document d) {
+        // Compressed before taking the lock, so concurrent ingests only queue for the write itself
+        byte[] content = CompressedText.encode(d.getContent(), compressionLevel);
+        if (!enabled) {
+            ByteBuffer memory = content.length >= MIN_DIRECT_BYTES
+                    ? ByteBuffer.allocateDirect(content.length).put(content).flip()
+                    : ByteBuffer.wrap(content);
+            d.storedAt(new StoredContent(memory));
+            return true;
+        }
+        synchronized (this) {
+            if (!writable()) return false;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + 256);
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeByte(PUT_COMPRESSED_DOCUMENT);
+                writeString(out, d.id);
+                writeMeta(out, d);
+                out.writeInt(content.length);
+                int contentStart = bytes.size();
+                out.write(content);
+                long at = append(bytes.toByteArray());
+                StoredContent stored = new StoredContent(active, at + RECORD_HEADER_BYTES + contentStart, content.length, true);
+                int recordBytes = RECORD_HEADER_BYTES + bytes.size();
+                Entry old = entries.remove(d.id);
+                if (old != null) liveBytes -= old.recordBytes;
+                entries.put(d.id, new Entry(d, stored, recordBytes));
+                liveBytes += recordBytes;
+                d.storedAt(stored);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /** Records the document's current title, description and metadata. */
+    synchronized void updateDocument(Document d) {
+        if (!writable() || !entries.containsKey(d.id)) return;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(UPDATE_DOCUMENT);
+            writeString(out, d.id);
+            writeMeta(out, d);
+            append(bytes.toByteArray());
+        } catch (IOException ignored) {
+            // The change stays in memory and is written with the next compaction
+        }
+    }
+
+    synchronized void deleteDocument(String id) {
+        Entry old = entries.remove(id);
+        if (old == null || !writable()) return;
+        liveBytes -= old.recordBytes;
+        appendQuietly(DELETE_DOCUMENT, id, null);
+    }
+
+    synchronized void putGroup(DocumentationGroup g) {
+        if (!writable()) return;
+        long before = totalBytes;
+        if (!appendQuietly(PUT_GROUP, g.id, g.name)) return;
+        GroupEntry old = groups.remove(g.id);
+        if (old != null) liveBytes -= old.recordBytes;
+        int recordBytes = (int) (totalBytes - before);
+        groups.put(g.id, new GroupEntry(g, recordBytes));
+        liveBytes += recordBytes;
+    }
+
+    synchronized void deleteGroup(String id) {
+        GroupEntry old = groups.remove(id);
+        if (old == null || !writable()) return;
+        liveBytes -= old.recordBytes;
+        appendQuietly(DELETE_GROUP, id, null);
+    }
+
+    /** The value last stored under {@code key} with {@link #putWatermark}, or null. */
+    synchronized String watermark(String key) {
+        WatermarkEntry w = watermarks.get(key);
+        return w == null ? null : w.value;
+    }
+
+    /** Records where the sync identified by {@code key} should resume; only the latest value is kept. */
+    synchronized void putWatermark(String key, String value) {
+        long before = totalBytes;
+        int recordBytes = 0;
+        if (writable()) {
+            if (!appendQuietly(PUT_WATERMARK, key, value)) return;
+            recordBytes = (int) (totalBytes - before);
+        }
+        WatermarkEntry old = watermarks.put(key, new WatermarkEntry(value, recordBytes));
+        if (old != null) liveBytes -= old.recordBytes;
+        liveBytes += recordBytes;
+    }
+
+    /** Segment files and bytes, with how many of those bytes still belong to live records. */
+    synchronized Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("enabled", enabled);
+        out.put("documents", entries.size());
+        out.put("groups", groups.size());
+        out.put("watermarks", watermarks.size());
+        out.put("segments", segments.size());
+        out.put("totalBytes", totalBytes);
+        out.put("liveBytes", liveBytes);
+        out.put("compressionLevel", compressionLevel);
+        return out;
+    }
+
+    private boolean writable() {
+        return enabled && loaded && !closed && active != null;
+    }
+
+    private void maintain() {
+        synchronized (this) {
+            if (!writable()) return;
+            try {
+                long garbage = totalBytes - liveBytes;
+                if (garbage >= MIN_COMPACTION_GARBAGE_BYTES && garbage >= totalBytes * compactionGarbageRatio) {
+                    compact();
+                } else if (indexDirty) {
+                    writeIndex();
+                }
+            } catch (IOException ignored) {
+                // Retried on the next run; the segments alone are enough to recover
+            }
+        }
+    }
+
+    /**
+     * Rewrites the live groups and documents into new segments, then the index, and only then
+     * deletes the old segments. A crash before the index is replaced leaves the new segments after
+     * the old checkpoint, where replaying them puts back the same documents. Records are not forced
+     * one by one; each new segment is forced once when it is sealed or before the index is written.
+     */
+    private void compact() throws IOException {
+        active.seal();
+        List<Segment> old = new ArrayList<>(segments.values());
+        roll();
+        for (GroupEntry g : groups.values()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(PUT_GROUP);
+            writeString(out, g.group.id);
+            writeString(out, g.group.name);
+            append(bytes.toByteArray(), false);
+        }
+        long live = 0;
+        for (GroupEntry g : groups.values()) live += g.recordBytes;
+        for (Map.Entry<String, WatermarkEntry> w : watermarks.entrySet()) {
+            long before = totalBytes;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(PUT_WATERMARK);
+            writeString(out, w.getKey());
+            writeString(out, w.getValue().value);
+            append(bytes.toByteArray(), false);
+            w.setValue(new WatermarkEntry(w.getValue().value, (int) (totalBytes - before)));
+            live += w.getValue().recordBytes;
+        }
+        Map<Document, StoredContent> moved = new HashMap<>();
+        for (Entry e : entries.values()) {
+            // Content from before compression was introduced is compressed on the way
+            byte[] content = e.content.compressed ? e.content.segment.read(e.content.offset, e.content.length)
+                    : CompressedText.encode(e.content.read(), compressionLevel);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length + 256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(PUT_COMPRESSED_DOCUMENT);
+            writeString(out, e.document.id);
+            writeMeta(out, e.document);
+            out.writeInt(content.length);
+            int contentStart = bytes.size();
+            out.write(content);
+            long at = append(bytes.toByteArray(), false);
+            e.content = new StoredContent(active, at + RECORD_HEADER_BYTES + contentStart, content.length, true);
+            e.recordBytes = RECORD_HEADER_BYTES + bytes.size();
+            live += e.recordBytes;
+            moved.put(e.document, e.content);
+        }
+        active.writer().force(false);
+        for (Segment s : old) {
+            segments.remove(s.number);
+            totalBytes -= s.size;
+        }
+        liveBytes = live;
+        writeIndex();
+        for (Map.Entry<Document, StoredContent> m : moved.entrySet()) m.getKey().storedAt(m.getValue());
+        // Readers still holding an old reference keep working from the mapping after the file is gone
+        for (Segment s : old) {
+            try {
+                Files.deleteIfExists(s.path);
+            } catch (IOException ignored) {
+                // Some platforms refuse to delete a mapped file; it is left behind as garbage
+            }
+        }
+    }
+
+    private boolean appendQuietly(byte type, String id, String name) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            writeString(out, id);
+            if (name != null) writeString(out, name);
+            append(bytes.toByteArray());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Writes one framed record to the active segment, rolling first when it is full; returns its offset. */
+    private long append(byte[] payload) throws IOException {
+        return append(payload, fsync);
+    }
+
+    private long append(byte[] payload, boolean force) throws IOException {
+        int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        if (active.size > 0 && active.size + recordBytes > segmentBytes) roll();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buf = ByteBuffer.allocate(recordBytes);
+        buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        long at = active.size;
+        FileChannel ch = active.writer();
+        long pos = at;
+        while (buf.hasRemaining()) pos += ch.write(buf, pos);
+        if (force) ch.force(false);
+        active.size += recordBytes;
+        totalBytes += recordBytes;
+        indexDirty = true;
+        return at;
+    }
+
+    private void roll() throws IOException {
+        if (active != null) active.seal();
+        int number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        Segment s = new Segment(number, dir.resolve(String.format("segment-%06d.dat", number)));
+        s.channel = FileChannel.open(s.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        s.size = s.channel.size();
+        totalBytes += s.size;
+        segments.put(number, s);
+        active = s;
+    }
+
+    /** Applies the records of a segment from {@code from}; returns how many were applied. */
+    private int replay(Segment s, long from) throws IOException {
+        ByteBuffer buf = s.mapped != null ? s.mapped.duplicate()
+                : s.channel.map(FileChannel.MapMode.READ_ONLY, 0, s.size);
+        long pos = from;
+        int applied = 0;
+        CRC32 crc = new CRC32();
+        while (pos + RECORD_HEADER_BYTES <= s.size) {
+            int length = buf.getInt((int) pos);
+            int expected = buf.getInt((int) pos + 4);
+            if (length <= 0 || pos + RECORD_HEADER_BYTES + length > s.size) break;
+            ByteBuffer payload = buf.duplicate().position((int) pos + RECORD_HEADER_BYTES).limit((int) pos + RECORD_HEADER_BYTES + length).slice();
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != expected) break;
+            try {
+                apply(s, pos, payload);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                break;
+            }
+            applied++;
+            pos += RECORD_HEADER_BYTES + length;
+        }
+        if (pos < s.size) {
+            // A torn or corrupt record; only the last segment can end in one, so cut it off there
+            if (s == segments.lastEntry().getValue() && s.channel != null) {
+                s.channel.truncate(pos);
+                totalBytes -= s.size - pos;
+                s.size = pos;
+            }
+        }
+        return applied;
+    }
+
+    private void apply(Segment s, long recordAt, ByteBuffer payload) {
+        byte type = payload.get();
+        String id = readString(payload);
+        int recordBytes = RECORD_HEADER_BYTES + payload.limit();
+        switch (type) {
+            case PUT_DOCUMENT, PUT_COMPRESSED_DOCUMENT -> {
+                Document d = new Document();
+                d.id = id;
+                readMeta(payload, d);
+                int length = payload.getInt();
+                StoredContent stored = new StoredContent(s, recordAt + RECORD_HEADER_BYTES + payload.position(), length,
+                        type == PUT_COMPRESSED_DOCUMENT);
+                d.storedAt(stored);
+                Entry old = entries.remove(id);
+                if (old != null) liveBytes -= old.recordBytes;
+                entries.put(id, new Entry(d, stored, recordBytes));
+                liveBytes += recordBytes;
+            }
+            case UPDATE_DOCUMENT -> {
+                Entry e = entries.get(id);
+                if (e != null) readMeta(payload, e.document);
+            }
+            case DELETE_DOCUMENT -> {
+                Entry old = entries.remove(id);
+                if (old != null) liveBytes -= old.recordBytes;
+            }
+            case PUT_GROUP -> {
+                GroupEntry old = groups.remove(id);
+                if (old != null) liveBytes -= old.recordBytes;
+                groups.put(id, new GroupEntry(new DocumentationGroup(id, readString(payload)), recordBytes));
+                liveBytes += recordBytes;
+            }
+            case DELETE_GROUP -> {
+                GroupEntry old = groups.remove(id);
+                if (old != null) liveBytes -= old.recordBytes;
+            }
+            case PUT_WATERMARK -> {
+                WatermarkEntry old = watermarks.put(id, new WatermarkEntry(readString(payload), recordBytes));
+                if (old != null) liveBytes -= old.recordBytes;
+                liveBytes += recordBytes;
+            }
+            default -> throw new IllegalArgumentException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Writes the metadata and content location of every live document, group and watermark, with the current
+     * end of the active segment as the checkpoint. Written to a temporary file and moved into place,
+     * so a crash leaves either the old index or the new one.
+     */
+    private void writeIndex() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entries.size() * 256 + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        out.writeInt(active.number);
+        out.writeLong(active.size);
+        out.writeInt(groups.size());
+        for (GroupEntry g : groups.values()) {
+            writeString(out, g.group.id);
+            writeString(out, g.group.name);
+            out.writeInt(g.recordBytes);
+        }
+        out.writeInt(watermarks.size());
+        for (Map.Entry<String, WatermarkEntry> w : watermarks.entrySet()) {
+            writeString(out, w.getKey());
+            writeString(out, w.getValue().value);
+            out.writeInt(w.getValue().recordBytes);
+        }
+        out.writeInt(entries.size());
+        for (Entry e : entries.values()) {
+            writeString(out, e.document.id);
+            writeMeta(out, e.document);
+            out.writeInt(e.content.segment.number);
+            out.writeLong(e.content.offset);
+            out.writeInt(e.content.length);
+            out.writeBoolean(e.content.compressed);
+            out.writeInt(e.recordBytes);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        Path tmp = dir.resolve("index.dat.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        Files.move(tmp, dir.resolve("index.dat"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        indexDirty = false;
+    }
+
+    /**
+     * Loads {@code index.dat} into the live maps and returns its checkpoint as {segment, offset}, or
+     * null when it is missing, corrupt or refers to a segment that no longer exists, in which case
+     * every segment is replayed from the start.
+     */
+    private long[] readIndex() throws IOException {
+        Path path = dir.resolve("index.dat");
+        if (!Files.exists(path)) return null;
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (ch.size() < 28 || ch.size() > Integer.MAX_VALUE) return null;
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().limit(buf.limit() - 4));
+        if ((int) crc.getValue() != buf.getInt(buf.limit() - 4)) return null;
+        buf.limit(buf.limit() - 4);
+        try {
+            if (buf.getInt() != INDEX_MAGIC || buf.getInt() != INDEX_VERSION) return null;
+            int checkpointSegment = buf.getInt();
+            long checkpointOffset = buf.getLong();
+            Segment checkpoint = segments.get(checkpointSegment);
+            if (checkpoint == null || checkpoint.size < checkpointOffset) return null;
+            int groupCount = buf.getInt();
+            for (int i = 0; i < groupCount; i++) {
+                String id = readString(buf);
+                DocumentationGroup g = new DocumentationGroup(id, readString(buf));
+                int recordBytes = buf.getInt();
+                groups.put(id, new GroupEntry(g, recordBytes));
+                liveBytes += recordBytes;
+            }
+            int watermarkCount = buf.getInt();
+            for (int i = 0; i < watermarkCount; i++) {
+                String key = readString(buf);
+                WatermarkEntry w = new WatermarkEntry(readString(buf), buf.getInt());
+                watermarks.put(key, w);
+                liveBytes += w.recordBytes;
+            }
+            int docCount = buf.getInt();
+            for (int i = 0; i < docCount; i++) {
+                Document d = new Document();
+                d.id = readString(buf);
+                readMeta(buf, d);
+                Segment s = segments.get(buf.getInt());
+                long offset = buf.getLong();
+                int length = buf.getInt();
+                boolean compressed = buf.get() != 0;
+                int recordBytes = buf.getInt();
+                if (s == null || offset + length > s.size) return null;
+                StoredContent stored = new StoredContent(s, offset, length, compressed);
+                d.storedAt(stored);
+                entries.put(d.id, new Entry(d, stored, recordBytes));
+                liveBytes += recordBytes;
+            }
+            return new long[] { checkpointSegment, checkpointOffset };
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeMeta(DataOutputStream out, Document d) throws IOException {
+        writeString(out, d.title);
+        writeString(out, d.source);
+        writeString(out, d.description);
+        out.writeLong(d.createdAt == null ? Long.MIN_VALUE : d.createdAt.getEpochSecond());
+        out.writeInt(d.createdAt == null ? 0 : d.createdAt.getNano());
+        Map<String, String> meta = d.metadata;
+        if (meta == null) {
+            out.writeInt(-1);
+            return;
+        }
+        List<Map.Entry<String, String>> pairs = new ArrayList<>(meta.entrySet());
+        out.writeInt(pairs.size());
+        for (Map.Entry<String, String> e : pairs) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+    }
+
+    private static void readMeta(ByteBuffer in, Document d) {
+        d.title = readString(in);
+        d.source = readString(in);
+        d.description = readString(in);
+        long seconds = in.getLong();
+        int nanos = in.getInt();
+        d.createdAt = seconds == Long.MIN_VALUE ? null : Instant.ofEpochSecond(seconds, nanos);
+        int count = in.getInt();
+        if (count < 0) {
+            d.metadata = null;
+            return;
+        }
+        Map<String, String> meta = new HashMap<>();
+        for (int i = 0; i < count; i++) meta.put(readString(in), readString(in));
+        d.metadata = meta;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        if (length > in.remaining()) throw new IllegalArgumentException("String runs past the record");
+        byte[] b = new byte[length];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void readFromChannel(FileChannel ch, byte[] out, long offset) throws IOException {
+        if (ch == null) throw new IOException("Segment is closed");
+        ByteBuffer buf = ByteBuffer.wrap(out);
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, offset + buf.position());
+            if (n < 0) throw new IOException("Unexpected end of segment");
+        }
+    }
+}
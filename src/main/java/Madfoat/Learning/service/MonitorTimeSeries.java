@@ -0,0 +1,177 @@
+package Madfoat.Learning.service;
+
+import org.HdrHistogram.Histogram;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Append-only series of synthetic check results for one monitor.
+ *
+ * Samples are stored column-wise in fixed-size chunks of primitive arrays: a millisecond offset
+ * from the chunk's base time, the latency in microseconds, the HTTP status and a pass flag, about
+ * eleven bytes per sample. Whole chunks are dropped once they fall out of the retention window, and
+ * window queries binary-search the first sample instead of scanning the series.
+ */
+final class MonitorTimeSeries {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final int MAX_BUCKETS = 1000;
+    private static final long HIGHEST_TRACKABLE_MICROS = 10L * 60 * 1_000_000;
+
+    private final long retentionMillis;
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private long lastMillis = Long.MIN_VALUE;
+
+    MonitorTimeSeries(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    private static final class Chunk {
+        final long baseMillis;
+        final int[] offsetMillis = new int[CHUNK_SIZE];
+        final int[] latencyMicros = new int[CHUNK_SIZE];
+        final short[] status = new short[CHUNK_SIZE];
+        final boolean[] ok = new boolean[CHUNK_SIZE];
+        int size;
+
+        Chunk(long baseMillis) {
+            this.baseMillis = baseMillis;
+        }
+
+        long time(int i) {
+            return baseMillis + offsetMillis[i];
+        }
+
+        /** Index of the first sample at or after {@code millis}, or size when there is none. */
+        int firstAtOrAfter(long millis) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (time(mid) < millis) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /** Appends a sample; timestamps earlier than the last one are clamped so the series stays ordered. */
+    synchronized void append(long epochMillis, long latencyMicros, int httpStatus, boolean passed) {
+        long t = Math.max(epochMillis, lastMillis);
+        Chunk tail = chunks.peekLast();
+        if (tail == null || tail.size == CHUNK_SIZE || t - tail.baseMillis > Integer.MAX_VALUE) {
+            tail = new Chunk(t);
+            chunks.addLast(tail);
+        }
+        int i = tail.size;
+        tail.offsetMillis[i] = (int) (t - tail.baseMillis);
+        tail.latencyMicros[i] = (int) Math.min(Integer.MAX_VALUE, Math.max(0, latencyMicros));
+        tail.status[i] = (short) httpStatus;
+        tail.ok[i] = passed;
+        tail.size = i + 1;
+        lastMillis = t;
+
+        // Drop chunks whose newest sample is past retention
+        long cutoff = t - retentionMillis;
+        while (chunks.size() > 1 && chunks.peekFirst().time(chunks.peekFirst().size - 1) < cutoff) {
+            chunks.pollFirst();
+        }
+    }
+
+    static class Summary {
+        long samples;
+        long failures;
+        final Histogram latency;
+        final Map<Integer, Long> statusCounts = new TreeMap<>();
+        long firstMillis;
+        long lastMillis;
+
+        Summary(int significantDigits) {
+            latency = new Histogram(1, HIGHEST_TRACKABLE_MICROS, significantDigits);
+        }
+
+        void add(int latencyMicros, int status, boolean ok) {
+            samples++;
+            if (!ok) failures++;
+            latency.recordValue(Math.max(1, Math.min(HIGHEST_TRACKABLE_MICROS, latencyMicros)));
+            statusCounts.merge(status, 1L, Long::sum);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("samples", samples);
+            out.put("failures", failures);
+            out.put("errorRate", samples == 0 ? 0.0 : RunStats.ratio((double) failures / samples));
+            out.put("availability", samples == 0 ? null : RunStats.ratio(1.0 - (double) failures / samples));
+            if (samples > 0) {
+                out.put("meanMs", RunStats.round(latency.getMean() / 1000.0));
+                out.put("p50Ms", RunStats.microsToMs(latency.getValueAtPercentile(50)));
+                out.put("p95Ms", RunStats.microsToMs(latency.getValueAtPercentile(95)));
+                out.put("p99Ms", RunStats.microsToMs(latency.getValueAtPercentile(99)));
+                out.put("maxMs", RunStats.microsToMs(latency.getMaxValue()));
+                out.put("from", Instant.ofEpochMilli(firstMillis).toString());
+                out.put("to", Instant.ofEpochMilli(lastMillis).toString());
+            }
+            out.put("statusCounts", statusCounts);
+            return out;
+        }
+    }
+
+    /** Aggregates every sample with {@code from <= time < to}. */
+    synchronized Summary summarize(long fromMillis, long toMillis) {
+        Summary s = new Summary(3);
+        forEach(fromMillis, toMillis, (t, latency, status, ok) -> {
+            if (s.samples == 0) s.firstMillis = t;
+            s.lastMillis = t;
+            s.add(latency, status, ok);
+        });
+        return s;
+    }
+
+    /** Splits the window into fixed buckets, each summarized as count, failures and p95. */
+    synchronized List<Map<String, Object>> buckets(long fromMillis, long toMillis, long bucketMillis) {
+        long span = Math.max(1, toMillis - fromMillis);
+        long width = Math.max(bucketMillis, (span + MAX_BUCKETS - 1) / MAX_BUCKETS);
+        int n = (int) ((span + width - 1) / width);
+        Summary[] summaries = new Summary[n];
+        forEach(fromMillis, toMillis, (t, latency, status, ok) -> {
+            int b = (int) Math.min(n - 1, (t - fromMillis) / width);
+            if (summaries[b] == null) summaries[b] = new Summary(2);
+            summaries[b].add(latency, status, ok);
+        });
+        List<Map<String, Object>> out = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("start", Instant.ofEpochMilli(fromMillis + b * width).toString());
+            Summary s = summaries[b];
+            m.put("samples", s == null ? 0 : s.samples);
+            m.put("failures", s == null ? 0 : s.failures);
+            m.put("p95Ms", s == null ? null : RunStats.microsToMs(s.latency.getValueAtPercentile(95)));
+            out.add(m);
+        }
+        return out;
+    }
+
+    synchronized long size() {
+        long n = 0;
+        for (Chunk c : chunks) n += c.size;
+        return n;
+    }
+
+    private interface SampleVisitor {
+        void visit(long epochMillis, int latencyMicros, int status, boolean ok);
+    }
+
+    private void forEach(long fromMillis, long toMillis, SampleVisitor visitor) {
+        for (Chunk c : chunks) {
+            if (c.size == 0 || c.time(c.size - 1) < fromMillis) continue;
+            if (c.baseMillis >= toMillis) return;
+            for (int i = c.firstAtOrAfter(fromMillis); i < c.size; i++) {
+                long t = c.time(i);
+                if (t >= toMillis) return;
+                visitor.visit(t, c.latencyMicros[i], c.status[i], c.ok[i]);
+            }
+        }
+    }
+}
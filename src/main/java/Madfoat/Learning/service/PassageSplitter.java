@@ -0,0 +1,76 @@
+package Madfoat.Learning.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits document text into overlapping passages for retrieval.
+ *
+ * Passages are {@code [start, end)} offsets into the original text, so nothing is copied. Each
+ * passage ends at the best natural break in its last quarter (blank line, line end, sentence end,
+ * then any whitespace) and the next one starts {@code overlap} characters earlier at a word
+ * boundary, so a sentence cut by one passage is whole in its neighbour.
+ */
+final class PassageSplitter {
+
+    private PassageSplitter() {
+    }
+
+    static List<int[]> split(String text, int size, int overlap) {
+        List<int[]> out = new ArrayList<>();
+        if (text == null || text.isEmpty()) return out;
+        size = Math.max(64, size);
+        overlap = Math.max(0, Math.min(size / 2, overlap));
+        int len = text.length();
+        int start = 0;
+        while (start < len) {
+            int end = Math.min(len, start + size);
+            if (end < len) end = breakBefore(text, start + size * 3 / 4, end);
+            out.add(new int[] { start, end });
+            if (end >= len) break;
+            int next = wordStartAfter(text, Math.max(start + 1, end - overlap), end);
+            start = next;
+        }
+        return out;
+    }
+
+    /**
+     * Offset just past the header and separator rows when the text is a Markdown table, such as an
+     * extracted spreadsheet, otherwise 0. Passages from further down the table repeat these rows so
+     * their cells keep their column names.
+     */
+    static int tableHeaderEnd(String text) {
+        if (text == null || !text.startsWith("|")) return 0;
+        int first = text.indexOf('\n');
+        if (first < 0 || !text.startsWith("| ---", first + 1) && !text.startsWith("|---", first + 1)) return 0;
+        int second = text.indexOf('\n', first + 1);
+        return second < 0 ? text.length() : second + 1;
+    }
+
+    /** The best break in {@code [from, limit]}; every scan stops at {@code from}, so splitting stays linear. */
+    private static int breakBefore(String text, int from, int limit) {
+        for (int j = limit - 2; j >= from; j--) {
+            if (text.charAt(j) == '\n' && text.charAt(j + 1) == '\n') return j + 2;
+        }
+        for (int j = limit - 1; j >= from; j--) {
+            if (text.charAt(j) == '\n') return j + 1;
+        }
+        for (int j = limit - 1; j >= from; j--) {
+            char c = text.charAt(j);
+            if ((c == '.' || c == '!' || c == '?') && j + 1 < text.length() && Character.isWhitespace(text.charAt(j + 1))) {
+                return j + 2;
+            }
+        }
+        for (int j = limit - 1; j >= from; j--) {
+            if (Character.isWhitespace(text.charAt(j))) return j + 1;
+        }
+        return limit;
+    }
+
+    private static int wordStartAfter(String text, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (Character.isWhitespace(text.charAt(i - 1)) && !Character.isWhitespace(text.charAt(i))) return i;
+        }
+        return from;
+    }
+}
@@ -0,0 +1,144 @@
+package Madfoat.Learning.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Bounded sink for a response body. Only the first {@code headLimit} and last {@code tailLimit}
+ * bytes are kept in memory; the SHA-256 and length always cover the whole body, and the body
+ * can optionally be spilled to a temp file as it streams past. The spill file stops growing at
+ * {@code spillLimit} bytes and is then marked truncated, so it holds a prefix of the body.
+ */
+public class ResponseCapture extends OutputStream {
+
+    private final int headLimit;
+    private final byte[] tail;
+    private byte[] head = new byte[0];
+    private int headLength;
+    private int tailPos;
+    private long tailFilled;
+    private long total;
+    private final MessageDigest sha256;
+    private String digestHex;
+    private OutputStream spill;
+    private Path spillPath;
+    private final long spillLimit;
+    private long spilled;
+
+    public ResponseCapture(int headLimit, int tailLimit, Path spillPath) throws IOException {
+        this(headLimit, tailLimit, spillPath, Long.MAX_VALUE);
+    }
+
+    public ResponseCapture(int headLimit, int tailLimit, Path spillPath, long spillLimit) throws IOException {
+        this.headLimit = Math.max(0, headLimit);
+        this.spillLimit = Math.max(0, spillLimit);
+        this.tail = new byte[Math.max(0, tailLimit)];
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        if (spillPath != null) {
+            this.spillPath = spillPath;
+            this.spill = new BufferedOutputStream(Files.newOutputStream(spillPath), 64 * 1024);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) return;
+        sha256.update(b, off, len);
+        total += len;
+        if (spill != null && spilled < spillLimit) {
+            int toSpill = (int) Math.min(len, spillLimit - spilled);
+            spill.write(b, off, toSpill);
+            spilled += toSpill;
+        }
+
+        int toHead = Math.min(len, headLimit - headLength);
+        if (toHead > 0) {
+            ensureHeadCapacity(headLength + toHead);
+            System.arraycopy(b, off, head, headLength, toHead);
+            headLength += toHead;
+            off += toHead;
+            len -= toHead;
+        }
+        if (len > 0 && tail.length > 0) appendTail(b, off, len);
+    }
+
+    private void ensureHeadCapacity(int needed) {
+        if (needed <= head.length) return;
+        // Grow geometrically so small bodies never allocate the full head limit
+        int cap = Math.max(needed, Math.min(headLimit, Math.max(8192, head.length * 2)));
+        head = Arrays.copyOf(head, cap);
+    }
+
+    private void appendTail(byte[] b, int off, int len) {
+        if (len >= tail.length) {
+            System.arraycopy(b, off + len - tail.length, tail, 0, tail.length);
+            tailPos = 0;
+        } else {
+            int first = Math.min(len, tail.length - tailPos);
+            System.arraycopy(b, off, tail, tailPos, first);
+            System.arraycopy(b, off + first, tail, 0, len - first);
+            tailPos = (tailPos + len) % tail.length;
+        }
+        tailFilled = Math.min(tail.length, tailFilled + len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+
+    /** Discards a partially written spill file, e.g. after a failed download. */
+    void abort() {
+        try { close(); } catch (IOException ignored) {}
+        if (spillPath != null) {
+            try { Files.deleteIfExists(spillPath); } catch (IOException ignored) {}
+            spillPath = null;
+        }
+    }
+
+    public long length() { return total; }
+
+    public boolean isTruncated() { return total > headLength; }
+
+    public byte[] head() { return Arrays.copyOf(head, headLength); }
+
+    /** Bytes from the end of the body that are not already part of the head. */
+    public byte[] tail() {
+        int n = (int) tailFilled;
+        byte[] out = new byte[n];
+        int start = (tailPos - n + tail.length) % Math.max(1, tail.length);
+        for (int i = 0; i < n; i++) out[i] = tail[(start + i) % tail.length];
+        return out;
+    }
+
+    public String sha256() {
+        if (digestHex == null) digestHex = HexFormat.of().formatHex(sha256.digest());
+        return digestHex;
+    }
+
+    public Path spillPath() { return spillPath; }
+
+    /** Bytes written to the spill file; less than {@link #length()} when the spill was capped. */
+    public long spilledLength() { return spilled; }
+
+    public boolean isSpillTruncated() { return spillPath != null && spilled < total; }
+}
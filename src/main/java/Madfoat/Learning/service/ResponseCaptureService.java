@@ -0,0 +1,258 @@
+package Madfoat.Learning.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies the response capture policy for scenario runs: how much of a body is kept in memory,
+ * whether the full body is spilled to a temp file for later range retrieval, and how the kept
+ * part is rendered for the browser.
+ *
+ * Spill files live in {@code scenario.capture.spill-dir}. The registry of spills is in memory
+ * only, so leftovers from an earlier run are deleted at startup and the registered spills are
+ * deleted at shutdown.
+ */
+@Service
+public class ResponseCaptureService {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Value("${scenario.capture.head-bytes:65536}")
+    private int defaultHeadBytes = 65536;
+
+    @Value("${scenario.capture.tail-bytes:4096}")
+    private int defaultTailBytes = 4096;
+
+    @Value("${scenario.capture.spill-to-disk:false}")
+    private boolean defaultSpill;
+
+    @Value("${scenario.capture.max-header-bytes:16384}")
+    private int maxHeaderBytes = 16384;
+
+    @Value("${scenario.capture.max-spill-files:50}")
+    private int maxSpillFiles = 50;
+
+    @Value("${scenario.capture.spill-ttl-minutes:60}")
+    private int spillTtlMinutes = 60;
+
+    @Value("${scenario.capture.max-spill-bytes:104857600}")
+    private long maxSpillBytes = 100L * 1024 * 1024;
+
+    @Value("${scenario.capture.max-assertion-body-bytes:8388608}")
+    private int maxAssertionBodyBytes = 8 * 1024 * 1024;
+
+    @Value("${scenario.capture.spill-dir:${java.io.tmpdir}/scenario-bodies}")
+    private String spillDir = Paths.get(System.getProperty("java.io.tmpdir"), "scenario-bodies").toString();
+
+    public static class SpilledBody {
+        public final String id;
+        public final Path path;
+        public final String contentType;
+        public final long length;
+        public final Instant createdAt = Instant.now();
+
+        SpilledBody(String id, Path path, String contentType, long length) {
+            this.id = id;
+            this.path = path;
+            this.contentType = contentType;
+            this.length = length;
+        }
+    }
+
+    private final Map<String, SpilledBody> spilled = new ConcurrentHashMap<>();
+
+    /** Deletes spill files an earlier run left behind; nothing refers to them any more. */
+    @PostConstruct
+    void purgeSpillDir() {
+        Path dir = Paths.get(spillDir);
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "scenario-body-*.bin")) {
+            for (Path f : files) {
+                try { Files.deleteIfExists(f); } catch (IOException ignored) {}
+            }
+        } catch (IOException ignored) {
+            // Left for the next startup
+        }
+    }
+
+    /** Deletes the registered spill files, whose ids do not survive the context. */
+    @PreDestroy
+    void deleteSpills() {
+        for (SpilledBody s : new ArrayList<>(spilled.values())) {
+            spilled.remove(s.id);
+            try { Files.deleteIfExists(s.path); } catch (IOException ignored) {}
+        }
+    }
+
+    /** Creates a sink using the configured defaults, with optional per-run overrides (null keeps the default). */
+    public ResponseCapture newCapture(Integer headBytes, Integer tailBytes, Boolean spillToDisk) throws IOException {
+        int head = headBytes == null ? defaultHeadBytes : Math.max(0, headBytes);
+        int tail = tailBytes == null ? defaultTailBytes : Math.max(0, tailBytes);
+        boolean spill = spillToDisk == null ? defaultSpill : spillToDisk;
+        // Spill files are deleted by the TTL and count eviction and at shutdown, not by deleteOnExit, whose list never shrinks
+        Path file = null;
+        if (spill) {
+            Path dir = Files.createDirectories(Paths.get(spillDir));
+            file = Files.createTempFile(dir, "scenario-body-", ".bin");
+        }
+        return new ResponseCapture(head, tail, file, maxSpillBytes);
+    }
+
+    /**
+     * Creates a sink that keeps a body of up to {@code scenario.capture.max-assertion-body-bytes} in
+     * memory without spilling, for callers that read the whole body back with {@link #assertionBody}.
+     */
+    public ResponseCapture newAssertionCapture() throws IOException {
+        return new ResponseCapture(maxAssertionBodyBytes, defaultTailBytes, null);
+    }
+
+    /**
+     * Describes a completed capture for the run result: the kept head (pretty-printed only when
+     * the whole body fit), the tail when truncated, full length and SHA-256, and a spill id.
+     */
+    public Map<String, Object> describe(ResponseCapture capture, String contentType) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        Charset charset = TimedHttpClient.charsetOf(contentType);
+        String head = new String(capture.head(), charset);
+        boolean truncated = capture.isTruncated();
+        out.put("body", truncated ? head : prettyPrint(head, contentType));
+        out.put("bodyTruncated", truncated);
+        if (truncated) out.put("bodyTail", new String(capture.tail(), charset));
+        out.put("bodyLength", capture.length());
+        out.put("bodySha256", capture.sha256());
+        if (capture.spillPath() != null) {
+            String id = register(capture.spillPath(), contentType, capture.spilledLength());
+            out.put("bodyCaptureId", id);
+            if (capture.isSpillTruncated()) out.put("bodyCaptureTruncated", true);
+        }
+        return out;
+    }
+
+    /**
+     * Why body assertions cannot run against a capture, or null when {@link #assertionBody} can load
+     * it. The whole body has to be on hand, in the head or the spill file, and no larger than
+     * {@code scenario.capture.max-assertion-body-bytes}, the most that is ever read onto the heap.
+     */
+    public String assertionBodyUnavailable(ResponseCapture capture) {
+        if (capture.length() > maxAssertionBodyBytes) {
+            return "Body truncated for assertions: " + capture.length() + " bytes is over the "
+                    + maxAssertionBodyBytes + "-byte limit (scenario.capture.max-assertion-body-bytes)";
+        }
+        if (capture.isTruncated() && (capture.spillPath() == null || capture.isSpillTruncated())) {
+            return "Body truncated at " + capture.head().length + " of " + capture.length()
+                    + " bytes; raise headBytes or enable spill to assert on it";
+        }
+        return null;
+    }
+
+    /** The full body of a capture that {@link #assertionBodyUnavailable} accepted. */
+    public byte[] assertionBody(ResponseCapture capture) throws IOException {
+        return capture.isTruncated() ? Files.readAllBytes(capture.spillPath()) : capture.head();
+    }
+
+    /** Caps the number of header bytes returned to the browser. */
+    public Map<String, Object> describeHeaders(Map<String, String> headers) {
+        Map<String, String> kept = new LinkedHashMap<>();
+        int budget = maxHeaderBytes;
+        boolean truncated = false;
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            String value = e.getValue() == null ? "" : e.getValue();
+            int size = e.getKey().length() + value.length();
+            if (size > budget) {
+                truncated = true;
+                if (budget > e.getKey().length() + 16) {
+                    kept.put(e.getKey(), value.substring(0, budget - e.getKey().length()) + "...");
+                }
+                break;
+            }
+            kept.put(e.getKey(), value);
+            budget -= size;
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("headers", kept);
+        if (truncated) out.put("headersTruncated", true);
+        return out;
+    }
+
+    public SpilledBody getSpilled(String id) {
+        return id == null ? null : spilled.get(id);
+    }
+
+    private String register(Path path, String contentType, long length) {
+        evictSpills();
+        String id = UUID.randomUUID().toString();
+        spilled.put(id, new SpilledBody(id, path, contentType, length));
+        return id;
+    }
+
+    private void evictSpills() {
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(spillTtlMinutes));
+        List<SpilledBody> all = new ArrayList<>(spilled.values());
+        all.sort(Comparator.comparing(s -> s.createdAt));
+        int excess = all.size() - maxSpillFiles + 1;
+        for (SpilledBody s : all) {
+            if (excess <= 0 && s.createdAt.isAfter(cutoff)) break;
+            spilled.remove(s.id);
+            try { Files.deleteIfExists(s.path); } catch (IOException ignored) {}
+            excess--;
+        }
+    }
+
+    private String prettyPrint(String body, String contentType) {
+        String ct = contentType == null ? "" : contentType.toLowerCase(Locale.ROOT);
+        String trimmed = body.trim();
+        try {
+            if (ct.contains("json") || (ct.isEmpty() && (trimmed.startsWith("{") || trimmed.startsWith("[")))) {
+                return MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(MAPPER.readTree(body));
+            }
+            if (ct.contains("xml") || (ct.isEmpty() && trimmed.startsWith("<"))) {
+                return prettyXml(body);
+            }
+        } catch (Exception ignored) {
+            // Not well-formed for its declared type: show it as received
+        }
+        return body;
+    }
+
+    private String prettyXml(String xml) throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        dbf.setXIncludeAware(false);
+        dbf.setExpandEntityReferences(false);
+        Document doc = dbf.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        TransformerFactory tf = TransformerFactory.newInstance();
+        tf.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        tf.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+        Transformer t = tf.newTransformer();
+        t.setOutputProperty(OutputKeys.INDENT, "yes");
+        t.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+        StringWriter out = new StringWriter();
+        t.transform(new DOMSource(doc), new StreamResult(out));
+        return out.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package Madfoat.Learning.service;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Helpers shared by the background run services (load tests, replays, mutation runs, benchmarks,
+ * monitors): how their snapshots render latencies and counters, and how finished runs are evicted.
+ */
+final class RunStats {
+
+    private RunStats() {
+    }
+
+    /** p50/p90/p99/p99.9/max/mean in milliseconds of a histogram recorded in microseconds; empty when it has no values. */
+    static Map<String, Object> percentiles(Histogram h) {
+        Map<String, Object> p = new LinkedHashMap<>();
+        if (h.getTotalCount() == 0) return p;
+        p.put("p50", microsToMs(h.getValueAtPercentile(50)));
+        p.put("p90", microsToMs(h.getValueAtPercentile(90)));
+        p.put("p99", microsToMs(h.getValueAtPercentile(99)));
+        p.put("p99.9", microsToMs(h.getValueAtPercentile(99.9)));
+        p.put("max", microsToMs(h.getMaxValue()));
+        p.put("mean", round(h.getMean() / 1000.0));
+        return p;
+    }
+
+    static Map<String, Long> toCounts(Map<String, LongAdder> counts) {
+        Map<String, Long> out = new TreeMap<>();
+        counts.forEach((k, v) -> out.put(k, v.sum()));
+        return out;
+    }
+
+    static double microsToMs(long micros) {
+        return round(micros / 1000.0);
+    }
+
+    /** Two decimals, for milliseconds, seconds and rates. */
+    static double round(double v) {
+        return Math.round(v * 100.0) / 100.0;
+    }
+
+    /** Four decimals, for fractions such as error rates. */
+    static double ratio(double v) {
+        return Math.round(v * 10_000.0) / 10_000.0;
+    }
+
+    /**
+     * Makes room for one more run once {@code runs} holds {@code max}, removing the oldest finished
+     * runs; running ones are never removed, so the map can briefly exceed the limit.
+     */
+    static <R, T extends Comparable<? super T>> void evictFinished(Map<String, R> runs, int max,
+                                                                  Predicate<R> finished, Function<R, T> startedAt) {
+        if (runs.size() < max) return;
+        runs.entrySet().stream()
+                .filter(e -> finished.test(e.getValue()))
+                .sorted(Comparator.comparing(e -> startedAt.apply(e.getValue())))
+                .limit(runs.size() - max + 1L)
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(runs::remove);
+    }
+}
@@ -0,0 +1,495 @@
+package Madfoat.Learning.service;
+
+import Madfoat.Learning.util.RequestParams;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates the assertions stored on a scenario (the same keys {@code buildRestAssuredCode}
+ * renders) against an actual response.
+ *
+ * Assertions are compiled once per scenario: JSON paths are split into segments and XPath
+ * expressions are compiled up front, and the compiled form is cached until the scenario's
+ * assertions change. Evaluation parses the body at most once per representation (text, JSON
+ * tree, DOM) no matter how many assertions read it. Runs that discard response bodies, such as
+ * load tests, evaluate only the checks on status, headers and timing.
+ */
+@Service
+public class ScenarioAssertionEngine {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final XPathFactory XPATH = XPathFactory.newInstance();
+
+    private final Map<String, CompiledAssertions> cache = new ConcurrentHashMap<>();
+
+    /** What the assertions are evaluated against. The body is only loaded if an assertion needs it. */
+    public static class ResponseView {
+        final int status;
+        final Map<String, String> headers;
+        final String contentType;
+        final double timeMs;
+        final Supplier<byte[]> body;
+        final String bodyUnavailable;
+
+        /**
+         * @param body            loads the full body; may be null when it is not available
+         * @param bodyUnavailable reason body assertions cannot be evaluated, or null
+         */
+        public ResponseView(int status, Map<String, String> headers, String contentType, double timeMs,
+                            Supplier<byte[]> body, String bodyUnavailable) {
+            this.status = status;
+            this.headers = headers == null ? Map.of() : headers;
+            this.contentType = contentType == null ? "" : contentType;
+            this.timeMs = timeMs;
+            this.body = body;
+            this.bodyUnavailable = bodyUnavailable;
+        }
+    }
+
+    /**
+     * Returns the compiled assertions for a scenario, recompiling only when {@code version}
+     * differs from the cached one.
+     */
+    public CompiledAssertions compile(String scenarioId, long version, Map<String, Object> assertions,
+                                      int expectedStatus, String assertContains) {
+        CompiledAssertions cached = cache.get(scenarioId);
+        if (cached != null && cached.version == version) return cached;
+        CompiledAssertions compiled = compile(version, assertions, expectedStatus, assertContains);
+        cache.put(scenarioId, compiled);
+        return compiled;
+    }
+
+    private CompiledAssertions compile(long version, Map<String, Object> a, int expectedStatus, String assertContains) {
+        List<Check> checks = new ArrayList<>();
+        Map<String, Object> assertions = a == null ? Map.of() : a;
+
+        int status = RequestParams.toInt(assertions.getOrDefault("expectedStatus", expectedStatus), expectedStatus);
+        checks.add(new Check("statusCode", "status", String.valueOf(status), Need.NONE,
+                ctx -> result(ctx.response.status == status, String.valueOf(ctx.response.status))));
+
+        Object range = assertions.get("expectedStatusRange");
+        if (range instanceof String s && !s.isBlank() && Character.isDigit(s.charAt(0))) {
+            int family = s.charAt(0) - '0';
+            checks.add(new Check("expectedStatusRange", "status", family + "xx", Need.NONE,
+                    ctx -> result(ctx.response.status / 100 == family, String.valueOf(ctx.response.status))));
+        }
+
+        Object ct = assertions.get("contentType");
+        if (ct instanceof String s && !s.isBlank()) {
+            String want = s.toLowerCase(Locale.ROOT);
+            checks.add(new Check("contentType", "Content-Type", s, Need.NONE,
+                    ctx -> result(ctx.response.contentType.toLowerCase(Locale.ROOT).startsWith(want), ctx.response.contentType)));
+        }
+
+        Object timeLt = assertions.get("timeLessThanMs");
+        if (timeLt instanceof Number n) {
+            long limit = n.longValue();
+            checks.add(new Check("timeLessThanMs", "time", "< " + limit + " ms", Need.NONE,
+                    ctx -> result(ctx.response.timeMs < limit, ctx.response.timeMs + " ms")));
+        }
+
+        for (Map<String, Object> h : listOfMaps(assertions.get("headerEquals"))) {
+            String name = String.valueOf(h.getOrDefault("name", ""));
+            String value = String.valueOf(h.getOrDefault("value", ""));
+            if (name.isBlank()) continue;
+            checks.add(new Check("headerEquals", name, value, Need.NONE,
+                    ctx -> { String v = header(ctx, name); return result(value.equals(v), v); }));
+        }
+        for (String name : listOfStrings(assertions.get("headerExists"))) {
+            checks.add(new Check("headerExists", name, "present", Need.NONE,
+                    ctx -> { String v = header(ctx, name); return result(v != null, v); }));
+        }
+        for (Map<String, Object> h : listOfMaps(assertions.get("headerContains"))) {
+            String name = String.valueOf(h.getOrDefault("name", ""));
+            String sub = String.valueOf(h.getOrDefault("substring", ""));
+            if (name.isBlank() || sub.isBlank()) continue;
+            checks.add(new Check("headerContains", name, sub, Need.NONE,
+                    ctx -> { String v = header(ctx, name); return result(v != null && v.contains(sub), v); }));
+        }
+
+        List<String> contains = listOfStrings(assertions.get("containsText"));
+        if (assertions.get("containsText") == null && assertContains != null && !assertContains.isBlank()) {
+            contains = List.of(assertContains);
+        }
+        for (String text : contains) {
+            checks.add(new Check("containsText", "body", text, Need.TEXT,
+                    ctx -> result(ctx.text().contains(text), null)));
+        }
+        for (String text : listOfStrings(assertions.get("notContainsText"))) {
+            checks.add(new Check("notContainsText", "body", text, Need.TEXT,
+                    ctx -> result(!ctx.text().contains(text), null)));
+        }
+
+        for (Map<String, Object> j : listOfMaps(assertions.get("jsonPathEquals"))) {
+            String path = String.valueOf(j.getOrDefault("path", ""));
+            if (path.isBlank()) continue;
+            Object want = j.get("value");
+            checks.add(jsonCheck("jsonPathEquals", path, String.valueOf(want),
+                    expr -> ctx -> { JsonNode v = expr.evaluate(ctx.json()); return result(jsonEquals(v, want), render(v)); }));
+        }
+        for (Map<String, Object> j : listOfMaps(assertions.get("jsonPathSizeEquals"))) {
+            String path = String.valueOf(j.getOrDefault("path", ""));
+            if (path.isBlank() || !(j.get("size") instanceof Number)) continue;
+            int size = ((Number) j.get("size")).intValue();
+            checks.add(jsonCheck("jsonPathSizeEquals", path, String.valueOf(size),
+                    expr -> ctx -> { int actual = sizeOf(expr.evaluate(ctx.json())); return result(actual == size, String.valueOf(actual)); }));
+        }
+        for (Map<String, Object> j : listOfMaps(assertions.get("jsonPathContains"))) {
+            String path = String.valueOf(j.getOrDefault("path", ""));
+            if (path.isBlank()) continue;
+            Object want = j.get("value");
+            checks.add(jsonCheck("jsonPathContains", path, String.valueOf(want), expr -> ctx -> {
+                JsonNode v = expr.evaluate(ctx.json());
+                boolean found = false;
+                if (v != null && v.isArray()) {
+                    for (JsonNode item : v) if (jsonEquals(item, want)) { found = true; break; }
+                }
+                return result(found, render(v));
+            }));
+        }
+
+        for (Map<String, Object> x : listOfMaps(assertions.get("xPathExists"))) {
+            String path = String.valueOf(x.getOrDefault("path", ""));
+            if (path.isBlank()) continue;
+            XPathHolder xp = XPathHolder.compile(path);
+            checks.add(new Check("xPathExists", path, "present", Need.XML, ctx -> {
+                Boolean exists = (Boolean) xp.evaluate(ctx.xml(), XPathConstants.BOOLEAN);
+                return result(Boolean.TRUE.equals(exists), String.valueOf(exists));
+            }, xp.error));
+        }
+        for (Map<String, Object> x : listOfMaps(assertions.get("xPathEquals"))) {
+            String path = String.valueOf(x.getOrDefault("path", ""));
+            if (path.isBlank()) continue;
+            XPathHolder xp = XPathHolder.compile(path);
+            String want = String.valueOf(x.get("value"));
+            checks.add(new Check("xPathEquals", path, want, Need.XML, ctx -> {
+                String v = (String) xp.evaluate(ctx.xml(), XPathConstants.STRING);
+                return result(v != null && v.contains(want), v);
+            }, xp.error));
+        }
+        return new CompiledAssertions(version, checks);
+    }
+
+    private static Check jsonCheck(String type, String path, String expected, java.util.function.Function<JsonPathExpr, Eval> body) {
+        try {
+            return new Check(type, path, expected, Need.JSON, body.apply(JsonPathExpr.compile(path)));
+        } catch (RuntimeException e) {
+            return new Check(type, path, expected, Need.JSON, null, e.getMessage());
+        }
+    }
+
+    public static class CompiledAssertions {
+        final long version;
+        final List<Check> checks;
+
+        CompiledAssertions(long version, List<Check> checks) {
+            this.version = version;
+            this.checks = List.copyOf(checks);
+        }
+
+        public int size() { return checks.size(); }
+
+        /** The checks that need only the status, headers and timing, for runs that do not keep bodies. */
+        public CompiledAssertions withoutBodyChecks() {
+            List<Check> kept = new ArrayList<>();
+            for (Check c : checks) {
+                if (c.need == Need.NONE) kept.add(c);
+            }
+            return new CompiledAssertions(version, kept);
+        }
+
+        /** Types of the failing checks, without the per-check detail of {@link #evaluate}; for use on every request of a run. */
+        public List<String> failures(ResponseView response) {
+            EvalContext ctx = new EvalContext(response);
+            List<String> failed = null;
+            for (Check c : checks) {
+                boolean passed;
+                if (c.compileError != null || (c.need != Need.NONE && response.bodyUnavailable != null)) {
+                    passed = false;
+                } else {
+                    try {
+                        passed = c.eval.apply(ctx).passed;
+                    } catch (Exception e) {
+                        passed = false;
+                    }
+                }
+                if (passed) continue;
+                if (failed == null) failed = new ArrayList<>();
+                failed.add(c.type);
+            }
+            return failed == null ? List.of() : failed;
+        }
+
+        /** Evaluates every check; the result lists per-assertion outcome and timing. */
+        public Map<String, Object> evaluate(ResponseView response) {
+            long start = System.nanoTime();
+            EvalContext ctx = new EvalContext(response);
+            List<Map<String, Object>> results = new ArrayList<>(checks.size());
+            int passed = 0;
+            for (Check c : checks) {
+                long t0 = System.nanoTime();
+                Map<String, Object> r = new LinkedHashMap<>();
+                r.put("type", c.type);
+                r.put("target", c.target);
+                r.put("expected", c.expected);
+                Outcome o;
+                if (c.compileError != null) {
+                    o = new Outcome(false, null, "Invalid expression: " + c.compileError);
+                } else if (c.need != Need.NONE && response.bodyUnavailable != null) {
+                    o = new Outcome(false, null, response.bodyUnavailable);
+                } else {
+                    try {
+                        o = c.eval.apply(ctx);
+                    } catch (Exception e) {
+                        o = new Outcome(false, null, e.getClass().getSimpleName() + ": " + e.getMessage());
+                    }
+                }
+                r.put("passed", o.passed);
+                if (o.actual != null) r.put("actual", truncate(o.actual));
+                if (o.message != null) r.put("message", o.message);
+                r.put("micros", (System.nanoTime() - t0) / 1000);
+                if (o.passed) passed++;
+                results.add(r);
+            }
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("passed", passed == checks.size());
+            out.put("passedCount", passed);
+            out.put("failedCount", checks.size() - passed);
+            out.put("evaluationMicros", (System.nanoTime() - start) / 1000);
+            out.put("results", results);
+            return out;
+        }
+    }
+
+    private enum Need { NONE, TEXT, JSON, XML }
+
+    private interface Eval {
+        Outcome apply(EvalContext ctx) throws Exception;
+    }
+
+    private static class Outcome {
+        final boolean passed;
+        final String actual;
+        final String message;
+
+        Outcome(boolean passed, String actual, String message) {
+            this.passed = passed;
+            this.actual = actual;
+            this.message = message;
+        }
+    }
+
+    private static class Check {
+        final String type;
+        final String target;
+        final String expected;
+        final Need need;
+        final Eval eval;
+        final String compileError;
+
+        Check(String type, String target, String expected, Need need, Eval eval) {
+            this(type, target, expected, need, eval, null);
+        }
+
+        Check(String type, String target, String expected, Need need, Eval eval, String compileError) {
+            this.type = type;
+            this.target = target;
+            this.expected = expected;
+            this.need = need;
+            this.eval = eval;
+            this.compileError = compileError;
+        }
+    }
+
+    /** Per-evaluation state: each body representation is produced at most once. */
+    private static class EvalContext {
+        final ResponseView response;
+        private byte[] bytes;
+        private String text;
+        private JsonNode json;
+        private Document xml;
+
+        EvalContext(ResponseView response) { this.response = response; }
+
+        byte[] bytes() {
+            if (bytes == null) bytes = response.body == null ? new byte[0] : response.body.get();
+            return bytes;
+        }
+
+        String text() {
+            if (text == null) text = new String(bytes(), TimedHttpClient.charsetOf(response.contentType));
+            return text;
+        }
+
+        JsonNode json() throws Exception {
+            if (json == null) json = MAPPER.readTree(bytes());
+            return json;
+        }
+
+        Document xml() throws Exception {
+            if (xml == null) {
+                DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+                dbf.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+                dbf.setXIncludeAware(false);
+                dbf.setExpandEntityReferences(false);
+                xml = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(bytes()));
+            }
+            return xml;
+        }
+    }
+
+    /**
+     * Pre-split GPath-style path as used in the generated RestAssured code, e.g.
+     * {@code data.items[0].name} or {@code items.id}. A field step applied to an array maps over
+     * its elements, so {@code items.id} yields the list of ids.
+     */
+    static final class JsonPathExpr {
+        private final String[] fields;   // null entry means an index step
+        private final int[] indexes;
+
+        private JsonPathExpr(String[] fields, int[] indexes) {
+            this.fields = fields;
+            this.indexes = indexes;
+        }
+
+        static JsonPathExpr compile(String path) {
+            String p = path.trim();
+            if (p.startsWith("$")) p = p.substring(1);
+            if (p.startsWith(".")) p = p.substring(1);
+            List<String> f = new ArrayList<>();
+            List<Integer> idx = new ArrayList<>();
+            for (String part : p.split("\\.")) {
+                if (part.isEmpty()) continue;
+                int b = part.indexOf('[');
+                String name = b < 0 ? part : part.substring(0, b);
+                if (!name.isEmpty()) { f.add(name); idx.add(0); }
+                while (b >= 0) {
+                    int e = part.indexOf(']', b);
+                    if (e < 0) throw new IllegalArgumentException("Unclosed '[' in " + path);
+                    f.add(null);
+                    idx.add(Integer.parseInt(part.substring(b + 1, e).trim()));
+                    b = part.indexOf('[', e);
+                }
+            }
+            int[] ix = new int[idx.size()];
+            for (int i = 0; i < ix.length; i++) ix[i] = idx.get(i);
+            return new JsonPathExpr(f.toArray(new String[0]), ix);
+        }
+
+        JsonNode evaluate(JsonNode root) {
+            JsonNode cur = root;
+            for (int i = 0; i < fields.length && cur != null; i++) {
+                if (fields[i] == null) {
+                    if (!cur.isArray()) return null;
+                    int at = indexes[i] < 0 ? cur.size() + indexes[i] : indexes[i];
+                    cur = cur.get(at);
+                } else if (cur.isArray()) {
+                    ArrayNode spread = JsonNodeFactory.instance.arrayNode();
+                    for (JsonNode item : cur) {
+                        JsonNode v = item.get(fields[i]);
+                        if (v != null) spread.add(v);
+                    }
+                    cur = spread;
+                } else {
+                    cur = cur.get(fields[i]);
+                }
+            }
+            return cur;
+        }
+    }
+
+    private static final class XPathHolder {
+        final XPathExpression expr;
+        final String error;
+
+        private XPathHolder(XPathExpression expr, String error) {
+            this.expr = expr;
+            this.error = error;
+        }
+
+        static XPathHolder compile(String path) {
+            try {
+                return new XPathHolder(XPATH.newXPath().compile(path), null);
+            } catch (XPathExpressionException e) {
+                return new XPathHolder(null, e.getMessage());
+            }
+        }
+
+        Object evaluate(Document doc, javax.xml.namespace.QName type) throws XPathExpressionException {
+            // XPathExpression instances are not thread-safe
+            synchronized (this) {
+                return expr.evaluate(doc, type);
+            }
+        }
+    }
+
+    private static Outcome result(boolean passed, String actual) {
+        return new Outcome(passed, actual, null);
+    }
+
+    private static String header(EvalContext ctx, String name) {
+        for (Map.Entry<String, String> e : ctx.response.headers.entrySet()) {
+            if (e.getKey().equalsIgnoreCase(name)) return e.getValue();
+        }
+        return null;
+    }
+
+    static boolean jsonEquals(JsonNode actual, Object expected) {
+        if (expected == null || "null".equals(String.valueOf(expected))) {
+            return actual == null || actual.isNull() || actual.isMissingNode();
+        }
+        if (actual == null || actual.isNull() || actual.isMissingNode()) return false;
+        if (expected instanceof Number n) {
+            return actual.isNumber() && actual.decimalValue().compareTo(new BigDecimal(n.toString())) == 0;
+        }
+        if (expected instanceof Boolean b) {
+            return actual.isBoolean() && actual.booleanValue() == b;
+        }
+        if (actual.isValueNode()) return actual.asText().equals(String.valueOf(expected));
+        return MAPPER.valueToTree(expected).equals(actual);
+    }
+
+    private static int sizeOf(JsonNode v) {
+        if (v == null || v.isNull() || v.isMissingNode()) return -1;
+        if (v.isTextual()) return v.textValue().length();
+        return v.size();
+    }
+
+    private static String render(JsonNode v) {
+        return v == null ? null : (v.isValueNode() ? v.asText() : v.toString());
+    }
+
+    private static String truncate(String s) {
+        return s.length() > 200 ? s.substring(0, 200) + "..." : s;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> listOfMaps(Object v) {
+        if (!(v instanceof List<?> l)) return List.of();
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Object o : l) if (o instanceof Map) out.add((Map<String, Object>) o);
+        return out;
+    }
+
+    private static List<String> listOfStrings(Object v) {
+        if (!(v instanceof List<?> l)) return List.of();
+        List<String> out = new ArrayList<>();
+        for (Object o : l) if (o != null && !String.valueOf(o).isBlank()) out.add(String.valueOf(o));
+        return out;
+    }
+}
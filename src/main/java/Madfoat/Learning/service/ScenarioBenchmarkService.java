@@ -0,0 +1,358 @@
+package Madfoat.Learning.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Benchmarks a scenario's response time.
+ *
+ * A run sends the scenario's request sequentially: the warmup iterations prime connections and
+ * server caches and are discarded, then each measured iteration contributes one sample of the same
+ * total time a single run reports. Samples are summarized with a 95% confidence interval of the mean
+ * and Tukey outliers, and a {@code timeLessThanMs} assertion is judged against the interval rather
+ * than one sample. Finished runs are kept per scenario so each run is compared with the previous one
+ * for regressions.
+ */
+@Service
+public class ScenarioBenchmarkService {
+
+    private static final int MAX_LISTED_OUTLIERS = 50;
+    private static final long SHUTDOWN_JOIN_MILLIS = 5_000;
+
+    @Value("${scenario.benchmark.max-iterations:10000}")
+    private int maxIterations = 10000;
+
+    @Value("${scenario.benchmark.max-warmup:1000}")
+    private int maxWarmup = 1000;
+
+    @Value("${scenario.benchmark.max-stored-runs:200}")
+    private int maxStoredRuns = 200;
+
+    @Value("${scenario.benchmark.regression-threshold-percent:5}")
+    private double regressionThresholdPercent = 5;
+
+    private final ApiScenarioService scenarioService;
+    private final TimedHttpClient httpClient;
+    private final ResponseCaptureService captureService;
+    private final HostRateLimiter rateLimiter;
+    private final Map<String, BenchmarkRun> runs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ScenarioBenchmarkService(ApiScenarioService scenarioService, TimedHttpClient httpClient,
+                                    ResponseCaptureService captureService, HostRateLimiter rateLimiter) {
+        this.scenarioService = scenarioService;
+        this.httpClient = httpClient;
+        this.captureService = captureService;
+        this.rateLimiter = rateLimiter;
+    }
+
+    public Map<String, Object> start(String scenarioId, Integer warmupIterations, Integer iterations) {
+        ApiScenarioService.RequestParts parts = scenarioService.resolveRequest(scenarioId);
+        if (parts == null) {
+            return Map.of("status", "error", "message", "Scenario not found");
+        }
+        if (parts.url == null || parts.url.isBlank()) {
+            return Map.of("status", "error", "message", "Scenario has no URL");
+        }
+        int warmup = warmupIterations == null ? 10 : warmupIterations;
+        int measured = iterations == null ? 50 : iterations;
+        if (warmup < 0 || warmup > maxWarmup) {
+            return Map.of("status", "error", "message", "warmupIterations must be between 0 and " + maxWarmup);
+        }
+        if (measured < 2 || measured > maxIterations) {
+            return Map.of("status", "error", "message", "iterations must be between 2 and " + maxIterations);
+        }
+
+        RunStats.evictFinished(runs, maxStoredRuns, r -> r.finishedAt != null, r -> r.startedAt);
+        BenchmarkRun run = new BenchmarkRun(UUID.randomUUID().toString(), scenarioId, parts,
+                scenarioService.expectedStatus(scenarioId), scenarioService.timeLimitMs(scenarioId), warmup, measured);
+        runs.put(run.runId, run);
+        Thread worker = new Thread(() -> execute(run), "benchmark-" + run.runId.substring(0, 8));
+        worker.setDaemon(true);
+        run.worker = worker;
+        worker.start();
+        return snapshot(run);
+    }
+
+    public Map<String, Object> status(String runId) {
+        BenchmarkRun run = runs.get(runId);
+        if (run == null) {
+            return Map.of("status", "error", "message", "Benchmark run not found");
+        }
+        return snapshot(run);
+    }
+
+    public Map<String, Object> stop(String runId) {
+        BenchmarkRun run = runs.get(runId);
+        if (run == null) {
+            return Map.of("status", "error", "message", "Benchmark run not found");
+        }
+        run.stopRequested = true;
+        return snapshot(run);
+    }
+
+    /**
+     * Stops every running benchmark and waits briefly for its worker to exit. The worker is
+     * interrupted so a run waiting on the rate limiter does not hold the shutdown up.
+     */
+    @PreDestroy
+    void shutdown() {
+        for (BenchmarkRun run : runs.values()) run.stopRequested = true;
+        for (BenchmarkRun run : runs.values()) {
+            Thread t = run.worker;
+            if (t == null || !t.isAlive()) continue;
+            t.interrupt();
+            try {
+                t.join(SHUTDOWN_JOIN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /** Finished runs of a scenario, newest first, each with its comparison to the run before it. */
+    public Map<String, Object> history(String scenarioId) {
+        List<Map<String, Object>> list = new ArrayList<>();
+        finishedRuns(scenarioId).stream()
+                .sorted(Comparator.comparing((BenchmarkRun r) -> r.startedAt).reversed())
+                .forEach(r -> list.add(historyEntry(r)));
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("scenarioId", scenarioId);
+        out.put("runs", list);
+        return out;
+    }
+
+    /** Compares any two finished runs; a negative change means the candidate is faster. */
+    public Map<String, Object> compare(String baselineRunId, String candidateRunId) {
+        BenchmarkRun baseline = runs.get(baselineRunId);
+        BenchmarkRun candidate = runs.get(candidateRunId);
+        if (baseline == null || candidate == null) {
+            return Map.of("status", "error", "message", "Benchmark run not found");
+        }
+        if (baseline.summary == null || candidate.summary == null) {
+            return Map.of("status", "error", "message", "Both runs must be finished");
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("baselineRunId", baseline.runId);
+        out.put("candidateRunId", candidate.runId);
+        out.putAll(BenchmarkStatistics.compare(baseline.summary, candidate.summary, regressionThresholdPercent));
+        return out;
+    }
+
+    private void execute(BenchmarkRun run) {
+        run.startNanos = System.nanoTime();
+        int total = run.warmupIterations + run.iterations;
+        String failure = null;
+        try {
+            for (int i = 0; i < total && !run.stopRequested; i++) {
+                boolean warmup = i < run.warmupIterations;
+                HostRateLimiter.Permit permit = rateLimiter.await(run.parts.url);
+                TimedHttpClient.TimedResponse resp;
+                try (ResponseCapture capture = captureService.newCapture(0, 0, false)) {
+                    resp = httpClient.execute(run.parts, capture);
+                } catch (IOException | RuntimeException e) {
+                    if (!warmup) run.recordError(e);
+                    continue;
+                } finally {
+                    permit.release();
+                }
+                if (warmup) {
+                    run.recordWarmup();
+                } else {
+                    run.record(i - run.warmupIterations + 1, resp, permit.waitNanos);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = "Interrupted";
+        } catch (Exception e) {
+            failure = String.valueOf(e.getMessage());
+        }
+        // Summarize before publishing the final state so a finished run always carries its comparison
+        finish(run);
+        if (failure != null) {
+            run.message = failure;
+            run.state = "failed";
+        } else {
+            run.state = run.stopRequested ? "stopped" : "completed";
+        }
+    }
+
+    private void finish(BenchmarkRun run) {
+        double[] samples;
+        synchronized (run) {
+            samples = Arrays.copyOf(run.samples, run.measured);
+        }
+        if (samples.length > 0) {
+            run.summary = BenchmarkStatistics.summarize(samples);
+            // The most recent earlier run of the same scenario is the regression baseline
+            BenchmarkRun previous = finishedRuns(run.scenarioId).stream()
+                    .filter(r -> r != run && r.startedAt.isBefore(run.startedAt))
+                    .max(Comparator.comparing(r -> r.startedAt))
+                    .orElse(null);
+            if (previous != null) {
+                Map<String, Object> comparison = new LinkedHashMap<>();
+                comparison.put("baselineRunId", previous.runId);
+                comparison.putAll(BenchmarkStatistics.compare(previous.summary, run.summary, regressionThresholdPercent));
+                run.comparison = comparison;
+            }
+        }
+        run.finishedAt = Instant.now();
+        run.finishNanos = System.nanoTime();
+    }
+
+    private List<BenchmarkRun> finishedRuns(String scenarioId) {
+        List<BenchmarkRun> out = new ArrayList<>();
+        for (BenchmarkRun r : runs.values()) {
+            if (r.scenarioId.equals(scenarioId) && r.summary != null) out.add(r);
+        }
+        return out;
+    }
+
+    private Map<String, Object> snapshot(BenchmarkRun run) {
+        double[] samples;
+        int[] iterations;
+        Map<String, Object> out = new LinkedHashMap<>();
+        synchronized (run) {
+            samples = Arrays.copyOf(run.samples, run.measured);
+            iterations = Arrays.copyOf(run.iterationNumbers, run.measured);
+            out.put("status", "ok");
+            out.put("runId", run.runId);
+            out.put("scenarioId", run.scenarioId);
+            out.put("state", run.state);
+            if (run.message != null) out.put("message", run.message);
+            out.put("warmupIterations", run.warmupIterations);
+            out.put("iterations", run.iterations);
+            out.put("warmupCompleted", run.warmupCompleted);
+            out.put("measured", run.measured);
+            out.put("errors", run.errors);
+            out.put("errorBreakdown", new TreeMap<>(run.errorCounts));
+            out.put("statusCounts", new TreeMap<>(run.statusCounts));
+            out.put("statusMismatches", run.statusMismatches);
+            out.put("newConnections", run.newConnections);
+            out.put("throttleMs", TimedHttpClient.Timing.ms(run.throttleNanos));
+        }
+        out.put("startedAt", run.startedAt.toString());
+        if (run.finishedAt != null) out.put("finishedAt", run.finishedAt.toString());
+        long startNanos = run.startNanos;
+        double elapsed = startNanos == 0 ? 0 : ((run.finishNanos != 0 ? run.finishNanos : System.nanoTime()) - startNanos) / 1e9;
+        out.put("elapsedSeconds", RunStats.round(elapsed));
+
+        BenchmarkStatistics.Summary summary = run.summary != null ? run.summary : BenchmarkStatistics.summarize(samples);
+        out.put("timeMs", summary.toMap());
+        if (summary.n > 0) {
+            out.put("outliers", BenchmarkStatistics.outliers(samples, iterations, summary, MAX_LISTED_OUTLIERS));
+        }
+        if (run.timeLimitMs != null) out.put("timeLessThanMs", judgeLimit(run.timeLimitMs, summary, samples));
+        if (run.comparison != null) out.put("comparison", run.comparison);
+        return out;
+    }
+
+    private Map<String, Object> historyEntry(BenchmarkRun run) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("runId", run.runId);
+        m.put("state", run.state);
+        m.put("startedAt", run.startedAt.toString());
+        m.put("measured", run.summary.n);
+        m.put("timeMs", run.summary.toMap());
+        if (run.comparison != null) {
+            m.put("verdict", run.comparison.get("verdict"));
+            m.put("changePercent", run.comparison.get("changePercent"));
+        }
+        return m;
+    }
+
+    /**
+     * Judges the assertion on the mean's confidence interval: it passes when the whole interval is
+     * under the limit, fails when the whole interval is at or over it, and is inconclusive otherwise.
+     */
+    private static Map<String, Object> judgeLimit(long limitMs, BenchmarkStatistics.Summary summary, double[] samples) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("limitMs", limitMs);
+        int over = 0;
+        for (double s : samples) if (s >= limitMs) over++;
+        m.put("samplesOverLimit", over);
+        String verdict;
+        if (summary.n < 2) verdict = "insufficient-data";
+        else if (summary.ciHigh < limitMs) verdict = "pass";
+        else if (summary.ciLow >= limitMs) verdict = "fail";
+        else verdict = "inconclusive";
+        m.put("verdict", verdict);
+        return m;
+    }
+
+    private static class BenchmarkRun {
+        final String runId;
+        final String scenarioId;
+        final ApiScenarioService.RequestParts parts;
+        final int expectedStatus;
+        final Long timeLimitMs;
+        final int warmupIterations;
+        final int iterations;
+        final Instant startedAt = Instant.now();
+
+        // Written by the worker thread under the run's lock, read by snapshots
+        final double[] samples;
+        final int[] iterationNumbers;
+        int measured;
+        int warmupCompleted;
+        int errors;
+        int statusMismatches;
+        int newConnections;
+        long throttleNanos;
+        final Map<String, Integer> statusCounts = new HashMap<>();
+        final Map<String, Integer> errorCounts = new HashMap<>();
+
+        volatile Thread worker;
+        volatile boolean stopRequested;
+        volatile String state = "running";
+        volatile String message;
+        volatile long startNanos;
+        volatile long finishNanos;
+        volatile Instant finishedAt;
+        volatile BenchmarkStatistics.Summary summary;
+        volatile Map<String, Object> comparison;
+
+        BenchmarkRun(String runId, String scenarioId, ApiScenarioService.RequestParts parts, int expectedStatus,
+                     Long timeLimitMs, int warmupIterations, int iterations) {
+            this.runId = runId;
+            this.scenarioId = scenarioId;
+            this.parts = parts;
+            this.expectedStatus = expectedStatus;
+            this.timeLimitMs = timeLimitMs;
+            this.warmupIterations = warmupIterations;
+            this.iterations = iterations;
+            this.samples = new double[iterations];
+            this.iterationNumbers = new int[iterations];
+        }
+
+        synchronized void record(int iteration, TimedHttpClient.TimedResponse resp, long waitNanos) {
+            samples[measured] = resp.timing.totalNanos / 1e6;
+            iterationNumbers[measured] = iteration;
+            measured++;
+            statusCounts.merge(String.valueOf(resp.status), 1, Integer::sum);
+            if (resp.status != expectedStatus) statusMismatches++;
+            if (!resp.connectionReused) newConnections++;
+            throttleNanos += waitNanos;
+        }
+
+        synchronized void recordError(Exception e) {
+            errors++;
+            errorCounts.merge(e.getClass().getSimpleName(), 1, Integer::sum);
+        }
+
+        synchronized void recordWarmup() {
+            warmupCompleted++;
+        }
+    }
+}
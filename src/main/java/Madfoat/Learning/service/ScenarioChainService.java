@@ -0,0 +1,507 @@
+package Madfoat.Learning.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs chains of API scenarios where later steps use values extracted from earlier responses.
+ *
+ * Each step may extract variables (JSONPath, header or regex) and may reference variables as
+ * {@code {{name}}} in its URL, headers or body. A step depends on the steps that produce the
+ * variables it references, plus any listed in {@code dependsOn}. The runner starts every step as
+ * soon as its dependencies finish, so independent branches run in parallel and the chain takes
+ * roughly its critical-path time rather than the sum of all steps. A step that is held back by the
+ * per-host rate limiter waits without occupying a runner thread.
+ */
+@Service
+public class ScenarioChainService {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Pattern VARIABLE = Pattern.compile("\\{\\{\\s*([A-Za-z_][A-Za-z0-9_.-]*)\\s*}}");
+
+    private final ApiScenarioService scenarioService;
+    private final TimedHttpClient httpClient;
+    private final ResponseCaptureService captureService;
+    private final HostRateLimiter rateLimiter;
+    private final Map<String, ChainDefinition> chains = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    @Autowired
+    public ScenarioChainService(ApiScenarioService scenarioService, TimedHttpClient httpClient,
+                                ResponseCaptureService captureService, HostRateLimiter rateLimiter,
+                                @Value("${scenario.chain.max-parallel:8}") int maxParallel) {
+        this.scenarioService = scenarioService;
+        this.httpClient = httpClient;
+        this.captureService = captureService;
+        this.rateLimiter = rateLimiter;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxParallel), r -> {
+            Thread t = new Thread(r, "scenario-chain-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Stops the runner threads, so a context restart does not leave a chain running against its targets. */
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    static class Extraction {
+        final String var;
+        final String from;
+        final String expr;
+        ScenarioAssertionEngine.JsonPathExpr jsonPath;
+        Pattern regex;
+
+        Extraction(String var, String from, String expr) {
+            this.var = var;
+            this.from = from;
+            this.expr = expr;
+        }
+    }
+
+    static class StepDefinition {
+        String name;
+        String scenarioId;
+        String curl;
+        Integer expectedStatus;
+        final List<Extraction> extractions = new ArrayList<>();
+        final Set<String> dependsOn = new LinkedHashSet<>();
+    }
+
+    static class ChainDefinition {
+        String id;
+        String name;
+        final Map<String, String> variables = new LinkedHashMap<>();
+        final List<StepDefinition> steps = new ArrayList<>();
+        final Instant createdAt = Instant.now();
+    }
+
+    /**
+     * Validates and stores a chain. The payload holds {@code name}, optional initial
+     * {@code variables}, and {@code steps}; each step names a {@code scenarioId} or a raw
+     * {@code curl}, with optional {@code expectedStatus}, {@code extract} and {@code dependsOn}.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> createChain(Map<String, Object> payload) {
+        ChainDefinition chain = new ChainDefinition();
+        chain.id = UUID.randomUUID().toString();
+        chain.name = String.valueOf(payload.getOrDefault("name", "Chain"));
+        if (payload.get("variables") instanceof Map<?, ?> vars) {
+            vars.forEach((k, v) -> chain.variables.put(String.valueOf(k), String.valueOf(v)));
+        }
+        if (!(payload.get("steps") instanceof List<?> rawSteps) || rawSteps.isEmpty()) {
+            return Map.of("status", "error", "message", "A chain needs at least one step");
+        }
+
+        Map<String, String> producers = new HashMap<>();
+        Set<String> names = new HashSet<>();
+        for (Object raw : rawSteps) {
+            if (!(raw instanceof Map<?, ?>)) {
+                return Map.of("status", "error", "message", "Each step must be an object");
+            }
+            Map<String, Object> s = (Map<String, Object>) raw;
+            StepDefinition step = new StepDefinition();
+            step.name = s.get("name") == null || String.valueOf(s.get("name")).isBlank()
+                    ? "step" + (chain.steps.size() + 1) : String.valueOf(s.get("name")).trim();
+            if (!names.add(step.name)) {
+                return Map.of("status", "error", "message", "Duplicate step name: " + step.name);
+            }
+            step.scenarioId = s.get("scenarioId") == null ? null : String.valueOf(s.get("scenarioId"));
+            step.curl = s.get("curl") == null ? null : String.valueOf(s.get("curl"));
+            if (s.get("expectedStatus") instanceof Number n) step.expectedStatus = n.intValue();
+            if (step.scenarioId == null && (step.curl == null || step.curl.isBlank())) {
+                return Map.of("status", "error", "message", "Step '" + step.name + "' needs a scenarioId or a curl");
+            }
+            if (step.scenarioId != null && scenarioService.resolveRequest(step.scenarioId) == null) {
+                return Map.of("status", "error", "message", "Step '" + step.name + "': scenario not found");
+            }
+            if (s.get("extract") instanceof List<?> extracts) {
+                for (Object e : extracts) {
+                    if (!(e instanceof Map<?, ?> em)) continue;
+                    Extraction x = new Extraction(String.valueOf(em.get("var")),
+                            String.valueOf(em.containsKey("from") ? em.get("from") : "jsonPath"), String.valueOf(em.get("expr")));
+                    String error = compileExtraction(x);
+                    if (error != null) {
+                        return Map.of("status", "error", "message", "Step '" + step.name + "': " + error);
+                    }
+                    if (chain.variables.containsKey(x.var) || producers.putIfAbsent(x.var, step.name) != null) {
+                        return Map.of("status", "error", "message", "Variable '" + x.var + "' is defined more than once");
+                    }
+                    step.extractions.add(x);
+                }
+            }
+            if (s.get("dependsOn") instanceof List<?> deps) {
+                deps.forEach(d -> step.dependsOn.add(String.valueOf(d)));
+            }
+            chain.steps.add(step);
+        }
+
+        for (StepDefinition step : chain.steps) {
+            for (String var : referencedVariables(template(step))) {
+                if (chain.variables.containsKey(var)) continue;
+                String producer = producers.get(var);
+                if (producer == null) {
+                    return Map.of("status", "error", "message", "Step '" + step.name + "' uses undefined variable '" + var + "'");
+                }
+                if (producer.equals(step.name)) {
+                    return Map.of("status", "error", "message", "Step '" + step.name + "' uses a variable it extracts itself");
+                }
+                step.dependsOn.add(producer);
+            }
+            for (String dep : step.dependsOn) {
+                if (!names.contains(dep)) {
+                    return Map.of("status", "error", "message", "Step '" + step.name + "' depends on unknown step '" + dep + "'");
+                }
+            }
+        }
+        List<StepDefinition> order = topologicalOrder(chain.steps);
+        if (order == null) {
+            return Map.of("status", "error", "message", "Step dependencies form a cycle");
+        }
+        chain.steps.clear();
+        chain.steps.addAll(order);
+        chains.put(chain.id, chain);
+        return describe(chain);
+    }
+
+    public List<Map<String, Object>> listChains() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        chains.values().stream()
+                .sorted(Comparator.comparing((ChainDefinition c) -> c.createdAt))
+                .forEach(c -> out.add(describe(c)));
+        return out;
+    }
+
+    public Map<String, Object> deleteChain(String id) {
+        return Map.of("status", chains.remove(id) != null ? "ok" : "error");
+    }
+
+    /** Runs a stored chain to completion and reports every step, the wall time and the critical path. */
+    public Map<String, Object> runChain(String id) {
+        ChainDefinition chain = chains.get(id);
+        if (chain == null) {
+            return Map.of("status", "error", "message", "Chain not found");
+        }
+        Map<String, String> vars = new ConcurrentHashMap<>(chain.variables);
+        Map<String, CompletableFuture<StepResult>> futures = new HashMap<>();
+        long startNanos = System.nanoTime();
+        // Steps are stored in topological order, so every dependency's future already exists
+        for (StepDefinition step : chain.steps) {
+            List<CompletableFuture<StepResult>> deps = new ArrayList<>();
+            step.dependsOn.forEach(d -> deps.add(futures.get(d)));
+            CompletableFuture<StepResult> f = CompletableFuture.allOf(deps.toArray(new CompletableFuture<?>[0]))
+                    .thenCompose(ignored -> {
+                        for (CompletableFuture<StepResult> d : deps) {
+                            StepResult r = d.join();
+                            if (!r.completed()) {
+                                return CompletableFuture.completedFuture(StepResult.skipped(step.name, "Dependency '" + r.name + "' did not complete"));
+                            }
+                        }
+                        final ApiScenarioService.RequestParts parts;
+                        try {
+                            parts = substitute(template(step), vars);
+                        } catch (Exception ex) {
+                            return CompletableFuture.completedFuture(StepResult.error(step.name, String.valueOf(ex.getMessage())));
+                        }
+                        return rateLimiter.acquire(parts.url).handleAsync((permit, ex) -> ex != null
+                                ? StepResult.error(step.name, String.valueOf(ex.getMessage()))
+                                : runStep(step, parts, permit, vars, startNanos), executor);
+                    });
+            futures.put(step.name, f);
+        }
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+        long wallNanos = System.nanoTime() - startNanos;
+
+        Map<String, StepResult> results = new HashMap<>();
+        futures.forEach((name, f) -> results.put(name, f.join()));
+        Map<String, Long> pathNanos = new HashMap<>();
+        long criticalNanos = 0;
+        long sumNanos = 0;
+        int passed = 0;
+        List<Map<String, Object>> steps = new ArrayList<>();
+        for (StepDefinition step : chain.steps) {
+            StepResult r = results.get(step.name);
+            long longestDep = 0;
+            for (String d : step.dependsOn) longestDep = Math.max(longestDep, pathNanos.get(d));
+            pathNanos.put(step.name, longestDep + r.durationNanos);
+            criticalNanos = Math.max(criticalNanos, longestDep + r.durationNanos);
+            sumNanos += r.durationNanos;
+            if ("passed".equals(r.status)) passed++;
+            Map<String, Object> m = r.toMap();
+            m.put("dependsOn", new ArrayList<>(step.dependsOn));
+            steps.add(m);
+        }
+
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("chainId", chain.id);
+        out.put("name", chain.name);
+        out.put("passed", passed == chain.steps.size());
+        out.put("passedSteps", passed);
+        out.put("totalSteps", chain.steps.size());
+        out.put("wallTimeMs", TimedHttpClient.Timing.ms(wallNanos));
+        out.put("criticalPathMs", TimedHttpClient.Timing.ms(criticalNanos));
+        out.put("sumOfStepsMs", TimedHttpClient.Timing.ms(sumNanos));
+        out.put("variables", new TreeMap<>(vars));
+        out.put("steps", steps);
+        return out;
+    }
+
+    private StepResult runStep(StepDefinition step, ApiScenarioService.RequestParts parts, HostRateLimiter.Permit permit,
+                               Map<String, String> vars, long chainStartNanos) {
+        long started = System.nanoTime();
+        StepResult result = new StepResult(step.name);
+        result.startOffsetNanos = started - chainStartNanos;
+        result.throttleNanos = permit.waitNanos;
+        // Extraction reads the body back whole, so the capture keeps as much of it as assertions can use
+        try (ResponseCapture capture = captureService.newAssertionCapture()) {
+            TimedHttpClient.TimedResponse resp;
+            try {
+                resp = httpClient.execute(parts, capture);
+            } finally {
+                permit.release();
+            }
+            result.httpStatus = resp.status;
+            result.url = parts.url;
+
+            Map<String, Object> assertionResults = step.scenarioId == null ? null
+                    : scenarioService.evaluateAssertions(step.scenarioId, resp, capture);
+            boolean ok;
+            if (assertionResults != null) {
+                result.assertionResults = assertionResults;
+                ok = Boolean.TRUE.equals(assertionResults.get("passed"));
+            } else {
+                ok = step.expectedStatus == null || step.expectedStatus == resp.status;
+            }
+
+            String error = extract(step, resp, capture, result.extracted);
+            if (error != null) {
+                result.status = "error";
+                result.message = error;
+            } else {
+                vars.putAll(result.extracted);
+                result.status = ok ? "passed" : "failed";
+            }
+        } catch (Exception ex) {
+            result.status = "error";
+            result.message = String.valueOf(ex.getMessage());
+        }
+        result.durationNanos = System.nanoTime() - started;
+        return result;
+    }
+
+    private String extract(StepDefinition step, TimedHttpClient.TimedResponse resp, ResponseCapture capture,
+                           Map<String, String> into) throws IOException {
+        JsonNode json = null;
+        String text = null;
+        for (Extraction x : step.extractions) {
+            String value;
+            if ("header".equals(x.from)) {
+                value = resp.header(x.expr);
+            } else {
+                String unavailable = captureService.assertionBodyUnavailable(capture);
+                if (unavailable != null) {
+                    return unavailable + "; cannot extract '" + x.var + "'";
+                }
+                if (text == null) text = new String(captureService.assertionBody(capture), TimedHttpClient.charsetOf(resp.contentType()));
+                if ("regex".equals(x.from)) {
+                    Matcher m = x.regex.matcher(text);
+                    value = m.find() ? (m.groupCount() >= 1 ? m.group(1) : m.group()) : null;
+                } else {
+                    if (json == null) {
+                        try {
+                            json = MAPPER.readTree(text);
+                        } catch (Exception e) {
+                            return "Response is not JSON; cannot extract '" + x.var + "'";
+                        }
+                    }
+                    JsonNode node = x.jsonPath.evaluate(json);
+                    value = node == null || node.isMissingNode() ? null : (node.isValueNode() ? node.asText() : node.toString());
+                }
+            }
+            if (value == null) {
+                return "Could not extract '" + x.var + "' using " + x.from + " '" + x.expr + "'";
+            }
+            into.put(x.var, value);
+        }
+        return null;
+    }
+
+    private String compileExtraction(Extraction x) {
+        if (x.var == null || x.var.isBlank() || "null".equals(x.var) || !x.var.matches("[A-Za-z_][A-Za-z0-9_.-]*")) {
+            return "Invalid variable name '" + x.var + "'";
+        }
+        if (x.expr == null || x.expr.isBlank() || "null".equals(x.expr)) {
+            return "Extraction of '" + x.var + "' needs an expr";
+        }
+        try {
+            switch (x.from) {
+                case "jsonPath" -> x.jsonPath = ScenarioAssertionEngine.JsonPathExpr.compile(x.expr);
+                case "regex" -> x.regex = Pattern.compile(x.expr);
+                case "header" -> { }
+                default -> { return "Unknown extraction source '" + x.from + "' (use jsonPath, header or regex)"; }
+            }
+        } catch (IllegalArgumentException e) {
+            return "Invalid " + x.from + " for '" + x.var + "': " + e.getMessage();
+        }
+        return null;
+    }
+
+    /** The step's request before variable substitution. */
+    private ApiScenarioService.RequestParts template(StepDefinition step) {
+        if (step.scenarioId != null) {
+            ApiScenarioService.RequestParts parts = scenarioService.resolveRequest(step.scenarioId);
+            if (parts == null) throw new IllegalStateException("Scenario not found");
+            return parts;
+        }
+        return scenarioService.parseCurl(step.curl);
+    }
+
+    private static Set<String> referencedVariables(ApiScenarioService.RequestParts p) {
+        Set<String> out = new LinkedHashSet<>();
+        collectVariables(p.url, out);
+        collectVariables(p.body, out);
+        p.headers.forEach((k, v) -> { collectVariables(k, out); collectVariables(v, out); });
+        return out;
+    }
+
+    private static void collectVariables(String s, Set<String> out) {
+        if (s == null || s.indexOf("{{") < 0) return;
+        Matcher m = VARIABLE.matcher(s);
+        while (m.find()) out.add(m.group(1));
+    }
+
+    private static ApiScenarioService.RequestParts substitute(ApiScenarioService.RequestParts p, Map<String, String> vars) {
+        ApiScenarioService.RequestParts out = new ApiScenarioService.RequestParts();
+        out.method = p.method;
+        out.url = substitute(p.url, vars);
+        out.body = substitute(p.body, vars);
+        p.headers.forEach((k, v) -> out.headers.put(substitute(k, vars), substitute(v, vars)));
+        return out;
+    }
+
+    private static String substitute(String s, Map<String, String> vars) {
+        if (s == null || s.indexOf("{{") < 0) return s;
+        Matcher m = VARIABLE.matcher(s);
+        StringBuilder b = new StringBuilder();
+        while (m.find()) {
+            String value = vars.get(m.group(1));
+            m.appendReplacement(b, Matcher.quoteReplacement(value != null ? value : m.group()));
+        }
+        m.appendTail(b);
+        return b.toString();
+    }
+
+    /** Kahn's algorithm, stable with respect to the declared step order; null when there is a cycle. */
+    static List<StepDefinition> topologicalOrder(List<StepDefinition> steps) {
+        Map<String, Integer> pending = new HashMap<>();
+        Map<String, List<StepDefinition>> dependents = new HashMap<>();
+        for (StepDefinition s : steps) {
+            pending.put(s.name, s.dependsOn.size());
+            for (String d : s.dependsOn) dependents.computeIfAbsent(d, k -> new ArrayList<>()).add(s);
+        }
+        List<StepDefinition> order = new ArrayList<>();
+        Deque<StepDefinition> ready = new ArrayDeque<>();
+        for (StepDefinition s : steps) if (s.dependsOn.isEmpty()) ready.add(s);
+        while (!ready.isEmpty()) {
+            StepDefinition s = ready.poll();
+            order.add(s);
+            for (StepDefinition next : dependents.getOrDefault(s.name, List.of())) {
+                if (pending.merge(next.name, -1, Integer::sum) == 0) ready.add(next);
+            }
+        }
+        return order.size() == steps.size() ? order : null;
+    }
+
+    private Map<String, Object> describe(ChainDefinition chain) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("id", chain.id);
+        out.put("name", chain.name);
+        out.put("variables", chain.variables);
+        List<Map<String, Object>> steps = new ArrayList<>();
+        for (StepDefinition s : chain.steps) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("name", s.name);
+            if (s.scenarioId != null) m.put("scenarioId", s.scenarioId);
+            else m.put("curl", s.curl);
+            m.put("dependsOn", new ArrayList<>(s.dependsOn));
+            List<String> extracts = new ArrayList<>();
+            s.extractions.forEach(x -> extracts.add(x.var));
+            m.put("extracts", extracts);
+            steps.add(m);
+        }
+        out.put("steps", steps);
+        out.put("createdAt", chain.createdAt.toString());
+        return out;
+    }
+
+    private static class StepResult {
+        final String name;
+        String status;
+        String message;
+        String url;
+        Integer httpStatus;
+        long startOffsetNanos;
+        long durationNanos;
+        long throttleNanos;
+        Map<String, Object> assertionResults;
+        final Map<String, String> extracted = new LinkedHashMap<>();
+
+        StepResult(String name) {
+            this.name = name;
+        }
+
+        static StepResult skipped(String name, String reason) {
+            StepResult r = new StepResult(name);
+            r.status = "skipped";
+            r.message = reason;
+            return r;
+        }
+
+        static StepResult error(String name, String message) {
+            StepResult r = new StepResult(name);
+            r.status = "error";
+            r.message = message;
+            return r;
+        }
+
+        /** Whether the request went through and its variables were extracted, so dependents can run. */
+        boolean completed() {
+            return "passed".equals(status) || "failed".equals(status);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("name", name);
+            m.put("status", status);
+            if (message != null) m.put("message", message);
+            if (url != null) m.put("url", url);
+            if (httpStatus != null) m.put("httpStatus", httpStatus);
+            m.put("startMs", TimedHttpClient.Timing.ms(startOffsetNanos));
+            m.put("timeMs", TimedHttpClient.Timing.ms(durationNanos));
+            if (throttleNanos > 0) m.put("throttleMs", TimedHttpClient.Timing.ms(throttleNanos));
+            if (!extracted.isEmpty()) m.put("extracted", extracted);
+            if (assertionResults != null) m.put("assertionResults", assertionResults);
+            return m;
+        }
+    }
+}
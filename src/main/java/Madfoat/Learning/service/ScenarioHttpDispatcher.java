@@ -0,0 +1,165 @@
+package Madfoat.Learning.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking HTTP sender for high-volume scenario runs (load tests, replays).
+ * Requests are issued with the JDK client so a slow server ties up connections, not threads,
+ * and response bodies are counted and discarded instead of buffered. Every request first takes a
+ * permit from the shared {@link HostRateLimiter}; a throttled request waits in the limiter's queue
+ * without holding a thread.
+ */
+@Service
+public class ScenarioHttpDispatcher {
+
+    // Headers the JDK client manages itself and rejects when set explicitly
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("host", "connection", "content-length", "expect", "upgrade");
+    private static final HttpHeaders NO_HEADERS = HttpHeaders.of(Map.of(), (name, value) -> true);
+
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final HostRateLimiter rateLimiter;
+
+    @Autowired
+    public ScenarioHttpDispatcher(HostRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        AtomicInteger n = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "scenario-http-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    /** Stops the client's threads, so a load test or replay does not keep sending after a context restart. */
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public static class Outcome {
+        public final int status;
+        /** Response headers; empty when the request failed. */
+        public final HttpHeaders headers;
+        public final long bytes;
+        public final Throwable error;
+        /** Time spent waiting for a rate-limit permit before the request was sent. */
+        public final long throttleNanos;
+
+        Outcome(int status, HttpHeaders headers, long bytes, Throwable error, long throttleNanos) {
+            this.status = status;
+            this.headers = headers == null ? NO_HEADERS : headers;
+            this.bytes = bytes;
+            this.error = error;
+            this.throttleNanos = throttleNanos;
+        }
+
+        public boolean isError() { return error != null; }
+    }
+
+    /**
+     * Sends the request and completes with its outcome; never completes exceptionally.
+     */
+    public CompletableFuture<Outcome> send(ApiScenarioService.RequestParts p, Duration timeout) {
+        final HttpRequest request;
+        try {
+            request = toRequest(p, timeout);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(new Outcome(0, null, 0, e, 0));
+        }
+        return send(request);
+    }
+
+    /**
+     * Sends a request built once with {@link #toRequest}; requests are immutable, so callers that
+     * send the same request many times can skip rebuilding it.
+     */
+    CompletableFuture<Outcome> send(HttpRequest request) {
+        return rateLimiter.acquire(request.uri().toString())
+                .thenCompose(permit -> {
+                    CompletableFuture<HttpResponse<Long>> sent;
+                    try {
+                        sent = client.sendAsync(request, info -> HttpResponse.BodySubscribers.fromSubscriber(new CountingSubscriber(), CountingSubscriber::count));
+                    } catch (RuntimeException e) {
+                        sent = CompletableFuture.failedFuture(e);
+                    }
+                    return sent.handle((resp, ex) -> {
+                        permit.release();
+                        return ex != null
+                                ? new Outcome(0, null, 0, unwrap(ex), permit.waitNanos)
+                                : new Outcome(resp.statusCode(), resp.headers(), resp.body() == null ? 0 : resp.body(), null, permit.waitNanos);
+                    });
+                })
+                .exceptionally(ex -> new Outcome(0, null, 0, unwrap(ex), 0));
+    }
+
+    HttpRequest toRequest(ApiScenarioService.RequestParts p, Duration timeout) {
+        String method = p.method == null ? "GET" : p.method.toUpperCase(Locale.ROOT);
+        HttpRequest.BodyPublisher body = p.body == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofString(p.body);
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(p.url))
+                .timeout(timeout)
+                .method(method, body);
+        if (p.headers != null) {
+            for (Map.Entry<String, String> e : p.headers.entrySet()) {
+                if (RESTRICTED_HEADERS.contains(e.getKey().toLowerCase(Locale.ROOT))) continue;
+                b.header(e.getKey(), e.getValue());
+            }
+        }
+        return b.build();
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        while ((ex instanceof java.util.concurrent.CompletionException || ex instanceof java.util.concurrent.ExecutionException)
+                && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+
+    private static class CountingSubscriber implements Flow.Subscriber<List<ByteBuffer>> {
+        private long count;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) { subscription.request(Long.MAX_VALUE); }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            for (ByteBuffer b : item) count += b.remaining();
+        }
+
+        @Override
+        public void onError(Throwable throwable) { }
+
+        @Override
+        public void onComplete() { }
+
+        Long count() { return count; }
+    }
+}
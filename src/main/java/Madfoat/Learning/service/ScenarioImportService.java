@@ -0,0 +1,669 @@
+package Madfoat.Learning.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.reader.UnicodeReader;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Bulk-creates scenarios from an OpenAPI 3 spec or a browser HAR capture.
+ *
+ * HAR files are read with Jackson's streaming parser: only one entry's request is materialized at
+ * a time and response bodies are skipped token by token, so a capture of any size is imported in
+ * constant memory. Imports are deduplicated by method, path template and body shape, across
+ * imports as well as within one.
+ */
+@Service
+public class ScenarioImportService {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private static final List<String> OPERATIONS = List.of("get", "put", "post", "delete", "options", "head", "patch", "trace");
+    // Chrome's _resourceType values that are never API calls
+    private static final Set<String> STATIC_RESOURCE_TYPES = Set.of(
+            "document", "stylesheet", "image", "media", "font", "script", "manifest", "texttrack", "websocket", "ping", "preflight");
+    private static final List<String> STATIC_MIME_PREFIXES = List.of(
+            "image/", "font/", "audio/", "video/", "text/css", "text/html", "text/javascript", "application/javascript",
+            "application/x-javascript", "application/font");
+    // Headers the browser or transport sets; replaying them verbatim breaks requests
+    private static final Set<String> DROPPED_HAR_HEADERS = Set.of("host", "content-length", "connection", "accept-encoding");
+
+    private static final Pattern ID_SEGMENT = Pattern.compile(
+            "\\d+|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|[0-9a-fA-F]{16,}|(?=[A-Za-z0-9_-]*\\d)[A-Za-z0-9_-]{24,}");
+    private static final Pattern PATH_PARAM = Pattern.compile("\\{[^}/]*}");
+    private static final int MAX_SAMPLE_DEPTH = 8;
+
+    private final ApiScenarioService scenarioService;
+
+    @Autowired
+    public ScenarioImportService(ApiScenarioService scenarioService) {
+        this.scenarioService = scenarioService;
+    }
+
+    private static class ImportResult {
+        final String source;
+        final List<Map<String, Object>> scenarios = new ArrayList<>();
+        int duplicates;
+        int skipped;
+
+        ImportResult(String source) {
+            this.source = source;
+        }
+
+        void add(ApiScenarioService scenarioService, String title, ApiScenarioService.RequestParts parts, int expectedStatus, String dedupKey) {
+            Map<String, Object> sc = scenarioService.importScenario(title, parts, expectedStatus, source, dedupKey);
+            if (sc == null) {
+                duplicates++;
+                return;
+            }
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("id", sc.get("id"));
+            summary.put("title", title);
+            summary.put("expectedStatus", expectedStatus);
+            scenarios.add(summary);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("status", "ok");
+            out.put("source", source);
+            out.put("imported", scenarios.size());
+            out.put("duplicates", duplicates);
+            out.put("skipped", skipped);
+            out.put("scenarios", scenarios);
+            return out;
+        }
+    }
+
+    // ---------------------------------------------------------------- HAR
+
+    /**
+     * Imports every API request of a HAR capture. Static assets (documents, scripts, styles,
+     * images, fonts) and CORS preflights are skipped unless {@code includeStatic} is set.
+     */
+    public Map<String, Object> importHar(InputStream in, boolean includeStatic) {
+        if (!scenarioService.deductRequest()) {
+            return Map.of("status", "error", "message", "You have exceeded your free trial limit.");
+        }
+        ImportResult result = new ImportResult("har");
+        try {
+            readHar(in, entry -> {
+                ApiScenarioService.RequestParts parts = entry.parts;
+                if (parts == null || entry.status <= 0 || (!includeStatic && entry.isStatic())) {
+                    result.skipped++;
+                    return;
+                }
+                String template = templatePath(URI.create(parts.url).getRawPath());
+                result.add(scenarioService, parts.method + " " + template, parts, entry.status,
+                        dedupKey(parts.method, template, parts.body, parts.headers));
+            });
+        } catch (IllegalArgumentException e) {
+            return Map.of("status", "error", "message", e.getMessage());
+        } catch (JsonProcessingException e) {
+            return partialFailure(result, "Invalid HAR JSON: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            return partialFailure(result, "Failed to read HAR: " + e.getMessage());
+        }
+        return result.toMap();
+    }
+
+    /** One request of a HAR capture, as handed to {@link #readHar}. */
+    static class HarEntry {
+        String startedDateTime;
+        /** Null when the entry's URL is not an absolute http(s) URL. */
+        ApiScenarioService.RequestParts parts;
+        int status;
+        String resourceType;
+        String responseMime;
+
+        /** Whether the entry is a static asset or a CORS preflight rather than an API call. */
+        boolean isStatic() {
+            return parts != null && ScenarioImportService.isStatic(parts, resourceType, responseMime);
+        }
+    }
+
+    /**
+     * Streams the entries of a HAR capture to {@code visitor} in file order. Only one entry's
+     * request is materialized at a time and response bodies are skipped token by token. Throws
+     * IllegalArgumentException when the document is not a HAR file.
+     */
+    void readHar(InputStream in, java.util.function.Consumer<HarEntry> visitor) throws IOException {
+        try (JsonParser p = MAPPER.createParser(in)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Not a HAR file: expected a JSON object");
+            }
+            boolean sawEntries = false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                if (p.nextToken() == JsonToken.START_OBJECT && "log".equals(field)) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String logField = p.getCurrentName();
+                        if (p.nextToken() == JsonToken.START_ARRAY && "entries".equals(logField)) {
+                            sawEntries = true;
+                            while (p.nextToken() == JsonToken.START_OBJECT) {
+                                visitor.accept(readHarEntry(p));
+                            }
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+            if (!sawEntries) {
+                throw new IllegalArgumentException("Not a HAR file: log.entries is missing");
+            }
+        }
+    }
+
+    /** Reads one entry object; the parser is left on its END_OBJECT. */
+    private HarEntry readHarEntry(JsonParser p) throws IOException {
+        HarEntry entry = new HarEntry();
+        JsonNode request = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken value = p.nextToken();
+            if ("request".equals(field) && value == JsonToken.START_OBJECT) {
+                request = p.readValueAsTree();
+            } else if ("response".equals(field) && value == JsonToken.START_OBJECT) {
+                // Stream through the response so its body text is never materialized
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String rf = p.getCurrentName();
+                    JsonToken rv = p.nextToken();
+                    if ("status".equals(rf) && rv == JsonToken.VALUE_NUMBER_INT) {
+                        entry.status = p.getIntValue();
+                    } else if ("content".equals(rf) && rv == JsonToken.START_OBJECT) {
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            String cf = p.getCurrentName();
+                            if (p.nextToken() == JsonToken.VALUE_STRING && "mimeType".equals(cf)) entry.responseMime = p.getText();
+                            else p.skipChildren();
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else if ("startedDateTime".equals(field) && value == JsonToken.VALUE_STRING) {
+                entry.startedDateTime = p.getText();
+            } else if ("_resourceType".equals(field) && value == JsonToken.VALUE_STRING) {
+                entry.resourceType = p.getText();
+            } else {
+                p.skipChildren();
+            }
+        }
+        entry.parts = request == null ? null : harRequest(request);
+        return entry;
+    }
+
+    private ApiScenarioService.RequestParts harRequest(JsonNode request) {
+        String url = request.path("url").asText("");
+        if (!url.startsWith("http://") && !url.startsWith("https://")) return null;
+        try {
+            URI.create(url);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        ApiScenarioService.RequestParts parts = new ApiScenarioService.RequestParts();
+        parts.method = request.path("method").asText("GET").toUpperCase(Locale.ROOT);
+        parts.url = url;
+        for (JsonNode h : request.path("headers")) {
+            String name = h.path("name").asText("");
+            if (name.isEmpty() || name.startsWith(":") || DROPPED_HAR_HEADERS.contains(name.toLowerCase(Locale.ROOT))) continue;
+            parts.headers.put(name, h.path("value").asText(""));
+        }
+        JsonNode postData = request.path("postData");
+        if (postData.isObject()) {
+            if (postData.hasNonNull("text")) {
+                parts.body = postData.get("text").asText();
+            } else if (postData.path("params").size() > 0) {
+                StringBuilder form = new StringBuilder();
+                for (JsonNode param : postData.path("params")) {
+                    if (form.length() > 0) form.append('&');
+                    form.append(encode(param.path("name").asText(""))).append('=').append(encode(param.path("value").asText("")));
+                }
+                parts.body = form.toString();
+            }
+            String mime = postData.path("mimeType").asText("");
+            if (parts.body != null && !mime.isEmpty() && contentType(parts.headers) == null) {
+                parts.headers.put("Content-Type", mime);
+            }
+        }
+        return parts;
+    }
+
+    private static boolean isStatic(ApiScenarioService.RequestParts parts, String resourceType, String responseMime) {
+        if ("OPTIONS".equals(parts.method)) return true;
+        if (resourceType != null) return STATIC_RESOURCE_TYPES.contains(resourceType.toLowerCase(Locale.ROOT));
+        if (responseMime == null) return false;
+        String mime = responseMime.toLowerCase(Locale.ROOT);
+        for (String prefix : STATIC_MIME_PREFIXES) {
+            if (mime.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+
+    /** Replaces path segments that look like identifiers with {id}, e.g. /users/42/orders/9f1c... */
+    static String templatePath(String rawPath) {
+        if (rawPath == null || rawPath.isEmpty()) return "/";
+        String[] segments = rawPath.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (!segments[i].isEmpty() && ID_SEGMENT.matcher(segments[i]).matches()) segments[i] = "{id}";
+        }
+        return String.join("/", segments);
+    }
+
+    // ---------------------------------------------------------------- OpenAPI
+
+    /**
+     * Imports one scenario per operation of an OpenAPI 3 spec (JSON or YAML). Parameters and
+     * request bodies are filled from the spec's examples, falling back to values generated from
+     * the schemas. {@code baseUrl} overrides the spec's first server.
+     */
+    public Map<String, Object> importOpenApi(InputStream in, String baseUrl) {
+        if (!scenarioService.deductRequest()) {
+            return Map.of("status", "error", "message", "You have exceeded your free trial limit.");
+        }
+        JsonNode spec;
+        try {
+            spec = readSpec(in);
+        } catch (JsonProcessingException e) {
+            return Map.of("status", "error", "message", "Invalid OpenAPI JSON: " + e.getOriginalMessage());
+        } catch (IOException | YAMLException | IllegalArgumentException e) {
+            return Map.of("status", "error", "message", "Failed to read OpenAPI spec: " + e.getMessage());
+        }
+        if (spec == null || !spec.isObject()) {
+            return Map.of("status", "error", "message", "Not an OpenAPI document");
+        }
+        if (!spec.path("openapi").asText("").startsWith("3")) {
+            return Map.of("status", "error", "message", spec.has("swagger")
+                    ? "Swagger 2.0 specs are not supported; convert to OpenAPI 3 first"
+                    : "Not an OpenAPI 3 document: the 'openapi' field is missing");
+        }
+
+        String base = baseUrl != null && !baseUrl.isBlank() ? baseUrl.trim() : serverUrl(spec);
+        if (base.endsWith("/")) base = base.substring(0, base.length() - 1);
+        ImportResult result = new ImportResult("openapi");
+        Iterator<Map.Entry<String, JsonNode>> paths = spec.path("paths").fields();
+        while (paths.hasNext()) {
+            Map.Entry<String, JsonNode> pathEntry = paths.next();
+            String path = pathEntry.getKey();
+            JsonNode pathItem = resolve(spec, pathEntry.getValue());
+            for (String op : OPERATIONS) {
+                JsonNode operation = pathItem.get(op);
+                if (operation == null || !operation.isObject()) continue;
+                try {
+                    ApiScenarioService.RequestParts parts = openApiRequest(spec, base, path, op, pathItem, operation);
+                    String title = operation.path("summary").asText("");
+                    if (title.isBlank()) title = operation.path("operationId").asText("");
+                    title = title.isBlank() ? parts.method + " " + path : parts.method + " " + path + " - " + title;
+                    result.add(scenarioService, title, parts, expectedStatus(operation),
+                            dedupKey(parts.method, PATH_PARAM.matcher(path).replaceAll("{id}"), parts.body, parts.headers));
+                } catch (RuntimeException e) {
+                    result.skipped++;
+                }
+            }
+        }
+        return result.toMap();
+    }
+
+    private JsonNode readSpec(InputStream raw) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(raw);
+        in.mark(4096);
+        int c;
+        int read = 0;
+        do {
+            c = in.read();
+        } while (++read < 4096 && (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == 0xEF || c == 0xBB || c == 0xBF));
+        in.reset();
+        if (c == '{') {
+            return MAPPER.readTree(in);
+        }
+        LoaderOptions options = new LoaderOptions();
+        options.setCodePointLimit(64 * 1024 * 1024);
+        Object yaml = new Yaml(new SafeConstructor(options)).load(new UnicodeReader(in));
+        return MAPPER.valueToTree(yaml);
+    }
+
+    private static String serverUrl(JsonNode spec) {
+        JsonNode server = spec.path("servers").path(0);
+        String url = server.path("url").asText("");
+        Iterator<Map.Entry<String, JsonNode>> vars = server.path("variables").fields();
+        while (vars.hasNext()) {
+            Map.Entry<String, JsonNode> v = vars.next();
+            url = url.replace("{" + v.getKey() + "}", v.getValue().path("default").asText(""));
+        }
+        if (url.startsWith("//")) return "https:" + url;
+        if (!url.startsWith("http://") && !url.startsWith("https://")) {
+            return "http://localhost" + (url.isEmpty() || url.startsWith("/") ? url : "/" + url);
+        }
+        return url;
+    }
+
+    private ApiScenarioService.RequestParts openApiRequest(JsonNode spec, String base, String path, String op,
+                                                          JsonNode pathItem, JsonNode operation) {
+        ApiScenarioService.RequestParts parts = new ApiScenarioService.RequestParts();
+        parts.method = op.toUpperCase(Locale.ROOT);
+
+        // Operation parameters override path-level ones with the same name and location
+        Map<String, JsonNode> params = new LinkedHashMap<>();
+        for (JsonNode source : List.of(pathItem.path("parameters"), operation.path("parameters"))) {
+            for (JsonNode ref : source) {
+                JsonNode param = resolve(spec, ref);
+                params.put(param.path("in").asText("") + ":" + param.path("name").asText(""), param);
+            }
+        }
+        String resolvedPath = path;
+        StringBuilder query = new StringBuilder();
+        for (JsonNode param : params.values()) {
+            String name = param.path("name").asText("");
+            String in = param.path("in").asText("");
+            boolean include = param.path("required").asBoolean(false) || param.has("example") || param.has("examples");
+            if ("path".equals(in)) {
+                resolvedPath = resolvedPath.replace("{" + name + "}", encode(asText(parameterSample(spec, param))));
+            } else if ("query".equals(in) && include) {
+                query.append(query.length() == 0 ? '?' : '&').append(encode(name)).append('=')
+                        .append(encode(asText(parameterSample(spec, param))));
+            } else if ("header".equals(in) && include && !isReservedHeader(name)) {
+                parts.headers.put(name, asText(parameterSample(spec, param)));
+            }
+        }
+        parts.url = base + resolvedPath + query;
+
+        JsonNode requestBody = resolve(spec, operation.path("requestBody"));
+        if (requestBody.isObject()) {
+            applyRequestBody(spec, requestBody.path("content"), parts);
+        }
+        return parts;
+    }
+
+    private void applyRequestBody(JsonNode spec, JsonNode content, ApiScenarioService.RequestParts parts) {
+        String chosen = null;
+        for (Iterator<String> it = content.fieldNames(); it.hasNext(); ) {
+            String type = it.next();
+            String t = type.toLowerCase(Locale.ROOT);
+            if (t.startsWith("application/json") || t.contains("+json")) {
+                chosen = type;
+                break;
+            }
+            if (chosen == null && (t.startsWith("application/x-www-form-urlencoded") || t.startsWith("text/"))) chosen = type;
+        }
+        if (chosen == null) return;
+        JsonNode media = content.get(chosen);
+        JsonNode sample = mediaSample(spec, media);
+        String type = chosen.toLowerCase(Locale.ROOT);
+        try {
+            if (type.startsWith("application/x-www-form-urlencoded")) {
+                StringBuilder form = new StringBuilder();
+                sample.fields().forEachRemaining(e -> {
+                    if (form.length() > 0) form.append('&');
+                    form.append(encode(e.getKey())).append('=').append(encode(asText(e.getValue())));
+                });
+                parts.body = form.toString();
+            } else if (type.startsWith("text/")) {
+                parts.body = asText(sample);
+            } else {
+                parts.body = MAPPER.writeValueAsString(sample);
+            }
+        } catch (JsonProcessingException e) {
+            return;
+        }
+        parts.headers.put("Content-Type", chosen);
+    }
+
+    private JsonNode mediaSample(JsonNode spec, JsonNode media) {
+        if (media.has("example")) return media.get("example");
+        Iterator<JsonNode> examples = media.path("examples").elements();
+        if (examples.hasNext()) {
+            JsonNode example = resolve(spec, examples.next());
+            if (example.has("value")) return example.get("value");
+        }
+        return sample(spec, media.path("schema"), 0, new HashSet<>());
+    }
+
+    private JsonNode parameterSample(JsonNode spec, JsonNode param) {
+        if (param.has("example")) return param.get("example");
+        Iterator<JsonNode> examples = param.path("examples").elements();
+        if (examples.hasNext()) {
+            JsonNode example = resolve(spec, examples.next());
+            if (example.has("value")) return example.get("value");
+        }
+        JsonNode schema = param.path("schema");
+        if (schema.isMissingNode()) {
+            // Parameters may carry their schema under content instead
+            Iterator<JsonNode> media = param.path("content").elements();
+            if (media.hasNext()) schema = media.next().path("schema");
+        }
+        return sample(spec, schema, 0, new HashSet<>());
+    }
+
+    /** Builds a plausible value for a schema; cycles and very deep schemas are cut off with null. */
+    private JsonNode sample(JsonNode spec, JsonNode schema, int depth, Set<String> refs) {
+        if (schema == null || !schema.isObject() || depth > MAX_SAMPLE_DEPTH) return NODES.nullNode();
+        String ref = schema.path("$ref").asText(null);
+        if (ref != null) {
+            if (!refs.add(ref)) return NODES.nullNode();
+            JsonNode value = sample(spec, resolve(spec, schema), depth + 1, refs);
+            refs.remove(ref);
+            return value;
+        }
+        if (schema.has("example")) return schema.get("example");
+        if (schema.path("examples").isArray() && schema.path("examples").size() > 0) return schema.get("examples").get(0);
+        if (schema.has("default")) return schema.get("default");
+        if (schema.has("const")) return schema.get("const");
+        if (schema.path("enum").size() > 0) return schema.get("enum").get(0);
+        if (schema.path("allOf").isArray()) {
+            ObjectNode merged = NODES.objectNode();
+            for (JsonNode part : schema.get("allOf")) {
+                JsonNode value = sample(spec, part, depth + 1, refs);
+                if (value.isObject()) merged.setAll((ObjectNode) value);
+            }
+            return merged;
+        }
+        for (String choice : List.of("oneOf", "anyOf")) {
+            if (schema.path(choice).size() > 0) return sample(spec, schema.get(choice).get(0), depth + 1, refs);
+        }
+
+        String type = schemaType(schema);
+        switch (type) {
+            case "object" -> {
+                ObjectNode obj = NODES.objectNode();
+                schema.path("properties").fields().forEachRemaining(e -> {
+                    if (!e.getValue().path("readOnly").asBoolean(false)) {
+                        obj.set(e.getKey(), sample(spec, e.getValue(), depth + 1, refs));
+                    }
+                });
+                return obj;
+            }
+            case "array" -> {
+                JsonNode item = sample(spec, schema.path("items"), depth + 1, refs);
+                return item.isNull() ? NODES.arrayNode() : NODES.arrayNode().add(item);
+            }
+            case "integer" -> {
+                return NODES.numberNode(schema.path("minimum").asLong(1));
+            }
+            case "number" -> {
+                return schema.has("minimum") ? schema.get("minimum") : NODES.numberNode(1.5);
+            }
+            case "boolean" -> {
+                return NODES.booleanNode(true);
+            }
+            case "string" -> {
+                return NODES.textNode(stringSample(schema));
+            }
+            default -> {
+                return NODES.nullNode();
+            }
+        }
+    }
+
+    private static String schemaType(JsonNode schema) {
+        JsonNode type = schema.path("type");
+        if (type.isArray()) {
+            // OpenAPI 3.1 allows ["string", "null"]
+            for (JsonNode t : type) {
+                if (!"null".equals(t.asText())) return t.asText();
+            }
+            return "null";
+        }
+        if (type.isTextual()) return type.asText();
+        if (schema.has("properties")) return "object";
+        if (schema.has("items")) return "array";
+        return "";
+    }
+
+    private static String stringSample(JsonNode schema) {
+        String format = schema.path("format").asText("");
+        switch (format) {
+            case "date": return "2024-01-01";
+            case "date-time": return "2024-01-01T00:00:00Z";
+            case "time": return "12:00:00";
+            case "email": return "user@example.com";
+            case "uuid": return "3fa85f64-5717-4562-b3fc-2c963f66afa6";
+            case "uri", "url": return "https://example.com";
+            case "hostname": return "example.com";
+            case "ipv4": return "192.0.2.1";
+            case "ipv6": return "2001:db8::1";
+            case "byte": return "c2FtcGxl";
+            case "password": return "P@ssw0rd!";
+            default:
+                int min = schema.path("minLength").asInt(0);
+                String s = "string";
+                return min > s.length() ? s + "x".repeat(min - s.length()) : s;
+        }
+    }
+
+    /** Follows a local {@code $ref} (e.g. #/components/schemas/User); returns the node itself otherwise. */
+    private static JsonNode resolve(JsonNode spec, JsonNode node) {
+        for (int hops = 0; hops < 16 && node != null && node.has("$ref"); hops++) {
+            String ref = node.get("$ref").asText("");
+            if (!ref.startsWith("#")) break;
+            node = spec.at(ref.substring(1));
+        }
+        return node == null ? NODES.missingNode() : node;
+    }
+
+    private static boolean isReservedHeader(String name) {
+        // OpenAPI ignores header parameters with these names
+        return name.equalsIgnoreCase("Accept") || name.equalsIgnoreCase("Content-Type") || name.equalsIgnoreCase("Authorization");
+    }
+
+    private static int expectedStatus(JsonNode operation) {
+        int best = Integer.MAX_VALUE;
+        for (Iterator<String> it = operation.path("responses").fieldNames(); it.hasNext(); ) {
+            String code = it.next();
+            if (!code.startsWith("2")) continue;
+            int status = code.equalsIgnoreCase("2XX") ? 200 : parseStatus(code);
+            if (status > 0) best = Math.min(best, status);
+        }
+        return best == Integer.MAX_VALUE ? 200 : best;
+    }
+
+    private static int parseStatus(String code) {
+        try {
+            return Integer.parseInt(code);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // ---------------------------------------------------------------- shared
+
+    /** Method, path template and body shape; values never matter, only structure. */
+    static String dedupKey(String method, String pathTemplate, String body, Map<String, String> headers) {
+        return method + " " + pathTemplate + " " + bodyShape(body, contentType(headers));
+    }
+
+    static String bodyShape(String body, String contentType) {
+        if (body == null || body.isBlank()) return "-";
+        String trimmed = body.trim();
+        if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            try {
+                StringBuilder shape = new StringBuilder();
+                appendShape(MAPPER.readTree(trimmed), shape);
+                return shape.toString();
+            } catch (JsonProcessingException ignored) {
+                // Not JSON after all; fall through
+            }
+        }
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("application/x-www-form-urlencoded")) {
+            SortedSet<String> names = new TreeSet<>();
+            for (String pair : trimmed.split("&")) {
+                int eq = pair.indexOf('=');
+                names.add(eq >= 0 ? pair.substring(0, eq) : pair);
+            }
+            return "form" + names;
+        }
+        return "text";
+    }
+
+    private static void appendShape(JsonNode node, StringBuilder out) {
+        if (node.isObject()) {
+            List<String> names = new ArrayList<>();
+            node.fieldNames().forEachRemaining(names::add);
+            Collections.sort(names);
+            out.append('{');
+            for (String name : names) {
+                out.append(name).append(':');
+                appendShape(node.get(name), out);
+                out.append(',');
+            }
+            out.append('}');
+        } else if (node.isArray()) {
+            out.append('[');
+            if (node.size() > 0) appendShape(node.get(0), out);
+            out.append(']');
+        } else if (node.isTextual()) {
+            out.append('s');
+        } else if (node.isNumber()) {
+            out.append('n');
+        } else if (node.isBoolean()) {
+            out.append('b');
+        } else {
+            out.append('z');
+        }
+    }
+
+    private static String contentType(Map<String, String> headers) {
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            if (e.getKey().equalsIgnoreCase("Content-Type")) return e.getValue();
+        }
+        return null;
+    }
+
+    private static Map<String, Object> partialFailure(ImportResult result, String message) {
+        Map<String, Object> out = result.toMap();
+        out.put("status", "error");
+        out.put("message", message);
+        return out;
+    }
+
+    private static String asText(JsonNode node) {
+        if (node == null || node.isNull() || node.isMissingNode()) return "";
+        if (node.isValueNode()) return node.asText();
+        return node.toString();
+    }
+
+    private static String encode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+}
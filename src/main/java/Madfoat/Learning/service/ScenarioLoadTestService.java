@@ -0,0 +1,386 @@
+package Madfoat.Learning.service;
+
+import jakarta.annotation.PreDestroy;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a generated API scenario as a load test.
+ *
+ * With a target RPS the run is an open model: a scheduler thread issues request i at a precomputed
+ * offset from the start (linear ramp, then constant rate) whether or not earlier requests have
+ * returned, and latency is measured from that intended send time so a slowing server shows up in the
+ * percentiles instead of silently lowering the request rate. With only a virtual-user count the run is
+ * a closed model where each user sends its next request when the previous one completes. Time spent
+ * queued on the shared per-host rate limit counts toward latency but not toward service time. A
+ * request the rate limiter turns away because the host's queue is full is counted as dropped; a
+ * closed-model user then backs off briefly before trying again.
+ *
+ * Every response is checked against the scenario's assertions on status, headers and time (service
+ * time, so rate-limit queueing does not fail them); a failing one counts as an error. Bodies are
+ * counted and discarded, so body assertions are left to single and batch runs and reported as skipped.
+ */
+@Service
+public class ScenarioLoadTestService {
+
+    private static final int MAX_RETAINED_RUNS = 20;
+    private static final long HIGHEST_TRACKABLE_MICROS = Duration.ofMinutes(5).toNanos() / 1000;
+    private static final long REJECTED_BACKOFF_MILLIS = 10;
+    private static final long SHUTDOWN_JOIN_MILLIS = 5_000;
+
+    @Value("${scenario.loadtest.max-in-flight:10000}")
+    private int maxInFlight;
+
+    @Value("${scenario.loadtest.max-duration-seconds:3600}")
+    private int maxDurationSeconds;
+
+    @Value("${scenario.loadtest.max-target-rps:50000}")
+    private int maxTargetRps;
+
+    @Value("${scenario.loadtest.request-timeout-seconds:30}")
+    private int requestTimeoutSeconds;
+
+    private final ApiScenarioService scenarioService;
+    private final ScenarioHttpDispatcher dispatcher;
+    private final Map<String, LoadRun> runs = new ConcurrentHashMap<>();
+    // Set at context shutdown: runs stop and no longer wait for their responses
+    private volatile boolean shuttingDown;
+
+    @Autowired
+    public ScenarioLoadTestService(ApiScenarioService scenarioService, ScenarioHttpDispatcher dispatcher) {
+        this.scenarioService = scenarioService;
+        this.dispatcher = dispatcher;
+    }
+
+    public Map<String, Object> start(String scenarioId, Integer targetRps, Integer virtualUsers, Integer durationSeconds, Integer rampSeconds) {
+        ApiScenarioService.RequestParts parts = scenarioService.resolveRequest(scenarioId);
+        if (parts == null) {
+            return Map.of("status", "error", "message", "Scenario not found");
+        }
+        if (parts.url == null || parts.url.isBlank()) {
+            return Map.of("status", "error", "message", "Scenario has no URL");
+        }
+        boolean open = targetRps != null && targetRps > 0;
+        if (!open && (virtualUsers == null || virtualUsers <= 0)) {
+            return Map.of("status", "error", "message", "Provide targetRps or virtualUsers");
+        }
+        if (open && targetRps > maxTargetRps) {
+            return Map.of("status", "error", "message", "targetRps must be between 1 and " + maxTargetRps);
+        }
+        if (!open && virtualUsers > maxInFlight) {
+            return Map.of("status", "error", "message", "virtualUsers must be between 1 and " + maxInFlight);
+        }
+        int duration = durationSeconds == null ? 30 : durationSeconds;
+        if (duration <= 0 || duration > maxDurationSeconds) {
+            return Map.of("status", "error", "message", "durationSeconds must be between 1 and " + maxDurationSeconds);
+        }
+        int ramp = rampSeconds == null ? 0 : Math.max(0, Math.min(duration, rampSeconds));
+        try {
+            dispatcher.toRequest(parts, Duration.ofSeconds(requestTimeoutSeconds));
+        } catch (Exception e) {
+            return Map.of("status", "error", "message", "Invalid request: " + e.getMessage());
+        }
+
+        RunStats.evictFinished(runs, MAX_RETAINED_RUNS, r -> !"running".equals(r.state), r -> r.startedAt);
+        ScenarioAssertionEngine.CompiledAssertions assertions = scenarioService.compiledAssertions(scenarioId);
+        LoadRun run = new LoadRun(UUID.randomUUID().toString(), scenarioId, parts, assertions.withoutBodyChecks(), assertions.size(),
+                open, open ? targetRps : 0, open ? 0 : virtualUsers, duration, ramp);
+        runs.put(run.runId, run);
+        Thread scheduler = new Thread(open ? () -> runOpenModel(run) : () -> runClosedModel(run), "load-test-" + run.runId.substring(0, 8));
+        scheduler.setDaemon(true);
+        run.scheduler = scheduler;
+        scheduler.start();
+        return snapshot(run);
+    }
+
+    /**
+     * Stops every running load test and waits briefly for its scheduler to exit, so no run outlives
+     * the context or sends through the dispatcher after its pool has been shut down.
+     */
+    @PreDestroy
+    void shutdown() {
+        shuttingDown = true;
+        for (LoadRun run : runs.values()) run.stopRequested = true;
+        for (LoadRun run : runs.values()) {
+            Thread t = run.scheduler;
+            if (t == null) continue;
+            LockSupport.unpark(t);
+            try {
+                t.join(SHUTDOWN_JOIN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public Map<String, Object> status(String runId) {
+        LoadRun run = runs.get(runId);
+        if (run == null) {
+            return Map.of("status", "error", "message", "Load test run not found");
+        }
+        return snapshot(run);
+    }
+
+    public Map<String, Object> stop(String runId) {
+        LoadRun run = runs.get(runId);
+        if (run == null) {
+            return Map.of("status", "error", "message", "Load test run not found");
+        }
+        run.stopRequested = true;
+        return snapshot(run);
+    }
+
+    public List<Map<String, Object>> listRuns() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        runs.values().stream()
+                .sorted(Comparator.comparing((LoadRun r) -> r.startedAt).reversed())
+                .forEach(r -> out.add(snapshot(r)));
+        return out;
+    }
+
+    private void runOpenModel(LoadRun run) {
+        run.startNanos = System.nanoTime();
+        long endNanos = run.startNanos + Duration.ofSeconds(run.durationSeconds).toNanos();
+        Duration timeout = Duration.ofSeconds(requestTimeoutSeconds);
+        for (long i = 0; !run.stopRequested; i++) {
+            long intended = run.startNanos + openModelOffsetNanos(i, run.targetRps, run.rampSeconds);
+            if (intended >= endNanos) break;
+            parkUntil(intended, run);
+            if (run.stopRequested) break;
+            if (run.inFlight.get() >= maxInFlight) {
+                // Client-side saturation: count it rather than queueing without bound
+                run.dropped.increment();
+                continue;
+            }
+            dispatch(run, intended, timeout, false);
+        }
+        awaitDrain(run);
+    }
+
+    private void runClosedModel(LoadRun run) {
+        run.startNanos = System.nanoTime();
+        run.endNanos = run.startNanos + Duration.ofSeconds(run.durationSeconds).toNanos();
+        Duration timeout = Duration.ofSeconds(requestTimeoutSeconds);
+        long rampNanos = Duration.ofSeconds(run.rampSeconds).toNanos();
+        for (int u = 0; u < run.virtualUsers && !run.stopRequested; u++) {
+            // Virtual users join evenly across the ramp
+            long startAt = run.startNanos + (run.virtualUsers <= 1 ? 0 : rampNanos * u / run.virtualUsers);
+            parkUntil(startAt, run);
+            if (run.stopRequested || System.nanoTime() >= run.endNanos) break;
+            run.activeUsers.incrementAndGet();
+            dispatch(run, System.nanoTime(), timeout, true);
+        }
+        // Users keep sending from their callbacks until the end; the drain timeout starts after that
+        parkUntil(run.endNanos, run);
+        awaitDrain(run);
+    }
+
+    /**
+     * Sends one request. In a closed-model run the virtual user sends its next request from the
+     * completion callback, so no thread is held while waiting for the server.
+     */
+    private void dispatch(LoadRun run, long intendedNanos, Duration timeout, boolean closedLoop) {
+        run.inFlight.incrementAndGet();
+        run.sent.increment();
+        long sentNanos = System.nanoTime();
+        dispatcher.send(run.parts, timeout).whenComplete((outcome, ignored) -> {
+            long now = System.nanoTime();
+            run.inFlight.decrementAndGet();
+            boolean rejected = outcome.error instanceof RejectedExecutionException;
+            if (rejected) {
+                // Never sent: the host's rate-limit queue is full, which is client-side saturation
+                run.sent.decrement();
+                run.dropped.increment();
+            } else {
+                record(run, outcome, now - intendedNanos, now - sentNanos - outcome.throttleNanos);
+            }
+            if (!closedLoop) return;
+            if (rejected) {
+                // A rejection completes on this thread; retrying inline would recurse without bound
+                CompletableFuture.delayedExecutor(REJECTED_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)
+                        .execute(() -> nextRequest(run, timeout));
+            } else {
+                nextRequest(run, timeout);
+            }
+        });
+    }
+
+    /** Sends a closed-model user's next request, or retires the user once the run is over. */
+    private void nextRequest(LoadRun run, Duration timeout) {
+        if (!run.stopRequested && System.nanoTime() < run.endNanos) {
+            dispatch(run, System.nanoTime(), timeout, true);
+        } else {
+            run.activeUsers.decrementAndGet();
+        }
+    }
+
+    private void record(LoadRun run, ScenarioHttpDispatcher.Outcome outcome, long latencyNanos, long serviceNanos) {
+        run.completed.increment();
+        run.latency.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, latencyNanos / 1000)));
+        run.serviceTime.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, serviceNanos / 1000)));
+        run.throttleDelay.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, outcome.throttleNanos / 1000));
+        if (outcome.throttleNanos > 0) run.throttled.increment();
+        run.bytes.add(outcome.bytes);
+        if (outcome.isError()) {
+            run.errors.increment();
+            run.errorCounts.computeIfAbsent(outcome.error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+            return;
+        }
+        String status = String.valueOf(outcome.status);
+        run.statusCounts.computeIfAbsent(status, k -> new LongAdder()).increment();
+        List<String> failed = run.assertions.failures(new ScenarioAssertionEngine.ResponseView(outcome.status,
+                headersOf(outcome.headers), outcome.headers.firstValue("Content-Type").orElse(""), serviceNanos / 1e6, null, null));
+        if (failed.isEmpty()) return;
+        run.errors.increment();
+        boolean statusCounted = false;
+        for (String type : failed) {
+            // A wrong status is reported under the status itself, other failed assertions under their type
+            boolean statusCheck = type.equals("statusCode") || type.equals("expectedStatusRange");
+            if (statusCheck && statusCounted) continue;
+            statusCounted |= statusCheck;
+            run.errorCounts.computeIfAbsent(statusCheck ? status : type, k -> new LongAdder()).increment();
+        }
+    }
+
+    private static Map<String, String> headersOf(HttpHeaders headers) {
+        Map<String, String> out = new LinkedHashMap<>();
+        headers.map().forEach((name, values) -> out.put(name, String.join(", ", values)));
+        return out;
+    }
+
+    /**
+     * Offset of the i-th request from the start of an open-model run. During the ramp the rate
+     * grows linearly from 0 to {@code rps}, so the cumulative count is rps*t^2/(2*ramp).
+     * Computing each offset from the start (instead of sleeping 1/rps between sends) keeps the
+     * schedule free of accumulated drift.
+     */
+    static long openModelOffsetNanos(long i, int rps, int rampSeconds) {
+        double seconds;
+        double rampCount = rps * (double) rampSeconds / 2.0;
+        if (rampSeconds <= 0) {
+            seconds = i / (double) rps;
+        } else if (i < rampCount) {
+            seconds = Math.sqrt(2.0 * i * rampSeconds / rps);
+        } else {
+            seconds = rampSeconds + (i - rampCount) / rps;
+        }
+        return (long) (seconds * 1_000_000_000L);
+    }
+
+    private void parkUntil(long deadlineNanos, LoadRun run) {
+        long wait;
+        while (!run.stopRequested && (wait = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void awaitDrain(LoadRun run) {
+        long giveUp = System.nanoTime() + Duration.ofSeconds(requestTimeoutSeconds + 5L).toNanos();
+        while ((run.inFlight.get() > 0 || run.activeUsers.get() > 0) && !shuttingDown && System.nanoTime() < giveUp) {
+            LockSupport.parkNanos(Duration.ofMillis(20).toNanos());
+        }
+        run.finishNanos = System.nanoTime();
+        run.state = run.stopRequested ? "stopped" : "completed";
+    }
+
+    private Map<String, Object> snapshot(LoadRun run) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("runId", run.runId);
+        out.put("scenarioId", run.scenarioId);
+        out.put("state", run.state);
+        out.put("mode", run.open ? "open" : "closed");
+        if (run.open) out.put("targetRps", run.targetRps);
+        else out.put("virtualUsers", run.virtualUsers);
+        out.put("durationSeconds", run.durationSeconds);
+        out.put("rampSeconds", run.rampSeconds);
+        out.put("startedAt", run.startedAt.toString());
+
+        long startNanos = run.startNanos;
+        double elapsed = startNanos == 0 ? 0 : ((run.finishNanos != 0 ? run.finishNanos : System.nanoTime()) - startNanos) / 1e9;
+        long completed = run.completed.sum();
+        out.put("elapsedSeconds", RunStats.round(elapsed));
+        out.put("sent", run.sent.sum());
+        out.put("completed", completed);
+        out.put("inFlight", run.inFlight.get());
+        out.put("errors", run.errors.sum());
+        out.put("dropped", run.dropped.sum());
+        out.put("throughputRps", elapsed > 0 ? RunStats.round(completed / elapsed) : 0.0);
+        out.put("receivedBytes", run.bytes.sum());
+        out.put("statusCounts", RunStats.toCounts(run.statusCounts));
+        out.put("errorBreakdown", RunStats.toCounts(run.errorCounts));
+        out.put("assertionsChecked", run.assertions.size());
+        out.put("bodyAssertionsSkipped", run.assertionCount - run.assertions.size());
+        out.put("latencyMs", RunStats.percentiles(run.latency.copy()));
+        out.put("serviceTimeMs", RunStats.percentiles(run.serviceTime.copy()));
+        out.put("throttled", run.throttled.sum());
+        out.put("throttleDelayMs", RunStats.percentiles(run.throttleDelay.copy()));
+        return out;
+    }
+
+    private static class LoadRun {
+        final String runId;
+        final String scenarioId;
+        final ApiScenarioService.RequestParts parts;
+        final ScenarioAssertionEngine.CompiledAssertions assertions;
+        final int assertionCount;
+        final boolean open;
+        final int targetRps;
+        final int virtualUsers;
+        final int durationSeconds;
+        final int rampSeconds;
+        final Instant startedAt = Instant.now();
+
+        final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Histogram serviceTime = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Histogram throttleDelay = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final LongAdder sent = new LongAdder();
+        final LongAdder completed = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder throttled = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger activeUsers = new AtomicInteger();
+        final Map<String, LongAdder> statusCounts = new ConcurrentHashMap<>();
+        final Map<String, LongAdder> errorCounts = new ConcurrentHashMap<>();
+
+        volatile Thread scheduler;
+        volatile boolean stopRequested;
+        volatile String state = "running";
+        volatile long startNanos;
+        volatile long endNanos = Long.MAX_VALUE;
+        volatile long finishNanos;
+
+        LoadRun(String runId, String scenarioId, ApiScenarioService.RequestParts parts,
+                ScenarioAssertionEngine.CompiledAssertions assertions, int assertionCount,
+                boolean open, int targetRps, int virtualUsers, int durationSeconds, int rampSeconds) {
+            this.runId = runId;
+            this.scenarioId = scenarioId;
+            this.parts = parts;
+            this.assertions = assertions;
+            this.assertionCount = assertionCount;
+            this.open = open;
+            this.targetRps = targetRps;
+            this.virtualUsers = virtualUsers;
+            this.durationSeconds = durationSeconds;
+            this.rampSeconds = rampSeconds;
+        }
+    }
+}
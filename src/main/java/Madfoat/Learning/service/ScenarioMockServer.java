@@ -0,0 +1,495 @@
+package Madfoat.Learning.service;
+
+import Madfoat.Learning.util.RequestParams;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records scenario responses and replays them from an embedded Netty HTTP server.
+ *
+ * While recording is on, every scenario run stores its response keyed by method, path (with query)
+ * and a hash of the request body. Each recording is serialized once: the body into one shared
+ * buffer and a small status-and-headers block per connection mode, so serving it is a lookup and a
+ * write of the head plus a duplicate of the body, with no per-request encoding. HEAD requests get
+ * the head alone, from a HEAD recording or else the GET one. Requests that match no body hash fall
+ * back to the latest recording for the same method and path. Bodies over
+ * {@code scenario.mock.max-body-bytes} are not recorded, and all bodies together are held to
+ * {@code scenario.mock.max-total-body-bytes}. Latency, error and connection-reset injection simulate a degraded
+ * dependency; injected latency is scheduled on the connection's event loop, never slept.
+ */
+@Service
+public class ScenarioMockServer {
+
+    private static final Set<String> SKIPPED_HEADERS = Set.of("content-length", "transfer-encoding", "connection",
+            "keep-alive", "content-encoding");
+
+    @Value("${scenario.mock.port:8089}")
+    private int defaultPort = 8089;
+
+    @Value("${scenario.mock.bind-address:127.0.0.1}")
+    private String bindAddress = "127.0.0.1";
+
+    @Value("${scenario.mock.max-recordings:5000}")
+    private int maxRecordings = 5000;
+
+    @Value("${scenario.mock.max-request-bytes:1048576}")
+    private int maxRequestBytes = 1048576;
+
+    @Value("${scenario.mock.max-body-bytes:4194304}")
+    private int maxBodyBytes = 4194304;
+
+    @Value("${scenario.mock.max-total-body-bytes:268435456}")
+    private long maxTotalBodyBytes = 268435456L;
+
+    private final Map<String, Recording> byKey = new ConcurrentHashMap<>();
+    private final Map<String, Recording> byPath = new ConcurrentHashMap<>();
+    private final Stats stats = new Stats();
+    private final Object lifecycle = new Object();
+    // Guards the recording maps' writers and the byte total; replay only reads the maps
+    private final Object recordings = new Object();
+    private long totalBodyBytes;
+
+    private volatile boolean recording;
+    private volatile Faults faults = new Faults(0, 0, 0, 503, 0);
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    private static final class Recording {
+        final String method;
+        final String path;
+        final String bodyHash;
+        final int status;
+        final int bodyLength;
+        final Instant recordedAt = Instant.now();
+        final Serialized response;
+        final LongAdder hits = new LongAdder();
+
+        Recording(String method, String path, String bodyHash, int status, int bodyLength, Serialized response) {
+            this.method = method;
+            this.path = path;
+            this.bodyHash = bodyHash;
+            this.status = status;
+            this.bodyLength = bodyLength;
+            this.response = response;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("method", method);
+            m.put("path", path);
+            m.put("bodyHash", bodyHash.isEmpty() ? null : bodyHash);
+            m.put("status", status);
+            m.put("bodyBytes", bodyLength);
+            m.put("recordedAt", recordedAt.toString());
+            m.put("hits", hits.sum());
+            return m;
+        }
+    }
+
+    /** Injected degradation; rates are fractions of requests between 0 and 1. */
+    private static final class Faults {
+        final int latencyMs;
+        final int jitterMs;
+        final double errorRate;
+        final int errorStatus;
+        final double resetRate;
+        final Serialized error;
+
+        Faults(int latencyMs, int jitterMs, double errorRate, int errorStatus, double resetRate) {
+            this.latencyMs = Math.max(0, latencyMs);
+            this.jitterMs = Math.max(0, jitterMs);
+            this.errorRate = clamp(errorRate);
+            this.errorStatus = errorStatus < 100 || errorStatus > 599 ? 503 : errorStatus;
+            this.resetRate = clamp(resetRate);
+            byte[] body = "{\"error\":\"Injected fault\"}".getBytes(StandardCharsets.UTF_8);
+            this.error = new Serialized(this.errorStatus, Map.of("Content-Type", "application/json"), body);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("latencyMs", latencyMs);
+            m.put("jitterMs", jitterMs);
+            m.put("errorRate", errorRate);
+            m.put("errorStatus", errorStatus);
+            m.put("resetRate", resetRate);
+            return m;
+        }
+
+        private static double clamp(double v) {
+            return Double.isNaN(v) ? 0 : Math.max(0, Math.min(1, v));
+        }
+    }
+
+    private static final class Stats {
+        final LongAdder requests = new LongAdder();
+        final LongAdder matched = new LongAdder();
+        final LongAdder fallbackMatched = new LongAdder();
+        final LongAdder unmatched = new LongAdder();
+        final LongAdder injectedErrors = new LongAdder();
+        final LongAdder injectedResets = new LongAdder();
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("requests", requests.sum());
+            m.put("matched", matched.sum());
+            m.put("matchedByPathOnly", fallbackMatched.sum());
+            m.put("unmatched", unmatched.sum());
+            m.put("injectedErrors", injectedErrors.sum());
+            m.put("injectedResets", injectedResets.sum());
+            return m;
+        }
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public Map<String, Object> setRecording(boolean enabled) {
+        recording = enabled;
+        return status();
+    }
+
+    /**
+     * Stores a scenario response for replay. Returns false when the body is incomplete (truncated
+     * and not fully spilled to disk), over {@code scenario.mock.max-body-bytes}, or would take the
+     * recordings past their count or byte limit.
+     */
+    boolean record(ApiScenarioService.RequestParts parts, TimedHttpClient.TimedResponse resp, ResponseCapture capture) {
+        if (capture.length() > maxBodyBytes) return false;
+        if (capture.isTruncated() && (capture.spillPath() == null || capture.isSpillTruncated())) return false;
+        String method = parts.method == null ? "GET" : parts.method.toUpperCase(Locale.ROOT);
+        String path = pathOf(parts.url);
+        String hash = hash(parts.body == null ? new byte[0] : parts.body.getBytes(StandardCharsets.UTF_8));
+        String key = key(method, path, hash);
+        synchronized (recordings) {
+            Recording old = byKey.get(key);
+            if (old == null && byKey.size() >= maxRecordings) return false;
+            long freed = old == null ? 0 : old.bodyLength;
+            if (totalBodyBytes - freed + capture.length() > maxTotalBodyBytes) return false;
+            byte[] body;
+            try {
+                body = capture.isTruncated() ? Files.readAllBytes(capture.spillPath()) : capture.head();
+            } catch (IOException e) {
+                return false;
+            }
+            Map<String, String> headers = new LinkedHashMap<>();
+            resp.headers.forEach((k, v) -> {
+                if (!SKIPPED_HEADERS.contains(k.toLowerCase(Locale.ROOT))) headers.put(k, v);
+            });
+            Recording r = new Recording(method, path, hash, resp.status, body.length, new Serialized(resp.status, headers, body));
+            byKey.put(key, r);
+            byPath.put(key(method, path, null), r);
+            totalBodyBytes += body.length - freed;
+        }
+        return true;
+    }
+
+    public List<Map<String, Object>> listRecordings() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        byKey.values().stream()
+                .sorted(Comparator.comparing((Recording r) -> r.path).thenComparing(r -> r.method))
+                .forEach(r -> out.add(r.toMap()));
+        return out;
+    }
+
+    public Map<String, Object> clearRecordings() {
+        int n;
+        synchronized (recordings) {
+            n = byKey.size();
+            byKey.clear();
+            byPath.clear();
+            totalBodyBytes = 0;
+        }
+        return Map.of("status", "ok", "cleared", n);
+    }
+
+    /** Replaces the injected faults; missing payload values fall back to no degradation. */
+    public Map<String, Object> setFaults(Map<String, Object> payload) {
+        Map<String, Object> p = payload == null ? Map.of() : payload;
+        faults = new Faults(RequestParams.toInt(p.get("latencyMs"), 0), RequestParams.toInt(p.get("jitterMs"), 0),
+                RequestParams.toDouble(p.get("errorRate"), 0), RequestParams.toInt(p.get("errorStatus"), 503),
+                RequestParams.toDouble(p.get("resetRate"), 0));
+        return status();
+    }
+
+    /** Starts the server on {@code port}, or the configured port when null; 0 picks a free port. */
+    public Map<String, Object> start(Integer port) {
+        synchronized (lifecycle) {
+            if (serverChannel != null) {
+                return Map.of("status", "error", "message", "Mock server is already running on port " + boundPort());
+            }
+            EventLoopGroup boss = new NioEventLoopGroup(1, new DefaultThreadFactory("scenario-mock-boss", true));
+            EventLoopGroup workers = new NioEventLoopGroup(0, new DefaultThreadFactory("scenario-mock", true));
+            try {
+                serverChannel = new ServerBootstrap()
+                        .group(boss, workers)
+                        .channel(NioServerSocketChannel.class)
+                        .option(ChannelOption.SO_BACKLOG, 1024)
+                        .childOption(ChannelOption.TCP_NODELAY, true)
+                        .childHandler(new ChannelInitializer<SocketChannel>() {
+                            @Override
+                            protected void initChannel(SocketChannel ch) {
+                                ch.pipeline()
+                                        .addLast(new PassThroughEncoder())
+                                        .addLast(new HttpRequestDecoder())
+                                        .addLast(new HttpObjectAggregator(maxRequestBytes))
+                                        .addLast(new ReplayHandler());
+                            }
+                        })
+                        .bind(new InetSocketAddress(bindAddress, port == null ? defaultPort : port))
+                        .sync()
+                        .channel();
+            } catch (Exception e) {
+                boss.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+                workers.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                return Map.of("status", "error", "message", "Could not start mock server: " + e.getMessage());
+            }
+            bossGroup = boss;
+            workerGroup = workers;
+        }
+        return status();
+    }
+
+    public Map<String, Object> stop() {
+        synchronized (lifecycle) {
+            if (serverChannel == null) {
+                return Map.of("status", "error", "message", "Mock server is not running");
+            }
+            serverChannel.close().awaitUninterruptibly();
+            bossGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+            workerGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+            serverChannel = null;
+            bossGroup = null;
+            workerGroup = null;
+        }
+        return status();
+    }
+
+    /** Releases the port at context shutdown, so a restarted context can bind it again. */
+    @PreDestroy
+    void shutdown() {
+        synchronized (lifecycle) {
+            if (serverChannel != null) stop();
+        }
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        synchronized (lifecycle) {
+            out.put("running", serverChannel != null);
+            if (serverChannel != null) out.put("port", boundPort());
+        }
+        out.put("recording", recording);
+        out.put("recordings", byKey.size());
+        synchronized (recordings) {
+            out.put("recordedBodyBytes", totalBodyBytes);
+        }
+        out.put("faults", faults.toMap());
+        out.putAll(stats.toMap());
+        return out;
+    }
+
+    private int boundPort() {
+        return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    }
+
+    private final class ReplayHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest req) {
+            stats.requests.increment();
+            boolean keepAlive = HttpUtil.isKeepAlive(req);
+            boolean headOnly = HttpMethod.HEAD.equals(req.method());
+            Faults f = faults;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (f.resetRate > 0 && random.nextDouble() < f.resetRate) {
+                stats.injectedResets.increment();
+                // Linger 0 makes close send a RST instead of a FIN
+                ctx.channel().config().setOption(ChannelOption.SO_LINGER, 0);
+                ctx.close();
+                return;
+            }
+
+            Serialized response;
+            if (f.errorRate > 0 && random.nextDouble() < f.errorRate) {
+                stats.injectedErrors.increment();
+                response = f.error;
+            } else {
+                response = lookup(req);
+            }
+            ByteBuf out = response.message(keepAlive, headOnly);
+            boolean close = !keepAlive;
+            long delay = f.latencyMs + (f.jitterMs > 0 ? random.nextInt(f.jitterMs + 1) : 0);
+            if (delay > 0) {
+                ctx.executor().schedule(() -> write(ctx, out, close), delay, TimeUnit.MILLISECONDS);
+            } else {
+                write(ctx, out, close);
+            }
+        }
+
+        private Serialized lookup(FullHttpRequest req) {
+            String method = req.method().name();
+            String path = pathOf(req.uri());
+            ByteBuf content = req.content();
+            String hash = hash(ByteBufUtil.getBytes(content, content.readerIndex(), content.readableBytes(), false));
+            Recording r = byKey.get(key(method, path, hash));
+            if (r != null) {
+                stats.matched.increment();
+            } else if ((r = byPath.get(key(method, path, null))) != null
+                    || (method.equals("HEAD") && (r = byPath.get(key("GET", path, null))) != null)) {
+                stats.fallbackMatched.increment();
+            } else {
+                stats.unmatched.increment();
+                String body = "{\"error\":\"No recorded response\",\"method\":\"" + method + "\",\"path\":\""
+                        + path.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+                return new Serialized(404, Map.of("Content-Type", "application/json"), body.getBytes(StandardCharsets.UTF_8));
+            }
+            r.hits.increment();
+            return r.response;
+        }
+
+        private void write(ChannelHandlerContext ctx, ByteBuf out, boolean close) {
+            ChannelFuture written = ctx.writeAndFlush(out);
+            if (close) written.addListener(ChannelFutureListener.CLOSE);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+
+    /**
+     * Encodes only the aggregator's own 100-continue and 413 replies; replayed responses are already
+     * serialized and go straight to the socket.
+     */
+    private static final class PassThroughEncoder extends HttpResponseEncoder {
+        @Override
+        public boolean acceptOutboundMessage(Object msg) throws Exception {
+            return !(msg instanceof ByteBuf) && super.acceptOutboundMessage(msg);
+        }
+    }
+
+    /**
+     * A response encoded once: the body in one buffer and a status-and-headers block for each
+     * connection mode. The heap buffers are shared by every write and left to the garbage collector,
+     * so replacing or clearing a recording needs no reference counting.
+     */
+    private static final class Serialized {
+        final ByteBuf keepAliveHead;
+        final ByteBuf closeHead;
+        final ByteBuf body;
+
+        Serialized(int status, Map<String, String> headers, byte[] body) {
+            this.keepAliveHead = head(status, headers, body.length, true);
+            this.closeHead = head(status, headers, body.length, false);
+            this.body = shared(body);
+        }
+
+        /** The bytes to write for one request; a HEAD response stops after the headers. */
+        ByteBuf message(boolean keepAlive, boolean headOnly) {
+            ByteBuf head = (keepAlive ? keepAliveHead : closeHead).duplicate();
+            return headOnly || !body.isReadable() ? head : Unpooled.wrappedBuffer(head, body.duplicate());
+        }
+
+        private static ByteBuf head(int status, Map<String, String> headers, int bodyLength, boolean keepAlive) {
+            StringBuilder head = new StringBuilder(256);
+            head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+            headers.forEach((k, v) -> head.append(k).append(": ").append(v.replace("\r", "").replace("\n", "")).append("\r\n"));
+            head.append("Content-Length: ").append(bodyLength).append("\r\n");
+            head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+            return shared(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        private static ByteBuf shared(byte[] bytes) {
+            return Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(bytes)).asReadOnly();
+        }
+    }
+
+    private static String reason(int status) {
+        return switch (status) {
+            case 200 -> "OK";
+            case 201 -> "Created";
+            case 202 -> "Accepted";
+            case 204 -> "No Content";
+            case 301 -> "Moved Permanently";
+            case 302 -> "Found";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 401 -> "Unauthorized";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 409 -> "Conflict";
+            case 422 -> "Unprocessable Entity";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 502 -> "Bad Gateway";
+            case 503 -> "Service Unavailable";
+            case 504 -> "Gateway Timeout";
+            default -> "Status";
+        };
+    }
+
+    /** Path and query of a URL or request target, without scheme and host. */
+    static String pathOf(String url) {
+        if (url == null || url.isEmpty()) return "/";
+        String target = url;
+        try {
+            if (!url.startsWith("/")) {
+                URI uri = URI.create(url.trim());
+                target = (uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath())
+                        + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+            }
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+        return target;
+    }
+
+    private static String key(String method, String path, String bodyHash) {
+        return bodyHash == null ? method + ' ' + path : method + ' ' + path + ' ' + bodyHash;
+    }
+
+    private static String hash(byte[] body) {
+        if (body.length == 0) return "";
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package Madfoat.Learning.service;
+
+import Madfoat.Learning.util.RequestParams;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs saved scenarios as synthetic checks on a fixed interval or a cron schedule.
+ *
+ * A single scheduler thread only plans firings; checks run on a small worker pool whose size is the
+ * global concurrency cap. Each firing is offset by a random jitter so monitors on the same interval
+ * do not hit a host in lockstep, and checks wait for the shared per-host rate limiter without holding
+ * a worker. A firing that finds the previous check of the same monitor still running, or no free worker, is
+ * counted as missed rather than queued. Every result is appended to the monitor's time series.
+ */
+@Service
+public class ScenarioMonitorService {
+
+    @Value("${scenario.monitor.min-interval-seconds:5}")
+    private int minIntervalSeconds = 5;
+
+    @Value("${scenario.monitor.max-monitors:200}")
+    private int maxMonitors = 200;
+
+    @Value("${scenario.monitor.retention-hours:24}")
+    private int retentionHours = 24;
+
+    private final ApiScenarioService scenarioService;
+    private final Map<String, Monitor> monitors = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final Semaphore workerPermits;
+    private final HostRateLimiter rateLimiter;
+
+    @Autowired
+    public ScenarioMonitorService(ApiScenarioService scenarioService, HostRateLimiter rateLimiter,
+                                  @Value("${scenario.monitor.max-concurrent:4}") int maxConcurrent) {
+        this.scenarioService = scenarioService;
+        this.rateLimiter = rateLimiter;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "scenario-monitor-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        int workerCount = Math.max(1, maxConcurrent);
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread t = new Thread(r, "scenario-monitor-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.workerPermits = new Semaphore(workerCount);
+    }
+
+    /** Stops planning and running checks, so monitors do not outlive a context restart. */
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private static class Monitor {
+        final String id = UUID.randomUUID().toString();
+        final String scenarioId;
+        final String name;
+        final int intervalSeconds;
+        final String cronText;
+        final CronExpression cron;
+        final int jitterSeconds;
+        final Instant createdAt = Instant.now();
+        final MonitorTimeSeries series;
+        final AtomicBoolean running = new AtomicBoolean();
+        final LongAdder checks = new LongAdder();
+        final LongAdder missed = new LongAdder();
+
+        volatile boolean enabled = true;
+        volatile boolean deleted;
+        volatile ScheduledFuture<?> next;
+        volatile long nextFireMillis;
+        volatile Map<String, Object> lastResult;
+
+        Monitor(String scenarioId, String name, int intervalSeconds, String cronText, CronExpression cron,
+                int jitterSeconds, long retentionMillis) {
+            this.scenarioId = scenarioId;
+            this.name = name;
+            this.intervalSeconds = intervalSeconds;
+            this.cronText = cronText;
+            this.cron = cron;
+            this.jitterSeconds = jitterSeconds;
+            this.series = new MonitorTimeSeries(retentionMillis);
+        }
+    }
+
+    /**
+     * Registers a monitor. The payload holds {@code scenarioId} and either {@code intervalSeconds}
+     * or {@code cron} (5 or 6 fields), with optional {@code jitterSeconds} and {@code name}.
+     */
+    public Map<String, Object> createMonitor(Map<String, Object> payload) {
+        String scenarioId = payload.get("scenarioId") == null ? null : String.valueOf(payload.get("scenarioId"));
+        if (scenarioId == null || scenarioService.resolveRequest(scenarioId) == null) {
+            return Map.of("status", "error", "message", "Scenario not found");
+        }
+        if (monitors.size() >= maxMonitors) {
+            return Map.of("status", "error", "message", "At most " + maxMonitors + " monitors can be registered");
+        }
+        Integer interval = RequestParams.toInteger(payload.get("intervalSeconds"));
+        String cronText = payload.get("cron") == null || String.valueOf(payload.get("cron")).isBlank()
+                ? null : String.valueOf(payload.get("cron")).trim();
+        if ((interval == null) == (cronText == null)) {
+            return Map.of("status", "error", "message", "Provide either intervalSeconds or cron");
+        }
+        CronExpression cron = null;
+        if (cronText != null) {
+            // Accept the common 5-field form by adding a seconds field
+            String expr = cronText.split("\\s+").length == 5 ? "0 " + cronText : cronText;
+            try {
+                cron = CronExpression.parse(expr);
+            } catch (IllegalArgumentException e) {
+                return Map.of("status", "error", "message", "Invalid cron expression: " + e.getMessage());
+            }
+        } else if (interval < minIntervalSeconds) {
+            return Map.of("status", "error", "message", "intervalSeconds must be at least " + minIntervalSeconds);
+        }
+        Integer jitter = RequestParams.toInteger(payload.get("jitterSeconds"));
+        int jitterSeconds = jitter == null ? 0 : Math.max(0, jitter);
+        String name = payload.get("name") == null ? scenarioId : String.valueOf(payload.get("name"));
+
+        Monitor m = new Monitor(scenarioId, name, interval == null ? 0 : interval, cronText, cron, jitterSeconds,
+                Duration.ofHours(retentionHours).toMillis());
+        monitors.put(m.id, m);
+        scheduleNext(m, System.currentTimeMillis());
+        return describe(m);
+    }
+
+    public List<Map<String, Object>> listMonitors() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        monitors.values().stream()
+                .sorted(Comparator.comparing((Monitor m) -> m.createdAt))
+                .forEach(m -> out.add(describe(m)));
+        return out;
+    }
+
+    public Map<String, Object> deleteMonitor(String id) {
+        Monitor m = monitors.remove(id);
+        if (m == null) {
+            return Map.of("status", "error", "message", "Monitor not found");
+        }
+        m.deleted = true;
+        ScheduledFuture<?> next = m.next;
+        if (next != null) next.cancel(false);
+        return Map.of("status", "ok", "id", id);
+    }
+
+    public Map<String, Object> setEnabled(String id, boolean enabled) {
+        Monitor m = monitors.get(id);
+        if (m == null) {
+            return Map.of("status", "error", "message", "Monitor not found");
+        }
+        synchronized (m) {
+            if (m.enabled == enabled) return describe(m);
+            m.enabled = enabled;
+            ScheduledFuture<?> next = m.next;
+            if (!enabled && next != null) next.cancel(false);
+            if (enabled) scheduleNext(m, System.currentTimeMillis());
+        }
+        return describe(m);
+    }
+
+    /** Latency and availability over the last {@code windowMinutes} (default 60). */
+    public Map<String, Object> stats(String id, Integer windowMinutes) {
+        Monitor m = monitors.get(id);
+        if (m == null) {
+            return Map.of("status", "error", "message", "Monitor not found");
+        }
+        int minutes = windowMinutes == null || windowMinutes <= 0 ? 60 : windowMinutes;
+        long now = System.currentTimeMillis();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("id", m.id);
+        out.put("scenarioId", m.scenarioId);
+        out.put("windowMinutes", minutes);
+        out.putAll(m.series.summarize(now - Duration.ofMinutes(minutes).toMillis(), now + 1).toMap());
+        return out;
+    }
+
+    /** The window split into buckets of {@code bucketSeconds} (default 60), for charting. */
+    public Map<String, Object> series(String id, Integer windowMinutes, Integer bucketSeconds) {
+        Monitor m = monitors.get(id);
+        if (m == null) {
+            return Map.of("status", "error", "message", "Monitor not found");
+        }
+        int minutes = windowMinutes == null || windowMinutes <= 0 ? 60 : windowMinutes;
+        int bucket = bucketSeconds == null || bucketSeconds <= 0 ? 60 : bucketSeconds;
+        long now = System.currentTimeMillis();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("id", m.id);
+        out.put("buckets", m.series.buckets(now - Duration.ofMinutes(minutes).toMillis(), now + 1, bucket * 1000L));
+        return out;
+    }
+
+    private void scheduleNext(Monitor m, long afterMillis) {
+        if (m.deleted || !m.enabled) return;
+        long fireAt;
+        if (m.cron != null) {
+            ZonedDateTime next = m.cron.next(ZonedDateTime.ofInstant(Instant.ofEpochMilli(afterMillis), ZoneId.systemDefault()));
+            if (next == null) return;
+            fireAt = next.toInstant().toEpochMilli();
+        } else {
+            fireAt = afterMillis + m.intervalSeconds * 1000L;
+        }
+        // The plan stays on the un-jittered grid so jitter never accumulates into drift
+        m.nextFireMillis = fireAt;
+        long jitter = m.jitterSeconds > 0 ? ThreadLocalRandom.current().nextLong(m.jitterSeconds * 1000L + 1) : 0;
+        long delay = Math.max(0, fireAt + jitter - System.currentTimeMillis());
+        m.next = scheduler.schedule(() -> fire(m, fireAt), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void fire(Monitor m, long plannedMillis) {
+        if (m.deleted || !m.enabled) return;
+        // Plan the next firing first so a slow check never delays the schedule
+        scheduleNext(m, Math.max(plannedMillis, System.currentTimeMillis() - m.intervalSeconds * 1000L));
+        if (!m.running.compareAndSet(false, true)) {
+            m.missed.increment();
+            return;
+        }
+        if (!workerPermits.tryAcquire()) {
+            m.running.set(false);
+            m.missed.increment();
+            return;
+        }
+        ApiScenarioService.RequestParts parts = scenarioService.resolveRequest(m.scenarioId);
+        rateLimiter.acquire(parts == null ? null : parts.url).whenCompleteAsync((permit, ex) -> {
+            try {
+                if (ex != null) m.missed.increment();
+                else check(m, permit);
+            } finally {
+                workerPermits.release();
+                m.running.set(false);
+            }
+        }, workers);
+    }
+
+    private void check(Monitor m, HostRateLimiter.Permit permit) {
+        long startMillis = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        Map<String, Object> r = scenarioService.runScenario(m.scenarioId, permit);
+        long elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+        boolean done = "done".equals(r.get("status"));
+        boolean passed = done && r.get("assertionResults") instanceof Map<?, ?> ar && Boolean.TRUE.equals(ar.get("passed"));
+        int httpStatus = r.get("httpStatus") instanceof Number n ? n.intValue() : 0;
+        long latencyMicros = r.get("timeMs") instanceof Number t ? Math.round(t.doubleValue() * 1000) : elapsedMicros;
+        m.series.append(startMillis, latencyMicros, httpStatus, passed);
+        m.checks.increment();
+
+        Map<String, Object> last = new LinkedHashMap<>();
+        last.put("at", Instant.ofEpochMilli(startMillis).toString());
+        last.put("passed", passed);
+        last.put("httpStatus", httpStatus);
+        last.put("timeMs", RunStats.microsToMs(latencyMicros));
+        if (permit.waitNanos > 0) last.put("throttleMs", TimedHttpClient.Timing.ms(permit.waitNanos));
+        if (r.containsKey("message")) last.put("message", r.get("message"));
+        m.lastResult = last;
+    }
+
+    private Map<String, Object> describe(Monitor m) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("id", m.id);
+        out.put("name", m.name);
+        out.put("scenarioId", m.scenarioId);
+        if (m.cronText != null) out.put("cron", m.cronText);
+        else out.put("intervalSeconds", m.intervalSeconds);
+        out.put("jitterSeconds", m.jitterSeconds);
+        out.put("enabled", m.enabled);
+        out.put("createdAt", m.createdAt.toString());
+        if (m.enabled && m.nextFireMillis > 0) out.put("nextRunAt", Instant.ofEpochMilli(m.nextFireMillis).toString());
+        out.put("checks", m.checks.sum());
+        out.put("missed", m.missed.sum());
+        out.put("storedSamples", m.series.size());
+        if (m.lastResult != null) out.put("lastResult", m.lastResult);
+        long now = System.currentTimeMillis();
+        MonitorTimeSeries.Summary hour = m.series.summarize(now - Duration.ofHours(1).toMillis(), now + 1);
+        Map<String, Object> lastHour = hour.toMap();
+        lastHour.remove("statusCounts");
+        out.put("lastHour", lastHour);
+        return out;
+    }
+}
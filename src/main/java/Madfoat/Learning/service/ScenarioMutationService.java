@@ -0,0 +1,243 @@
+package Madfoat.Learning.service;
+
+import Madfoat.Learning.util.JsonMutationEngine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fires payload mutations of a scenario at its endpoint in parallel.
+ *
+ * Mutations are pulled one at a time from the lazy mutation stream and sent through the
+ * non-blocking dispatcher, with a semaphore bounding the requests in flight, so a run over tens of
+ * thousands of variants holds only the in-flight requests in memory. Responses are tallied per
+ * mutation kind; 2xx answers (invalid input accepted) and 5xx answers are kept as findings.
+ */
+@Service
+public class ScenarioMutationService {
+
+    private static final int MAX_RETAINED_RUNS = 20;
+    private static final int MAX_FINDINGS = 200;
+
+    @Value("${scenario.mutation.max-mutations:100000}")
+    private int maxMutations = 100000;
+
+    @Value("${scenario.mutation.max-concurrency:256}")
+    private int maxConcurrency = 256;
+
+    @Value("${scenario.mutation.request-timeout-seconds:30}")
+    private int requestTimeoutSeconds = 30;
+
+    private final ApiScenarioService scenarioService;
+    private final ScenarioHttpDispatcher dispatcher;
+    private final JsonMutationEngine engine = new JsonMutationEngine();
+    private final Map<String, MutationRun> runs = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ScenarioMutationService(ApiScenarioService scenarioService, ScenarioHttpDispatcher dispatcher) {
+        this.scenarioService = scenarioService;
+        this.dispatcher = dispatcher;
+    }
+
+    public Map<String, Object> start(String scenarioId, Integer limit, Integer concurrency) {
+        ApiScenarioService.RequestParts parts = scenarioService.resolveRequest(scenarioId);
+        if (parts == null) {
+            return Map.of("status", "error", "message", "Scenario not found");
+        }
+        if (parts.url == null || parts.url.isBlank()) {
+            return Map.of("status", "error", "message", "Scenario has no URL");
+        }
+        int max = limit == null ? 1000 : limit;
+        if (max <= 0 || max > maxMutations) {
+            return Map.of("status", "error", "message", "limit must be between 1 and " + maxMutations);
+        }
+        int parallel = concurrency == null ? 16 : Math.max(1, Math.min(maxConcurrency, concurrency));
+        if (!ScenarioMutations.of(parts, engine).findAny().isPresent()) {
+            return Map.of("status", "error", "message", "Scenario has no JSON body or query parameters to mutate");
+        }
+
+        RunStats.evictFinished(runs, MAX_RETAINED_RUNS, r -> !"running".equals(r.state), r -> r.startedAt);
+        MutationRun run = new MutationRun(UUID.randomUUID().toString(), scenarioId, max, parallel);
+        runs.put(run.runId, run);
+        Thread producer = new Thread(() -> execute(run, parts), "mutation-run-" + run.runId.substring(0, 8));
+        producer.setDaemon(true);
+        producer.start();
+        return snapshot(run);
+    }
+
+    public Map<String, Object> status(String runId) {
+        MutationRun run = runs.get(runId);
+        if (run == null) {
+            return Map.of("status", "error", "message", "Mutation run not found");
+        }
+        return snapshot(run);
+    }
+
+    public Map<String, Object> stop(String runId) {
+        MutationRun run = runs.get(runId);
+        if (run == null) {
+            return Map.of("status", "error", "message", "Mutation run not found");
+        }
+        run.stopRequested = true;
+        return snapshot(run);
+    }
+
+    public List<Map<String, Object>> listRuns() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        runs.values().stream()
+                .sorted(Comparator.comparing((MutationRun r) -> r.startedAt).reversed())
+                .forEach(r -> out.add(snapshot(r)));
+        return out;
+    }
+
+    private void execute(MutationRun run, ApiScenarioService.RequestParts base) {
+        Semaphore permits = new Semaphore(run.concurrency);
+        Duration timeout = Duration.ofSeconds(requestTimeoutSeconds);
+        run.startNanos = System.nanoTime();
+        try {
+            Iterator<ScenarioMutations.MutatedRequest> it = ScenarioMutations.of(base, engine).iterator();
+            while (!run.stopRequested && run.sent.sum() < run.limit && it.hasNext()) {
+                ScenarioMutations.MutatedRequest m = it.next();
+                permits.acquire();
+                run.sent.increment();
+                dispatcher.send(m.parts, timeout).whenComplete((outcome, ignored) -> {
+                    try {
+                        record(run, m, outcome);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            // Wait for the tail of in-flight requests
+            permits.acquire(run.concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            run.failure = String.valueOf(e.getMessage());
+        }
+        run.finishNanos = System.nanoTime();
+        run.state = run.failure != null ? "failed" : run.stopRequested ? "stopped" : "completed";
+    }
+
+    private void record(MutationRun run, ScenarioMutations.MutatedRequest m, ScenarioHttpDispatcher.Outcome outcome) {
+        run.completed.increment();
+        if (outcome.throttleNanos > 0) {
+            run.throttled.increment();
+            run.throttleNanos.add(outcome.throttleNanos);
+        }
+        KindStats stats = run.byKind.computeIfAbsent(m.mutation.kind, k -> new KindStats());
+        stats.total.increment();
+        String finding = null;
+        if (outcome.isError()) {
+            stats.errors.increment();
+        } else if (outcome.status >= 500) {
+            stats.serverErrors.increment();
+            finding = "server error";
+        } else if (outcome.status >= 400) {
+            stats.rejected.increment();
+        } else if (outcome.status >= 200 && outcome.status < 300) {
+            stats.accepted.increment();
+            finding = "invalid input accepted";
+        } else {
+            stats.other.increment();
+        }
+        if (finding != null && run.findingCount.getAndIncrement() < MAX_FINDINGS) {
+            Map<String, Object> f = new LinkedHashMap<>();
+            f.put("finding", finding);
+            f.put("httpStatus", outcome.status);
+            f.put("target", m.target);
+            f.put("mutation", m.label());
+            f.put("request", "body".equals(m.target) ? abbreviate(m.parts.body) : m.parts.url);
+            run.findings.add(f);
+        }
+    }
+
+    private Map<String, Object> snapshot(MutationRun run) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("runId", run.runId);
+        out.put("scenarioId", run.scenarioId);
+        out.put("state", run.state);
+        if (run.failure != null) out.put("message", run.failure);
+        out.put("limit", run.limit);
+        out.put("concurrency", run.concurrency);
+        out.put("startedAt", run.startedAt.toString());
+        long startNanos = run.startNanos;
+        double elapsed = startNanos == 0 ? 0 : ((run.finishNanos != 0 ? run.finishNanos : System.nanoTime()) - startNanos) / 1e9;
+        long completed = run.completed.sum();
+        out.put("elapsedSeconds", RunStats.round(elapsed));
+        out.put("sent", run.sent.sum());
+        out.put("completed", completed);
+        out.put("requestsPerSecond", elapsed > 0 ? RunStats.round(completed / elapsed) : 0.0);
+        out.put("throttled", run.throttled.sum());
+        out.put("throttleMs", TimedHttpClient.Timing.ms(run.throttleNanos.sum()));
+        Map<String, Object> kinds = new TreeMap<>();
+        run.byKind.forEach((k, v) -> kinds.put(k, v.toMap()));
+        out.put("byKind", kinds);
+        out.put("findingCount", run.findingCount.get());
+        out.put("findings", new ArrayList<>(run.findings));
+        return out;
+    }
+
+    private static String abbreviate(String s) {
+        if (s == null) return null;
+        return s.length() <= 300 ? s : s.substring(0, 300) + "... (" + s.length() + " chars)";
+    }
+
+    private static class KindStats {
+        final LongAdder total = new LongAdder();
+        final LongAdder accepted = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder serverErrors = new LongAdder();
+        final LongAdder other = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("total", total.sum());
+            m.put("accepted2xx", accepted.sum());
+            m.put("rejected4xx", rejected.sum());
+            m.put("serverError5xx", serverErrors.sum());
+            m.put("other", other.sum());
+            m.put("transportErrors", errors.sum());
+            return m;
+        }
+    }
+
+    private static class MutationRun {
+        final String runId;
+        final String scenarioId;
+        final int limit;
+        final int concurrency;
+        final Instant startedAt = Instant.now();
+        final LongAdder sent = new LongAdder();
+        final LongAdder completed = new LongAdder();
+        final LongAdder throttled = new LongAdder();
+        final LongAdder throttleNanos = new LongAdder();
+        final Map<String, KindStats> byKind = new ConcurrentHashMap<>();
+        final AtomicInteger findingCount = new AtomicInteger();
+        final Queue<Map<String, Object>> findings = new ConcurrentLinkedQueue<>();
+
+        volatile boolean stopRequested;
+        volatile String state = "running";
+        volatile String failure;
+        volatile long startNanos;
+        volatile long finishNanos;
+
+        MutationRun(String runId, String scenarioId, int limit, int concurrency) {
+            this.runId = runId;
+            this.scenarioId = scenarioId;
+            this.limit = limit;
+            this.concurrency = concurrency;
+        }
+    }
+}
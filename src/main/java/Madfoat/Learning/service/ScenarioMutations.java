@@ -0,0 +1,123 @@
+package Madfoat.Learning.service;
+
+import Madfoat.Learning.util.JsonMutationEngine;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Turns a scenario request into a lazy stream of mutated requests: JSON body mutations first,
+ * then mutations of the query parameters (treated as an object of string values).
+ */
+final class ScenarioMutations {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ScenarioMutations() {
+    }
+
+    static class MutatedRequest {
+        final String target;
+        final JsonMutationEngine.Mutation mutation;
+        final ApiScenarioService.RequestParts parts;
+
+        MutatedRequest(String target, JsonMutationEngine.Mutation mutation, ApiScenarioService.RequestParts parts) {
+            this.target = target;
+            this.mutation = mutation;
+            this.parts = parts;
+        }
+
+        String label() {
+            String path = "query".equals(target) ? mutation.path.replaceFirst("^\\$", "query") : mutation.path;
+            return mutation.kind + " " + path + (mutation.detail == null ? "" : " (" + abbreviate(mutation.detail) + ")");
+        }
+    }
+
+    static Stream<MutatedRequest> of(ApiScenarioService.RequestParts base, JsonMutationEngine engine) {
+        return Stream.concat(bodyMutations(base, engine), queryMutations(base, engine));
+    }
+
+    private static Stream<MutatedRequest> bodyMutations(ApiScenarioService.RequestParts base, JsonMutationEngine engine) {
+        JsonNode root = parseJson(base.body);
+        if (root == null || !root.isContainerNode()) return Stream.empty();
+        return engine.stream(root).map(m -> {
+            ApiScenarioService.RequestParts p = copy(base);
+            p.body = m.body;
+            return new MutatedRequest("body", m, p);
+        });
+    }
+
+    private static Stream<MutatedRequest> queryMutations(ApiScenarioService.RequestParts base, JsonMutationEngine engine) {
+        int q = base.url == null ? -1 : base.url.indexOf('?');
+        if (q < 0 || q == base.url.length() - 1) return Stream.empty();
+        String prefix = base.url.substring(0, q);
+        String query = base.url.substring(q + 1);
+        int hash = query.indexOf('#');
+        if (hash >= 0) query = query.substring(0, hash);
+        ObjectNode params = MAPPER.createObjectNode();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String k = decode(eq < 0 ? pair : pair.substring(0, eq));
+            params.put(k, eq < 0 ? "" : decode(pair.substring(eq + 1)));
+        }
+        // Root-level mutations (empty body, type swaps) have no meaning for a query string
+        return engine.stream(params).filter(m -> !"$".equals(m.path)).map(m -> {
+            ApiScenarioService.RequestParts p = copy(base);
+            p.url = prefix + toQuery(parseJson(m.body));
+            return new MutatedRequest("query", m, p);
+        });
+    }
+
+    private static String toQuery(JsonNode params) {
+        if (params == null || !params.isObject() || params.isEmpty()) return "";
+        StringBuilder b = new StringBuilder("?");
+        Iterator<Map.Entry<String, JsonNode>> it = params.fields();
+        while (it.hasNext()) {
+            Map.Entry<String, JsonNode> e = it.next();
+            if (b.length() > 1) b.append('&');
+            JsonNode v = e.getValue();
+            b.append(URLEncoder.encode(e.getKey(), StandardCharsets.UTF_8)).append('=')
+                    .append(URLEncoder.encode(v.isTextual() ? v.textValue() : v.toString(), StandardCharsets.UTF_8));
+        }
+        return b.toString();
+    }
+
+    private static ApiScenarioService.RequestParts copy(ApiScenarioService.RequestParts src) {
+        ApiScenarioService.RequestParts p = new ApiScenarioService.RequestParts();
+        p.method = src.method;
+        p.url = src.url;
+        p.headers = new LinkedHashMap<>(src.headers);
+        p.body = src.body;
+        return p;
+    }
+
+    private static JsonNode parseJson(String s) {
+        if (s == null || s.isBlank()) return null;
+        try {
+            return MAPPER.readTree(s);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return s;
+        }
+    }
+
+    private static String abbreviate(String s) {
+        return s.length() <= 40 ? s : s.substring(0, 37) + "...";
+    }
+}
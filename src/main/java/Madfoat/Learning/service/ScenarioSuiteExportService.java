@@ -0,0 +1,252 @@
+package Madfoat.Learning.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports documented API scenarios as a ready-to-run JUnit 5 + RestAssured Maven project.
+ * The archive is written entry by entry straight to the caller's stream, one test class per
+ * endpoint, so only the class currently being generated is held in memory.
+ */
+@Service
+public class ScenarioSuiteExportService {
+
+    private static final String TEST_PACKAGE = "apitests";
+    private static final String TEST_DIR = "src/test/java/" + TEST_PACKAGE + "/";
+    private static final String GIVEN = "given(ApiClient.spec())";
+
+    private final KnowledgeBaseService knowledgeBaseService;
+    private final ApiScenarioService apiScenarioService;
+
+    @Autowired
+    public ScenarioSuiteExportService(KnowledgeBaseService knowledgeBaseService, ApiScenarioService apiScenarioService) {
+        this.knowledgeBaseService = knowledgeBaseService;
+        this.apiScenarioService = apiScenarioService;
+    }
+
+    /**
+     * Writes the project for one documentation group (or all groups when {@code groupId} is null)
+     * as a ZIP to {@code out}. The stream is finished but not closed.
+     */
+    public void writeProject(String groupId, OutputStream out) throws IOException {
+        Map<String, Map<String, List<KnowledgeBaseService.Document>>> grouped =
+                knowledgeBaseService.getApiDocumentationGrouped(groupId);
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        putEntry(zip, "pom.xml", projectPom());
+        putEntry(zip, TEST_DIR + "ApiClient.java", apiClientSource());
+
+        Set<String> classNames = new HashSet<>();
+        List<String> endpoints = new ArrayList<>(grouped.keySet());
+        Collections.sort(endpoints);
+        for (String endpoint : endpoints) {
+            String className = unique(classNameFor(endpoint), classNames);
+            putEntry(zip, TEST_DIR + className + ".java", testClassSource(className, endpoint, grouped.get(endpoint)));
+            // Push each finished class to the client instead of letting the container buffer it
+            zip.flush();
+            out.flush();
+        }
+        zip.finish();
+        out.flush();
+    }
+
+    private void putEntry(ZipOutputStream zip, String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private String testClassSource(String className, String endpoint, Map<String, List<KnowledgeBaseService.Document>> byMethod) {
+        StringBuilder b = new StringBuilder();
+        b.append("package ").append(TEST_PACKAGE).append(";\n\n");
+        b.append("import org.junit.jupiter.api.Disabled;\n");
+        b.append("import org.junit.jupiter.api.DisplayName;\n");
+        b.append("import org.junit.jupiter.api.Test;\n\n");
+        b.append("import static io.restassured.RestAssured.*;\n");
+        b.append("import static org.hamcrest.Matchers.*;\n\n");
+        b.append("/** Scenarios documented for ").append(endpoint.replace("*/", "*\\/")).append(" */\n");
+        b.append("class ").append(className).append(" {\n");
+
+        Set<String> methodNames = new HashSet<>();
+        List<String> methods = new ArrayList<>(byMethod.keySet());
+        Collections.sort(methods);
+        for (String method : methods) {
+            for (KnowledgeBaseService.Document doc : byMethod.get(method)) {
+                String title = doc.title == null || doc.title.isBlank() ? method + " " + endpoint : doc.title;
+                String name = unique(identifier(method.toLowerCase(Locale.ROOT) + " " + title, false), methodNames);
+                StringBuilder chain = new StringBuilder();
+                boolean recorded = appendDocumentedRequest(chain, doc);
+                b.append("\n    @Test\n");
+                b.append("    @DisplayName(\"").append(ApiScenarioService.escapeJava(title)).append("\")\n");
+                if (!recorded) {
+                    b.append("    @Disabled(\"No request was recorded for this documentation entry\")\n");
+                }
+                b.append("    void ").append(name).append("() {\n");
+                b.append(chain);
+                b.append("    }\n");
+            }
+        }
+        b.append("}\n");
+        return b.toString();
+    }
+
+    /**
+     * Prefers the live scenario, which carries structured assertions; falls back to the cURL and
+     * expected status stored with the documentation when the scenario is gone.
+     */
+    private boolean appendDocumentedRequest(StringBuilder b, KnowledgeBaseService.Document doc) {
+        Map<String, String> meta = doc.metadata == null ? Map.of() : doc.metadata;
+        String scenarioId = meta.get("scenarioId");
+        if (scenarioId != null && apiScenarioService.appendScenarioChain(b, scenarioId, GIVEN)) {
+            return true;
+        }
+        String curl = meta.get("curl");
+        if (curl == null || curl.isBlank() || "null".equals(curl)) return false;
+        int expected;
+        try {
+            expected = Integer.parseInt(meta.getOrDefault("expectedStatus", "200").trim());
+        } catch (NumberFormatException e) {
+            expected = 200;
+        }
+        apiScenarioService.appendCurlChain(b, curl, expected, GIVEN);
+        return true;
+    }
+
+    /** Derives a class name from the endpoint path, e.g. {@code https://host/v1/users/{id}} becomes {@code V1UsersIdApiTest}. */
+    static String classNameFor(String endpoint) {
+        String path = endpoint;
+        int scheme = path.indexOf("://");
+        if (scheme >= 0) {
+            int slash = path.indexOf('/', scheme + 3);
+            path = slash >= 0 ? path.substring(slash) : "";
+        }
+        int query = path.indexOf('?');
+        if (query >= 0) path = path.substring(0, query);
+        String base = identifier(path, true);
+        return (base.isEmpty() ? "Root" : base) + "ApiTest";
+    }
+
+    /** Camel-cases the ASCII letters and digits of {@code text} into a Java identifier. */
+    static String identifier(String text, boolean upperFirst) {
+        StringBuilder out = new StringBuilder();
+        boolean wordStart = true;
+        for (char c : text.toCharArray()) {
+            if (c >= 128 || !Character.isLetterOrDigit(c)) {
+                wordStart = true;
+                continue;
+            }
+            if (out.length() == 0 && Character.isDigit(c)) out.append(upperFirst ? 'T' : 't');
+            if (out.length() == 0) c = upperFirst ? Character.toUpperCase(c) : Character.toLowerCase(c);
+            else if (wordStart) c = Character.toUpperCase(c);
+            out.append(c);
+            wordStart = false;
+        }
+        if (out.length() == 0 && !upperFirst) return "scenario";
+        return out.toString();
+    }
+
+    private static String unique(String name, Set<String> taken) {
+        String candidate = name;
+        for (int i = 2; !taken.add(candidate); i++) candidate = name + i;
+        return candidate;
+    }
+
+    private String projectPom() {
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <project xmlns="http://maven.apache.org/POM/4.0.0"
+                         xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
+                         xsi:schemaLocation="http://maven.apache.org/POM/4.0.0 https://maven.apache.org/xsd/maven-4.0.0.xsd">
+                    <modelVersion>4.0.0</modelVersion>
+                    <groupId>com.example</groupId>
+                    <artifactId>api-tests</artifactId>
+                    <version>1.0.0</version>
+
+                    <properties>
+                        <maven.compiler.release>17</maven.compiler.release>
+                        <project.build.sourceEncoding>UTF-8</project.build.sourceEncoding>
+                    </properties>
+
+                    <dependencies>
+                        <dependency>
+                            <groupId>org.junit.jupiter</groupId>
+                            <artifactId>junit-jupiter</artifactId>
+                            <version>5.10.2</version>
+                            <scope>test</scope>
+                        </dependency>
+                        <dependency>
+                            <groupId>io.rest-assured</groupId>
+                            <artifactId>rest-assured</artifactId>
+                            <version>5.4.0</version>
+                            <scope>test</scope>
+                        </dependency>
+                    </dependencies>
+
+                    <build>
+                        <plugins>
+                            <plugin>
+                                <groupId>org.apache.maven.plugins</groupId>
+                                <artifactId>maven-surefire-plugin</artifactId>
+                                <version>3.2.5</version>
+                            </plugin>
+                        </plugins>
+                    </build>
+                </project>
+                """;
+    }
+
+    private String apiClientSource() {
+        return """
+                package apitests;
+
+                import io.restassured.builder.RequestSpecBuilder;
+                import io.restassured.config.HttpClientConfig;
+                import io.restassured.config.RestAssuredConfig;
+                import io.restassured.specification.RequestSpecification;
+                import org.apache.http.impl.client.DefaultHttpClient;
+                import org.apache.http.impl.conn.PoolingClientConnectionManager;
+                import org.apache.http.params.CoreConnectionPNames;
+
+                /**
+                 * One pooled HTTP client shared by every test class, so connections are reused across the suite.
+                 * Tune with -Dapi.maxConnections, -Dapi.connectTimeoutMs and -Dapi.readTimeoutMs.
+                 */
+                @SuppressWarnings("deprecation")
+                public final class ApiClient {
+
+                    private static final int MAX_CONNECTIONS = Integer.getInteger("api.maxConnections", 20);
+
+                    private static final RequestSpecification SPEC = new RequestSpecBuilder()
+                            .setConfig(RestAssuredConfig.config().httpClient(HttpClientConfig.httpClientConfig()
+                                    .reuseHttpClientInstance()
+                                    .httpClientFactory(ApiClient::newClient)))
+                            .build();
+
+                    private ApiClient() {
+                    }
+
+                    public static RequestSpecification spec() {
+                        return SPEC;
+                    }
+
+                    private static DefaultHttpClient newClient() {
+                        PoolingClientConnectionManager pool = new PoolingClientConnectionManager();
+                        pool.setMaxTotal(MAX_CONNECTIONS);
+                        pool.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+                        DefaultHttpClient client = new DefaultHttpClient(pool);
+                        client.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT,
+                                Integer.getInteger("api.connectTimeoutMs", 10000));
+                        client.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT,
+                                Integer.getInteger("api.readTimeoutMs", 30000));
+                        return client;
+                    }
+                }
+                """;
+    }
+}
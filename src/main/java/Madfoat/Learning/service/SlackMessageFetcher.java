@@ -0,0 +1,261 @@
+package Madfoat.Learning.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Reads a Slack channel through {@code conversations.history} and {@code conversations.replies}.
+ *
+ * History pages are followed through {@code response_metadata.next_cursor} and collected before
+ * anything is handed on, newest page first as Slack returns them, then sorted oldest first. Thread
+ * replies are then fetched with up to {@code parallelThreads} threads in flight, and conversations
+ * reach the sink in timestamp order on the calling thread, so a sync that fails part way has stored
+ * a prefix of the channel and never a message newer than one it skipped. Messages whose {@code ts}
+ * is missing or not a number are skipped, as they cannot be placed in that order.
+ */
+final class SlackMessageFetcher {
+
+    private static final Set<String> SKIPPED_SUBTYPES = Set.of("channel_join", "channel_leave", "channel_topic", "channel_purpose");
+    private static final DateTimeFormatter MESSAGE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneOffset.UTC);
+
+    private final WebClient http;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String apiBase;
+    private final String authorization;
+    private final int pageSize;
+    private final int parallelThreads;
+
+    SlackMessageFetcher(WebClient http, String apiBase, String botToken, int pageSize, int parallelThreads) {
+        this.http = http;
+        this.apiBase = apiBase.replaceAll("/+$", "");
+        this.authorization = "Bearer " + botToken;
+        this.pageSize = Math.max(1, Math.min(999, pageSize));
+        this.parallelThreads = Math.max(1, parallelThreads);
+    }
+
+    static final class Message {
+        final String ts;
+        // ts as a number, the order messages are delivered in
+        final BigDecimal position;
+        final String user;
+        final String text;
+        final int replyCount;
+
+        Message(String ts, BigDecimal position, String user, String text, int replyCount) {
+            this.ts = ts;
+            this.position = position;
+            this.user = user;
+            this.text = text;
+            this.replyCount = replyCount;
+        }
+    }
+
+    /** A top-level message with its thread replies, oldest first; replies are empty for a plain message. */
+    static final class Conversation {
+        final Message parent;
+        final List<Message> replies;
+
+        Conversation(Message parent, List<Message> replies) {
+            this.parent = parent;
+            this.replies = replies;
+        }
+    }
+
+    /** Totals of one fetch: history and replies requests, top-level messages, threads and replies delivered. */
+    static final class Result {
+        int pages;
+        int messages;
+        int threads;
+        int replies;
+    }
+
+    /**
+     * Passes every top-level message newer than {@code oldest} (all when null) to {@code sink} with
+     * its thread, oldest first. A positive {@code maxMessages} keeps the newest that many when there
+     * is no {@code oldest}, and otherwise the oldest that many after it, so that a sync resuming from
+     * the newest message it stored leaves no gap; those have to read every page back to
+     * {@code oldest}, as Slack returns the newest first.
+     */
+    Result fetch(String channel, String oldest, int maxMessages, Consumer<Conversation> sink) {
+        Result result = new Result();
+        List<Message> messages = new ArrayList<>();
+        boolean keepOldest = oldest != null && maxMessages > 0;
+        // With keepOldest, the oldest maxMessages seen so far, newest at the head
+        PriorityQueue<Message> oldestKept = new PriorityQueue<>(Comparator.comparing((Message m) -> m.position).reversed());
+        String cursor = null;
+        do {
+            Map<String, String> params = new LinkedHashMap<>();
+            params.put("channel", channel);
+            params.put("limit", String.valueOf(pageSize));
+            if (oldest != null) params.put("oldest", oldest);
+            if (cursor != null) params.put("cursor", cursor);
+            JsonNode page = call("conversations.history", params).block();
+            result.pages++;
+            for (JsonNode m : page.path("messages")) {
+                Message msg = toMessage(m);
+                if (msg == null) continue;
+                if (keepOldest) {
+                    oldestKept.add(msg);
+                    if (oldestKept.size() > maxMessages) oldestKept.poll();
+                } else {
+                    if (maxMessages > 0 && messages.size() >= maxMessages) break;
+                    messages.add(msg);
+                }
+            }
+            cursor = page.path("response_metadata").path("next_cursor").asText("");
+        } while (!cursor.isEmpty() && (keepOldest || maxMessages <= 0 || messages.size() < maxMessages));
+        if (keepOldest) messages.addAll(oldestKept);
+        messages.sort(Comparator.comparing(m -> m.position));
+        result.messages = messages.size();
+
+        // Only threads take a request slot; their replies come back in the same order as the messages
+        List<Message> parents = messages.stream().filter(m -> m.replyCount > 0).toList();
+        Iterator<List<Message>> threads = Flux.fromIterable(parents)
+                .flatMapSequential(m -> replies(channel, m), parallelThreads, 1)
+                .toIterable(parallelThreads)
+                .iterator();
+        for (Message m : messages) {
+            List<Message> replies = m.replyCount > 0 ? threads.next() : List.of();
+            if (!replies.isEmpty()) {
+                result.threads++;
+                result.replies += replies.size();
+            }
+            sink.accept(new Conversation(m, replies));
+        }
+        return result;
+    }
+
+    /** All replies of a thread, following the cursor; the parent Slack repeats at the top is left out. */
+    private Mono<List<Message>> replies(String channel, Message parent) {
+        List<Message> out = new ArrayList<>();
+        return repliesPage(channel, parent, null, out).then(Mono.fromSupplier(() -> out));
+    }
+
+    private Mono<Void> repliesPage(String channel, Message parent, String cursor, List<Message> out) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("channel", channel);
+        params.put("ts", parent.ts);
+        params.put("limit", String.valueOf(pageSize));
+        if (cursor != null) params.put("cursor", cursor);
+        return call("conversations.replies", params).flatMap(page -> {
+            for (JsonNode m : page.path("messages")) {
+                Message msg = toMessage(m);
+                if (msg != null && !msg.ts.equals(parent.ts)) out.add(msg);
+            }
+            String next = page.path("response_metadata").path("next_cursor").asText("");
+            return next.isEmpty() ? Mono.<Void>empty() : repliesPage(channel, parent, next, out);
+        });
+    }
+
+    private Mono<JsonNode> call(String method, Map<String, String> params) {
+        StringBuilder url = new StringBuilder(apiBase).append('/').append(method);
+        char sep = '?';
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            url.append(sep).append(e.getKey()).append('=').append(URLEncoder.encode(e.getValue(), StandardCharsets.UTF_8));
+            sep = '&';
+        }
+        return http.get().uri(URI.create(url.toString()))
+                .header("Authorization", authorization)
+                .retrieve()
+                .bodyToMono(String.class)
+                .timeout(Duration.ofSeconds(60))
+                .retryWhen(FetchRetry.transientFailures())
+                .map(body -> {
+                    JsonNode node;
+                    try {
+                        node = mapper.readTree(body);
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Unreadable Slack response: " + e.getMessage(), e);
+                    }
+                    // Slack reports most failures as HTTP 200 with ok=false
+                    if (!node.path("ok").asBoolean(false)) {
+                        throw new IllegalStateException("Slack " + method + " failed: " + node.path("error").asText("unknown error"));
+                    }
+                    return node;
+                });
+    }
+
+    private static Message toMessage(JsonNode m) {
+        String ts = m.path("ts").asText("");
+        if (ts.isEmpty() || SKIPPED_SUBTYPES.contains(m.path("subtype").asText(""))) return null;
+        BigDecimal position;
+        try {
+            position = new BigDecimal(ts);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        String user = m.path("user").asText("");
+        if (user.isEmpty()) user = m.path("username").asText("");
+        if (user.isEmpty()) user = m.path("bot_id").asText("unknown");
+        // Slack escapes only these three in message text
+        String text = m.path("text").asText("").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+        return new Message(ts, position, user, text, m.path("reply_count").asInt(0));
+    }
+
+    /** Seconds since the epoch of a Slack {@code ts} such as {@code 1700000000.000100}. */
+    static Instant parseTs(String ts) {
+        if (ts == null || ts.isBlank()) return null;
+        try {
+            BigDecimal seconds = new BigDecimal(ts);
+            return Instant.ofEpochSecond(seconds.longValue(), seconds.remainder(BigDecimal.ONE).movePointRight(9).longValue());
+        } catch (NumberFormatException | ArithmeticException e) {
+            return null;
+        }
+    }
+
+    static String title(Conversation c, String channel) {
+        String text = c.parent.text.strip();
+        int nl = text.indexOf('\n');
+        if (nl >= 0) text = text.substring(0, nl);
+        if (text.length() > 80) text = text.substring(0, 80) + "...";
+        return "Slack #" + channel + (text.isEmpty() ? " " + c.parent.ts : ": " + text);
+    }
+
+    static String content(Conversation c, String channel) {
+        StringBuilder b = new StringBuilder();
+        b.append("Slack channel ").append(channel);
+        if (!c.replies.isEmpty()) b.append(" | Thread with ").append(c.replies.size()).append(c.replies.size() == 1 ? " reply" : " replies");
+        b.append('\n');
+        appendMessage(b, c.parent, "");
+        for (Message r : c.replies) appendMessage(b, r, "  ");
+        return b.toString();
+    }
+
+    private static void appendMessage(StringBuilder b, Message m, String indent) {
+        Instant at = parseTs(m.ts);
+        b.append(indent).append('[').append(at == null ? m.ts : MESSAGE_TIME.format(at)).append(" UTC] ")
+                .append(m.user).append(": ").append(m.text.replace("\n", "\n" + indent))
+                .append('\n');
+    }
+
+    /** The stored metadata of a message or thread document; {@code latest} changes whenever a reply is added. */
+    static Map<String, String> metadata(Conversation c, String channel) {
+        Map<String, String> meta = new LinkedHashMap<>();
+        meta.put("channel", channel);
+        meta.put("ts", c.parent.ts);
+        meta.put("replies", String.valueOf(c.replies.size()));
+        meta.put("latest", c.replies.isEmpty() ? c.parent.ts : c.replies.get(c.replies.size() - 1).ts);
+        return meta;
+    }
+}
@@ -0,0 +1,168 @@
+package Madfoat.Learning.service;
+
+import org.dhatim.fastexcel.reader.Cell;
+import org.dhatim.fastexcel.reader.ReadableWorkbook;
+import org.dhatim.fastexcel.reader.Row;
+import org.dhatim.fastexcel.reader.Sheet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Streams the sheets of an xlsx workbook into Markdown tables, one row at a time.
+ *
+ * The first row of each sheet is its header. Rows are appended to the current part until it would
+ * pass {@code maxChars}; the part is then handed to the sink and the next one starts with the header
+ * again, so memory per sheet stays around one part however long the sheet is. The shared strings
+ * table is read lazily and is not thread-safe, so each worker opens its own view of the workbook
+ * file and takes the next unread sheet.
+ */
+final class SpreadsheetExtractor {
+
+    private SpreadsheetExtractor() {
+    }
+
+    /** A run of consecutive rows of one sheet, as a Markdown table with the header row. */
+    static final class Part {
+        final String sheet;
+        final int sheets;
+        final int number;
+        final boolean split;
+        final int firstRow;
+        final int rows;
+        final String markdown;
+
+        Part(String sheet, int sheets, int number, boolean split, int firstRow, int rows, String markdown) {
+            this.sheet = sheet;
+            this.sheets = sheets;
+            this.number = number;
+            this.split = split;
+            this.firstRow = firstRow;
+            this.rows = rows;
+            this.markdown = markdown;
+        }
+    }
+
+    static final class SheetSummary {
+        final String name;
+        int rows;
+        int parts;
+
+        SheetSummary(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Reads every sheet with up to {@code parallelSheets} workers and passes each part to
+     * {@code sink}, which must be thread-safe when more than one worker runs. Returns one summary
+     * per sheet in workbook order.
+     */
+    static List<SheetSummary> extract(File file, int parallelSheets, int maxChars, Consumer<Part> sink) throws IOException {
+        List<String> names;
+        try (ReadableWorkbook wb = new ReadableWorkbook(file)) {
+            names = wb.getSheets().map(Sheet::getName).toList();
+        }
+        SheetSummary[] summaries = new SheetSummary[names.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            try (ReadableWorkbook wb = new ReadableWorkbook(file)) {
+                for (int i = next.getAndIncrement(); i < names.size() && failure.get() == null; i = next.getAndIncrement()) {
+                    Sheet sheet = wb.getSheet(i).orElse(null);
+                    summaries[i] = sheet == null ? new SheetSummary(names.get(i))
+                            : readSheet(sheet, names.size(), Math.max(1024, maxChars), sink);
+                }
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        };
+        int workers = Math.max(1, Math.min(parallelSheets, names.size()));
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i < workers; i++) {
+            Thread t = new Thread(worker, "excel-sheet-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        worker.run();
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading workbook", e);
+            }
+        }
+        Exception e = failure.get();
+        if (e instanceof IOException io) throw io;
+        if (e instanceof RuntimeException re) throw re;
+        List<SheetSummary> out = new ArrayList<>(summaries.length);
+        for (SheetSummary s : summaries) {
+            if (s != null) out.add(s);
+        }
+        return out;
+    }
+
+    private static SheetSummary readSheet(Sheet sheet, int sheets, int maxChars, Consumer<Part> sink) throws IOException {
+        SheetSummary summary = new SheetSummary(sheet.getName());
+        try (Stream<Row> rows = sheet.openStream()) {
+            Iterator<Row> it = rows.iterator();
+            if (!it.hasNext()) return summary;
+            List<String> headers = new ArrayList<>();
+            for (Cell c : it.next()) {
+                String h = c == null ? null : c.getText();
+                headers.add(h == null || h.isBlank() ? "Col" + (headers.size() + 1) : h.trim());
+            }
+            int numCols = headers.size();
+            if (numCols == 0) return summary;
+            StringBuilder head = new StringBuilder();
+            head.append("| ").append(String.join(" | ", headers)).append(" |\n");
+            head.append("| ");
+            for (int i = 0; i < numCols; i++) { head.append("---"); if (i < numCols - 1) head.append(" | "); }
+            head.append(" |\n");
+            String header = head.toString();
+
+            StringBuilder md = new StringBuilder(header);
+            int firstRow = 1;
+            int rowsInPart = 0;
+            while (it.hasNext()) {
+                int before = md.length();
+                appendRow(md, it.next(), numCols);
+                if (md.length() > maxChars && rowsInPart > 0) {
+                    String row = md.substring(before);
+                    md.setLength(before);
+                    sink.accept(new Part(summary.name, sheets, ++summary.parts, true, firstRow, rowsInPart, md.toString()));
+                    firstRow += rowsInPart;
+                    rowsInPart = 0;
+                    md.setLength(0);
+                    md.append(header).append(row);
+                }
+                rowsInPart++;
+                summary.rows++;
+            }
+            summary.parts++;
+            sink.accept(new Part(summary.name, sheets, summary.parts, summary.parts > 1, firstRow, rowsInPart, md.toString()));
+        }
+        return summary;
+    }
+
+    /** One table row, padded or cut to the header's width. */
+    private static void appendRow(StringBuilder md, Row row, int numCols) {
+        md.append("| ");
+        for (int c = 0; c < numCols; c++) {
+            Cell cell = c < row.getCellCount() ? row.getCell(c) : null;
+            String t = cell == null ? null : cell.getText();
+            md.append(t == null ? "" : t);
+            if (c < numCols - 1) md.append(" | ");
+        }
+        md.append(" |\n");
+    }
+}
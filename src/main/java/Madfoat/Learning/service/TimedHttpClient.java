@@ -0,0 +1,577 @@
+package Madfoat.Learning.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Minimal HTTP/1.1 client used to run single scenarios with a per-phase timing breakdown
+ * (DNS, TCP connect, TLS handshake, request write, time-to-first-byte, download), all measured
+ * with {@link System#nanoTime()}. Keep-alive connections are pooled per scheme/host/port so the
+ * result can also report whether a connection was reused, which is what separates network setup
+ * cost from server time.
+ *
+ * A request that fails because the server had already closed a pooled connection is retried once
+ * on a fresh connection, but only for methods that are safe to send twice and only when the failure
+ * shows the connection was dead (write error, reset or end of stream before any response), never on
+ * a read timeout. Other methods are only sent on a pooled connection that passes a short liveness
+ * probe first.
+ *
+ * Connections always go straight to the target: JVM and system proxy settings are not applied,
+ * since a proxy hop would be folded into the connect and TLS timings being measured. A redirect to
+ * another scheme, host or port drops the Authorization and Cookie headers.
+ */
+@Service
+public class TimedHttpClient {
+
+    private static final int MAX_REDIRECTS = 5;
+    private static final int MAX_IDLE_PER_HOST = 8;
+    private static final long IDLE_TIMEOUT_NANOS = 30_000_000_000L;
+    private static final Set<String> REPLAYABLE_METHODS = Set.of("GET", "HEAD", "OPTIONS", "TRACE");
+    private static final Set<String> CREDENTIAL_HEADERS = Set.of("authorization", "proxy-authorization", "cookie");
+
+    @Value("${scenario.http.connect-timeout-ms:10000}")
+    private int connectTimeoutMs = 10000;
+
+    @Value("${scenario.http.read-timeout-ms:30000}")
+    private int readTimeoutMs = 30000;
+
+    private final Map<String, Deque<PooledConnection>> idle = new ConcurrentHashMap<>();
+
+    public static class Timing {
+        public long dnsNanos;
+        public long connectNanos;
+        public long tlsNanos;
+        public long writeNanos;
+        public long ttfbNanos;
+        public long downloadNanos;
+        public long totalNanos;
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("dnsMs", ms(dnsNanos));
+            m.put("connectMs", ms(connectNanos));
+            m.put("tlsMs", ms(tlsNanos));
+            m.put("requestWriteMs", ms(writeNanos));
+            m.put("ttfbMs", ms(ttfbNanos));
+            m.put("downloadMs", ms(downloadNanos));
+            m.put("totalMs", ms(totalNanos));
+            return m;
+        }
+
+        private void add(Timing other) {
+            dnsNanos += other.dnsNanos;
+            connectNanos += other.connectNanos;
+            tlsNanos += other.tlsNanos;
+            writeNanos += other.writeNanos;
+            ttfbNanos += other.ttfbNanos;
+            downloadNanos += other.downloadNanos;
+        }
+
+        public static double ms(long nanos) {
+            return Math.round(nanos / 10_000.0) / 100.0;
+        }
+    }
+
+    public static class TimedResponse {
+        public int status;
+        public String reason;
+        public final Map<String, String> headers = new LinkedHashMap<>();
+        public ResponseCapture body;
+        public final Timing timing = new Timing();
+        public boolean connectionReused;
+        public int redirects;
+        public String remoteAddress;
+
+        public String header(String name) {
+            for (Map.Entry<String, String> e : headers.entrySet()) {
+                if (e.getKey().equalsIgnoreCase(name)) return e.getValue();
+            }
+            return null;
+        }
+
+        public String contentType() {
+            return header("Content-Type");
+        }
+
+        /** The captured body as text; only the head when the capture was truncated. */
+        public String bodyAsString() {
+            return body == null ? "" : new String(body.head(), charsetOf(contentType()));
+        }
+    }
+
+    /**
+     * Executes the request, streaming the (decoded) response body into {@code capture}.
+     * Bodies of followed redirects are discarded.
+     */
+    public TimedResponse execute(ApiScenarioService.RequestParts p, ResponseCapture capture) throws IOException {
+        long start = System.nanoTime();
+        String method = p.method == null ? "GET" : p.method.toUpperCase(Locale.ROOT);
+        URI uri = URI.create(p.url);
+        Timing accumulated = new Timing();
+        Map<String, String> headers = p.headers;
+        TimedResponse resp = null;
+        for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+            resp = executeOnce(method, uri, headers, p.body, capture, hop < MAX_REDIRECTS);
+            resp.redirects = hop;
+            if (!isFollowedRedirect(resp, method, hop < MAX_REDIRECTS)) break;
+            accumulated.add(resp.timing);
+            URI next = uri.resolve(resp.header("Location"));
+            if (!origin(next).equals(origin(uri))) headers = withoutCredentials(headers);
+            uri = next;
+        }
+        resp.timing.add(accumulated);
+        resp.timing.totalNanos = System.nanoTime() - start;
+        return resp;
+    }
+
+    private static boolean isFollowedRedirect(TimedResponse resp, String method, boolean mayFollow) {
+        return mayFollow
+                && (resp.status == 301 || resp.status == 302 || resp.status == 303 || resp.status == 307 || resp.status == 308)
+                && resp.header("Location") != null
+                && ("GET".equals(method) || "HEAD".equals(method));
+    }
+
+    private static String origin(URI uri) {
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase(Locale.ROOT);
+        int port = uri.getPort() != -1 ? uri.getPort() : (scheme.equals("https") ? 443 : 80);
+        return scheme + "://" + String.valueOf(uri.getHost()).toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    /** The headers minus credentials, which must not follow a redirect to another origin. */
+    private static Map<String, String> withoutCredentials(Map<String, String> headers) {
+        if (headers == null) return null;
+        Map<String, String> out = new LinkedHashMap<>();
+        headers.forEach((k, v) -> {
+            if (!CREDENTIAL_HEADERS.contains(k.toLowerCase(Locale.ROOT))) out.put(k, v);
+        });
+        return out;
+    }
+
+    private TimedResponse executeOnce(String method, URI uri, Map<String, String> headers, String body,
+                                      ResponseCapture capture, boolean mayFollow) throws IOException {
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase(Locale.ROOT);
+        if (!scheme.equals("http") && !scheme.equals("https")) {
+            throw new IOException("Unsupported URL scheme: " + scheme);
+        }
+        String host = uri.getHost();
+        if (host == null) throw new IOException("URL has no host: " + uri);
+        int port = uri.getPort() != -1 ? uri.getPort() : (scheme.equals("https") ? 443 : 80);
+        String key = scheme + "://" + host + ":" + port;
+        byte[] head = requestHead(method, uri, host, port, scheme, headers, body);
+        byte[] payload = body == null ? null : body.getBytes(StandardCharsets.UTF_8);
+
+        PooledConnection conn = borrow(key, !REPLAYABLE_METHODS.contains(method));
+        if (conn != null) {
+            try {
+                return exchange(conn, key, method, head, payload, true, capture, mayFollow);
+            } catch (StaleConnectionException stale) {
+                conn.closeQuietly();
+            }
+        }
+        TimedResponse pending = new TimedResponse();
+        conn = open(scheme, host, port, pending.timing);
+        TimedResponse resp = exchange(conn, key, method, head, payload, false, capture, mayFollow);
+        resp.timing.dnsNanos = pending.timing.dnsNanos;
+        resp.timing.connectNanos = pending.timing.connectNanos;
+        resp.timing.tlsNanos = pending.timing.tlsNanos;
+        return resp;
+    }
+
+    private PooledConnection open(String scheme, String host, int port, Timing timing) throws IOException {
+        long t0 = System.nanoTime();
+        InetAddress[] addresses = InetAddress.getAllByName(host);
+        long t1 = System.nanoTime();
+        timing.dnsNanos = t1 - t0;
+
+        Socket socket = connect(addresses, port);
+        try {
+            socket.setSoTimeout(readTimeoutMs);
+            long t2 = System.nanoTime();
+            timing.connectNanos = t2 - t1;
+
+            if (scheme.equals("https")) {
+                SSLSocket ssl = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(socket, host, port, true);
+                SSLParameters params = ssl.getSSLParameters();
+                params.setEndpointIdentificationAlgorithm("HTTPS");
+                ssl.setSSLParameters(params);
+                ssl.startHandshake();
+                timing.tlsNanos = System.nanoTime() - t2;
+                socket = ssl;
+            }
+            return new PooledConnection(socket);
+        } catch (IOException e) {
+            try { socket.close(); } catch (IOException ignored) {}
+            throw e;
+        }
+    }
+
+    /**
+     * Connects to the first address that accepts, in resolver order, so a host whose first record
+     * is unreachable (often IPv6 on an IPv4-only network) still works. The connect time includes the
+     * failed attempts.
+     */
+    private Socket connect(InetAddress[] addresses, int port) throws IOException {
+        IOException failure = null;
+        for (InetAddress address : addresses) {
+            Socket socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(address, port), connectTimeoutMs);
+                return socket;
+            } catch (IOException e) {
+                try { socket.close(); } catch (IOException ignored) {}
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        throw failure;
+    }
+
+    /** Sends one request on {@code conn}; on any failure the connection is closed and the capture discarded. */
+    private TimedResponse exchange(PooledConnection conn, String key, String method, byte[] head, byte[] payload, boolean reused,
+                                   ResponseCapture capture, boolean mayFollow) throws IOException {
+        try {
+            return send(conn, key, method, head, payload, reused, capture, mayFollow);
+        } catch (StaleConnectionException stale) {
+            // Nothing was received yet, so the capture stays usable for the retry
+            conn.closeQuietly();
+            throw stale;
+        } catch (Throwable t) {
+            conn.closeQuietly();
+            capture.abort();
+            throw t;
+        }
+    }
+
+    private TimedResponse send(PooledConnection conn, String key, String method, byte[] head, byte[] payload, boolean reused,
+                               ResponseCapture capture, boolean mayFollow) throws IOException {
+        TimedResponse resp = new TimedResponse();
+        resp.connectionReused = reused;
+        resp.remoteAddress = String.valueOf(conn.socket.getRemoteSocketAddress());
+
+        // Only a dead pooled connection is retried, and only with a request that may be sent twice
+        boolean replayable = reused && REPLAYABLE_METHODS.contains(method);
+        long w0 = System.nanoTime();
+        try {
+            conn.out.write(head);
+            if (payload != null) conn.out.write(payload);
+            conn.out.flush();
+        } catch (IOException e) {
+            if (replayable && !(e instanceof SocketTimeoutException)) throw new StaleConnectionException();
+            throw e;
+        }
+        long w1 = System.nanoTime();
+        resp.timing.writeNanos = w1 - w0;
+
+        int first;
+        try {
+            first = conn.in.read();
+        } catch (SocketTimeoutException e) {
+            // The request went out and the server is slow; sending it again would not help
+            throw e;
+        } catch (IOException e) {
+            if (replayable) throw new StaleConnectionException();
+            throw e;
+        }
+        if (first == -1) {
+            if (replayable) throw new StaleConnectionException();
+            throw new EOFException("Connection closed before response");
+        }
+        long firstByte = System.nanoTime();
+        resp.timing.ttfbNanos = firstByte - w1;
+
+        boolean keepAlive = readHead(conn.in, first, resp);
+        while (resp.status >= 100 && resp.status < 200 && resp.status != 101) {
+            resp.headers.clear();
+            keepAlive = readHead(conn.in, conn.in.read(), resp);
+        }
+
+        // After 101 the connection speaks another protocol: there is no HTTP body to read and it cannot be pooled
+        boolean switched = resp.status == 101;
+        boolean reusable = keepAlive && !switched;
+        boolean followed = isFollowedRedirect(resp, method, mayFollow);
+        if (!followed) resp.body = capture;
+        if (!"HEAD".equals(method) && !switched && resp.status != 204 && resp.status != 304) {
+            BodyInputStream raw = bodyStream(conn.in, resp);
+            try (InputStream decoded = decode(raw, resp.header("Content-Encoding"))) {
+                decoded.transferTo(followed ? OutputStream.nullOutputStream() : capture);
+                raw.drain();
+            }
+            reusable &= raw.reusable();
+        }
+        if (!followed) capture.close();
+        resp.timing.downloadNanos = System.nanoTime() - firstByte;
+
+        if (reusable) release(key, conn);
+        else conn.closeQuietly();
+        return resp;
+    }
+
+    /** Parses the status line and headers. Returns whether the server allows keep-alive. */
+    private boolean readHead(InputStream in, int first, TimedResponse resp) throws IOException {
+        String statusLine = readLine(in, first);
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        resp.status = (int) parseLength(parts[1], 10, "status code");
+        resp.reason = parts.length > 2 ? parts[2] : "";
+        String line;
+        while (!(line = readLine(in, in.read())).isEmpty()) {
+            int idx = line.indexOf(':');
+            if (idx <= 0) continue;
+            String name = line.substring(0, idx).trim();
+            String value = line.substring(idx + 1).trim();
+            resp.headers.merge(name, value, (a, b) -> a + ", " + b);
+        }
+        String connection = resp.header("Connection");
+        if (parts[0].equals("HTTP/1.0")) return connection != null && connection.equalsIgnoreCase("keep-alive");
+        return connection == null || !connection.toLowerCase(Locale.ROOT).contains("close");
+    }
+
+    /** Frames the message body according to Transfer-Encoding / Content-Length. */
+    private static BodyInputStream bodyStream(InputStream in, TimedResponse resp) throws IOException {
+        String te = resp.header("Transfer-Encoding");
+        if (te != null && te.toLowerCase(Locale.ROOT).contains("chunked")) return new ChunkedBodyStream(in);
+        String cl = resp.header("Content-Length");
+        if (cl != null) return new FixedLengthBodyStream(in, parseLength(cl, 10, "Content-Length"));
+        return new FixedLengthBodyStream(in, -1);
+    }
+
+    /** A non-negative number from a response head; anything else is a protocol error, not a crash. */
+    private static long parseLength(String text, int radix, String what) throws IOException {
+        try {
+            long value = Long.parseLong(text.trim(), radix);
+            if (value >= 0) return value;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IOException("Malformed " + what + ": " + text);
+    }
+
+    private static String readLine(InputStream in, int first) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c = first;
+        while (c != -1 && c != '\n') {
+            if (c != '\r') sb.append((char) c);
+            c = in.read();
+        }
+        if (c == -1 && sb.length() == 0) throw new EOFException("Unexpected end of response");
+        return sb.toString();
+    }
+
+    private static InputStream decode(InputStream raw, String contentEncoding) throws IOException {
+        if (contentEncoding == null) return raw;
+        String enc = contentEncoding.trim().toLowerCase(Locale.ROOT);
+        if (!enc.equals("gzip") && !enc.equals("x-gzip") && !enc.equals("deflate")) return raw;
+        // Some servers label empty bodies as compressed; the decoders would fail on them
+        PushbackInputStream in = new PushbackInputStream(raw, 1);
+        int first = in.read();
+        if (first == -1) return in;
+        in.unread(first);
+        return enc.equals("deflate") ? new InflaterInputStream(in) : new GZIPInputStream(in, 8192);
+    }
+
+    private static byte[] requestHead(String method, URI uri, String host, int port, String scheme, Map<String, String> headers, String body) {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) path += "?" + uri.getRawQuery();
+        boolean defaultPort = (scheme.equals("http") && port == 80) || (scheme.equals("https") && port == 443);
+        StringBuilder b = new StringBuilder(256);
+        b.append(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+        b.append("Host: ").append(host).append(defaultPort ? "" : ":" + port).append("\r\n");
+        boolean hasAccept = false, hasContentType = false, hasUserAgent = false;
+        if (headers != null) {
+            for (Map.Entry<String, String> e : headers.entrySet()) {
+                String name = e.getKey().toLowerCase(Locale.ROOT);
+                if (name.equals("host") || name.equals("content-length") || name.equals("transfer-encoding")) continue;
+                hasAccept |= name.equals("accept");
+                hasContentType |= name.equals("content-type");
+                hasUserAgent |= name.equals("user-agent");
+                b.append(e.getKey()).append(": ").append(e.getValue()).append("\r\n");
+            }
+        }
+        if (!hasAccept) b.append("Accept: */*\r\n");
+        if (!hasUserAgent) b.append("User-Agent: TestAnalystScenarioRunner/1.0\r\n");
+        if (body != null) {
+            if (!hasContentType) {
+                String t = body.trim();
+                String ct = t.startsWith("<") ? "application/xml" : (t.startsWith("{") || t.startsWith("[")) ? "application/json" : "text/plain; charset=UTF-8";
+                b.append("Content-Type: ").append(ct).append("\r\n");
+            }
+            b.append("Content-Length: ").append(body.getBytes(StandardCharsets.UTF_8).length).append("\r\n");
+        } else if (method.equals("POST") || method.equals("PUT") || method.equals("PATCH")) {
+            b.append("Content-Length: 0\r\n");
+        }
+        b.append("\r\n");
+        return b.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static Charset charsetOf(String contentType) {
+        if (contentType != null) {
+            for (String part : contentType.split(";")) {
+                String t = part.trim();
+                if (t.toLowerCase(Locale.ROOT).startsWith("charset=")) {
+                    try { return Charset.forName(t.substring(8).replace("\"", "").trim()); } catch (Exception ignored) {}
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /** An idle connection to {@code key}; with {@code probe}, only one that is verified to be still open. */
+    private PooledConnection borrow(String key, boolean probe) {
+        Deque<PooledConnection> q = idle.get(key);
+        if (q == null) return null;
+        PooledConnection c;
+        while ((c = q.pollFirst()) != null) {
+            if (System.nanoTime() - c.idleSince < IDLE_TIMEOUT_NANOS && !c.socket.isClosed()
+                    && !(probe && c.closedByPeer(readTimeoutMs))) return c;
+            c.closeQuietly();
+        }
+        return null;
+    }
+
+    private void release(String key, PooledConnection conn) {
+        Deque<PooledConnection> q = idle.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>());
+        if (q.size() >= MAX_IDLE_PER_HOST) {
+            conn.closeQuietly();
+            return;
+        }
+        conn.idleSince = System.nanoTime();
+        q.offerFirst(conn);
+    }
+
+    /** Body framing over the shared connection stream; closing it does not close the connection. */
+    private abstract static class BodyInputStream extends InputStream {
+        final InputStream in;
+
+        BodyInputStream(InputStream in) { this.in = in; }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        /** Consumes whatever a decoder left unread so the connection is positioned at the next response. */
+        void drain() throws IOException {
+            byte[] buf = new byte[8192];
+            while (read(buf, 0, buf.length) != -1) { }
+        }
+
+        abstract boolean reusable();
+
+        @Override
+        public void close() { }
+    }
+
+    private static class FixedLengthBodyStream extends BodyInputStream {
+        private long remaining; // -1: read until the server closes the connection
+
+        FixedLengthBodyStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) return -1;
+            int n = in.read(b, off, remaining < 0 ? len : (int) Math.min(len, remaining));
+            if (n == -1) {
+                if (remaining > 0) throw new EOFException("Connection closed with " + remaining + " body bytes outstanding");
+                return -1;
+            }
+            if (remaining > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        boolean reusable() { return remaining == 0; }
+    }
+
+    private static class ChunkedBodyStream extends BodyInputStream {
+        private long chunkRemaining;
+        private boolean done;
+
+        ChunkedBodyStream(InputStream in) { super(in); }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) return -1;
+            if (chunkRemaining == 0) {
+                String sizeLine = readLine(in, in.read());
+                int semi = sizeLine.indexOf(';');
+                chunkRemaining = parseLength(semi >= 0 ? sizeLine.substring(0, semi) : sizeLine, 16, "chunk size");
+                if (chunkRemaining == 0) {
+                    // trailers end with an empty line
+                    while (!readLine(in, in.read()).isEmpty()) { }
+                    done = true;
+                    return -1;
+                }
+            }
+            int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (n == -1) throw new EOFException("Connection closed inside a chunk");
+            chunkRemaining -= n;
+            if (chunkRemaining == 0) readLine(in, in.read());
+            return n;
+        }
+
+        @Override
+        boolean reusable() { return done; }
+    }
+
+    private static class PooledConnection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        long idleSince;
+
+        PooledConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        }
+
+        void closeQuietly() {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+
+        /** Probes an idle connection with a 1 ms read: end of stream, an error or stray bytes mean it is unusable. */
+        boolean closedByPeer(int readTimeoutMs) {
+            try {
+                socket.setSoTimeout(1);
+                in.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (IOException e) {
+                return true;
+            } finally {
+                try { socket.setSoTimeout(readTimeoutMs); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /** A pooled connection the server had already closed before a replayable request; it is retried on a fresh one. */
+    private static class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleConnectionException() { super("Pooled connection was closed by the server"); }
+    }
+}
@@ -0,0 +1,576 @@
+package Madfoat.Learning.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a captured stream of requests against a target with the original inter-arrival times.
+ *
+ * A trace is loaded once from a HAR capture or a JSON log of scenario runs. Identical requests are
+ * stored once and each event is a microsecond offset plus an index into that table, so a day of
+ * traffic fits in a few primitive arrays. A replay run walks the events on one scheduler thread:
+ * event i is due at start + offset(i) / speed, always computed from the start so late events never
+ * push later ones back, and it is handed to the non-blocking dispatcher as soon as it is due. The
+ * gap between due time and hand-off is recorded as lag.
+ */
+@Service
+public class TrafficReplayService {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int MAX_RETAINED_RUNS = 20;
+    private static final long HIGHEST_TRACKABLE_MICROS = Duration.ofMinutes(5).toNanos() / 1000;
+    // Below this the scheduler spins instead of parking, since a park can overshoot by tens of
+    // microseconds; on a single CPU spinning would starve the sender threads, so it always parks
+    private static final long SPIN_NANOS = Runtime.getRuntime().availableProcessors() > 1 ? 100_000 : 0;
+    // Sort keys pack the offset above the event position
+    private static final int INDEX_BITS = 24;
+    private static final long MAX_OFFSET_MICROS = (1L << (63 - INDEX_BITS)) - 1;
+    private static final long SHUTDOWN_JOIN_MILLIS = 5_000;
+
+    @Value("${scenario.replay.max-events:5000000}")
+    private int maxEvents = 5_000_000;
+
+    @Value("${scenario.replay.max-traces:10}")
+    private int maxTraces = 10;
+
+    @Value("${scenario.replay.max-in-flight:10000}")
+    private int maxInFlight = 10_000;
+
+    @Value("${scenario.replay.request-timeout-seconds:30}")
+    private int requestTimeoutSeconds = 30;
+
+    private final ApiScenarioService scenarioService;
+    private final ScenarioImportService importService;
+    private final ScenarioHttpDispatcher dispatcher;
+    private final Map<String, Trace> traces = new ConcurrentHashMap<>();
+    private final Map<String, ReplayRun> runs = new ConcurrentHashMap<>();
+    // Set at context shutdown: replays stop and no longer wait for their responses
+    private volatile boolean shuttingDown;
+
+    @Autowired
+    public TrafficReplayService(ApiScenarioService scenarioService, ScenarioImportService importService,
+                                ScenarioHttpDispatcher dispatcher) {
+        this.scenarioService = scenarioService;
+        this.importService = importService;
+        this.dispatcher = dispatcher;
+    }
+
+    /** Requests of a trace in send order; request i is sent at offsetMicros[i] after the first. */
+    private static final class Trace {
+        final String id = UUID.randomUUID().toString();
+        final String name;
+        final String source;
+        final Instant loadedAt = Instant.now();
+        final Instant firstAt;
+        final List<ApiScenarioService.RequestParts> requests;
+        final long[] offsetMicros;
+        final int[] requestIndex;
+        // Status recorded with the event, 0 when unknown
+        final short[] recordedStatus;
+        final int skipped;
+
+        Trace(String name, String source, Instant firstAt, List<ApiScenarioService.RequestParts> requests,
+              long[] offsetMicros, int[] requestIndex, short[] recordedStatus, int skipped) {
+            this.name = name;
+            this.source = source;
+            this.firstAt = firstAt;
+            this.requests = requests;
+            this.offsetMicros = offsetMicros;
+            this.requestIndex = requestIndex;
+            this.recordedStatus = recordedStatus;
+            this.skipped = skipped;
+        }
+
+        int size() {
+            return offsetMicros.length;
+        }
+
+        long spanMicros() {
+            return offsetMicros.length == 0 ? 0 : offsetMicros[offsetMicros.length - 1];
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("traceId", id);
+            m.put("name", name);
+            m.put("source", source);
+            m.put("events", size());
+            m.put("uniqueRequests", requests.size());
+            m.put("skipped", skipped);
+            if (firstAt != null) m.put("firstAt", firstAt.toString());
+            m.put("spanSeconds", RunStats.round(spanMicros() / 1e6));
+            m.put("averageRps", spanMicros() > 0 ? RunStats.round(size() / (spanMicros() / 1e6)) : null);
+            m.put("loadedAt", loadedAt.toString());
+            return m;
+        }
+    }
+
+    /** Collects events while a trace is read; identical requests share one table entry. */
+    private final class TraceBuilder {
+        final String source;
+        // Sort keys hold the event position in INDEX_BITS, which caps the events per trace
+        final int limit = Math.min(maxEvents, 1 << INDEX_BITS);
+        final Map<String, Integer> indexByKey = new HashMap<>();
+        final List<ApiScenarioService.RequestParts> requests = new ArrayList<>();
+        long[] times = new long[1024];
+        int[] indexes = new int[1024];
+        short[] statuses = new short[1024];
+        int size;
+        int skipped;
+        boolean sorted = true;
+
+        TraceBuilder(String source) {
+            this.source = source;
+        }
+
+        void add(long epochMicros, ApiScenarioService.RequestParts parts, int status) {
+            if (size == limit) {
+                throw new IllegalArgumentException("Trace has more than " + limit + " requests");
+            }
+            String key = parts.method + ' ' + parts.url + ' ' + parts.headers + ' ' + parts.body;
+            Integer idx = indexByKey.get(key);
+            if (idx == null) {
+                idx = requests.size();
+                requests.add(parts);
+                indexByKey.put(key, idx);
+            }
+            if (size == times.length) {
+                int n = Math.min(limit, size * 2);
+                times = Arrays.copyOf(times, n);
+                indexes = Arrays.copyOf(indexes, n);
+                statuses = Arrays.copyOf(statuses, n);
+            }
+            if (size > 0 && epochMicros < times[size - 1]) sorted = false;
+            times[size] = epochMicros;
+            indexes[size] = idx;
+            statuses[size] = (short) Math.max(0, Math.min(999, status));
+            size++;
+        }
+
+        Trace build(String name) {
+            if (size == 0) {
+                throw new IllegalArgumentException("No replayable requests found");
+            }
+            long first = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) first = Math.min(first, times[i]);
+            long[] offsets = new long[size];
+            int[] idx = Arrays.copyOf(indexes, size);
+            short[] status = Arrays.copyOf(statuses, size);
+            for (int i = 0; i < size; i++) {
+                offsets[i] = times[i] - first;
+                if (offsets[i] > MAX_OFFSET_MICROS) {
+                    throw new IllegalArgumentException("Trace spans more than " + MAX_OFFSET_MICROS / 86_400_000_000L + " days");
+                }
+            }
+            if (!sorted) {
+                // Captures are mostly in order; when not, sort (offset, event) pairs packed into one long
+                long[] keys = new long[size];
+                for (int i = 0; i < size; i++) keys[i] = offsets[i] << INDEX_BITS | i;
+                Arrays.sort(keys);
+                long[] sortedOffsets = new long[size];
+                int[] sortedIdx = new int[size];
+                short[] sortedStatus = new short[size];
+                for (int i = 0; i < size; i++) {
+                    int from = (int) (keys[i] & ((1L << INDEX_BITS) - 1));
+                    sortedOffsets[i] = keys[i] >>> INDEX_BITS;
+                    sortedIdx[i] = idx[from];
+                    sortedStatus[i] = status[from];
+                }
+                offsets = sortedOffsets;
+                idx = sortedIdx;
+                status = sortedStatus;
+            }
+            return new Trace(name, source, Instant.ofEpochSecond(first / 1_000_000, (first % 1_000_000) * 1000),
+                    requests, offsets, idx, status, skipped);
+        }
+    }
+
+    // ---------------------------------------------------------------- traces
+
+    /** Loads the API requests of a HAR capture, timed by each entry's startedDateTime. */
+    public Map<String, Object> loadHar(InputStream in, String name, boolean includeStatic) {
+        TraceBuilder builder = new TraceBuilder("har");
+        try {
+            importService.readHar(in, entry -> {
+                Long at = parseTime(entry.startedDateTime);
+                if (entry.parts == null || at == null || (!includeStatic && entry.isStatic())) {
+                    builder.skipped++;
+                    return;
+                }
+                builder.add(at, entry.parts, entry.status);
+            });
+            return store(builder.build(name == null || name.isBlank() ? "HAR capture" : name));
+        } catch (IllegalArgumentException e) {
+            return Map.of("status", "error", "message", e.getMessage());
+        } catch (JsonProcessingException e) {
+            return Map.of("status", "error", "message", "Invalid HAR JSON: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read HAR: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads a run log: a JSON array or newline-delimited JSON objects, each with a
+     * {@code timestamp} (ISO-8601 or epoch milliseconds) and a request given as a stored
+     * {@code scenarioId}, a {@code curl} command, or {@code method}, {@code url}, {@code headers}
+     * and {@code body}. An optional {@code status} is compared with the replayed response.
+     */
+    public Map<String, Object> loadRunLog(InputStream in, String name) {
+        TraceBuilder builder = new TraceBuilder("log");
+        try (MappingIterator<JsonNode> it = MAPPER.readerFor(JsonNode.class).readValues(in)) {
+            while (it.hasNextValue()) {
+                JsonNode entry = it.nextValue();
+                JsonNode timestamp = entry.path("timestamp");
+                Long at = timestamp.isNumber() ? Long.valueOf(timestamp.asLong() * 1000) : parseTime(timestamp.asText(null));
+                ApiScenarioService.RequestParts parts = logRequest(entry);
+                if (at == null || parts == null) {
+                    builder.skipped++;
+                    continue;
+                }
+                builder.add(at, parts, entry.path("status").asInt(0));
+            }
+            return store(builder.build(name == null || name.isBlank() ? "Run log" : name));
+        } catch (IllegalArgumentException e) {
+            return Map.of("status", "error", "message", e.getMessage());
+        } catch (JsonProcessingException e) {
+            return Map.of("status", "error", "message", "Invalid run log JSON: " + e.getOriginalMessage());
+        } catch (IOException e) {
+            return Map.of("status", "error", "message", "Failed to read run log: " + e.getMessage());
+        }
+    }
+
+    public List<Map<String, Object>> listTraces() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        traces.values().stream()
+                .sorted(Comparator.comparing((Trace t) -> t.loadedAt))
+                .forEach(t -> out.add(t.toMap()));
+        return out;
+    }
+
+    public Map<String, Object> deleteTrace(String traceId) {
+        return traces.remove(traceId) != null
+                ? Map.of("status", "ok", "traceId", traceId)
+                : Map.of("status", "error", "message", "Trace not found");
+    }
+
+    private Map<String, Object> store(Trace trace) {
+        // Checked and inserted together, so concurrent uploads cannot go past the cap
+        synchronized (traces) {
+            if (traces.size() >= maxTraces) {
+                return Map.of("status", "error", "message", "At most " + maxTraces + " traces can be loaded; delete one first");
+            }
+            traces.put(trace.id, trace);
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.putAll(trace.toMap());
+        return out;
+    }
+
+    private ApiScenarioService.RequestParts logRequest(JsonNode entry) {
+        try {
+            if (entry.hasNonNull("scenarioId")) {
+                return scenarioService.resolveRequest(entry.get("scenarioId").asText());
+            }
+            if (entry.hasNonNull("curl")) {
+                return scenarioService.parseCurl(entry.get("curl").asText());
+            }
+            String url = entry.path("url").asText("");
+            if (!url.startsWith("http://") && !url.startsWith("https://")) return null;
+            ApiScenarioService.RequestParts parts = new ApiScenarioService.RequestParts();
+            parts.method = entry.path("method").asText("GET").toUpperCase(Locale.ROOT);
+            parts.url = url;
+            entry.path("headers").fields().forEachRemaining(h -> parts.headers.put(h.getKey(), h.getValue().asText("")));
+            parts.body = entry.hasNonNull("body") ? entry.get("body").asText() : null;
+            return parts;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Epoch microseconds of an ISO-8601 timestamp, or null. */
+    private static Long parseTime(String text) {
+        if (text == null || text.isBlank()) return null;
+        try {
+            Instant t;
+            try {
+                t = OffsetDateTime.parse(text).toInstant();
+            } catch (DateTimeParseException e) {
+                t = Instant.parse(text);
+            }
+            return t.getEpochSecond() * 1_000_000 + t.getNano() / 1000;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------- runs
+
+    /**
+     * Starts replaying a trace. {@code speed} divides every inter-arrival gap (20 compresses a day
+     * into 72 minutes); {@code targetBaseUrl} replaces the scheme, host and port of every request,
+     * and its path, if any, is prepended to each request path.
+     */
+    public Map<String, Object> start(String traceId, Double speed, String targetBaseUrl) {
+        Trace trace = traces.get(traceId);
+        if (trace == null) {
+            return Map.of("status", "error", "message", "Trace not found");
+        }
+        double factor = speed == null ? 1.0 : speed;
+        if (!(factor > 0) || factor > 10_000) {
+            return Map.of("status", "error", "message", "speed must be greater than 0 and at most 10000");
+        }
+        URI target = null;
+        if (targetBaseUrl != null && !targetBaseUrl.isBlank()) {
+            try {
+                target = URI.create(targetBaseUrl.trim());
+            } catch (IllegalArgumentException e) {
+                return Map.of("status", "error", "message", "Invalid targetBaseUrl: " + e.getMessage());
+            }
+            if (target.getScheme() == null || target.getRawAuthority() == null) {
+                return Map.of("status", "error", "message", "targetBaseUrl must be an absolute URL such as http://localhost:8080");
+            }
+        }
+
+        // Build each distinct request once; the scheduler then only looks them up
+        Duration timeout = Duration.ofSeconds(requestTimeoutSeconds);
+        HttpRequest[] built = new HttpRequest[trace.requests.size()];
+        int invalid = 0;
+        for (int i = 0; i < built.length; i++) {
+            ApiScenarioService.RequestParts p = trace.requests.get(i);
+            try {
+                ApiScenarioService.RequestParts sent = p;
+                if (target != null) {
+                    sent = new ApiScenarioService.RequestParts();
+                    sent.method = p.method;
+                    sent.url = retarget(p.url, target);
+                    sent.headers.putAll(p.headers);
+                    sent.body = p.body;
+                }
+                built[i] = dispatcher.toRequest(sent, timeout);
+            } catch (RuntimeException e) {
+                invalid++;
+            }
+        }
+        if (invalid == built.length) {
+            return Map.of("status", "error", "message", "None of the trace's requests could be built");
+        }
+
+        RunStats.evictFinished(runs, MAX_RETAINED_RUNS, r -> !"running".equals(r.state), r -> r.startedAt);
+        ReplayRun run = new ReplayRun(trace, built, factor, target == null ? null : target.toString());
+        runs.put(run.runId, run);
+        Thread scheduler = new Thread(() -> replay(run), "traffic-replay-" + run.runId.substring(0, 8));
+        scheduler.setDaemon(true);
+        run.scheduler = scheduler;
+        scheduler.start();
+        return snapshot(run);
+    }
+
+    /**
+     * Stops every running replay and waits briefly for its scheduler to exit, so nothing is handed to
+     * the dispatcher after its pool has been shut down.
+     */
+    @PreDestroy
+    void shutdown() {
+        shuttingDown = true;
+        for (ReplayRun run : runs.values()) run.stopRequested = true;
+        for (ReplayRun run : runs.values()) {
+            Thread t = run.scheduler;
+            if (t == null) continue;
+            LockSupport.unpark(t);
+            try {
+                t.join(SHUTDOWN_JOIN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public Map<String, Object> status(String runId) {
+        ReplayRun run = runs.get(runId);
+        if (run == null) {
+            return Map.of("status", "error", "message", "Replay run not found");
+        }
+        return snapshot(run);
+    }
+
+    public Map<String, Object> stop(String runId) {
+        ReplayRun run = runs.get(runId);
+        if (run == null) {
+            return Map.of("status", "error", "message", "Replay run not found");
+        }
+        run.stopRequested = true;
+        return snapshot(run);
+    }
+
+    public List<Map<String, Object>> listRuns() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        runs.values().stream()
+                .sorted(Comparator.comparing((ReplayRun r) -> r.startedAt).reversed())
+                .forEach(r -> out.add(snapshot(r)));
+        return out;
+    }
+
+    private void replay(ReplayRun run) {
+        Trace trace = run.trace;
+        double nanosPerTraceMicro = 1000.0 / run.speed;
+        run.startNanos = System.nanoTime();
+        for (int i = 0; i < trace.size() && !run.stopRequested; i++) {
+            long intended = run.startNanos + (long) (trace.offsetMicros[i] * nanosPerTraceMicro);
+            waitUntil(intended, run);
+            if (run.stopRequested) break;
+            run.position = i + 1;
+            if (run.inFlight.get() >= maxInFlight) {
+                // Client-side saturation: count it rather than queueing without bound
+                run.dropped.increment();
+                continue;
+            }
+            long now = System.nanoTime();
+            run.lag.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, (now - intended) / 1000)));
+            HttpRequest request = run.requests[trace.requestIndex[i]];
+            run.sent.increment();
+            if (request == null) {
+                run.completed.increment();
+                run.errors.increment();
+                run.errorCounts.computeIfAbsent("InvalidRequest", k -> new LongAdder()).increment();
+                continue;
+            }
+            int expected = trace.recordedStatus[i];
+            run.inFlight.incrementAndGet();
+            dispatcher.send(request).whenComplete((outcome, ignored) -> {
+                long done = System.nanoTime();
+                run.inFlight.decrementAndGet();
+                record(run, outcome, expected, done - now - outcome.throttleNanos);
+            });
+        }
+        long giveUp = System.nanoTime() + Duration.ofSeconds(requestTimeoutSeconds + 5L).toNanos();
+        while (run.inFlight.get() > 0 && !shuttingDown && System.nanoTime() < giveUp) {
+            LockSupport.parkNanos(Duration.ofMillis(20).toNanos());
+        }
+        run.finishNanos = System.nanoTime();
+        run.state = run.stopRequested ? "stopped" : "completed";
+    }
+
+    /** Parks until shortly before the deadline, then spins so the hand-off lands on time. */
+    private static void waitUntil(long deadlineNanos, ReplayRun run) {
+        long wait;
+        while (!run.stopRequested && (wait = deadlineNanos - System.nanoTime()) > 0) {
+            if (wait > SPIN_NANOS) LockSupport.parkNanos(wait - SPIN_NANOS);
+            else Thread.onSpinWait();
+        }
+    }
+
+    private void record(ReplayRun run, ScenarioHttpDispatcher.Outcome outcome, int expectedStatus, long serviceNanos) {
+        run.completed.increment();
+        run.latency.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, Math.max(0, serviceNanos / 1000)));
+        run.throttleDelay.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, outcome.throttleNanos / 1000));
+        run.bytes.add(outcome.bytes);
+        if (outcome.isError()) {
+            run.errors.increment();
+            run.errorCounts.computeIfAbsent(outcome.error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+            return;
+        }
+        run.statusCounts.computeIfAbsent(String.valueOf(outcome.status), k -> new LongAdder()).increment();
+        if (expectedStatus > 0 && outcome.status != expectedStatus) run.statusMismatches.increment();
+    }
+
+    private static String retarget(String url, URI target) {
+        URI u = URI.create(url);
+        String prefix = target.getRawPath() == null ? "" : target.getRawPath();
+        if (prefix.endsWith("/")) prefix = prefix.substring(0, prefix.length() - 1);
+        String path = u.getRawPath() == null || u.getRawPath().isEmpty() ? "/" : u.getRawPath();
+        return target.getScheme() + "://" + target.getRawAuthority() + prefix + path
+                + (u.getRawQuery() == null ? "" : "?" + u.getRawQuery());
+    }
+
+    private Map<String, Object> snapshot(ReplayRun run) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("status", "ok");
+        out.put("runId", run.runId);
+        out.put("traceId", run.trace.id);
+        out.put("state", run.state);
+        out.put("speed", run.speed);
+        if (run.targetBaseUrl != null) out.put("targetBaseUrl", run.targetBaseUrl);
+        out.put("startedAt", run.startedAt.toString());
+        long startNanos = run.startNanos;
+        double elapsed = startNanos == 0 ? 0 : ((run.finishNanos != 0 ? run.finishNanos : System.nanoTime()) - startNanos) / 1e9;
+        out.put("elapsedSeconds", RunStats.round(elapsed));
+        out.put("expectedSeconds", RunStats.round(run.trace.spanMicros() / 1e6 / run.speed));
+        out.put("totalEvents", run.trace.size());
+        out.put("position", run.position);
+        long completed = run.completed.sum();
+        out.put("sent", run.sent.sum());
+        out.put("completed", completed);
+        out.put("inFlight", run.inFlight.get());
+        out.put("errors", run.errors.sum());
+        out.put("dropped", run.dropped.sum());
+        out.put("statusMismatches", run.statusMismatches.sum());
+        out.put("throughputRps", elapsed > 0 ? RunStats.round(completed / elapsed) : 0.0);
+        out.put("receivedBytes", run.bytes.sum());
+        out.put("statusCounts", RunStats.toCounts(run.statusCounts));
+        out.put("errorBreakdown", RunStats.toCounts(run.errorCounts));
+        out.put("lagMs", RunStats.percentiles(run.lag.copy()));
+        out.put("throttleDelayMs", RunStats.percentiles(run.throttleDelay.copy()));
+        out.put("latencyMs", RunStats.percentiles(run.latency.copy()));
+        return out;
+    }
+
+    private static class ReplayRun {
+        final String runId = UUID.randomUUID().toString();
+        final Trace trace;
+        final HttpRequest[] requests;
+        final double speed;
+        final String targetBaseUrl;
+        final Instant startedAt = Instant.now();
+
+        final Histogram lag = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Histogram throttleDelay = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+        final LongAdder sent = new LongAdder();
+        final LongAdder completed = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder statusMismatches = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final Map<String, LongAdder> statusCounts = new ConcurrentHashMap<>();
+        final Map<String, LongAdder> errorCounts = new ConcurrentHashMap<>();
+
+        volatile Thread scheduler;
+        volatile boolean stopRequested;
+        volatile String state = "running";
+        volatile int position;
+        volatile long startNanos;
+        volatile long finishNanos;
+
+        ReplayRun(Trace trace, HttpRequest[] requests, double speed, String targetBaseUrl) {
+            this.trace = trace;
+            this.requests = requests;
+            this.speed = speed;
+            this.targetBaseUrl = targetBaseUrl;
+        }
+    }
+}
@@ -0,0 +1,665 @@
+package Madfoat.Learning.util;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Parses cURL command lines as exported by browsers ("Copy as cURL" in both the bash and the
+ * Windows cmd flavour), Postman and hand-written scripts.
+ *
+ * The input is read in a single pass and options are consumed as soon as each word is complete,
+ * so no token list is built. A word made of one quoted or unquoted run (the usual case for a large
+ * {@code -d '...'} body) is cut straight out of the input; only words that mix quoting styles or
+ * contain escapes are assembled in a shared buffer.
+ *
+ * Shell quoting: single and double quotes, {@code $'...'} ANSI-C strings, backslash escapes and
+ * line continuations. Files referenced with {@code @file}, {@code -T} or {@code -F name=@file} are
+ * recorded in {@link ParsedCurl#fileReferences} and never read.
+ */
+public final class CurlParser {
+
+    // Short options that take an argument, either attached (-XPOST) or as the next word
+    private static final String SHORT_WITH_ARG = "AbcCdDeEFHKmoPQrtTuUwxXyYz";
+
+    private static final Map<Character, String> SHORT_NAMES = Map.ofEntries(
+            Map.entry('X', "--request"), Map.entry('H', "--header"), Map.entry('d', "--data"),
+            Map.entry('F', "--form"), Map.entry('u', "--user"), Map.entry('A', "--user-agent"),
+            Map.entry('b', "--cookie"), Map.entry('e', "--referer"), Map.entry('G', "--get"),
+            Map.entry('I', "--head"), Map.entry('T', "--upload-file"));
+
+    private static final Set<String> LONG_WITH_ARG = Set.of(
+            "--request", "--header", "--data", "--data-ascii", "--data-binary", "--data-raw", "--data-urlencode",
+            "--json", "--form", "--form-string", "--user", "--user-agent", "--cookie", "--referer", "--url",
+            "--url-query", "--upload-file", "--oauth2-bearer", "--output", "--max-time", "--connect-timeout",
+            "--proxy", "--proxy-user", "--proxy-header", "--cookie-jar", "--dump-header", "--write-out", "--cert",
+            "--cert-type", "--key", "--key-type", "--pass", "--cacert", "--capath", "--ciphers", "--config",
+            "--range", "--retry", "--retry-delay", "--retry-max-time", "--max-redirs", "--max-filesize",
+            "--limit-rate", "--resolve", "--connect-to", "--interface", "--local-port", "--noproxy",
+            "--unix-socket", "--abstract-unix-socket", "--aws-sigv4", "--request-target", "--continue-at",
+            "--time-cond", "--speed-limit", "--speed-time", "--expect100-timeout", "--keepalive-time",
+            "--dns-servers", "--doh-url", "--output-dir", "--proto", "--proto-default", "--proto-redir",
+            "--quote", "--stderr", "--trace", "--trace-ascii", "--tls-max", "--alt-svc", "--hsts",
+            "--pinnedpubkey", "--variable", "--sasl-authzid", "--login-options");
+
+    private static final String FORM_BOUNDARY = "----FormBoundary7MA4YWxkTrZu0gW";
+
+    private CurlParser() {
+    }
+
+    public static class ParsedCurl {
+        /** Explicit method, or the one curl would pick from the other options. */
+        public String method;
+        public String url;
+        public final Map<String, String> headers = new LinkedHashMap<>();
+        public String body;
+        /** Files the command would read (request body, uploads, form parts); recorded but never opened. */
+        public final List<String> fileReferences = new ArrayList<>();
+        public boolean compressed;
+    }
+
+    public static ParsedCurl parse(CharSequence command) {
+        Builder b = new Builder();
+        if (command == null) return b.finish();
+        Words words = new Words(command);
+        String word = words.next();
+        if (word != null && isCurlProgram(word)) {
+            words.detectCmdQuoting();
+            word = words.next();
+        }
+        boolean endOfOptions = false;
+        for (; word != null; word = words.next()) {
+            if (endOfOptions || word.length() < 2 || word.charAt(0) != '-') {
+                b.positional(word);
+            } else if (word.equals("--")) {
+                endOfOptions = true;
+            } else if (word.startsWith("--")) {
+                String arg = null;
+                if (LONG_WITH_ARG.contains(word)) {
+                    arg = words.next();
+                    if (arg == null) break;
+                }
+                b.option(word, arg);
+            } else {
+                // A cluster of short flags such as -sSL, where an argument-taking flag ends the cluster
+                for (int i = 1; i < word.length(); i++) {
+                    char f = word.charAt(i);
+                    String name = SHORT_NAMES.getOrDefault(f, "-" + f);
+                    if (SHORT_WITH_ARG.indexOf(f) >= 0) {
+                        String arg = i + 1 < word.length() ? word.substring(i + 1) : words.next();
+                        if (arg != null) b.option(name, arg);
+                        break;
+                    }
+                    b.option(name, null);
+                }
+            }
+        }
+        return b.finish();
+    }
+
+    /**
+     * Renders a request as a bash cURL command that {@link #parse} reads back to the same method,
+     * URL, headers and body.
+     */
+    public static String format(String method, String url, Map<String, String> headers, String body) {
+        StringBuilder curl = new StringBuilder("curl");
+        if (method != null) curl.append(" -X ").append(method);
+        if (headers != null) {
+            for (Map.Entry<String, String> e : headers.entrySet()) {
+                // curl reads "Name:" as "drop this header"; "Name;" sends it empty
+                String header = e.getValue() == null || e.getValue().isEmpty() ? e.getKey() + ";" : e.getKey() + ": " + e.getValue();
+                curl.append(" -H ").append(shellQuote(header));
+            }
+        }
+        // --data-raw, so a body starting with '@' is not taken for a file name
+        if (body != null) curl.append(" --data-raw ").append(shellQuote(body));
+        if (url != null) curl.append(" ").append(shellQuote(url));
+        return curl.toString();
+    }
+
+    private static String shellQuote(String s) {
+        return "'" + s.replace("'", "'\\''") + "'";
+    }
+
+    private static boolean isCurlProgram(String word) {
+        String w = word.toLowerCase(Locale.ROOT);
+        int slash = Math.max(w.lastIndexOf('/'), w.lastIndexOf('\\'));
+        String name = w.substring(slash + 1);
+        return name.equals("curl") || name.equals("curl.exe");
+    }
+
+    /** Applies options in command-line order and derives the final request once all are seen. */
+    private static class Builder {
+        private final ParsedCurl r = new ParsedCurl();
+        private String explicitMethod;
+        private boolean get;
+        private boolean head;
+        private boolean upload;
+        private boolean json;
+        // The first data piece is kept as-is; later ones are joined into a buffer
+        private String data;
+        private StringBuilder moreData;
+        private List<String> urlQueries;
+        private StringBuilder form;
+
+        void positional(String word) {
+            if (r.url == null) r.url = word;
+        }
+
+        void option(String name, String arg) {
+            switch (name) {
+                case "--request" -> explicitMethod = arg;
+                case "--header" -> header(arg);
+                case "--data", "--data-ascii", "--data-binary" -> {
+                    if (arg.startsWith("@")) {
+                        r.fileReferences.add(arg.substring(1));
+                        addData("", "&");
+                    } else {
+                        addData(arg, "&");
+                    }
+                }
+                case "--data-raw" -> addData(arg, "&");
+                case "--data-urlencode" -> addData(urlEncodeData(arg), "&");
+                case "--json" -> {
+                    json = true;
+                    if (arg.startsWith("@")) {
+                        r.fileReferences.add(arg.substring(1));
+                        addData("", "");
+                    } else {
+                        addData(arg, "");
+                    }
+                }
+                case "--form" -> formPart(arg, true);
+                case "--form-string" -> formPart(arg, false);
+                case "--user" -> putIfAbsent("Authorization", "Basic "
+                        + Base64.getEncoder().encodeToString((arg.indexOf(':') >= 0 ? arg : arg + ":").getBytes(StandardCharsets.UTF_8)));
+                case "--oauth2-bearer" -> putIfAbsent("Authorization", "Bearer " + arg);
+                case "--user-agent" -> r.headers.put("User-Agent", arg);
+                case "--referer" -> {
+                    String ref = arg.endsWith(";auto") ? arg.substring(0, arg.length() - 5) : arg;
+                    if (!ref.isEmpty()) r.headers.put("Referer", ref);
+                }
+                case "--cookie" -> {
+                    // Without '=' the argument names a cookie file
+                    if (arg.indexOf('=') >= 0) r.headers.put("Cookie", arg);
+                    else r.fileReferences.add(arg);
+                }
+                case "--url" -> positional(arg);
+                case "--url-query" -> {
+                    if (urlQueries == null) urlQueries = new ArrayList<>();
+                    urlQueries.add(arg.startsWith("+") ? arg.substring(1) : urlEncodeData(arg));
+                }
+                case "--upload-file" -> {
+                    upload = true;
+                    r.fileReferences.add(arg);
+                }
+                case "--compressed" -> r.compressed = true;
+                case "--get" -> get = true;
+                case "--head" -> head = true;
+                default -> {
+                    // Transport, output and TLS options do not change the request itself
+                }
+            }
+        }
+
+        private void header(String h) {
+            if (h.startsWith("@")) {
+                r.fileReferences.add(h.substring(1));
+                return;
+            }
+            int colon = h.indexOf(':');
+            if (colon > 0) {
+                String name = h.substring(0, colon).trim();
+                String value = h.substring(colon + 1).trim();
+                removeHeader(name);
+                // "Name:" with no value tells curl to drop the header
+                if (!value.isEmpty()) r.headers.put(name, value);
+                return;
+            }
+            // "Name;" sends the header with an empty value
+            if (h.endsWith(";") && h.length() > 1) {
+                String name = h.substring(0, h.length() - 1).trim();
+                removeHeader(name);
+                r.headers.put(name, "");
+            }
+        }
+
+        private void addData(String piece, String separator) {
+            if (data == null) {
+                data = piece;
+                return;
+            }
+            if (moreData == null) moreData = new StringBuilder(data);
+            if (!piece.isEmpty() && moreData.length() > 0) moreData.append(separator);
+            moreData.append(piece);
+        }
+
+        private String urlEncodeData(String arg) {
+            int eq = arg.indexOf('=');
+            int at = arg.indexOf('@');
+            if (eq >= 0 && (at < 0 || eq < at)) {
+                String name = arg.substring(0, eq);
+                String content = encode(arg.substring(eq + 1));
+                return name.isEmpty() ? content : name + "=" + content;
+            }
+            if (at >= 0) {
+                r.fileReferences.add(arg.substring(at + 1));
+                return at == 0 ? "" : arg.substring(0, at) + "=";
+            }
+            return encode(arg);
+        }
+
+        private void formPart(String arg, boolean fileSyntax) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) return;
+            if (form == null) form = new StringBuilder();
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            form.append("--").append(FORM_BOUNDARY).append("\r\n");
+            if (fileSyntax && (value.startsWith("@") || value.startsWith("<"))) {
+                boolean attachment = value.charAt(0) == '@';
+                String[] params = value.substring(1).split(";");
+                String path = params[0];
+                String type = null;
+                String filename = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+                for (int i = 1; i < params.length; i++) {
+                    String p = params[i].trim();
+                    if (p.startsWith("type=")) type = p.substring(5);
+                    else if (p.startsWith("filename=")) filename = unquote(p.substring(9));
+                }
+                r.fileReferences.add(path);
+                form.append("Content-Disposition: form-data; name=\"").append(name).append('"');
+                if (attachment) form.append("; filename=\"").append(filename).append('"');
+                form.append("\r\n");
+                if (type != null || attachment) {
+                    form.append("Content-Type: ").append(type != null ? type : "application/octet-stream").append("\r\n");
+                }
+                form.append("\r\n\r\n");
+            } else {
+                form.append("Content-Disposition: form-data; name=\"").append(name).append("\"\r\n\r\n");
+                form.append(value).append("\r\n");
+            }
+        }
+
+        private void putIfAbsent(String name, String value) {
+            if (findHeader(name) == null) r.headers.put(name, value);
+        }
+
+        private void removeHeader(String name) {
+            String existing = findHeader(name);
+            if (existing != null) r.headers.remove(existing);
+        }
+
+        private String findHeader(String name) {
+            for (String k : r.headers.keySet()) {
+                if (k.equalsIgnoreCase(name)) return k;
+            }
+            return null;
+        }
+
+        ParsedCurl finish() {
+            if (r.url != null && !r.url.contains("://") && !r.url.startsWith("{{")) {
+                // curl assumes http:// for a bare host
+                r.url = "http://" + r.url;
+            }
+            String payload = moreData != null ? moreData.toString() : data;
+            if (get && payload != null) {
+                if (urlQueries == null) urlQueries = new ArrayList<>();
+                if (!payload.isEmpty()) urlQueries.add(payload);
+                payload = null;
+            }
+            if (urlQueries != null && r.url != null) {
+                StringBuilder u = new StringBuilder(r.url);
+                for (String q : urlQueries) {
+                    u.append(u.indexOf("?") >= 0 ? '&' : '?').append(q);
+                }
+                r.url = u.toString();
+            }
+            if (form != null) {
+                form.append("--").append(FORM_BOUNDARY).append("--\r\n");
+                payload = form.toString();
+                putIfAbsent("Content-Type", "multipart/form-data; boundary=" + FORM_BOUNDARY);
+            }
+            if (json) {
+                putIfAbsent("Content-Type", "application/json");
+                putIfAbsent("Accept", "application/json");
+            }
+            if (r.compressed) putIfAbsent("Accept-Encoding", "deflate, gzip");
+            r.body = payload;
+
+            if (explicitMethod != null) r.method = explicitMethod;
+            else if (head) r.method = "HEAD";
+            else if (get) r.method = "GET";
+            else if (payload != null) r.method = "POST";
+            else if (upload) r.method = "PUT";
+            else r.method = "GET";
+            return r;
+        }
+
+        private static String encode(String s) {
+            return URLEncoder.encode(s, StandardCharsets.UTF_8).replace("+", "%20");
+        }
+
+        private static String unquote(String s) {
+            return s.length() >= 2 && s.startsWith("\"") && s.endsWith("\"") ? s.substring(1, s.length() - 1) : s;
+        }
+    }
+
+    /**
+     * Splits the command into shell words on demand.
+     *
+     * A word whose content is one contiguous run of the input is returned as a single substring;
+     * anything else goes through {@link #buf}. Windows cmd exports (carets around every quote) are
+     * read with cmd escaping followed by the C runtime's argument rules.
+     */
+    private static class Words {
+        private static final int CONTINUATION = -2;
+
+        private final CharSequence s;
+        private final int end;
+        private final StringBuilder buf = new StringBuilder();
+        private int pos;
+        private boolean cmd;
+        private int cmdLength;
+
+        // Pending run for the current word; copied into buf only if a second run follows
+        private int runStart;
+        private int runEnd;
+        private boolean hasRun;
+        private boolean buffered;
+
+        Words(CharSequence s) {
+            this.s = s;
+            this.end = s.length();
+        }
+
+        /** Chrome's "Copy as cURL (cmd)" puts a caret before every quote, starting with the URL's. */
+        void detectCmdQuoting() {
+            int i = pos;
+            while (i < end && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) i++;
+            cmd = i < end && s.charAt(i) == '^';
+        }
+
+        String next() {
+            return cmd ? nextCmd() : nextShell();
+        }
+
+        private String nextShell() {
+            skipShellSeparators();
+            if (pos >= end) return null;
+            hasRun = false;
+            buffered = false;
+            buf.setLength(0);
+            while (pos < end) {
+                char c = s.charAt(pos);
+                if (isSpace(c)) break;
+                if (c == '\'') {
+                    int close = indexOf('\'', pos + 1);
+                    run(pos + 1, close);
+                    pos = Math.min(end, close + 1);
+                } else if (c == '"') {
+                    readDoubleQuoted();
+                } else if (c == '$' && pos + 1 < end && s.charAt(pos + 1) == '\'') {
+                    readAnsiC();
+                } else if (c == '\\') {
+                    int nl = newlineLength(pos + 1);
+                    if (nl > 0) {
+                        pos += 1 + nl;
+                    } else if (pos + 1 < end) {
+                        run(pos + 1, pos + 2);
+                        pos += 2;
+                    } else {
+                        run(pos, pos + 1);
+                        pos++;
+                    }
+                } else {
+                    int start = pos;
+                    while (pos < end && isPlain(s.charAt(pos))) pos++;
+                    if (pos == start) pos++;
+                    run(start, pos);
+                }
+            }
+            return word();
+        }
+
+        private void skipShellSeparators() {
+            while (pos < end) {
+                char c = s.charAt(pos);
+                if (isSpace(c)) {
+                    pos++;
+                } else if (c == '\\' && newlineLength(pos + 1) > 0) {
+                    pos += 1 + newlineLength(pos + 1);
+                } else if (c == '#') {
+                    while (pos < end && s.charAt(pos) != '\n') pos++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /** Inside double quotes a backslash only escapes $, `, ", \ and newline. */
+        private void readDoubleQuoted() {
+            pos++;
+            int start = pos;
+            while (pos < end) {
+                char c = s.charAt(pos);
+                if (c == '"') {
+                    run(start, pos);
+                    pos++;
+                    return;
+                }
+                if (c == '\\' && pos + 1 < end) {
+                    char n = s.charAt(pos + 1);
+                    int nl = newlineLength(pos + 1);
+                    if (nl > 0) {
+                        run(start, pos);
+                        pos += 1 + nl;
+                        start = pos;
+                        continue;
+                    }
+                    if (n == '$' || n == '`' || n == '"' || n == '\\') {
+                        run(start, pos);
+                        run(pos + 1, pos + 2);
+                        pos += 2;
+                        start = pos;
+                        continue;
+                    }
+                }
+                pos++;
+            }
+            run(start, pos);
+        }
+
+        /** $'...' strings, which Chrome uses for bodies containing quotes or control characters. */
+        private void readAnsiC() {
+            pos += 2;
+            int start = pos;
+            while (pos < end) {
+                char c = s.charAt(pos);
+                if (c == '\'') {
+                    run(start, pos);
+                    pos++;
+                    return;
+                }
+                if (c != '\\' || pos + 1 >= end) {
+                    pos++;
+                    continue;
+                }
+                run(start, pos);
+                char e = s.charAt(pos + 1);
+                pos += 2;
+                switch (e) {
+                    case 'n' -> append('\n');
+                    case 't' -> append('\t');
+                    case 'r' -> append('\r');
+                    case 'a' -> append('\u0007');
+                    case 'b' -> append('\b');
+                    case 'f' -> append('\f');
+                    case 'v' -> append('\u000B');
+                    case 'e', 'E' -> append('\u001B');
+                    case 'x' -> appendCodePoint(hex(2), "\\x");
+                    case 'u' -> appendCodePoint(hex(4), "\\u");
+                    case 'U' -> appendCodePoint(hex(8), "\\U");
+                    case 'c' -> {
+                        if (pos < end) append((char) (s.charAt(pos++) & 0x1F));
+                    }
+                    default -> {
+                        if (e >= '0' && e <= '7') {
+                            int v = e - '0';
+                            for (int i = 0; i < 2 && pos < end && s.charAt(pos) >= '0' && s.charAt(pos) <= '7'; i++) {
+                                v = v * 8 + (s.charAt(pos++) - '0');
+                            }
+                            append((char) (v & 0xFF));
+                        } else if (e == '\\' || e == '\'' || e == '"' || e == '?') {
+                            append(e);
+                        } else {
+                            append('\\');
+                            append(e);
+                        }
+                    }
+                }
+                start = pos;
+            }
+            run(start, pos);
+        }
+
+        private int hex(int maxDigits) {
+            int v = 0;
+            int digits = 0;
+            while (digits < maxDigits && pos < end && Character.digit(s.charAt(pos), 16) >= 0) {
+                v = v * 16 + Character.digit(s.charAt(pos++), 16);
+                digits++;
+            }
+            return digits == 0 ? -1 : v;
+        }
+
+        private void appendCodePoint(int cp, String literal) {
+            if (cp < 0 || !Character.isValidCodePoint(cp)) {
+                flushRun();
+                buf.append(literal);
+            } else {
+                flushRun();
+                buf.appendCodePoint(cp);
+            }
+        }
+
+        /**
+         * cmd first strips carets (a caret before a line break continues the line, a caret plus an
+         * empty line is a literal newline); the program then splits on unquoted whitespace, with
+         * backslashes escaping quotes.
+         */
+        private String nextCmd() {
+            while (pos < end) {
+                int c = cmdChar();
+                if (c == CONTINUATION || (c >= 0 && isSpace((char) c))) pos += cmdLength;
+                else if (c < 0) pos = end;
+                else break;
+            }
+            if (pos >= end) return null;
+            buf.setLength(0);
+            boolean quoted = false;
+            int backslashes = 0;
+            while (pos < end) {
+                int c = cmdChar();
+                if (c == -1) {
+                    pos = end;
+                    break;
+                }
+                if (c == CONTINUATION) {
+                    pos += cmdLength;
+                    continue;
+                }
+                if (!quoted && isSpace((char) c)) break;
+                pos += cmdLength;
+                if (c == '\\') {
+                    backslashes++;
+                    continue;
+                }
+                if (c == '"') {
+                    for (int i = 0; i < backslashes / 2; i++) buf.append('\\');
+                    if (backslashes % 2 == 1) buf.append('"');
+                    else quoted = !quoted;
+                    backslashes = 0;
+                    continue;
+                }
+                for (; backslashes > 0; backslashes--) buf.append('\\');
+                buf.append((char) c);
+            }
+            for (; backslashes > 0; backslashes--) buf.append('\\');
+            return buf.toString();
+        }
+
+        /** The character at pos after cmd caret handling; its raw length is left in cmdLength. */
+        private int cmdChar() {
+            if (pos >= end) return -1;
+            char c = s.charAt(pos);
+            if (c != '^') {
+                cmdLength = 1;
+                return c;
+            }
+            if (pos + 1 >= end) return -1;
+            int nl = newlineLength(pos + 1);
+            if (nl == 0) {
+                cmdLength = 2;
+                return s.charAt(pos + 1);
+            }
+            int nl2 = newlineLength(pos + 1 + nl);
+            if (nl2 > 0) {
+                cmdLength = 1 + nl + nl2;
+                return '\n';
+            }
+            cmdLength = 1 + nl;
+            return CONTINUATION;
+        }
+
+        private void run(int from, int to) {
+            if (!hasRun && !buffered) {
+                runStart = from;
+                runEnd = to;
+                hasRun = true;
+                return;
+            }
+            flushRun();
+            buf.append(s, from, to);
+        }
+
+        private void append(char c) {
+            flushRun();
+            buf.append(c);
+        }
+
+        private void flushRun() {
+            if (buffered) return;
+            if (hasRun) buf.append(s, runStart, runEnd);
+            buffered = true;
+        }
+
+        private String word() {
+            if (buffered) return buf.toString();
+            return hasRun ? s.subSequence(runStart, runEnd).toString() : "";
+        }
+
+        private int indexOf(char c, int from) {
+            for (int i = from; i < end; i++) {
+                if (s.charAt(i) == c) return i;
+            }
+            return end;
+        }
+
+        private int newlineLength(int i) {
+            if (i >= end) return 0;
+            char c = s.charAt(i);
+            if (c == '\n') return 1;
+            if (c == '\r') return i + 1 < end && s.charAt(i + 1) == '\n' ? 2 : 1;
+            return 0;
+        }
+
+        private static boolean isSpace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+        }
+
+        private static boolean isPlain(char c) {
+            return !isSpace(c) && c != '\'' && c != '"' && c != '\\' && c != '$';
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package Madfoat.Learning.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Generates negative-test variants of a JSON payload.
+ *
+ * The payload is parsed and serialized once and never modified. Mutations are produced lazily by
+ * a depth-first walk: each one names a single location and a replacement (or removal), and its
+ * body is the original text with that one span spliced. Memory use is therefore bounded by the
+ * tree plus one mutated body, however many mutations are consumed.
+ *
+ * Per location: removal, null, type swaps, boundary numbers, empty/blank/overlong strings and
+ * awkward Unicode, plus emptied containers.
+ */
+public final class JsonMutationEngine {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+    private static final JsonNode REMOVE = MissingNode.getInstance();
+
+    private static final List<JsonNode> BOUNDARY_NUMBERS = List.of(
+            NODES.numberNode(0),
+            NODES.numberNode(-1),
+            NODES.numberNode(Integer.MAX_VALUE),
+            NODES.numberNode((long) Integer.MAX_VALUE + 1),
+            NODES.numberNode((long) Integer.MIN_VALUE - 1),
+            NODES.numberNode(Long.MAX_VALUE),
+            NODES.numberNode(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE)),
+            NODES.numberNode(new BigDecimal("1.7976931348623157E309")),
+            NODES.numberNode(0.5),
+            NODES.numberNode(new BigDecimal("1E-400")));
+
+    private static final List<String> UNICODE_SAMPLES = List.of(
+            "\uD83D\uDE00\uD83D\uDC4D\uD83C\uDFFD",   // emoji with skin-tone modifier (surrogate pairs)
+            "\u202Eevil\u202C",                         // right-to-left override
+            "zero\u200Bwidth",                          // zero-width space
+            "e\u0301\u0301\u0301",                       // stacked combining marks
+            "\u0000nul",                                // embedded NUL
+            "\uFEFFbom",                                // byte order mark
+            "\u0627\u0644\u0639\u0631\u0628\u064A\u0629",   // Arabic
+            "\u4E2D\u6587\u6D4B\u8BD5");                 // CJK
+
+    private final int[] overlongLengths;
+
+    public JsonMutationEngine() {
+        this(256, 65_536);
+    }
+
+    /** @param overlongLengths lengths of the oversized strings substituted for string values */
+    public JsonMutationEngine(int... overlongLengths) {
+        this.overlongLengths = overlongLengths.clone();
+    }
+
+    public static class Mutation {
+        public final String kind;
+        public final String path;
+        public final String detail;
+        public final String body;
+
+        Mutation(String kind, String path, String detail, String body) {
+            this.kind = kind;
+            this.path = path;
+            this.detail = detail;
+            this.body = body;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + path + (detail == null ? "" : " (" + detail + ")");
+        }
+    }
+
+    /** Parses {@code json} and returns its mutations as a lazy, sequential stream. */
+    public Stream<Mutation> stream(String json) throws IOException {
+        return stream(MAPPER.readTree(json));
+    }
+
+    public Stream<Mutation> stream(JsonNode root) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(root),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    public Iterator<Mutation> iterator(JsonNode root) {
+        return new MutationIterator(root);
+    }
+
+    /** Body with the first top-level field removed, or null when {@code json} is not a non-empty object. */
+    public static String removeFirstField(String json) {
+        try {
+            JsonNode root = MAPPER.readTree(json);
+            if (root == null || !root.isObject() || root.isEmpty()) return null;
+            // The first field is node 1 in document order
+            return new Layout(root).splice(1, true, root.size() == 1, REMOVE);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** One place in the tree: the node, its parent, and whether it is the first/last entry there. */
+    private static final class Location {
+        final JsonNode node;
+        final JsonNode parent;
+        final boolean first;
+        final boolean last;
+        final String path;
+
+        Location(JsonNode node, JsonNode parent, boolean first, boolean last, String path) {
+            this.node = node;
+            this.parent = parent;
+            this.first = first;
+            this.last = last;
+            this.path = path;
+        }
+    }
+
+    /**
+     * The compact serialization of the original tree with the character span of every node,
+     * indexed in document (pre-)order. A mutation body is the original text with one span
+     * replaced or cut out, so nothing is re-serialized per mutation.
+     */
+    private static final class Layout {
+        final String text;
+        private int[] entryStart = new int[64];
+        private int[] valueStart = new int[64];
+        private int[] valueEnd = new int[64];
+        private int count;
+
+        Layout(JsonNode root) {
+            StringBuilder b = new StringBuilder();
+            append(b, root, 0);
+            this.text = b.toString();
+        }
+
+        private void append(StringBuilder b, JsonNode n, int entryPos) {
+            int id = count++;
+            if (id == entryStart.length) {
+                entryStart = Arrays.copyOf(entryStart, id * 2);
+                valueStart = Arrays.copyOf(valueStart, id * 2);
+                valueEnd = Arrays.copyOf(valueEnd, id * 2);
+            }
+            entryStart[id] = entryPos;
+            valueStart[id] = b.length();
+            if (n.isObject()) {
+                b.append('{');
+                Iterator<Map.Entry<String, JsonNode>> it = n.fields();
+                for (int i = 0; it.hasNext(); i++) {
+                    Map.Entry<String, JsonNode> e = it.next();
+                    if (i > 0) b.append(',');
+                    int keyPos = b.length();
+                    b.append(NODES.textNode(e.getKey())).append(':');
+                    append(b, e.getValue(), keyPos);
+                }
+                b.append('}');
+            } else if (n.isArray()) {
+                b.append('[');
+                for (int i = 0; i < n.size(); i++) {
+                    if (i > 0) b.append(',');
+                    append(b, n.get(i), b.length());
+                }
+                b.append(']');
+            } else {
+                b.append(n);
+            }
+            valueEnd[id] = b.length();
+        }
+
+        /** The text with node {@code id} replaced by {@code replacement}, or removed along with one adjoining comma. */
+        String splice(int id, boolean first, boolean last, JsonNode replacement) {
+            int from;
+            int to;
+            String insert;
+            if (replacement == REMOVE) {
+                from = entryStart[id];
+                to = valueEnd[id];
+                if (!first) from--;
+                else if (!last) to++;
+                insert = "";
+            } else {
+                from = valueStart[id];
+                to = valueEnd[id];
+                insert = replacement.toString();
+            }
+            return new StringBuilder(text.length() - (to - from) + insert.length())
+                    .append(text, 0, from).append(insert).append(text, to, text.length()).toString();
+        }
+    }
+
+    private static final class Op {
+        final String kind;
+        final String detail;
+        final JsonNode replacement;
+
+        Op(String kind, String detail, JsonNode replacement) {
+            this.kind = kind;
+            this.detail = detail;
+            this.replacement = replacement;
+        }
+    }
+
+    private final class MutationIterator implements Iterator<Mutation> {
+        private final JsonNode root;
+        private Layout layout;
+        private final Deque<Location> pending = new ArrayDeque<>();
+        private Location current;
+        private int currentId = -1;
+        private List<Op> ops = List.of();
+        private int opIndex;
+
+        MutationIterator(JsonNode root) {
+            this.root = root;
+            pending.push(new Location(root, null, true, true, "$"));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (opIndex >= ops.size()) {
+                if (pending.isEmpty()) return false;
+                // Stack order visits nodes in the same pre-order the layout numbered them
+                current = pending.pop();
+                currentId++;
+                ops = opsFor(current);
+                opIndex = 0;
+                pushChildren(current);
+            }
+            return true;
+        }
+
+        @Override
+        public Mutation next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            Op op = ops.get(opIndex++);
+            String body;
+            if (current.parent == null) {
+                body = writeNode(op.replacement);
+            } else {
+                if (layout == null) layout = new Layout(root);
+                body = layout.splice(currentId, current.first, current.last, op.replacement);
+            }
+            return new Mutation(op.kind, current.path, op.detail, body);
+        }
+
+        private void pushChildren(Location loc) {
+            JsonNode n = loc.node;
+            if (n.isObject()) {
+                List<Map.Entry<String, JsonNode>> fields = new ArrayList<>();
+                n.fields().forEachRemaining(fields::add);
+                // Reverse push keeps document order on the stack
+                for (int i = fields.size() - 1; i >= 0; i--) {
+                    Map.Entry<String, JsonNode> e = fields.get(i);
+                    pending.push(new Location(e.getValue(), n, i == 0, i == fields.size() - 1, childPath(loc.path, e.getKey())));
+                }
+            } else if (n.isArray()) {
+                for (int i = n.size() - 1; i >= 0; i--) {
+                    pending.push(new Location(n.get(i), n, i == 0, i == n.size() - 1, loc.path + "[" + i + "]"));
+                }
+            }
+        }
+    }
+
+    private List<Op> opsFor(Location loc) {
+        List<Op> ops = new ArrayList<>();
+        JsonNode n = loc.node;
+        if (loc.parent == null) {
+            ops.add(new Op("emptyBody", null, NODES.textNode("")));
+            if (!(n.isObject() && n.isEmpty())) ops.add(new Op("emptyObject", null, NODES.objectNode()));
+            if (n.isObject()) ops.add(new Op("typeSwap", "object -> array", NODES.arrayNode().add(n)));
+            if (n.isArray()) ops.add(new Op("typeSwap", "array -> object", NODES.objectNode()));
+            return ops;
+        }
+        ops.add(new Op(loc.parent.isObject() ? "removeField" : "removeElement", null, REMOVE));
+        if (!n.isNull()) ops.add(new Op("null", null, NODES.nullNode()));
+
+        if (n.isTextual()) {
+            ops.add(new Op("typeSwap", "string -> number", NODES.numberNode(0)));
+            ops.add(new Op("typeSwap", "string -> boolean", NODES.booleanNode(true)));
+            if (!n.textValue().isEmpty()) ops.add(new Op("emptyString", null, NODES.textNode("")));
+            ops.add(new Op("blankString", null, NODES.textNode("   ")));
+            for (int len : overlongLengths) {
+                ops.add(new Op("overlongString", len + " chars", NODES.textNode("A".repeat(Math.max(0, len)))));
+            }
+            for (String u : UNICODE_SAMPLES) {
+                ops.add(new Op("unicode", describeUnicode(u), NODES.textNode(u)));
+            }
+        } else if (n.isNumber()) {
+            ops.add(new Op("typeSwap", "number -> string", NODES.textNode(n.asText())));
+            ops.add(new Op("typeSwap", "number -> boolean", NODES.booleanNode(true)));
+            for (JsonNode boundary : BOUNDARY_NUMBERS) {
+                if (!boundary.equals(n)) ops.add(new Op("boundaryNumber", boundary.asText(), boundary));
+            }
+        } else if (n.isBoolean()) {
+            ops.add(new Op("typeSwap", "boolean -> string", NODES.textNode(n.asText())));
+            ops.add(new Op("typeSwap", "boolean -> number", NODES.numberNode(n.booleanValue() ? 1 : 0)));
+        } else if (n.isObject()) {
+            ops.add(new Op("typeSwap", "object -> array", NODES.arrayNode()));
+            ops.add(new Op("typeSwap", "object -> string", NODES.textNode(n.toString())));
+            if (!n.isEmpty()) ops.add(new Op("emptyObject", null, NODES.objectNode()));
+        } else if (n.isArray()) {
+            ops.add(new Op("typeSwap", "array -> object", NODES.objectNode()));
+            ops.add(new Op("typeSwap", "array -> string", NODES.textNode(n.toString())));
+            if (!n.isEmpty()) ops.add(new Op("emptyArray", null, NODES.arrayNode()));
+        } else if (n.isNull()) {
+            ops.add(new Op("typeSwap", "null -> string", NODES.textNode("null")));
+        }
+        return ops;
+    }
+
+    private static String describeUnicode(String s) {
+        StringBuilder b = new StringBuilder();
+        s.codePoints().limit(4).forEach(cp -> b.append(b.length() == 0 ? "" : " ").append(String.format("U+%04X", cp)));
+        return b.toString();
+    }
+
+    private static String childPath(String parent, String field) {
+        boolean simple = !field.isEmpty() && field.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '_');
+        return simple ? parent + "." + field : parent + "['" + field.replace("'", "\\'") + "']";
+    }
+
+    private static String writeNode(JsonNode node) {
+        if (node.isTextual() && node.textValue().isEmpty()) return "";
+        return node.toString();
+    }
+}
@@ -0,0 +1,30 @@
+package Madfoat.Learning.util;
+
+/**
+ * Reads numbers out of loosely typed request payloads, where a client may send {@code 5},
+ * {@code "5"}, {@code " 5 "} or nothing at all. A value that is missing, blank or unparsable
+ * yields the fallback rather than an error.
+ */
+public final class RequestParams {
+
+    private RequestParams() {
+    }
+
+    /** The value as an integer, or null when it is missing or not a number. */
+    public static Integer toInteger(Object value) {
+        if (value instanceof Number n) return n.intValue();
+        if (value == null || String.valueOf(value).isBlank()) return null;
+        try { return Integer.parseInt(String.valueOf(value).trim()); } catch (NumberFormatException ignored) { return null; }
+    }
+
+    public static int toInt(Object value, int fallback) {
+        Integer i = toInteger(value);
+        return i == null ? fallback : i;
+    }
+
+    public static double toDouble(Object value, double fallback) {
+        if (value instanceof Number n) return n.doubleValue();
+        if (value == null || String.valueOf(value).isBlank()) return fallback;
+        try { return Double.parseDouble(String.valueOf(value).trim()); } catch (NumberFormatException ignored) { return fallback; }
+    }
+}
@@ -0,0 +1,209 @@
+package Madfoat.Learning.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlackMessageFetcherTest {
+
+    // Channel C1 as Slack returns it, newest first; 1700000004 has a thread of five replies
+    private static final List<String> HISTORY = List.of(
+            "1700000007.000100", "1700000006.000100", "1700000005.000100", "1700000004.000100",
+            "1700000003.000100", "1700000002.000100", "1700000001.000100");
+    private static final String THREAD = "1700000004.000100";
+    private static final List<String> REPLIES = List.of(
+            "1700000004.000200", "1700000004.000300", "1700000004.000400", "1700000004.000500", "1700000004.000600");
+
+    private HttpServer server;
+    private String apiBase;
+    private final List<Map<String, String>> historyCalls = new CopyOnWriteArrayList<>();
+    private final List<Map<String, String>> replyCalls = new CopyOnWriteArrayList<>();
+    // Raw messages put at the top of the history, as the newest
+    private final List<String> extraHistory = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/conversations.history", ex -> {
+            Map<String, String> q = query(ex);
+            historyCalls.add(q);
+            if (!"Bearer xoxb-test".equals(ex.getRequestHeaders().getFirst("Authorization"))) {
+                respond(ex, "{\"ok\":false,\"error\":\"invalid_auth\"}");
+                return;
+            }
+            if (!"C1".equals(q.get("channel"))) {
+                respond(ex, "{\"ok\":false,\"error\":\"channel_not_found\"}");
+                return;
+            }
+            double oldest = q.containsKey("oldest") ? Double.parseDouble(q.get("oldest")) : 0;
+            List<String> messages = new ArrayList<>();
+            for (String ts : HISTORY) {
+                if (Double.parseDouble(ts) > oldest) {
+                    messages.add(message(ts, "note " + ts + " &lt;ok&gt; &amp; done", ts.equals(THREAD) ? REPLIES.size() : 0, null));
+                }
+            }
+            if (oldest == 0) messages.add(1, message("1700000006.500000", "joined", 0, "channel_join"));
+            messages.addAll(0, extraHistory);
+            respond(ex, page(messages, q));
+        });
+        server.createContext("/api/conversations.replies", ex -> {
+            Map<String, String> q = query(ex);
+            replyCalls.add(q);
+            List<String> messages = new ArrayList<>();
+            // Slack repeats the parent at the top of every thread
+            messages.add(message(THREAD, "parent", REPLIES.size(), null));
+            for (String ts : REPLIES) messages.add(message(ts, "reply " + ts, 0, null));
+            respond(ex, page(messages, q));
+        });
+        server.start();
+        apiBase = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/";
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+    }
+
+    @Test
+    void followsHistoryCursorAndDeliversOldestFirst() {
+        List<SlackMessageFetcher.Conversation> out = new ArrayList<>();
+        SlackMessageFetcher.Result result = fetcher(3).fetch("C1", null, 0, out::add);
+
+        assertEquals(3, historyCalls.size());
+        assertNull(historyCalls.get(0).get("cursor"));
+        assertEquals("off:3", historyCalls.get(1).get("cursor"));
+        assertEquals("off:6", historyCalls.get(2).get("cursor"));
+        assertEquals(7, result.messages);
+        List<String> delivered = out.stream().map(c -> c.parent.ts).toList();
+        List<String> expected = new ArrayList<>(HISTORY);
+        Collections.reverse(expected);
+        assertEquals(expected, delivered);
+        assertEquals("note 1700000001.000100 <ok> & done", out.get(0).parent.text);
+    }
+
+    @Test
+    void fetchesEveryReplyPageWithoutRepeatingTheParent() {
+        List<SlackMessageFetcher.Conversation> out = new ArrayList<>();
+        SlackMessageFetcher.Result result = fetcher(2).fetch("C1", null, 0, out::add);
+
+        assertEquals(3, replyCalls.size());
+        assertTrue(replyCalls.stream().allMatch(q -> THREAD.equals(q.get("ts"))));
+        assertEquals(1, result.threads);
+        assertEquals(5, result.replies);
+        SlackMessageFetcher.Conversation thread = out.stream().filter(c -> c.parent.ts.equals(THREAD)).findFirst().orElseThrow();
+        assertEquals(REPLIES, thread.replies.stream().map(m -> m.ts).toList());
+        assertEquals("5", SlackMessageFetcher.metadata(thread, "C1").get("replies"));
+        assertEquals("1700000004.000600", SlackMessageFetcher.metadata(thread, "C1").get("latest"));
+        assertTrue(out.stream().filter(c -> c != thread).allMatch(c -> c.replies.isEmpty()));
+    }
+
+    @Test
+    void sendsTheOldestWatermark() {
+        List<SlackMessageFetcher.Conversation> out = new ArrayList<>();
+        SlackMessageFetcher.Result result = fetcher(100).fetch("C1", "1700000005.000100", 0, out::add);
+
+        assertEquals("1700000005.000100", historyCalls.get(0).get("oldest"));
+        assertEquals(List.of("1700000006.000100", "1700000007.000100"), out.stream().map(c -> c.parent.ts).toList());
+        assertEquals(2, result.messages);
+        assertTrue(replyCalls.isEmpty());
+    }
+
+    @Test
+    void maxMessagesKeepsTheNewest() {
+        List<SlackMessageFetcher.Conversation> out = new ArrayList<>();
+        fetcher(2).fetch("C1", null, 3, out::add);
+
+        assertEquals(2, historyCalls.size());
+        assertEquals(List.of("1700000005.000100", "1700000006.000100", "1700000007.000100"),
+                out.stream().map(c -> c.parent.ts).toList());
+    }
+
+    @Test
+    void maxMessagesAfterTheWatermarkKeepsTheOldest() {
+        List<SlackMessageFetcher.Conversation> out = new ArrayList<>();
+        SlackMessageFetcher.Result result = fetcher(2).fetch("C1", "1700000002.000100", 2, out::add);
+
+        // Every page back to the watermark is read, and the next sync resumes after 1700000004
+        assertEquals(3, historyCalls.size());
+        assertEquals(List.of("1700000003.000100", "1700000004.000100"), out.stream().map(c -> c.parent.ts).toList());
+        assertEquals(2, result.messages);
+    }
+
+    @Test
+    void messagesWithoutANumericTsAreSkipped() {
+        extraHistory.add("{\"type\":\"message\",\"user\":\"U1\",\"ts\":\"not-a-ts\",\"text\":\"bad\"}");
+        extraHistory.add("{\"type\":\"message\",\"user\":\"U1\",\"text\":\"no ts\"}");
+        List<SlackMessageFetcher.Conversation> out = new ArrayList<>();
+        SlackMessageFetcher.Result result = fetcher(4).fetch("C1", null, 0, out::add);
+
+        assertEquals(7, result.messages);
+        List<String> expected = new ArrayList<>(HISTORY);
+        Collections.reverse(expected);
+        assertEquals(expected, out.stream().map(c -> c.parent.ts).toList());
+    }
+
+    @Test
+    void okFalseFailsWithSlacksError() {
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> fetcher(10).fetch("C404", null, 0, c -> fail("nothing should be delivered")));
+        assertTrue(e.getMessage().contains("channel_not_found"), e.getMessage());
+
+        SlackMessageFetcher badToken = new SlackMessageFetcher(WebClient.create(), apiBase, "xoxb-wrong", 10, 2);
+        e = assertThrows(IllegalStateException.class, () -> badToken.fetch("C1", null, 0, c -> { }));
+        assertTrue(e.getMessage().contains("invalid_auth"), e.getMessage());
+    }
+
+    private SlackMessageFetcher fetcher(int pageSize) {
+        return new SlackMessageFetcher(WebClient.create(), apiBase, "xoxb-test", pageSize, 2);
+    }
+
+    private static String message(String ts, String text, int replyCount, String subtype) {
+        return "{\"type\":\"message\",\"user\":\"U1\",\"ts\":\"" + ts + "\",\"text\":\"" + text + "\""
+                + (replyCount > 0 ? ",\"thread_ts\":\"" + ts + "\",\"reply_count\":" + replyCount : "")
+                + (subtype != null ? ",\"subtype\":\"" + subtype + "\"" : "") + "}";
+    }
+
+    /** One page of {@code messages} at the offset named by the cursor. */
+    private static String page(List<String> messages, Map<String, String> q) {
+        int start = q.containsKey("cursor") ? Integer.parseInt(q.get("cursor").substring(4)) : 0;
+        int end = Math.min(messages.size(), start + Integer.parseInt(q.get("limit")));
+        String next = end < messages.size() ? "off:" + end : "";
+        return "{\"ok\":true,\"messages\":[" + String.join(",", messages.subList(start, end))
+                + "],\"has_more\":" + !next.isEmpty() + ",\"response_metadata\":{\"next_cursor\":\"" + next + "\"}}";
+    }
+
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> q = new HashMap<>();
+        for (String kv : ex.getRequestURI().getRawQuery().split("&")) {
+            int eq = kv.indexOf('=');
+            q.put(kv.substring(0, eq), URLDecoder.decode(kv.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return q;
+    }
+
+    private static void respond(HttpExchange ex, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", "application/json");
+        ex.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
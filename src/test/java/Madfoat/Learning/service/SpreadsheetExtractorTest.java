@@ -0,0 +1,117 @@
+package Madfoat.Learning.service;
+
+import org.dhatim.fastexcel.Workbook;
+import org.dhatim.fastexcel.Worksheet;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpreadsheetExtractorTest {
+
+    // Sheet name and data rows below the header; "Empty" has no rows at all
+    private static final Map<String, Integer> SHEETS = Map.of("Orders", 40_000, "Customers", 12_345, "Notes", 1, "Empty", -1);
+    private static final List<String> ORDER = List.of("Orders", "Customers", "Notes", "Empty");
+    private static final String HEADER = "| Id | Name | Amount | Comment |\n| --- | --- | --- | --- |\n";
+    private static final int MAX_CHARS = 64 * 1024;
+
+    @TempDir
+    static Path dir;
+
+    private static File workbook;
+
+    @BeforeAll
+    static void writeWorkbook() throws IOException {
+        workbook = dir.resolve("large.xlsx").toFile();
+        try (OutputStream out = Files.newOutputStream(workbook.toPath())) {
+            Workbook wb = new Workbook(out, "SpreadsheetExtractorTest", "1.0");
+            for (String name : ORDER) {
+                Worksheet ws = wb.newWorksheet(name);
+                int rows = SHEETS.get(name);
+                if (rows < 0) continue;
+                ws.value(0, 0, "Id");
+                ws.value(0, 1, "Name");
+                ws.value(0, 2, "Amount");
+                ws.value(0, 3, "Comment");
+                for (int r = 1; r <= rows; r++) {
+                    ws.value(r, 0, r);
+                    ws.value(r, 1, name + "-" + r);
+                    ws.value(r, 2, r * 0.5);
+                    // Every seventh row leaves the last cell empty, so short rows are padded
+                    if (r % 7 != 0) ws.value(r, 3, "comment " + (r % 100));
+                    if (r % 1000 == 0) ws.flush();
+                }
+                ws.finish();
+            }
+            wb.finish();
+        }
+    }
+
+    @Test
+    void everySheetIsReadInWorkbookOrderWithItsRowCount() throws IOException {
+        List<SpreadsheetExtractor.SheetSummary> summaries = SpreadsheetExtractor.extract(workbook, 1, MAX_CHARS, p -> { });
+
+        assertEquals(ORDER, summaries.stream().map(s -> s.name).toList());
+        assertEquals(40_000, summaries.get(0).rows);
+        assertEquals(12_345, summaries.get(1).rows);
+        assertEquals(1, summaries.get(2).rows);
+        assertEquals(0, summaries.get(3).rows);
+        assertEquals(0, summaries.get(3).parts);
+    }
+
+    @Test
+    void longSheetsAreSplitIntoPartsThatEachRepeatTheHeaderAndStayUnderTheLimit() throws IOException {
+        List<SpreadsheetExtractor.Part> parts = new CopyOnWriteArrayList<>();
+        List<SpreadsheetExtractor.SheetSummary> summaries = SpreadsheetExtractor.extract(workbook, 1, MAX_CHARS, parts::add);
+
+        for (SpreadsheetExtractor.SheetSummary s : summaries) {
+            List<SpreadsheetExtractor.Part> ofSheet = parts.stream().filter(p -> p.sheet.equals(s.name)).toList();
+            assertEquals(s.parts, ofSheet.size(), s.name);
+            int expectedFirst = 1;
+            int rows = 0;
+            for (int i = 0; i < ofSheet.size(); i++) {
+                SpreadsheetExtractor.Part p = ofSheet.get(i);
+                assertEquals(i + 1, p.number, s.name);
+                assertEquals(expectedFirst, p.firstRow, s.name);
+                assertEquals(ORDER.size(), p.sheets);
+                assertEquals(ofSheet.size() > 1, p.split, s.name);
+                assertTrue(p.markdown.startsWith(HEADER), s.name);
+                assertTrue(p.markdown.length() <= MAX_CHARS, s.name + " part " + p.number + " has " + p.markdown.length() + " chars");
+                assertEquals(p.rows, p.markdown.split("\n").length - 2, s.name);
+                expectedFirst += p.rows;
+                rows += p.rows;
+            }
+            assertEquals(s.rows, rows, s.name);
+        }
+        assertTrue(summaries.get(0).parts > 10, "Orders should need many parts, got " + summaries.get(0).parts);
+        assertEquals(1, summaries.get(2).parts);
+
+        SpreadsheetExtractor.Part first = parts.get(0);
+        assertTrue(first.markdown.contains("| 1 | Orders-1 | 0.5 | comment 1 |\n"), first.markdown.substring(0, 200));
+        assertTrue(first.markdown.contains("| 7 | Orders-7 | 3.5 |  |\n"));
+    }
+
+    @Test
+    void parallelWorkersProduceTheSamePartsAsOne() throws IOException {
+        Map<String, String> sequential = new TreeMap<>();
+        SpreadsheetExtractor.extract(workbook, 1, MAX_CHARS, p -> sequential.put(p.sheet + "#" + p.number, p.markdown));
+        Map<String, String> parallel = new ConcurrentHashMap<>();
+        List<SpreadsheetExtractor.SheetSummary> summaries = SpreadsheetExtractor.extract(workbook, 4, MAX_CHARS,
+                p -> assertNull(parallel.put(p.sheet + "#" + p.number, p.markdown)));
+
+        assertEquals(ORDER, summaries.stream().map(s -> s.name).toList());
+        assertEquals(sequential, new TreeMap<>(parallel));
+    }
+}
@@ -0,0 +1,219 @@
+package Madfoat.Learning.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Generated commands: every argument is quoted with a random mix of bash styles and the words are
+ * split by spaces, tabs and line continuations, so the parser has to undo exactly what the
+ * generator did. Seeds are fixed; a failure message names the one to replay.
+ */
+class CurlParserPropertyTest {
+
+    private static final int RUNS = 3000;
+
+    // Quotes, escapes and shell metacharacters, with some multi-byte text and an emoji
+    private static final String[] ALPHABET = {
+            "a", "b", "Z", "0", "9", "-", "_", ".", "/", ":", ";", "=", "&", "?", "%", ",", "{", "}", "[", "]",
+            " ", "\t", "\n", "'", "\"", "\\", "$", "`", "!", "#", "*", "@", "^", "é", "漢", "😀"};
+    private static final String[] METHODS = {"GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS"};
+    private static final String[] SEPARATORS = {" ", "  ", "\t", " \\\n  ", " \\\r\n\t", "\\\n "};
+
+    @Test
+    void generatedCommandsParseToWhatWasQuoted() {
+        for (int run = 0; run < RUNS; run++) {
+            Random rnd = new Random(run);
+            String method = rnd.nextInt(3) == 0 ? METHODS[rnd.nextInt(METHODS.length)] : null;
+            String url = "https://api" + rnd.nextInt(10) + ".example.test/" + text(rnd, 0, 12, "abc/-_.~?=&%");
+            Map<String, String> headers = new LinkedHashMap<>();
+            List<String> data = new ArrayList<>();
+
+            List<String> args = new ArrayList<>();
+            if (method != null) {
+                switch (rnd.nextInt(3)) {
+                    case 0 -> args.add("-X" + method);
+                    case 1 -> { args.add("-X"); args.add(quote(rnd, method)); }
+                    default -> { args.add("--request"); args.add(quote(rnd, method)); }
+                }
+            }
+            int options = rnd.nextInt(7);
+            int urlAt = rnd.nextInt(options + 1);
+            for (int i = 0; i <= options; i++) {
+                if (i == urlAt) {
+                    if (rnd.nextBoolean()) args.add(quote(rnd, url));
+                    else { args.add("--url"); args.add(quote(rnd, url)); }
+                }
+                if (i == options) break;
+                if (rnd.nextBoolean()) {
+                    String name = "X-" + text(rnd, 1, 6, "abcXYZ019") + "-" + i;
+                    String value = text(rnd, 1, 24, null);
+                    if (value.trim().isEmpty()) value = "v" + value;
+                    headers.put(name, value.trim());
+                    args.add(rnd.nextBoolean() ? "-H" : "--header");
+                    args.add(quote(rnd, name + ":" + (rnd.nextBoolean() ? " " : "") + value));
+                } else {
+                    String piece = text(rnd, 0, 40, null);
+                    String option = new String[] {"-d", "--data", "--data-raw", "--data-binary"}[rnd.nextInt(4)];
+                    // The data options other than --data-raw read "@name" as a file
+                    if (!option.equals("--data-raw") && piece.startsWith("@")) piece = "x" + piece;
+                    data.add(piece);
+                    args.add(option);
+                    args.add(quote(rnd, piece));
+                }
+            }
+
+            StringBuilder command = new StringBuilder("curl");
+            for (String a : args) command.append(SEPARATORS[rnd.nextInt(SEPARATORS.length)]).append(a);
+            String c = command.toString();
+
+            CurlParser.ParsedCurl parsed = assertDoesNotThrow(() -> CurlParser.parse(c), "seed " + run);
+            String body = joined(data);
+            String expectedMethod = method != null ? method : body != null ? "POST" : "GET";
+            assertEquals(url, parsed.url, "seed " + run + ": " + c);
+            assertEquals(headers, parsed.headers, "seed " + run + ": " + c);
+            assertEquals(body, parsed.body, "seed " + run + ": " + c);
+            assertEquals(expectedMethod, parsed.method, "seed " + run + ": " + c);
+            assertTrue(parsed.fileReferences.isEmpty(), "seed " + run + ": " + c);
+        }
+    }
+
+    @Test
+    void formattedCommandsReadBackAndFormatTheSame() {
+        for (int run = 0; run < RUNS; run++) {
+            Random rnd = new Random(run);
+            String method = METHODS[rnd.nextInt(METHODS.length)];
+            String url = "https://h.example.test/" + text(rnd, 0, 20, null).replace(" ", "%20");
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (int i = rnd.nextInt(5); i > 0; i--) {
+                headers.put("H" + i + text(rnd, 0, 4, "abc-"), rnd.nextInt(5) == 0 ? "" : "v" + text(rnd, 0, 30, null).trim());
+            }
+            String body = rnd.nextInt(4) == 0 ? null : text(rnd, 0, 60, null);
+
+            String command = CurlParser.format(method, url, headers, body);
+            CurlParser.ParsedCurl parsed = CurlParser.parse(command);
+
+            assertEquals(method, parsed.method, "seed " + run);
+            assertEquals(url, parsed.url, "seed " + run);
+            assertEquals(headers, parsed.headers, "seed " + run);
+            assertEquals(body, parsed.body, "seed " + run);
+            assertEquals(command, CurlParser.format(parsed.method, parsed.url, parsed.headers, parsed.body), "seed " + run);
+        }
+    }
+
+    @Test
+    void truncatedAndScrambledCommandsDoNotThrow() {
+        String[] pieces = {"curl", "curl.exe", " ", "\\\n", "\r\n", "^", "^\"", "^\r\n", "'", "\"", "$'", "\\x", "\\u12",
+                "\\U0010FFFF", "\\c", "\\0", "-H", "-d", "-X", "-F", "--data-urlencode", "--json", "--url-query", "-G",
+                "-u", "-b", "@", "=", "a=b", "@f", "<f", ";type=", "--", "#", "{{x}}", "http://h/", "😀"};
+        for (int run = 0; run < RUNS; run++) {
+            Random rnd = new Random(run);
+            StringBuilder b = new StringBuilder();
+            for (int i = rnd.nextInt(30); i > 0; i--) b.append(pieces[rnd.nextInt(pieces.length)]);
+            String c = b.toString();
+            assertDoesNotThrow(() -> CurlParser.parse(c), "seed " + run + ": " + c);
+            int cut = c.isEmpty() ? 0 : rnd.nextInt(c.length());
+            assertDoesNotThrow(() -> CurlParser.parse(c.substring(0, cut)), "seed " + run + " cut " + cut);
+        }
+    }
+
+    /** Random text from {@code chars}, or from {@link #ALPHABET} when null. */
+    private static String text(Random rnd, int min, int max, String chars) {
+        StringBuilder b = new StringBuilder();
+        for (int i = min + rnd.nextInt(max - min + 1); i > 0; i--) {
+            if (chars == null) b.append(ALPHABET[rnd.nextInt(ALPHABET.length)]);
+            else b.append(chars.charAt(rnd.nextInt(chars.length())));
+        }
+        return b.toString();
+    }
+
+    /** Curl's joining of several data options: '&' between pieces, none next to an empty one at the start. */
+    private static String joined(List<String> data) {
+        if (data.isEmpty()) return null;
+        StringBuilder b = new StringBuilder(data.get(0));
+        for (String piece : data.subList(1, data.size())) {
+            if (!piece.isEmpty() && b.length() > 0) b.append('&');
+            b.append(piece);
+        }
+        return b.toString();
+    }
+
+    /** One shell word that bash reads back as {@code s}: consecutive segments, each quoted its own way. */
+    private static String quote(Random rnd, String s) {
+        if (s.isEmpty()) return rnd.nextBoolean() ? "''" : "\"\"";
+        StringBuilder word = new StringBuilder();
+        int i = 0;
+        while (i < s.length()) {
+            int j = Math.min(s.length(), i + 1 + rnd.nextInt(8));
+            if (j < s.length() && Character.isLowSurrogate(s.charAt(j))) j++;
+            String seg = s.substring(i, j);
+            String prev = word.toString();
+            String quoted = switch (rnd.nextInt(5)) {
+                case 0 -> single(seg);
+                case 1 -> doubleQuoted(seg);
+                case 2 -> ansiC(seg);
+                case 3 -> escaped(seg);
+                default -> plain(seg, i == 0);
+            };
+            // "$" followed by a quote would start an ANSI-C string
+            if (prev.endsWith("$") && quoted.startsWith("'")) quoted = doubleQuoted(seg);
+            word.append(quoted);
+            i = j;
+        }
+        return word.toString();
+    }
+
+    private static String single(String seg) {
+        return seg.indexOf('\'') >= 0 ? doubleQuoted(seg) : "'" + seg + "'";
+    }
+
+    private static String doubleQuoted(String seg) {
+        StringBuilder b = new StringBuilder("\"");
+        for (char c : seg.toCharArray()) {
+            if (c == '\\' || c == '"' || c == '$' || c == '`') b.append('\\');
+            b.append(c);
+        }
+        return b.append('"').toString();
+    }
+
+    private static String ansiC(String seg) {
+        StringBuilder b = new StringBuilder("$'");
+        for (char c : seg.toCharArray()) {
+            switch (c) {
+                case '\\' -> b.append("\\\\");
+                case '\'' -> b.append("\\'");
+                case '\n' -> b.append("\\n");
+                case '\t' -> b.append("\\t");
+                default -> {
+                    if (c < 0x20) b.append(String.format("\\x%02x", (int) c));
+                    else if (c > 0x7f && !Character.isSurrogate(c)) b.append(String.format("\\u%04x", (int) c));
+                    else b.append(c);
+                }
+            }
+        }
+        return b.append('\'').toString();
+    }
+
+    /** Backslash before every character; a line break cannot be escaped that way, so it is quoted. */
+    private static String escaped(String seg) {
+        StringBuilder b = new StringBuilder();
+        for (char c : seg.toCharArray()) {
+            if (c == '\n' || c == '\r') b.append('\'').append(c).append('\'');
+            else b.append('\\').append(c);
+        }
+        return b.toString();
+    }
+
+    private static String plain(String seg, boolean startsWord) {
+        for (char c : seg.toCharArray()) {
+            if (" \t\n\r\f'\"\\$".indexOf(c) >= 0) return single(seg);
+        }
+        return startsWord && seg.startsWith("#") ? single(seg) : seg;
+    }
+}
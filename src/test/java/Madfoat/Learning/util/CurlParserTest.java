@@ -0,0 +1,155 @@
+package Madfoat.Learning.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CurlParserTest {
+
+    @Test
+    void chromeBashExport() {
+        String command = "curl 'https://shop.example.com/api/cart/items?lang=en&currency=EUR' \\\n"
+                + "  -H 'accept: application/json, text/plain, */*' \\\n"
+                + "  -H 'content-type: application/json' \\\n"
+                + "  -H 'cookie: session=abc123; theme=dark' \\\n"
+                + "  -H 'user-agent: Mozilla/5.0 (X11; Linux x86_64)' \\\n"
+                + "  --data-raw $'{\"sku\":\"A-1\",\"note\":\"it\\'s a gift\"}' \\\n"
+                + "  --compressed";
+
+        CurlParser.ParsedCurl parsed = CurlParser.parse(command);
+
+        assertEquals("POST", parsed.method);
+        assertEquals("https://shop.example.com/api/cart/items?lang=en&currency=EUR", parsed.url);
+        assertEquals("application/json, text/plain, */*", parsed.headers.get("accept"));
+        assertEquals("session=abc123; theme=dark", parsed.headers.get("cookie"));
+        assertEquals("Mozilla/5.0 (X11; Linux x86_64)", parsed.headers.get("user-agent"));
+        assertEquals("{\"sku\":\"A-1\",\"note\":\"it's a gift\"}", parsed.body);
+        assertTrue(parsed.compressed);
+        assertEquals("deflate, gzip", parsed.headers.get("Accept-Encoding"));
+    }
+
+    @Test
+    void chromeCmdExport() {
+        String command = "curl ^\"https://shop.example.com/api/cart/items?lang=en^&currency=EUR^\" ^\r\n"
+                + "  -H ^\"accept: application/json^\" ^\r\n"
+                + "  -H ^\"content-type: application/json^\" ^\r\n"
+                + "  --data-raw ^\"^{^\\^\"sku^\\^\":^\\^\"A-1^\\^\",^\\^\"qty^\\^\":2^}^\" ^\r\n"
+                + "  --compressed";
+
+        CurlParser.ParsedCurl parsed = CurlParser.parse(command);
+
+        assertEquals("POST", parsed.method);
+        assertEquals("https://shop.example.com/api/cart/items?lang=en&currency=EUR", parsed.url);
+        assertEquals("application/json", parsed.headers.get("accept"));
+        assertEquals("application/json", parsed.headers.get("content-type"));
+        assertEquals("{\"sku\":\"A-1\",\"qty\":2}", parsed.body);
+        assertTrue(parsed.compressed);
+    }
+
+    @Test
+    void postmanExport() {
+        String command = "curl --location --request PUT 'https://api.example.com/v1/orders/42' \\\n"
+                + "--header 'Content-Type: application/json' \\\n"
+                + "--header 'Authorization: Bearer eyJhbGciOi.J9' \\\n"
+                + "--data '{\n"
+                + "    \"status\": \"shipped\"\n"
+                + "}'";
+
+        CurlParser.ParsedCurl parsed = CurlParser.parse(command);
+
+        assertEquals("PUT", parsed.method);
+        assertEquals("https://api.example.com/v1/orders/42", parsed.url);
+        assertEquals("Bearer eyJhbGciOi.J9", parsed.headers.get("Authorization"));
+        assertEquals("{\n    \"status\": \"shipped\"\n}", parsed.body);
+    }
+
+    @Test
+    void postmanFormExportRecordsFilesWithoutReadingThem() {
+        String command = "curl --location 'https://api.example.com/v1/upload' \\\n"
+                + "--form 'title=\"Invoice\"' \\\n"
+                + "--form 'file=@\"/home/qa/invoice.pdf\"'";
+
+        CurlParser.ParsedCurl parsed = CurlParser.parse(command);
+
+        assertEquals("POST", parsed.method);
+        assertTrue(parsed.headers.get("Content-Type").startsWith("multipart/form-data; boundary="));
+        assertTrue(parsed.body.contains("Content-Disposition: form-data; name=\"title\""));
+        assertEquals(List.of("\"/home/qa/invoice.pdf\""), parsed.fileReferences);
+    }
+
+    @Test
+    void shortOptionsAndTransportArguments() {
+        String command = "curl -sSL -XDELETE -u qa:secret --max-time 5 -o /dev/null example.com/items/7";
+
+        CurlParser.ParsedCurl parsed = CurlParser.parse(command);
+
+        assertEquals("DELETE", parsed.method);
+        assertEquals("http://example.com/items/7", parsed.url);
+        String expected = "Basic " + Base64.getEncoder().encodeToString("qa:secret".getBytes(StandardCharsets.UTF_8));
+        assertEquals(expected, parsed.headers.get("Authorization"));
+        assertNull(parsed.body);
+    }
+
+    @Test
+    void getMovesDataIntoTheQuery() {
+        CurlParser.ParsedCurl parsed = CurlParser.parse("curl -G https://api.example.com/search -d q=shoes --data-urlencode 'tag=red & blue'");
+
+        assertEquals("GET", parsed.method);
+        assertEquals("https://api.example.com/search?q=shoes&tag=red%20%26%20blue", parsed.url);
+        assertNull(parsed.body);
+    }
+
+    @Test
+    void headerEditing() {
+        CurlParser.ParsedCurl parsed = CurlParser.parse("curl https://x.test -H 'Accept: text/html' -H 'accept:' -H 'X-Empty;'");
+
+        assertFalse(parsed.headers.containsKey("Accept"));
+        assertFalse(parsed.headers.containsKey("accept"));
+        assertEquals("", parsed.headers.get("X-Empty"));
+    }
+
+    @Test
+    void dataFileIsRecordedNotRead() {
+        CurlParser.ParsedCurl parsed = CurlParser.parse("curl https://x.test -d @/etc/passwd");
+
+        assertEquals("", parsed.body);
+        assertEquals(List.of("/etc/passwd"), parsed.fileReferences);
+    }
+
+    @Test
+    void templatedUrlIsKept() {
+        assertEquals("{{baseUrl}}/users", CurlParser.parse("curl '{{baseUrl}}/users'").url);
+    }
+
+    @Test
+    void formatRoundTrip() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("X-Note", "it's \"quoted\" & $HOME");
+        headers.put("X-Empty", "");
+        String body = "@{\"name\":\"O'Brien\",\"lines\":\"a\\nb\"}\n";
+        String url = "https://api.example.com/users?page=2&limit=10";
+
+        String command = CurlParser.format("PATCH", url, headers, body);
+        CurlParser.ParsedCurl parsed = CurlParser.parse(command);
+
+        assertEquals("PATCH", parsed.method);
+        assertEquals(url, parsed.url);
+        assertEquals(headers, parsed.headers);
+        assertEquals(body, parsed.body);
+        assertTrue(parsed.fileReferences.isEmpty());
+    }
+
+    @Test
+    void malformedInputDoesNotThrow() {
+        for (String command : new String[] {null, "", "curl", "curl -H", "curl 'unterminated", "curl \"a\\", "curl $'\\x", "curl ^\"x^"}) {
+            assertDoesNotThrow(() -> CurlParser.parse(command), String.valueOf(command));
+        }
+    }
+}